@@ -50,9 +50,7 @@ import org.jdiameter.api.AvpDataException;
 import org.jdiameter.api.Request;
 import org.jdiameter.api.cca.ClientCCASession;
 import org.jdiameter.client.api.IContainer;
-import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.parser.IMessageParser;
-import org.jdiameter.client.api.parser.ParseException;
 import org.jdiameter.client.impl.app.cca.IClientCCASessionData;
 import org.jdiameter.common.api.app.cca.ClientCCASessionState;
 import org.restcomm.cluster.MobicentsCluster;
@@ -96,6 +94,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
     }
 
     this.messageParser = container.getAssemblerFacility().getComponentInstance(IMessageParser.class);
+    setMessageParser(this.messageParser);
   }
 
   /**
@@ -113,7 +112,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public boolean isEventBased() {
     if (exists()) {
-      return toPrimitive((Boolean) getNodeValue(EVENT_BASED), true);
+      return toPrimitive((Boolean) getFieldValue(EVENT_BASED), true);
     }
     else {
       throw new IllegalStateException();
@@ -123,7 +122,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setEventBased(boolean isEventBased) {
     if (exists()) {
-      putNodeValue(EVENT_BASED, isEventBased);
+      putFieldValue(EVENT_BASED, isEventBased);
     }
     else {
       throw new IllegalStateException();
@@ -133,7 +132,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public boolean isRequestTypeSet() {
     if (exists()) {
-      return toPrimitive((Boolean) getNodeValue(REQUEST_TYPE), false);
+      return toPrimitive((Boolean) getFieldValue(REQUEST_TYPE), false);
     }
     else {
       throw new IllegalStateException();
@@ -143,7 +142,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setRequestTypeSet(boolean requestTypeSet) {
     if (exists()) {
-      putNodeValue(REQUEST_TYPE, requestTypeSet);
+      putFieldValue(REQUEST_TYPE, requestTypeSet);
     }
     else {
       throw new IllegalStateException();
@@ -153,7 +152,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public ClientCCASessionState getClientCCASessionState() {
     if (exists()) {
-      return (ClientCCASessionState) getNodeValue(STATE);
+      return (ClientCCASessionState) getFieldValue(STATE);
     }
     else {
       throw new IllegalStateException();
@@ -163,7 +162,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setClientCCASessionState(ClientCCASessionState state) {
     if (exists()) {
-      putNodeValue(STATE, state);
+      putFieldValue(STATE, state);
     }
     else {
       throw new IllegalStateException();
@@ -173,7 +172,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public Serializable getTxTimerId() {
     if (exists()) {
-      return (Serializable) getNodeValue(TXTIMER_ID);
+      return (Serializable) getFieldValue(TXTIMER_ID);
     }
     else {
       throw new IllegalStateException();
@@ -183,7 +182,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setTxTimerId(Serializable txTimerId) {
     if (exists()) {
-      putNodeValue(TXTIMER_ID, txTimerId);
+      putFieldValue(TXTIMER_ID, txTimerId);
     }
     else {
       throw new IllegalStateException();
@@ -194,10 +193,14 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   public Request getTxTimerRequest() {
     if (exists()) {
 
-      byte[] data = (byte[]) getNodeValue(TXTIMER_REQUEST);
-      if (data != null) {
+      Object data = getFieldValue(TXTIMER_REQUEST);
+      if (data instanceof Request) {
+        // changed, not written to the cache yet
+        return (Request) data;
+      }
+      else if (data != null) {
         try {
-          return this.messageParser.createMessage(ByteBuffer.wrap(data));
+          return this.messageParser.createMessage(ByteBuffer.wrap((byte[]) data));
         }
         catch (AvpDataException e) {
           logger.error("Unable to recreate Tx Timer Request from buffer.");
@@ -217,16 +220,10 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   public void setTxTimerRequest(Request txTimerRequest) {
     if (exists()) {
       if (txTimerRequest != null) {
-        try {
-          byte[] data = this.messageParser.encodeMessage((IMessage) txTimerRequest).array();
-          putNodeValue(TXTIMER_REQUEST, data);
-        }
-        catch (ParseException e) {
-          logger.error("Unable to encode Tx Timer Request to buffer.");
-        }
+        putFieldValue(TXTIMER_REQUEST, txTimerRequest);
       }
       else {
-        removeNodeValue(TXTIMER_REQUEST);
+        removeFieldValue(TXTIMER_REQUEST);
       }
     }
     else {
@@ -236,10 +233,14 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
 
   @Override
   public Request getBuffer() {
-    byte[] data = (byte[]) getNodeValue(BUFFER);
-    if (data != null) {
+    Object data = getFieldValue(BUFFER);
+    if (data instanceof Request) {
+      // changed, not written to the cache yet
+      return (Request) data;
+    }
+    else if (data != null) {
       try {
-        return this.messageParser.createMessage(ByteBuffer.wrap(data));
+        return this.messageParser.createMessage(ByteBuffer.wrap((byte[]) data));
       }
       catch (AvpDataException e) {
         logger.error("Unable to recreate message from buffer.");
@@ -254,23 +255,17 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setBuffer(Request buffer) {
     if (buffer != null) {
-      try {
-        byte[] data = this.messageParser.encodeMessage((IMessage) buffer).array();
-        putNodeValue(BUFFER, data);
-      }
-      catch (ParseException e) {
-        logger.error("Unable to encode message to buffer.");
-      }
+      putFieldValue(BUFFER, buffer);
     }
     else {
-      removeNodeValue(BUFFER);
+      removeFieldValue(BUFFER);
     }
   }
 
   @Override
   public int getGatheredRequestedAction() {
     if (exists()) {
-      return toPrimitive((Integer) getNodeValue(GRA));
+      return toPrimitive((Integer) getFieldValue(GRA));
     }
     else {
       throw new IllegalStateException();
@@ -280,7 +275,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setGatheredRequestedAction(int gatheredRequestedAction) {
     if (exists()) {
-      putNodeValue(GRA, gatheredRequestedAction);
+      putFieldValue(GRA, gatheredRequestedAction);
     }
     else {
       throw new IllegalStateException();
@@ -290,7 +285,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public int getGatheredCCFH() {
     if (exists()) {
-      return toPrimitive((Integer) getNodeValue(GCCFH));
+      return toPrimitive((Integer) getFieldValue(GCCFH));
     }
     else {
       throw new IllegalStateException();
@@ -300,7 +295,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setGatheredCCFH(int gatheredCCFH) {
     if (exists()) {
-      putNodeValue(GCCFH, gatheredCCFH);
+      putFieldValue(GCCFH, gatheredCCFH);
     }
     else {
       throw new IllegalStateException();
@@ -310,7 +305,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public int getGatheredDDFH() {
     if (exists()) {
-      return toPrimitive((Integer) getNodeValue(GDDFH));
+      return toPrimitive((Integer) getFieldValue(GDDFH));
     }
     else {
       throw new IllegalStateException();
@@ -320,7 +315,7 @@ public class ClientCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setGatheredDDFH(int gatheredDDFH) {
     if (exists()) {
-      putNodeValue(GDDFH, gatheredDDFH);
+      putFieldValue(GDDFH, gatheredDDFH);
     }
     else {
       throw new IllegalStateException();
@@ -50,9 +50,7 @@ import org.jdiameter.api.AvpDataException;
 import org.jdiameter.api.Request;
 import org.jdiameter.api.ro.ClientRoSession;
 import org.jdiameter.client.api.IContainer;
-import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.parser.IMessageParser;
-import org.jdiameter.client.api.parser.ParseException;
 import org.jdiameter.client.impl.app.ro.IClientRoSessionData;
 import org.jdiameter.common.api.app.ro.ClientRoSessionState;
 import org.restcomm.cluster.MobicentsCluster;
@@ -96,6 +94,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
     }
 
     this.messageParser = container.getAssemblerFacility().getComponentInstance(IMessageParser.class);
+    setMessageParser(this.messageParser);
   }
 
   /**
@@ -113,7 +112,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public boolean isEventBased() {
     if (exists()) {
-      return toPrimitive((Boolean) getNodeValue(EVENT_BASED), true);
+      return toPrimitive((Boolean) getFieldValue(EVENT_BASED), true);
     }
     else {
       throw new IllegalStateException();
@@ -123,7 +122,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public void setEventBased(boolean isEventBased) {
     if (exists()) {
-      putNodeValue(EVENT_BASED, isEventBased);
+      putFieldValue(EVENT_BASED, isEventBased);
     }
     else {
       throw new IllegalStateException();
@@ -133,7 +132,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public boolean isRequestTypeSet() {
     if (exists()) {
-      return toPrimitive((Boolean) getNodeValue(REQUEST_TYPE), false);
+      return toPrimitive((Boolean) getFieldValue(REQUEST_TYPE), false);
     }
     else {
       throw new IllegalStateException();
@@ -143,7 +142,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public void setRequestTypeSet(boolean requestTypeSet) {
     if (exists()) {
-      putNodeValue(REQUEST_TYPE, requestTypeSet);
+      putFieldValue(REQUEST_TYPE, requestTypeSet);
     }
     else {
       throw new IllegalStateException();
@@ -153,7 +152,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public ClientRoSessionState getClientRoSessionState() {
     if (exists()) {
-      return (ClientRoSessionState) getNodeValue(STATE);
+      return (ClientRoSessionState) getFieldValue(STATE);
     }
     else {
       throw new IllegalStateException();
@@ -163,7 +162,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public void setClientRoSessionState(ClientRoSessionState state) {
     if (exists()) {
-      putNodeValue(STATE, state);
+      putFieldValue(STATE, state);
     }
     else {
       throw new IllegalStateException();
@@ -173,7 +172,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public Serializable getTxTimerId() {
     if (exists()) {
-      return (Serializable) getNodeValue(TXTIMER_ID);
+      return (Serializable) getFieldValue(TXTIMER_ID);
     }
     else {
       throw new IllegalStateException();
@@ -183,7 +182,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public void setTxTimerId(Serializable txTimerId) {
     if (exists()) {
-      putNodeValue(TXTIMER_ID, txTimerId);
+      putFieldValue(TXTIMER_ID, txTimerId);
     }
     else {
       throw new IllegalStateException();
@@ -193,10 +192,14 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public Request getTxTimerRequest() {
     if (exists()) {
-      byte[] data = (byte[]) getNodeValue(TXTIMER_REQUEST);
-      if (data != null) {
+      Object data = getFieldValue(TXTIMER_REQUEST);
+      if (data instanceof Request) {
+        // changed, not written to the cache yet
+        return (Request) data;
+      }
+      else if (data != null) {
         try {
-          return this.messageParser.createMessage(ByteBuffer.wrap(data));
+          return this.messageParser.createMessage(ByteBuffer.wrap((byte[]) data));
         }
         catch (AvpDataException e) {
           logger.error("Unable to recreate Tx Timer Request from buffer.");
@@ -216,16 +219,10 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   public void setTxTimerRequest(Request txTimerRequest) {
     if (exists()) {
       if (txTimerRequest != null) {
-        try {
-          byte[] data = this.messageParser.encodeMessage((IMessage) txTimerRequest).array();
-          putNodeValue(TXTIMER_REQUEST, data);
-        }
-        catch (ParseException e) {
-          logger.error("Unable to encode Tx Timer Request to buffer.");
-        }
+        putFieldValue(TXTIMER_REQUEST, txTimerRequest);
       }
       else {
-        removeNodeValue(TXTIMER_REQUEST);
+        removeFieldValue(TXTIMER_REQUEST);
       }
     }
     else {
@@ -235,10 +232,14 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
 
   @Override
   public Request getBuffer() {
-    byte[] data = (byte[]) getNodeValue(BUFFER);
-    if (data != null) {
+    Object data = getFieldValue(BUFFER);
+    if (data instanceof Request) {
+      // changed, not written to the cache yet
+      return (Request) data;
+    }
+    else if (data != null) {
       try {
-        return this.messageParser.createMessage(ByteBuffer.wrap(data));
+        return this.messageParser.createMessage(ByteBuffer.wrap((byte[]) data));
       }
       catch (AvpDataException e) {
         logger.error("Unable to recreate message from buffer.");
@@ -253,23 +254,17 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public void setBuffer(Request buffer) {
     if (buffer != null) {
-      try {
-        byte[] data = this.messageParser.encodeMessage((IMessage) buffer).array();
-        putNodeValue(BUFFER, data);
-      }
-      catch (ParseException e) {
-        logger.error("Unable to encode message to buffer.");
-      }
+      putFieldValue(BUFFER, buffer);
     }
     else {
-      removeNodeValue(BUFFER);
+      removeFieldValue(BUFFER);
     }
   }
 
   @Override
   public int getGatheredRequestedAction() {
     if (exists()) {
-      return toPrimitive((Integer) getNodeValue(GRA));
+      return toPrimitive((Integer) getFieldValue(GRA));
     }
     else {
       throw new IllegalStateException();
@@ -279,7 +274,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public void setGatheredRequestedAction(int gatheredRequestedAction) {
     if (exists()) {
-      putNodeValue(GRA, gatheredRequestedAction);
+      putFieldValue(GRA, gatheredRequestedAction);
     }
     else {
       throw new IllegalStateException();
@@ -289,7 +284,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public int getGatheredCCFH() {
     if (exists()) {
-      return toPrimitive((Integer) getNodeValue(GCCFH));
+      return toPrimitive((Integer) getFieldValue(GCCFH));
     }
     else {
       throw new IllegalStateException();
@@ -299,7 +294,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public void setGatheredCCFH(int gatheredCCFH) {
     if (exists()) {
-      putNodeValue(GCCFH, gatheredCCFH);
+      putFieldValue(GCCFH, gatheredCCFH);
     }
     else {
       throw new IllegalStateException();
@@ -309,7 +304,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public int getGatheredDDFH() {
     if (exists()) {
-      return toPrimitive((Integer) getNodeValue(GDDFH));
+      return toPrimitive((Integer) getFieldValue(GDDFH));
     }
     else {
       throw new IllegalStateException();
@@ -319,7 +314,7 @@ public class ClientRoSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public void setGatheredDDFH(int gatheredDDFH) {
     if (exists()) {
-      putNodeValue(GDDFH, gatheredDDFH);
+      putFieldValue(GDDFH, gatheredDDFH);
     }
     else {
       throw new IllegalStateException();
@@ -42,26 +42,58 @@
 
 package org.mobicents.diameter.impl.ha.common;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.restcomm.cache.FqnWrapper;
 import org.jdiameter.api.ApplicationId;
 import org.jdiameter.api.app.AppSession;
-import org.jdiameter.common.api.app.IAppSessionData;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.api.parser.ParseException;
+import org.jdiameter.common.api.app.IBatchedAppSessionData;
 import org.restcomm.cache.MobicentsCache;
 import org.restcomm.cluster.MobicentsCluster;
 import org.restcomm.cluster.cache.ClusteredCacheData;
 import org.mobicents.diameter.impl.ha.data.ReplicatedSessionDatasource;
+import org.mobicents.diameter.impl.ha.data.SessionDataReplicator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
  * @author <a href="mailto:baranowb@gmail.com"> Bartosz Baranowski </a>
  * @author <a href="mailto:brainslog@gmail.com"> Alexandre Mendonca </a>
  */
-public class AppSessionDataReplicatedImpl extends ClusteredCacheData implements IAppSessionData {
+public class AppSessionDataReplicatedImpl extends ClusteredCacheData implements IBatchedAppSessionData {
+
+  private static final Logger logger = LoggerFactory.getLogger(AppSessionDataReplicatedImpl.class);
 
   protected static final String SID = "SID";
   protected static final String APID = "APID";
   protected static final String SIFACE = "SIFACE";
 
+  // value of fields removed, or set to null, by changes not written yet
+  private static final Object REMOVED = new Object();
+
+  // event-handling passes running in the current thread, and session data they changed
+  private static final ThreadLocal<Batch> BATCH = new ThreadLocal<Batch>() {
+    @Override
+    protected Batch initialValue() {
+      return new Batch();
+    }
+  };
+
+  private SessionDataReplicator replicator;
+  // encodes messages kept in fields, set by session data having such fields
+  private IMessageParser messageParser;
+  // changes of fields not written to the cache yet, only kept once a replicator is set
+  private ConcurrentHashMap<String, Object> changes;
+  private boolean removed;
+
   /**
    * @param nodeFqnWrapper
    * @param mobicentsCluster
@@ -90,6 +122,22 @@ public class AppSessionDataReplicatedImpl extends ClusteredCacheData implements
     return value;
   }
 
+  /**
+   * Keeps changes of fields made during event-handling passes back, so that the replicator writes them together once
+   * the pass ends. Without replicator every change is written to the cache straight away.
+   */
+  public void setReplicator(SessionDataReplicator replicator) {
+    this.replicator = replicator;
+    this.changes = replicator == null ? null : new ConcurrentHashMap<String, Object>(8);
+  }
+
+  /**
+   * Sets the parser encoding the messages kept in fields when they are stored in the cache.
+   */
+  protected void setMessageParser(IMessageParser messageParser) {
+    this.messageParser = messageParser;
+  }
+
   @Override
   public String getSessionId() {
     return (String) super.getNodeFqnLastElement();
@@ -98,7 +146,7 @@ public class AppSessionDataReplicatedImpl extends ClusteredCacheData implements
   @Override
   public void setApplicationId(ApplicationId applicationId) {
     if (exists()) {
-      putNodeValue(APID, applicationId);
+      putFieldValue(APID, applicationId);
     }
     else {
       throw new IllegalStateException();
@@ -108,13 +156,156 @@ public class AppSessionDataReplicatedImpl extends ClusteredCacheData implements
   @Override
   public ApplicationId getApplicationId() {
     if (exists()) {
-      return (ApplicationId) getNodeValue(APID);
+      return (ApplicationId) getFieldValue(APID);
     }
     else {
       throw new IllegalStateException();
     }
   }
 
+  @Override
+  public boolean remove() {
+    synchronized (this) {
+      removed = true;
+      if (changes != null) {
+        changes.clear();
+      }
+    }
+    return super.remove();
+  }
+
+  @Override
+  public void beginBatch() {
+    BATCH.get().depth++;
+  }
+
+  @Override
+  public void endBatch() {
+    Batch batch = BATCH.get();
+    if (batch.depth > 0 && --batch.depth == 0 && !batch.dirty.isEmpty()) {
+      try {
+        for (AppSessionDataReplicatedImpl data : batch.dirty) {
+          try {
+            data.replicate();
+          }
+          catch (RuntimeException e) {
+            logger.error("Failed to replicate changes of session data " + data.getSessionId(), e);
+          }
+        }
+      }
+      finally {
+        batch.dirty.clear();
+      }
+    }
+  }
+
+  // Field access, through the changes not written yet
+
+  protected Object getFieldValue(String key) {
+    if (changes != null) {
+      Object value = changes.get(key);
+      if (value != null) {
+        return value == REMOVED ? null : value;
+      }
+    }
+    return getNodeValue(key);
+  }
+
+  protected void putFieldValue(String key, Object value) {
+    if (replicator == null) {
+      Object nodeValue = toNodeValue(key, value);
+      if (nodeValue != null || value == null) {
+        putNodeValue(key, nodeValue);
+      }
+    }
+    else {
+      changes.put(key, value == null ? REMOVED : value);
+      changed();
+    }
+  }
+
+  protected void removeFieldValue(String key) {
+    if (replicator == null) {
+      removeNodeValue(key);
+    }
+    else {
+      changes.put(key, REMOVED);
+      changed();
+    }
+  }
+
+  /**
+   * Converts the value of a field to the value stored in the cache, once it is written. Messages are stored encoded.
+   *
+   * @return value to store, null if the field is to be left unchanged
+   */
+  protected Object toNodeValue(String key, Object value) {
+    if (value instanceof IMessage && messageParser != null) {
+      try {
+        return messageParser.encodeMessage((IMessage) value).array();
+      }
+      catch (ParseException e) {
+        logger.error("Unable to encode message of field " + key + " to buffer.", e);
+        return null;
+      }
+    }
+    return value;
+  }
+
+  private void changed() {
+    Batch batch = BATCH.get();
+    if (batch.depth == 0) {
+      replicate();
+    }
+    else {
+      batch.add(this);
+    }
+  }
+
+  private void replicate() {
+    if (changes.isEmpty()) {
+      return;
+    }
+    replicator.replicate(new SessionDataReplicator.Changes() {
+      // changes pending when last written, kept until they are replicated
+      private volatile Map<String, Object> snapshot;
+
+      @Override
+      public void write() {
+        synchronized (AppSessionDataReplicatedImpl.this) {
+          snapshot = null;
+          if (removed || changes.isEmpty() || !exists()) {
+            return;
+          }
+          Map<String, Object> pending = new HashMap<String, Object>(changes);
+          for (Map.Entry<String, Object> change : pending.entrySet()) {
+            if (change.getValue() == REMOVED) {
+              removeNodeValue(change.getKey());
+            }
+            else {
+              Object nodeValue = toNodeValue(change.getKey(), change.getValue());
+              if (nodeValue != null) {
+                putNodeValue(change.getKey(), nodeValue);
+              }
+            }
+          }
+          snapshot = pending;
+        }
+      }
+
+      @Override
+      public void written() {
+        Map<String, Object> pending = snapshot;
+        if (pending != null) {
+          // fields changed again meanwhile are kept for the next write
+          for (Map.Entry<String, Object> change : pending.entrySet()) {
+            changes.remove(change.getKey(), change.getValue());
+          }
+        }
+      }
+    });
+  }
+
   // Some util methods for handling primitives
 
   protected boolean toPrimitive(Boolean b, boolean _default) {
@@ -129,4 +320,19 @@ public class AppSessionDataReplicatedImpl extends ClusteredCacheData implements
     return l == null ? NON_INITIALIZED : l;
   }
 
+  private static final class Batch {
+
+    private int depth;
+    private final List<AppSessionDataReplicatedImpl> dirty = new ArrayList<AppSessionDataReplicatedImpl>();
+
+    private void add(AppSessionDataReplicatedImpl data) {
+      for (AppSessionDataReplicatedImpl other : dirty) {
+        if (other == data) {
+          return;
+        }
+      }
+      dirty.add(data);
+    }
+  }
+
 }
@@ -82,10 +82,12 @@ public class CCAReplicatedSessionDataFactory implements IAppSessionDataFactory<I
     if (clazz.equals(ClientCCASession.class)) {
       ClientCCASessionDataReplicatedImpl data =
           new ClientCCASessionDataReplicatedImpl(sessionId, this.mobicentsCluster, this.replicatedSessionDataSource.getContainer());
+      data.setReplicator(this.replicatedSessionDataSource.getSessionDataReplicator());
       return data;
     }
     else if (clazz.equals(ServerCCASession.class)) {
       ServerCCASessionDataReplicatedImpl data = new ServerCCASessionDataReplicatedImpl(sessionId, this.mobicentsCluster);
+      data.setReplicator(this.replicatedSessionDataSource.getSessionDataReplicator());
       return data;
     }
     throw new IllegalArgumentException();
@@ -82,10 +82,12 @@ public class GxReplicatedSessionDataFactory implements IAppSessionDataFactory<IG
     if (clazz.equals(ClientGxSession.class)) {
       ClientGxSessionDataReplicatedImpl data =
           new ClientGxSessionDataReplicatedImpl(sessionId, this.mobicentsCluster, this.replicatedSessionDataSource.getContainer());
+      data.setReplicator(this.replicatedSessionDataSource.getSessionDataReplicator());
       return data;
     }
     else if (clazz.equals(ServerGxSession.class)) {
       ServerGxSessionDataReplicatedImpl data = new ServerGxSessionDataReplicatedImpl(sessionId, this.mobicentsCluster);
+      data.setReplicator(this.replicatedSessionDataSource.getSessionDataReplicator());
       return data;
     }
     throw new IllegalArgumentException();
@@ -82,10 +82,12 @@ public class RoReplicatedSessionDataFactory implements IAppSessionDataFactory<IR
     if (clazz.equals(ClientRoSession.class)) {
       ClientRoSessionDataReplicatedImpl data =
           new ClientRoSessionDataReplicatedImpl(sessionId, this.mobicentsCluster, this.replicatedSessionDataSource.getContainer());
+      data.setReplicator(this.replicatedSessionDataSource.getSessionDataReplicator());
       return data;
     }
     else if (clazz.equals(ServerRoSession.class)) {
       ServerRoSessionDataReplicatedImpl data = new ServerRoSessionDataReplicatedImpl(sessionId, this.mobicentsCluster);
+      data.setReplicator(this.replicatedSessionDataSource.getSessionDataReplicator());
       return data;
     }
     throw new IllegalArgumentException();
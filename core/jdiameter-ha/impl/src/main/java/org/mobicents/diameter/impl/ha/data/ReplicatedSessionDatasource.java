@@ -42,6 +42,8 @@
 
 package org.mobicents.diameter.impl.ha.data;
 
+import static org.jdiameter.client.impl.helpers.Parameters.SessionReplicationMode;
+
 import java.util.HashMap;
 
 import javax.transaction.TransactionManager;
@@ -106,6 +108,8 @@ public class ReplicatedSessionDatasource implements ISessionDatasource, DataRemo
 
   private DefaultMobicentsCluster mobicentsCluster;
   private boolean localMode;
+  // null when every change of session data is written on its own
+  private SessionDataReplicator sessionDataReplicator;
 
   // provided by impl, no way to change that, no conf! :)
   protected HashMap<Class<? extends IAppSessionData>, IAppSessionDataFactory<? extends IAppSessionData>> appSessionDataFactories =
@@ -140,6 +144,10 @@ public class ReplicatedSessionDatasource implements ISessionDatasource, DataRemo
     this.mobicentsCluster.addDataRemovalListener(this); // register, so we know WHEN some other node removes session.
     this.mobicentsCluster.startCluster();
 
+    String replicationMode = container.getConfiguration().getStringValue(SessionReplicationMode.ordinal(),
+        (String) SessionReplicationMode.defValue());
+    this.sessionDataReplicator = SessionDataReplicator.create(replicationMode, txMgr);
+
     this.container = container;
     // this is coded, it is tied to specific impl of SessionDatasource
     appSessionDataFactories.put(IAuthSessionData.class, new AuthReplicatedSessionDataFactory(this));
@@ -266,10 +274,16 @@ public class ReplicatedSessionDatasource implements ISessionDatasource, DataRemo
   public void start() {
     mobicentsCluster.getMobicentsCache().startCache();
     localMode = mobicentsCluster.getMobicentsCache().isLocalMode();
+    if (sessionDataReplicator != null) {
+      sessionDataReplicator.start();
+    }
   }
 
   @Override
   public void stop() {
+    if (sessionDataReplicator != null) {
+      sessionDataReplicator.stop();
+    }
     mobicentsCluster.getMobicentsCache().stopCache();
   }
 
@@ -299,6 +313,14 @@ public class ReplicatedSessionDatasource implements ISessionDatasource, DataRemo
     return this.mobicentsCluster;
   }
 
+  /**
+   * @return replicator of the changes made to session data while handling an event, null if every change is written
+   *         on its own
+   */
+  public SessionDataReplicator getSessionDataReplicator() {
+    return this.sessionDataReplicator;
+  }
+
   @Override
   public void dataRemoved(FqnWrapper sessionFqn) {
     String sessionId = (String) sessionFqn.getLastElement();
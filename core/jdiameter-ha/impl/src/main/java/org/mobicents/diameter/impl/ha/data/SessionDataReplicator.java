@@ -0,0 +1,226 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.diameter.impl.ha.data;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the changes of session data collected during event-handling passes to the cache, each set of changes in
+ * one transaction so that it is replicated at once. Changes are written by the thread ending the pass or, in write
+ * behind mode, by a single background thread, in the order the passes ended. Changes failing to be written are
+ * retried by the background thread after a delay.
+ */
+public class SessionDataReplicator {
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionDataReplicator.class);
+
+  // time given to the background thread to write the changes queued when stopping
+  private static final long STOP_TIMEOUT = 10;
+  // delay before writing changes that failed to be written again, in ms
+  static final long RETRY_DELAY = 1000;
+  // number of times changes failing to be written are retried
+  static final int MAX_RETRIES = 5;
+
+  private final TransactionManager txManager;
+  private final boolean writeBehind;
+  private volatile ScheduledThreadPoolExecutor executor;
+
+  /**
+   * @param txManager transaction manager of the cache, null if none
+   * @param writeBehind whether changes are written by a background thread
+   */
+  public SessionDataReplicator(TransactionManager txManager, boolean writeBehind) {
+    this.txManager = txManager;
+    this.writeBehind = writeBehind;
+  }
+
+  /**
+   * Creates the replicator for a SessionReplicationMode value.
+   *
+   * @param mode WRITE_THROUGH, BATCHED or WRITE_BEHIND
+   * @param txManager transaction manager of the cache, null if none
+   * @return the replicator, null if every change of session data is to be written on its own
+   */
+  public static SessionDataReplicator create(String mode, TransactionManager txManager) {
+    if ("BATCHED".equalsIgnoreCase(mode)) {
+      return new SessionDataReplicator(txManager, false);
+    }
+    else if ("WRITE_BEHIND".equalsIgnoreCase(mode)) {
+      return new SessionDataReplicator(txManager, true);
+    }
+    else if (!"WRITE_THROUGH".equalsIgnoreCase(mode)) {
+      logger.warn("Unknown session replication mode {}, writing every change on its own.", mode);
+    }
+    return null;
+  }
+
+  public boolean isWriteBehind() {
+    return writeBehind;
+  }
+
+  public void start() {
+    if (executor == null) {
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "DiameterSessionReplicator");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      // retries not due yet when stopping are dropped, the changes stay with their session data
+      executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+      this.executor = executor;
+    }
+  }
+
+  public void stop() {
+    ScheduledThreadPoolExecutor executor = this.executor;
+    this.executor = null;
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        if (!executor.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS)) {
+          logger.warn("Session data changes still queued for replication after {}s, dropping them", STOP_TIMEOUT);
+          executor.shutdownNow();
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Writes a set of changes, now or in the background thread.
+   */
+  public void replicate(final Changes changes) {
+    ScheduledThreadPoolExecutor executor = this.executor;
+    if (!writeBehind || executor == null) {
+      write(changes, 0);
+    }
+    else {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          write(changes, 0);
+        }
+      });
+    }
+  }
+
+  private void write(final Changes changes, final int attempt) {
+    boolean transaction = false;
+    try {
+      Transaction outer = txManager != null ? txManager.getTransaction() : null;
+      if (txManager != null && outer == null) {
+        txManager.begin();
+        transaction = true;
+      }
+      changes.write();
+      if (transaction) {
+        transaction = false;
+        txManager.commit();
+        changes.written();
+      }
+      else if (outer != null) {
+        // changes of a pass running in a transaction of its own are replicated when it commits
+        outer.registerSynchronization(new Synchronization() {
+          @Override
+          public void beforeCompletion() {
+          }
+
+          @Override
+          public void afterCompletion(int status) {
+            if (status == Status.STATUS_COMMITTED) {
+              changes.written();
+            }
+            else {
+              failed(changes, attempt, null);
+            }
+          }
+        });
+      }
+      else {
+        changes.written();
+      }
+    }
+    catch (Exception e) {
+      if (transaction) {
+        try {
+          txManager.rollback();
+        }
+        catch (Exception re) {
+          logger.error("Failed to roll back session data changes", re);
+        }
+      }
+      failed(changes, attempt, e);
+    }
+  }
+
+  private void failed(final Changes changes, final int attempt, Exception cause) {
+    ScheduledThreadPoolExecutor executor = this.executor;
+    if (executor != null && attempt < MAX_RETRIES) {
+      logger.warn("Failed to replicate session data changes, retrying in {}ms", RETRY_DELAY, cause);
+      try {
+        executor.schedule(new Runnable() {
+          @Override
+          public void run() {
+            write(changes, attempt + 1);
+          }
+        }, RETRY_DELAY, TimeUnit.MILLISECONDS);
+        return;
+      }
+      catch (RuntimeException e) {
+        // stopping
+      }
+    }
+    logger.error("Failed to replicate session data changes, they are only written with the next changes of the session",
+        cause);
+  }
+
+  /**
+   * Changes of a session data collected during an event-handling pass. The values written are the ones pending when
+   * the changes are written, so that writing them again after a failure writes the latest ones.
+   */
+  public interface Changes {
+
+    /**
+     * Writes the changes to the cache.
+     */
+    void write();
+
+    /**
+     * Called once the changes are written, and replicated if the transaction was started to write them or once the
+     * transaction they were written in commits.
+     */
+    void written();
+  }
+}
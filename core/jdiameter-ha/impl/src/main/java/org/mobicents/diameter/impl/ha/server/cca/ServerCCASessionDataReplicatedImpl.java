@@ -95,7 +95,7 @@ public class ServerCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public boolean isStateless() {
     if (exists()) {
-      return toPrimitive((Boolean) getNodeValue(STATELESS), true);
+      return toPrimitive((Boolean) getFieldValue(STATELESS), true);
     }
     else {
       throw new IllegalStateException();
@@ -110,7 +110,7 @@ public class ServerCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setStateless(boolean stateless) {
     if (exists()) {
-      putNodeValue(STATELESS, stateless);
+      putFieldValue(STATELESS, stateless);
     }
     else {
       throw new IllegalStateException();
@@ -125,7 +125,7 @@ public class ServerCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public ServerCCASessionState getServerCCASessionState() {
     if (exists()) {
-      return (ServerCCASessionState) getNodeValue(STATE);
+      return (ServerCCASessionState) getFieldValue(STATE);
     }
     else {
       throw new IllegalStateException();
@@ -141,7 +141,7 @@ public class ServerCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setServerCCASessionState(ServerCCASessionState state) {
     if (exists()) {
-      putNodeValue(STATE, state);
+      putFieldValue(STATE, state);
     }
     else {
       throw new IllegalStateException();
@@ -156,7 +156,7 @@ public class ServerCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public void setTccTimerId(Serializable tccTimerId) {
     if (exists()) {
-      putNodeValue(TCCID, tccTimerId);
+      putFieldValue(TCCID, tccTimerId);
     }
     else {
       throw new IllegalStateException();
@@ -171,7 +171,7 @@ public class ServerCCASessionDataReplicatedImpl extends AppSessionDataReplicated
   @Override
   public Serializable getTccTimerId() {
     if (exists()) {
-      return (Serializable) getNodeValue(TCCID);
+      return (Serializable) getFieldValue(TCCID);
     }
     else {
       throw new IllegalStateException();
@@ -95,7 +95,7 @@ public class ServerGxSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public boolean isStateless() {
     if (exists()) {
-      return toPrimitive((Boolean) getNodeValue(STATELESS), true);
+      return toPrimitive((Boolean) getFieldValue(STATELESS), true);
     }
     else {
       throw new IllegalStateException();
@@ -110,7 +110,7 @@ public class ServerGxSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public void setStateless(boolean stateless) {
     if (exists()) {
-      putNodeValue(STATELESS, stateless);
+      putFieldValue(STATELESS, stateless);
     }
     else {
       throw new IllegalStateException();
@@ -125,7 +125,7 @@ public class ServerGxSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public ServerGxSessionState getServerGxSessionState() {
     if (exists()) {
-      return (ServerGxSessionState) getNodeValue(STATE);
+      return (ServerGxSessionState) getFieldValue(STATE);
     }
     else {
       throw new IllegalStateException();
@@ -142,7 +142,7 @@ public class ServerGxSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   public void setServerGxSessionState(ServerGxSessionState state) {
 
     if (exists()) {
-      putNodeValue(STATE, state);
+      putFieldValue(STATE, state);
     }
     else {
       throw new IllegalStateException();
@@ -158,7 +158,7 @@ public class ServerGxSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public void setTccTimerId(Serializable tccTimerId) {
     if (exists()) {
-      putNodeValue(TCCID, tccTimerId);
+      putFieldValue(TCCID, tccTimerId);
     }
     else {
       throw new IllegalStateException();
@@ -173,7 +173,7 @@ public class ServerGxSessionDataReplicatedImpl extends AppSessionDataReplicatedI
   @Override
   public Serializable getTccTimerId() {
     if (exists()) {
-      return (Serializable) getNodeValue(TCCID);
+      return (Serializable) getFieldValue(TCCID);
     }
     else {
       throw new IllegalStateException();
@@ -0,0 +1,37 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.api;
+
+import java.util.concurrent.Future;
+
+/**
+ * Result of a request sent without listener. Besides waiting for it, the answer can be consumed by listeners notified
+ * on the thread that receives it, so that a single application thread can keep many requests outstanding.
+ */
+public interface AnswerFuture extends Future<Message> {
+
+  /**
+   * Registers a listener notified once the answer is received or the request times out, straight away if this
+   * happened already. Listeners are not notified once the future is cancelled. They run on a stack thread, they
+   * should not block.
+   * @param listener event listener
+   */
+  void addListener(EventListener<Request, Answer> listener);
+}
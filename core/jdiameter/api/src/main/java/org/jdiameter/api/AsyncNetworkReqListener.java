@@ -0,0 +1,36 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.api;
+
+/**
+ * Network request listener answering requests asynchronously. The stack hands requests to this listener on a thread
+ * of the ApplicationRequest concurrent entity instead of the peer thread that received them, so that slow
+ * applications do not delay other messages of the peer, and sends the answer once the application completes it.
+ * The {@link NetworkReqListener#processRequest(Request)} method is only called for requests the stack sends to itself.
+ */
+public interface AsyncNetworkReqListener extends NetworkReqListener {
+
+  /**
+   * This method is used to process new network requests.
+   * @param request request message
+   * @param answer pending answer to the request, to be completed from any thread
+   */
+  void processRequest(Request request, PendingAnswer answer);
+}
@@ -307,6 +307,43 @@ public interface Avp extends Wrapper, Serializable {
    */
   int ERROR_MESSAGE = 281;
 
+  // RFC 7683 (Diameter Overload Indication Conveyance) AVPs
+
+  /**
+   * DOIC (RFC7683) OC-Supported-Features AVP code
+   */
+  int OC_SUPPORTED_FEATURES = 621;
+
+  /**
+   * DOIC (RFC7683) OC-Feature-Vector AVP code
+   */
+  int OC_FEATURE_VECTOR = 622;
+
+  /**
+   * DOIC (RFC7683) OC-OLR AVP code
+   */
+  int OC_OLR = 623;
+
+  /**
+   * DOIC (RFC7683) OC-Sequence-Number AVP code
+   */
+  int OC_SEQUENCE_NUMBER = 624;
+
+  /**
+   * DOIC (RFC7683) OC-Validity-Duration AVP code
+   */
+  int OC_VALIDITY_DURATION = 625;
+
+  /**
+   * DOIC (RFC7683) OC-Report-Type AVP code
+   */
+  int OC_REPORT_TYPE = 626;
+
+  /**
+   * DOIC (RFC7683) OC-Reduction-Percentage AVP code
+   */
+  int OC_REDUCTION_PERCENTAGE = 627;
+
   // RFC 4006 (Credit-Control-Application) AVPs
 
   /**
@@ -0,0 +1,46 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.api;
+
+/**
+ * Answer to a network request handed to an {@link AsyncNetworkReqListener}. Completing it sends the answer to the
+ * peer the request came from, with duplicate protection applied as for answers returned by listeners.
+ */
+public interface PendingAnswer {
+
+  /**
+   * @return the request to answer
+   */
+  Request getRequest();
+
+  /**
+   * Sends the answer to the request.
+   * @param answer answer message
+   * @return true if this call completed the answer, false if it was completed already
+   */
+  boolean complete(Answer answer);
+
+  /**
+   * Answers the request with DIAMETER_UNABLE_TO_COMPLY.
+   * @param cause failure of the application
+   * @return true if this call completed the answer, false if it was completed already
+   */
+  boolean fail(Throwable cause);
+}
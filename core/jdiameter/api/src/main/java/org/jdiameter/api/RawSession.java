@@ -139,4 +139,31 @@ public interface RawSession extends BaseSession, Wrapper {
   Future<Message> send(Message message, long timeOut, TimeUnit timeUnit)
       throws InternalException, IllegalDiameterStateException, RouteException, OverloadException;
 
+  /**
+   * Sends request message with default timeout. Unlike {@link #send(Message)}, the result also accepts listeners
+   * and its get(timeout, unit) throws TimeoutException when the wait elapses before the answer.
+   * @param message request diameter message
+   * @return AnswerFuture result of an asynchronous operation
+   * @throws org.jdiameter.api.InternalException The InternalException signals that internal error is occurred.
+   * @throws org.jdiameter.api.IllegalDiameterStateException The IllegalStateException signals that session has incorrect state (invalid).
+   * @throws org.jdiameter.api.RouteException The NoRouteException signals that no route exist for a given realm.
+   * @throws org.jdiameter.api.OverloadException The OverloadException signals that destination host is overloaded.
+   */
+  AnswerFuture sendAsync(Message message) throws InternalException, IllegalDiameterStateException, RouteException, OverloadException;
+
+  /**
+   * Sends request message with defined timeout. Unlike {@link #send(Message, long, TimeUnit)}, the result also
+   * accepts listeners and its get(timeout, unit) throws TimeoutException when the wait elapses before the answer.
+   * @param message request diameter message
+   * @param timeOut value of timeout
+   * @param timeUnit type of timeOut value
+   * @return AnswerFuture result of an asynchronous operation
+   * @throws org.jdiameter.api.InternalException The InternalException signals that internal error is occurred.
+   * @throws org.jdiameter.api.IllegalDiameterStateException The IllegalStateException signals that session has incorrect state (invalid).
+   * @throws org.jdiameter.api.RouteException The NoRouteException signals that no route exist for a given realm.
+   * @throws org.jdiameter.api.OverloadException The OverloadException signals that destination host is overloaded.
+   */
+  AnswerFuture sendAsync(Message message, long timeOut, TimeUnit timeUnit)
+      throws InternalException, IllegalDiameterStateException, RouteException, OverloadException;
+
 }
\ No newline at end of file
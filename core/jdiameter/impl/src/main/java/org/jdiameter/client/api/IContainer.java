@@ -52,6 +52,7 @@ import org.jdiameter.api.NetworkReqListener;
 import org.jdiameter.api.RouteException;
 import org.jdiameter.api.Stack;
 import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.jdiameter.common.impl.timer.TimingWheel;
 
 /**
  * This interface extends behavior of stack interface
@@ -89,6 +90,12 @@ public interface IContainer extends Stack {
    */
   ScheduledExecutorService getScheduledFacility();
 
+  /**
+   * Return timing wheel serving request and session timers
+   * @return timing wheel serving request and session timers, null if stack is not started
+   */
+  TimingWheel getTimingWheel();
+
   /**
    * Return common concurrent factory
    * @return
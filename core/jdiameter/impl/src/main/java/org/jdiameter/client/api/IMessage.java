@@ -42,11 +42,11 @@
 
 package org.jdiameter.client.api;
 
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.jdiameter.api.ApplicationId;
 import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.common.impl.timer.TimingWheel;
 
 /**
  * This interface extends basic message interface
@@ -112,11 +112,17 @@ public interface IMessage extends IRequest, IAnswer {
 
   /**
    * Create timer for request timout procedure
-   * @param scheduledFacility timer facility
+   * @param timingWheel timer facility
    * @param timeOut value of timeout
    * @param timeUnit time unit
    */
-  void createTimer(ScheduledExecutorService scheduledFacility, long timeOut, TimeUnit timeUnit);
+  void createTimer(TimingWheel timingWheel, long timeOut, TimeUnit timeUnit);
+
+  /**
+   * Return time at which the timer was created
+   * @return value of System.nanoTime() when the timer was created, 0 if there is no timer
+   */
+  long getTimerStartTime();
 
   /**
    * Execute timer task
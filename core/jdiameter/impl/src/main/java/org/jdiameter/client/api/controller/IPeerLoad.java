@@ -0,0 +1,50 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.api.controller;
+
+import org.jdiameter.client.api.IMessage;
+
+/**
+ * Live load of a peer, implemented by peers which track their requests so that routers can balance on it.
+ */
+public interface IPeerLoad {
+
+  /**
+   * Return count of requests sent to the peer and not answered yet
+   *
+   * @return count of pending requests
+   */
+  int getPendingRequestCount();
+
+  /**
+   * Return moving average of the time the peer takes to answer requests
+   *
+   * @return answer latency in nanoseconds, 0 if no answer was received yet
+   */
+  long getAnswerLatency();
+
+  /**
+   * Records a request sent to the peer which was not answered in time, the time waited counts as its answer latency
+   *
+   * @param request request which timed out
+   */
+  void requestTimedOut(IMessage request);
+
+}
@@ -42,6 +42,8 @@
 
 package org.jdiameter.client.api.controller;
 
+import java.util.List;
+
 import org.jdiameter.api.Realm;
 import org.jdiameter.server.api.agent.IAgent;
 import org.jdiameter.server.api.agent.IAgentConfiguration;
@@ -84,6 +86,21 @@ public interface IRealm extends Realm {
    */
   boolean hasPeerName(String name);
 
+  /**
+   * Return peers of this realm as resolved by the router, in the order of peer names
+   *
+   * @return resolved peers, null if they were not resolved yet or peer names changed since
+   */
+  List<IPeer> getResolvedPeers();
+
+  /**
+   * Keep peers resolved by the router for the given peer names
+   *
+   * @param peerNames peer names the peers were resolved from
+   * @param peers resolved peers, kept only if peer names did not change meanwhile
+   */
+  void setResolvedPeers(String[] peerNames, List<IPeer> peers);
+
   /**
    * Get the processing agent for this realm
    *
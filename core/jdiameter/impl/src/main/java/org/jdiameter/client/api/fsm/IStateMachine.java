@@ -61,6 +61,12 @@ public interface IStateMachine extends StateMachine {
    */
   double getQueueInfo();
 
+  /**
+   * This method returns time the last processed event waited in event queue
+   * @return waiting time in milliseconds
+   */
+  long getQueueDelay();
+
   void remStateChangeNotification(StateChangeListener listener);
 
   IStatistic getStatistic();
@@ -72,6 +72,18 @@ public interface IMessageParser {
    */
   IMessage createMessage(byte[] message) throws AvpDataException;
 
+  /**
+   * Create message from region of the bytebuffer, which may be a direct one.
+   * Created message does not refer to the buffer, so it can be reused or
+   * released once this method returns. Buffer position is not changed.
+   * @param data bytebuffer holding the message
+   * @param offset index of the first byte of the message
+   * @param length message length
+   * @return instance of message
+   * @throws AvpDataException
+   */
+  IMessage createMessage(ByteBuffer data, int offset, int length) throws AvpDataException;
+
   /**
    * Created specified type of message
    * @param iface type of message
@@ -129,4 +141,20 @@ public interface IMessageParser {
    */
   ByteBuffer encodeMessage(IMessage message) throws ParseException;
 
+  /**
+   * Encode message into the given buffer, starting at its current position.
+   * Buffer position is advanced past the encoded message.
+   * @param message diameter message
+   * @param buffer big endian buffer with at least {@link #getMessageLength(IMessage)} bytes remaining
+   * @throws ParseException
+   */
+  void encodeMessage(IMessage message, ByteBuffer buffer) throws ParseException;
+
+  /**
+   * Compute number of bytes of encoded message
+   * @param message diameter message
+   * @return length of encoded message
+   */
+  int getMessageLength(IMessage message);
+
 }
@@ -46,15 +46,15 @@ import static org.jdiameter.client.impl.helpers.Parameters.MessageTimeOut;
 import static org.jdiameter.client.impl.helpers.Parameters.SessionTimeOut;
 
 import java.io.Serializable;
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.jdiameter.api.Answer;
+import org.jdiameter.api.AnswerFuture;
 import org.jdiameter.api.ApplicationId;
 import org.jdiameter.api.Avp;
 import org.jdiameter.api.AvpSet;
@@ -197,12 +197,16 @@ public abstract class BaseSessionImpl implements BaseSession {
         throw new IllegalDiameterStateException("Illegal state");
       }
 
-      message.createTimer(container.getScheduledFacility(), timeout, timeUnit);
+      message.createTimer(container.getTimingWheel(), timeout, timeUnit);
       try {
         container.sendMessage(message);
       }
       catch (RouteException e) {
         message.clearTimer();
+        // request dropped by overload control
+        if (e.getCause() instanceof OverloadException) {
+          throw (OverloadException) e.getCause();
+        }
         throw e;
       }
       catch (Exception e) {
@@ -221,136 +225,171 @@ public abstract class BaseSessionImpl implements BaseSession {
   }
 
   public Future<Message> send(final Message message) throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
-    MyFuture future = new MyFuture();
-    future.send(message);
+    MyFuture future = new MyFuture(false);
+    genericSend(message, future);
     return future;
   }
 
   public Future<Message> send(Message message, long timeOut, TimeUnit timeUnit)
       throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
-    MyFuture future = new MyFuture();
-    future.send(message, timeOut, timeUnit);
+    MyFuture future = new MyFuture(false);
+    genericSend(message, future, timeOut, timeUnit);
     return future;
   }
 
-  private class MyFuture implements Future<Message> {
+  public AnswerFuture sendAsync(Message message) throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    MyFuture future = new MyFuture(true);
+    genericSend(message, future);
+    return future;
+  }
 
-    private boolean canceled;
-    private boolean done;
-    private boolean timeOut;
-    private Lock lock = new ReentrantLock();
-    private CountDownLatch block = new CountDownLatch(1);
-    private Message result;
+  public AnswerFuture sendAsync(Message message, long timeOut, TimeUnit timeUnit)
+      throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    MyFuture future = new MyFuture(true);
+    genericSend(message, future, timeOut, timeUnit);
+    return future;
+  }
+
+  /**
+   * Future of a request, completed by the answer or the timeout of the request. It is its own event listener and
+   * waits on its own monitor, so that sending does not allocate other synchronization objects.
+   */
+  static class MyFuture implements AnswerFuture, EventListener<Request, Answer> {
+
+    private static final Object TIMEOUT = new Object();
+    private static final Object CANCELED = new Object();
+
+    // the futures returned by send(...) keep returning null from get(timeout, unit) when the wait elapses
+    private final boolean throwOnElapsedWait;
+    // answer, TIMEOUT or CANCELED once done
+    private volatile Object outcome;
+    private Request request;
+    // EventListener or List of EventListener
+    private Object listeners;
+
+    MyFuture(boolean throwOnElapsedWait) {
+      this.throwOnElapsedWait = throwOnElapsedWait;
+    }
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-      lock.lock();
-      try {
-        canceled = true;
-        done = false;
-        block.countDown();
-      }
-      finally {
-        lock.unlock();
-      }
-
-      return true;
+      return complete(null, CANCELED);
     }
 
     @Override
     public boolean isCancelled() {
-      return canceled;
+      return outcome == CANCELED;
     }
 
     @Override
     public boolean isDone() {
-      return done;
+      return outcome != null;
     }
 
     @Override
     public Message get() throws InterruptedException, ExecutionException {
-      try {
-        block.await();
-      }
-      catch (Exception e) {
-        throw new ExecutionException(e);
+      if (outcome == null) {
+        synchronized (this) {
+          while (outcome == null) {
+            wait();
+          }
+        }
       }
-
-      Message rc = canceled ? null : result;
-      result = null;
-      return rc;
+      return getAnswer();
     }
 
     @Override
     public Message get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-      try {
-        block.await(timeout, unit);
-      }
-      catch (Exception e) {
-        throw new ExecutionException(e);
+      if (outcome == null) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+          long remaining;
+          while (outcome == null && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+          }
+        }
       }
-
-      if (timeOut) {
+      if (outcome == TIMEOUT || (outcome == null && throwOnElapsedWait)) {
         throw new TimeoutException();
       }
-
-      Message rc = canceled ? null : result;
-      result = null;
-      return rc;
+      return getAnswer();
     }
 
-    private IEventListener createListener() {
-      return new IEventListener() {
-
-        @Override
-        public void setValid(boolean value) {
-        }
-
-        @Override
-        public boolean isValid() {
-          return !canceled;
-        }
+    private Message getAnswer() {
+      Object rc = outcome;
+      return rc instanceof Message ? (Message) rc : null;
+    }
 
-        @Override
-        public void receivedSuccessMessage(Request r, Answer a) {
-          lock.lock();
-          try {
-            if (!canceled) {
-              result = a;
-              canceled = false;
-              done = true;
-            }
-            block.countDown();
+    @Override
+    @SuppressWarnings("unchecked")
+    public void addListener(EventListener<Request, Answer> listener) {
+      synchronized (this) {
+        if (outcome == null) {
+          if (listeners == null) {
+            listeners = listener;
           }
-          finally {
-            lock.unlock();
+          else if (listeners instanceof List) {
+            ((List<EventListener<Request, Answer>>) listeners).add(listener);
           }
-        }
-
-        @Override
-        public void timeoutExpired(Request message) {
-          lock.lock();
-          try {
-            if (!canceled) {
-              done = true;
-              timeOut = true;
-            }
-            block.countDown();
-          }
-          finally {
-            lock.unlock();
+          else {
+            List<EventListener<Request, Answer>> list = new ArrayList<EventListener<Request, Answer>>(2);
+            list.add((EventListener<Request, Answer>) listeners);
+            list.add(listener);
+            listeners = list;
           }
+          return;
         }
-      };
+      }
+      notify(listener);
     }
 
-    public void send(Message message) throws RouteException, OverloadException, IllegalDiameterStateException, InternalException {
-      genericSend(message, createListener());
+    @Override
+    public void receivedSuccessMessage(Request r, Answer a) {
+      complete(r, a);
+    }
+
+    @Override
+    public void timeoutExpired(Request r) {
+      complete(r, TIMEOUT);
     }
 
-    public void send(Message message, long timeOut, TimeUnit timeUnit)
-        throws RouteException, OverloadException, IllegalDiameterStateException, InternalException {
-      genericSend(message, createListener(), timeOut, timeUnit);
+    @SuppressWarnings("unchecked")
+    private boolean complete(Request r, Object result) {
+      Object toNotify;
+      synchronized (this) {
+        if (outcome != null) {
+          return false;
+        }
+        request = r;
+        outcome = result;
+        notifyAll();
+        toNotify = listeners;
+        listeners = null;
+      }
+      if (toNotify instanceof List) {
+        for (EventListener<Request, Answer> listener : (List<EventListener<Request, Answer>>) toNotify) {
+          notify(listener);
+        }
+      }
+      else if (toNotify != null) {
+        notify((EventListener<Request, Answer>) toNotify);
+      }
+      return true;
+    }
+
+    private void notify(EventListener<Request, Answer> listener) {
+      Object rc = outcome;
+      try {
+        if (rc instanceof Answer) {
+          listener.receivedSuccessMessage(request, (Answer) rc);
+        }
+        else if (rc == TIMEOUT) {
+          listener.timeoutExpired(request);
+        }
+      }
+      catch (Exception e) {
+        logger.warn("Listener of answer future failed", e);
+      }
     }
   }
 
@@ -74,6 +74,9 @@ public class SessionFactoryImpl implements ISessionFactory {
 
   protected static UIDGenerator uid = new UIDGenerator();
 
+  // "<DiameterIdentity>;" of local peer, it does not change once the stack is configured
+  private volatile String sessionIdPrefix;
+
   public SessionFactoryImpl(IContainer stack) {
     this.stack = stack;
     this.dataSource = this.stack.getAssemblerFacility().getComponentInstance(ISessionDatasource.class);
@@ -84,12 +87,17 @@ public class SessionFactoryImpl implements ISessionFactory {
     long id = uid.nextLong();
     long high32 = (id & 0xffffffff00000000L) >> 32;
     long low32 = (id & 0xffffffffL);
-    StringBuilder sb = new StringBuilder();
-    sb.append(stack.getMetaData().getLocalPeer().getUri().getFQDN()).
-    append(";").append(high32).append(";").append(low32);
+    String prefix = sessionIdPrefix;
+    if (prefix == null) {
+      prefix = stack.getMetaData().getLocalPeer().getUri().getFQDN() + ";";
+      sessionIdPrefix = prefix;
+    }
+    // sized for both 32 bit values, so that the buffer is not grown
+    StringBuilder sb = new StringBuilder(prefix.length() + 21 + (custom != null ? custom.length() + 1 : 0));
+    sb.append(prefix).append(high32).append(';').append(low32);
     if (custom != null) {
       //FIXME: add checks for not allowed chars?
-      sb.append(";").append(custom);
+      sb.append(';').append(custom);
     }
     return sb.toString();
   }
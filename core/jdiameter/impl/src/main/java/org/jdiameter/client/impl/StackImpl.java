@@ -46,10 +46,12 @@ import static org.jdiameter.client.impl.helpers.ExtensionPoint.ControllerLayer;
 import static org.jdiameter.client.impl.helpers.ExtensionPoint.StackLayer;
 import static org.jdiameter.client.impl.helpers.ExtensionPoint.TransportLayer;
 import static org.jdiameter.client.impl.helpers.Parameters.Assembler;
+import static org.jdiameter.client.impl.helpers.Parameters.TimerTickDuration;
 import static org.jdiameter.common.api.concurrent.IConcurrentFactory.ScheduledExecServices.ProcessingMessageTimer;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -83,8 +85,11 @@ import org.jdiameter.client.api.controller.IPeerTable;
 import org.jdiameter.client.impl.helpers.Parameters;
 import org.jdiameter.common.api.concurrent.IConcurrentFactory;
 import org.jdiameter.common.api.data.ISessionDatasource;
+import org.jdiameter.common.api.statistic.ILatencyHistogram;
+import org.jdiameter.common.api.statistic.IStatisticManager;
 import org.jdiameter.common.api.statistic.IStatisticProcessor;
 import org.jdiameter.common.api.timer.ITimerFacility;
+import org.jdiameter.common.impl.timer.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -111,6 +116,11 @@ public class StackImpl implements IContainer, StackImplMBean {
    */
   protected ScheduledExecutorService scheduledFacility;
 
+  /**
+   * Use for scheduling request time-out and session timers, expired tasks run on scheduledFacility
+   */
+  protected TimingWheel timingWheel;
+
   @Override
   @SuppressWarnings("unchecked")
   public SessionFactory init(Configuration config) throws IllegalDiameterStateException, InternalException {
@@ -209,6 +219,7 @@ public class StackImpl implements IContainer, StackImplMBean {
       }
 
       scheduledFacility = concurrentFactory.getScheduledExecutorService(ProcessingMessageTimer.name());
+      startTimingWheel();
       assembler.getComponentInstance(ISessionDatasource.class).start();
       assembler.getComponentInstance(IStatisticProcessor.class).start();
       assembler.getComponentInstance(ITimerFacility.class);
@@ -229,6 +240,7 @@ public class StackImpl implements IContainer, StackImplMBean {
         throw new IllegalDiameterStateException();
       }
       scheduledFacility = concurrentFactory.getScheduledExecutorService(ProcessingMessageTimer.name());
+      startTimingWheel();
       assembler.getComponentInstance(IStatisticProcessor.class).start();
       assembler.getComponentInstance(ISessionDatasource.class).start();
       assembler.getComponentInstance(ITimerFacility.class);
@@ -338,6 +350,7 @@ public class StackImpl implements IContainer, StackImplMBean {
             peerManager.stopped();
           }
           // Clear all timeout tasks
+          stopTimingWheel();
           if (scheduledFacility != null) {
             concurrentFactory.shutdownNow(scheduledFacility);
           }
@@ -373,6 +386,7 @@ public class StackImpl implements IContainer, StackImplMBean {
       if (assembler != null) {
         assembler.destroy();
       }
+      stopTimingWheel();
       if (scheduledFacility != null) {
         concurrentFactory.shutdownNow(scheduledFacility);
       }
@@ -386,6 +400,19 @@ public class StackImpl implements IContainer, StackImplMBean {
     }
   }
 
+  private void startTimingWheel() {
+    stopTimingWheel();
+    long tickDuration = config.getLongValue(TimerTickDuration.ordinal(), (Long) TimerTickDuration.defValue());
+    timingWheel = new TimingWheel("DiameterTimer", tickDuration, scheduledFacility);
+  }
+
+  private void stopTimingWheel() {
+    if (timingWheel != null) {
+      timingWheel.stop();
+      timingWheel = null;
+    }
+  }
+
   @Override
   public boolean isActive() {
     return state == StackState.STARTED;
@@ -486,6 +513,11 @@ public class StackImpl implements IContainer, StackImplMBean {
     return scheduledFacility;
   }
 
+  @Override
+  public TimingWheel getTimingWheel() {
+    return timingWheel;
+  }
+
   @Override
   public IConcurrentFactory getConcurrentFactory() {
     return this.concurrentFactory;
@@ -532,6 +564,29 @@ public class StackImpl implements IContainer, StackImplMBean {
     }
   }
 
+  @Override
+  public String latencyStatistics() {
+    IStatisticManager statisticManager = assembler != null ? assembler.getComponentInstance(IStatisticManager.class) : null;
+    if (statisticManager == null) {
+      return "not set";
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, ILatencyHistogram> e : statisticManager.getLatencyHistograms().entrySet()) {
+      sb.append(e.getKey()).append(": ").append(e.getValue()).append("\n");
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public void resetLatencyStatistics() {
+    IStatisticManager statisticManager = assembler != null ? assembler.getComponentInstance(IStatisticManager.class) : null;
+    if (statisticManager != null) {
+      for (ILatencyHistogram histogram : statisticManager.getLatencyHistograms().values()) {
+        histogram.reset();
+      }
+    }
+  }
+
   @Override
   public void stop(int disconnectCause) {
     try {
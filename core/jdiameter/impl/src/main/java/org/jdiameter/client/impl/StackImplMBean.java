@@ -78,6 +78,17 @@ public interface StackImplMBean {
    */
   String peerList();
 
+  /**
+   * Return request/answer latency percentiles, one line per peer, Application-Id and command code
+   * @return latency percentiles in microseconds
+   */
+  String latencyStatistics();
+
+  /**
+   * Clear recorded request/answer latencies
+   */
+  void resetLatencyStatistics();
+
   /**
    * Return true if stack is started
    * @return true if stack is started
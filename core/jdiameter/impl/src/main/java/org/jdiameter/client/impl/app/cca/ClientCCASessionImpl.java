@@ -207,7 +207,13 @@ public class ClientCCASessionImpl extends AppCCASessionImpl implements ClientCCA
 
   @Override
   public boolean handleEvent(StateEvent event) throws InternalException, OverloadException {
-    return this.isEventBased() ? handleEventForEventBased(event) : handleEventForSessionBased(event);
+    beginDataBatch();
+    try {
+      return this.isEventBased() ? handleEventForEventBased(event) : handleEventForSessionBased(event);
+    }
+    finally {
+      endDataBatch();
+    }
   }
 
   protected boolean handleEventForEventBased(StateEvent event) throws InternalException, OverloadException {
@@ -206,7 +206,13 @@ public class ClientGxSessionImpl extends AppGxSessionImpl implements ClientGxSes
 
   @Override
   public boolean handleEvent(StateEvent event) throws InternalException, OverloadException {
-    return this.isEventBased() ? handleEventForEventBased(event) : handleEventForSessionBased(event);
+    beginDataBatch();
+    try {
+      return this.isEventBased() ? handleEventForEventBased(event) : handleEventForSessionBased(event);
+    }
+    finally {
+      endDataBatch();
+    }
   }
 
   protected boolean handleEventForEventBased(StateEvent event) throws InternalException, OverloadException {
@@ -219,7 +219,13 @@ public class ClientRoSessionImpl extends AppRoSessionImpl implements ClientRoSes
 
   @Override
   public boolean handleEvent(StateEvent event) throws InternalException, OverloadException {
-    return this.isEventBased() ? handleEventForEventBased(event) : handleEventForSessionBased(event);
+    beginDataBatch();
+    try {
+      return this.isEventBased() ? handleEventForEventBased(event) : handleEventForSessionBased(event);
+    }
+    finally {
+      endDataBatch();
+    }
   }
 
   protected boolean handleEventForEventBased(StateEvent event) throws InternalException, OverloadException {
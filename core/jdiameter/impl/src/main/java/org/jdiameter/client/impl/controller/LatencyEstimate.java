@@ -0,0 +1,66 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.controller;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponentially weighted moving average of answer latencies, weighted by the time elapsed between samples rather
+ * than by their count. A sample above the average replaces it at once, so that a peer slowing down is seen on its
+ * next answer, while lower samples only pull the average down as time passes. Without samples the average decays
+ * towards zero, so that a peer which was slow once is tried again after a while.
+ */
+final class LatencyEstimate {
+
+  // time constant of the decay, the weight of the average drops to 1/e after that time
+  static final double DECAY = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private volatile long value;
+  private volatile long lastUpdate;
+
+  void update(long latency) {
+    update(latency, System.nanoTime());
+  }
+
+  synchronized void update(long latency, long now) {
+    long current = get(now);
+    if (latency >= current) {
+      value = latency;
+    }
+    else {
+      double weight = Math.exp(-(now - lastUpdate) / DECAY);
+      value = (long) (value * weight + latency * (1 - weight));
+    }
+    lastUpdate = now;
+  }
+
+  long get() {
+    return get(System.nanoTime());
+  }
+
+  long get(long now) {
+    long value = this.value;
+    if (value == 0) {
+      return 0;
+    }
+    long elapsed = now - lastUpdate;
+    return elapsed <= 0 ? value : (long) (value * Math.exp(-elapsed / DECAY));
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.controller;
+
+import static org.jdiameter.api.Avp.DESTINATION_HOST;
+import static org.jdiameter.api.Avp.DESTINATION_REALM;
+import static org.jdiameter.api.Avp.OC_FEATURE_VECTOR;
+import static org.jdiameter.api.Avp.OC_OLR;
+import static org.jdiameter.api.Avp.OC_REDUCTION_PERCENTAGE;
+import static org.jdiameter.api.Avp.OC_REPORT_TYPE;
+import static org.jdiameter.api.Avp.OC_SEQUENCE_NUMBER;
+import static org.jdiameter.api.Avp.OC_SUPPORTED_FEATURES;
+import static org.jdiameter.api.Avp.OC_VALIDITY_DURATION;
+import static org.jdiameter.api.Avp.ORIGIN_HOST;
+import static org.jdiameter.api.Avp.ORIGIN_REALM;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.URI;
+import org.jdiameter.client.api.IMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Diameter Overload Indication Conveyance (RFC 7683) with the loss abatement algorithm. As reporting node the stack
+ * measures the load of a peer connection from the fill and the waiting time of its FSM queue and, once the load
+ * passes half of the capacity, asks peers supporting DOIC to drop a share of their requests growing with the load.
+ * As reacting node it advertises DOIC in its own requests, keeps host and realm reports received in answers until
+ * they expire and drops that share of the requests they cover before they are sent.
+ */
+final class OverloadControl {
+
+  private static final Logger logger = LoggerFactory.getLogger(OverloadControl.class);
+
+  // OLR_DEFAULT_ALGO, the loss algorithm
+  static final long LOSS_ALGORITHM = 1;
+  static final int HOST_REPORT = 0;
+  static final int REALM_REPORT = 1;
+  // default and maximum of OC-Validity-Duration, in seconds
+  static final long DEFAULT_VALIDITY = 30;
+  static final long MAX_VALIDITY = 86400;
+
+  // load below which no reduction is asked for
+  private static final double LOAD_THRESHOLD = 0.5;
+  // reductions are reported in steps, so that the sequence number does not change on every answer
+  private static final int REDUCTION_STEP = 10;
+  // some requests keep coming through, so that peers see the end of the overload before the report expires
+  private static final int MAX_REDUCTION = 90;
+
+  private final long maxDelay;
+  private final ConcurrentHashMap<String, Report> hostReports = new ConcurrentHashMap<String, Report>();
+  private final ConcurrentHashMap<String, Report> realmReports = new ConcurrentHashMap<String, Report>();
+
+  /**
+   * @param maxDelay waiting time in milliseconds of FSM events at which a peer connection is fully loaded
+   */
+  OverloadControl(long maxDelay) {
+    this.maxDelay = Math.max(1, maxDelay);
+  }
+
+  /**
+   * Advertises DOIC in a request originated by this node, unless it carries OC-Supported-Features already.
+   */
+  void addSupportedFeatures(IMessage request) {
+    AvpSet avps = request.getAvps();
+    if (avps.getAvp(OC_SUPPORTED_FEATURES) == null) {
+      avps.addGroupedAvp(OC_SUPPORTED_FEATURES, false, false).addAvp(OC_FEATURE_VECTOR, LOSS_ALGORITHM, false, false, false);
+    }
+  }
+
+  /**
+   * Adds OC-Supported-Features and, while the connection is or was recently overloaded, an OC-OLR host report to an
+   * answer to a request which advertised DOIC, see {@link Reporter#requestReceived(IMessage)}. Answers carrying
+   * OC-Supported-Features already are left as is.
+   *
+   * @param queueFill occupancy of the FSM queue of the connection, between 0 and 1
+   * @param queueDelay time in milliseconds the last event waited in the FSM queue
+   */
+  void addReport(IMessage answer, Reporter reporter, double queueFill, long queueDelay) {
+    AvpSet avps = answer.getAvps();
+    if (avps.getAvp(OC_SUPPORTED_FEATURES) != null) {
+      return;
+    }
+    avps.addGroupedAvp(OC_SUPPORTED_FEATURES, false, false).addAvp(OC_FEATURE_VECTOR, LOSS_ALGORITHM, false, false, false);
+
+    double load = Math.max(queueFill, (double) queueDelay / maxDelay);
+    int reduction = 0;
+    if (load > LOAD_THRESHOLD) {
+      double share = Math.min(1, (load - LOAD_THRESHOLD) / (1 - LOAD_THRESHOLD));
+      reduction = Math.min(MAX_REDUCTION, (int) Math.ceil(share * 100 / REDUCTION_STEP) * REDUCTION_STEP);
+    }
+    long sequence;
+    synchronized (reporter) {
+      long now = System.nanoTime();
+      if (reduction != reporter.reduction) {
+        if (reduction > 0 || reporter.reduction > 0) {
+          logger.debug("Reporting reduction of {}% (load {})", reduction, load);
+        }
+        reporter.reduction = reduction;
+        reporter.sequence++;
+        // a report ending the overload is repeated for as long as the previous one could still apply
+        reporter.reporting = true;
+        reporter.deadline = now + TimeUnit.SECONDS.toNanos(DEFAULT_VALIDITY);
+      }
+      else if (reduction > 0) {
+        reporter.deadline = now + TimeUnit.SECONDS.toNanos(DEFAULT_VALIDITY);
+      }
+      else if (!reporter.reporting || reporter.deadline - now <= 0) {
+        reporter.reporting = false;
+        return;
+      }
+      sequence = reporter.sequence;
+    }
+    AvpSet olr = avps.addGroupedAvp(OC_OLR, false, false);
+    olr.addAvp(OC_SEQUENCE_NUMBER, sequence, false, false, false);
+    olr.addAvp(OC_REPORT_TYPE, HOST_REPORT, false, false);
+    olr.addAvp(OC_REDUCTION_PERCENTAGE, reduction, false, false, true);
+    olr.addAvp(OC_VALIDITY_DURATION, DEFAULT_VALIDITY, false, false, true);
+  }
+
+  /**
+   * Keeps the reports carried by an answer to a request originated by this node.
+   *
+   * @param peerHost host name of the peer the answer came from, taken as reporting node of host reports when the
+   *        answer lacks Origin-Host
+   */
+  void receiveReports(IMessage answer, String peerHost) {
+    AvpSet reports = answer.getAvps().getAvps(OC_OLR);
+    if (reports == null || reports.size() == 0) {
+      return;
+    }
+    for (Avp report : reports) {
+      try {
+        AvpSet olr = report.getGrouped();
+        Avp sequenceAvp = olr.getAvp(OC_SEQUENCE_NUMBER);
+        Avp typeAvp = olr.getAvp(OC_REPORT_TYPE);
+        if (sequenceAvp == null || typeAvp == null) {
+          continue;
+        }
+        Avp reductionAvp = olr.getAvp(OC_REDUCTION_PERCENTAGE);
+        Avp validityAvp = olr.getAvp(OC_VALIDITY_DURATION);
+        long sequence = sequenceAvp.getUnsigned64();
+        int type = typeAvp.getInteger32();
+        long reduction = reductionAvp == null ? 0 : Math.min(100, reductionAvp.getUnsigned32());
+        long validity = validityAvp == null ? DEFAULT_VALIDITY : Math.min(MAX_VALIDITY, validityAvp.getUnsigned32());
+
+        if (type == HOST_REPORT) {
+          Avp originHost = answer.getAvps().getAvp(ORIGIN_HOST);
+          update(hostReports, originHost != null ? hostName(originHost.getDiameterIdentity()) : peerHost, sequence, (int) reduction, validity);
+        }
+        else if (type == REALM_REPORT) {
+          Avp originRealm = answer.getAvps().getAvp(ORIGIN_REALM);
+          if (originRealm != null) {
+            update(realmReports, originRealm.getDiameterIdentity(), sequence, (int) reduction, validity);
+          }
+        }
+      }
+      catch (AvpDataException e) {
+        logger.debug("Ignoring malformed OC-OLR", e);
+      }
+    }
+  }
+
+  private void update(ConcurrentHashMap<String, Report> reports, String key, long sequence, int reduction, long validity) {
+    long now = System.nanoTime();
+    Report current = reports.get(key);
+    if (current != null && current.deadline - now > 0 && sequence <= current.sequence) {
+      return;
+    }
+    if (reduction == 0 || validity == 0) {
+      if (current != null) {
+        logger.debug("Overload report of {} ended", key);
+        reports.remove(key, current);
+      }
+      return;
+    }
+    Report report = new Report(sequence, reduction, now + TimeUnit.SECONDS.toNanos(validity));
+    if (current == null ? reports.putIfAbsent(key, report) != null : !reports.replace(key, current, report)) {
+      // a concurrent answer updated the report, its sequence decides on the next one
+      return;
+    }
+    logger.debug("Overload report of {} asks for reduction of {}% for {}s", new Object[] {key, reduction, validity});
+  }
+
+  /**
+   * Applies the loss algorithm to a request originated by this node. Requests with Destination-Host are covered by
+   * the report of that host, other requests by the report of the peer they are sent to or of their realm.
+   *
+   * @param peerHost host name of the peer the request is sent to
+   * @return true if the request is to be dropped
+   */
+  boolean isThrottled(IMessage request, String peerHost) {
+    if (hostReports.isEmpty() && realmReports.isEmpty()) {
+      return false;
+    }
+    try {
+      AvpSet avps = request.getAvps();
+      Avp destHost = avps.getAvp(DESTINATION_HOST);
+      Report report = get(hostReports, destHost != null ? hostName(destHost.getDiameterIdentity()) : peerHost);
+      if (report == null && destHost == null) {
+        Avp destRealm = avps.getAvp(DESTINATION_REALM);
+        if (destRealm != null) {
+          report = get(realmReports, destRealm.getDiameterIdentity());
+        }
+      }
+      return report != null && ThreadLocalRandom.current().nextInt(100) < report.reduction;
+    }
+    catch (AvpDataException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return host name of a Diameter identity, which is sent as URI by peers configured with UseUriAsFqdn
+   */
+  static String hostName(String identity) {
+    if (identity.startsWith("aaa://") || identity.startsWith("aaas://")) {
+      try {
+        return new URI(identity).getFQDN();
+      }
+      catch (Exception e) {
+        logger.debug("Unable to parse Diameter identity {}", identity, e);
+      }
+    }
+    return identity;
+  }
+
+  private static Report get(ConcurrentHashMap<String, Report> reports, String key) {
+    Report report = reports.get(key);
+    if (report != null && report.deadline - System.nanoTime() <= 0) {
+      reports.remove(key, report);
+      return null;
+    }
+    return report;
+  }
+
+  /**
+   * Overload report received from a reporting node.
+   */
+  private static final class Report {
+
+    final long sequence;
+    final int reduction;
+    final long deadline;
+
+    Report(long sequence, int reduction, long deadline) {
+      this.sequence = sequence;
+      this.reduction = reduction;
+      this.deadline = deadline;
+    }
+  }
+
+  /**
+   * Reporting state of a peer connection.
+   */
+  static final class Reporter {
+
+    // hop-by-hop identifiers of received requests which advertised DOIC and are not answered yet
+    private final Set<Long> requests = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    // starts at the wall clock so that reports sent after a restart are not taken as stale
+    private long sequence = System.currentTimeMillis();
+    private int reduction;
+    private boolean reporting;
+    private long deadline;
+
+    /**
+     * Notes a request received from the peer, its answer is to carry a report if the request advertised DOIC.
+     */
+    void requestReceived(IMessage request) {
+      if (request.getAvps().getAvp(OC_SUPPORTED_FEATURES) != null) {
+        requests.add(request.getHopByHopIdentifier());
+      }
+    }
+
+    /**
+     * Forgets a request whose answer is not to carry a report of this node, as it is relayed from another node.
+     */
+    void requestRelayed(IMessage request) {
+      requests.remove(request.getHopByHopIdentifier());
+    }
+
+    /**
+     * @return true if the answer is sent to a request which advertised DOIC, which is forgotten then
+     */
+    boolean answerSent(IMessage answer) {
+      return !requests.isEmpty() && requests.remove(answer.getHopByHopIdentifier());
+    }
+
+    /**
+     * Forgets pending requests, called when the connection is closed.
+     */
+    void clear() {
+      requests.clear();
+    }
+  }
+}
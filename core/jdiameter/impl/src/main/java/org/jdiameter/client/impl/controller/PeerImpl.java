@@ -110,6 +110,7 @@ import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.IMetaData;
 import org.jdiameter.client.api.IRequest;
 import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerLoad;
 import org.jdiameter.client.api.fsm.EventTypes;
 import org.jdiameter.client.api.fsm.FsmEvent;
 import org.jdiameter.client.api.fsm.IContext;
@@ -130,7 +131,7 @@ import org.jdiameter.common.api.statistic.IStatistic;
 import org.jdiameter.common.api.statistic.IStatisticManager;
 import org.jdiameter.common.api.statistic.IStatisticRecord;
 import org.jdiameter.common.impl.controller.AbstractPeer;
-import org.jdiameter.server.impl.MutablePeerTableImpl;
+import org.jdiameter.server.impl.MessageValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -141,7 +142,7 @@ import org.slf4j.LoggerFactory;
  * @author <a href="mailto:baranowb@gmail.com"> Bartosz Baranowski </a>
  * @author <a href="mailto:brainslog@gmail.com"> Alexandre Mendonca </a>
  */
-public class PeerImpl extends AbstractPeer implements IPeer {
+public class PeerImpl extends AbstractPeer implements IPeer, IPeerLoad {
 
   private static final Logger logger = LoggerFactory.getLogger(PeerImpl.class);
 
@@ -163,11 +164,16 @@ public class PeerImpl extends AbstractPeer implements IPeer {
   // XXX: FT/HA // protected Map<String, NetworkReqListener> slc;
   protected final Map<Long, IMessage> peerRequests = new ConcurrentHashMap<Long, IMessage>();
   protected final Dictionary dictionary = DictionarySingleton.getDictionary();
+  protected final MessageValidator validator = new MessageValidator();
   // FSM layer
   protected IStateMachine fsm;
   protected IMessageParser parser;
   // Feature
   protected boolean useUriAsFQDN = false; // Use URI as origin host name into CER command
+  // Statistic key, URI builds its string on each call
+  private String latencyKey;
+  private final LatencyEstimate answerLatency = new LatencyEstimate();
+  private final OverloadControl.Reporter overloadReporter = new OverloadControl.Reporter();
 
   //session store and data
   protected ISessionDatasource sessionDataSource;
@@ -190,6 +196,7 @@ public class PeerImpl extends AbstractPeer implements IPeer {
     @Override
     public void connectionClosed(String connKey, List notSent) {
       logger.debug("Connection from {} is closed", uri);
+      overloadReporter.clear();
       for (IMessage request : peerRequests.values()) {
         if (request.getState() == IMessage.STATE_SENT) {
           request.setReTransmitted(true);
@@ -228,7 +235,14 @@ public class PeerImpl extends AbstractPeer implements IPeer {
             fsm.handleEvent(new FsmEvent(req ? DPR_EVENT : DPA_EVENT, message));
             break;
           default:
-            fsm.handleEvent(new FsmEvent(RECEIVE_MSG_EVENT, message));
+            OverloadControl overloadControl = table.overloadControl;
+            if (req && overloadControl != null) {
+              overloadReporter.requestReceived(message);
+            }
+            if (!fsm.handleEvent(new FsmEvent(RECEIVE_MSG_EVENT, message)) && req) {
+              // rejected by the incoming validation
+              sendValidationErrorAnswer(message);
+            }
             break;
         }
       }
@@ -374,6 +388,53 @@ public class PeerImpl extends AbstractPeer implements IPeer {
     return new ActionContext();
   }
 
+  /**
+   * Records the time elapsed since the request timer was started into the answer latency average of the peer, and
+   * into the latency histogram of the peer, Application-Id and command code of the request.
+   */
+  private void recordLatency(IMessage request) {
+    long start = request.getTimerStartTime();
+    if (start == 0) {
+      return;
+    }
+    long latency = System.nanoTime() - start;
+    answerLatency.update(latency);
+    if (statisticFactory == null || !statisticFactory.isOn()) {
+      return;
+    }
+    String peer = latencyKey;
+    if (peer == null) {
+      latencyKey = peer = uri == null ? "local" : uri.toString();
+    }
+    statisticFactory.getLatencyHistogram(peer, request.getApplicationId(), request.getCommandCode()).record(latency);
+  }
+
+  /**
+   * Leaves the answer to the request without overload report of this node, as the answer is relayed from the node
+   * the request is forwarded to.
+   */
+  protected void skipOverloadReport(IMessage request) {
+    overloadReporter.requestRelayed(request);
+  }
+
+  @Override
+  public int getPendingRequestCount() {
+    return peerRequests.size();
+  }
+
+  @Override
+  public long getAnswerLatency() {
+    return answerLatency.get();
+  }
+
+  @Override
+  public void requestTimedOut(IMessage request) {
+    long start = request.getTimerStartTime();
+    if (start != 0) {
+      answerLatency.update(System.nanoTime() - start);
+    }
+  }
+
   private boolean isRedirectAnswer(Avp avpResCode, IMessage answer) {
     try {
       return (answer.getFlags() & 0x20) != 0 && avpResCode != null && avpResCode.getInteger32() == ResultCode.REDIRECT_INDICATION;
@@ -673,6 +734,36 @@ public class PeerImpl extends AbstractPeer implements IPeer {
     return newAppId;
   }
 
+  /**
+   * Answers a request which failed validation with the Result-Code and Failed-AVP given by the validator.
+   */
+  protected void sendValidationErrorAnswer(IMessage request) {
+    MessageValidator.Result result = validator.check(request);
+    IMessage answer = result.toMessage();
+    if (result.isOK() || answer == null) {
+      return;
+    }
+    logger.debug("Request failed validation. Result Code = [{}]", result.toLong());
+    // looked up when the answer is sent, as for requests handed to listeners
+    router.registerRequestRouteInfo(request);
+    answer.getAvps().removeAvp(ORIGIN_HOST);
+    answer.getAvps().removeAvp(ORIGIN_REALM);
+    answer.getAvps().addAvp(ORIGIN_HOST, metaData.getLocalPeer().getUri().getFQDN(), true, false, true);
+    answer.getAvps().addAvp(ORIGIN_REALM, metaData.getLocalPeer().getRealmName(), true, false, true);
+    try {
+      // not validated as outgoing message, error answers lack AVPs the dictionary requires in answers
+      if (!stopping && fsm.handleEvent(new FsmEvent(EventTypes.SEND_MSG_EVENT, answer)) && statistic.isEnabled()) {
+        statistic.getRecordByName(IStatisticRecord.Counters.SysGenResponse).inc();
+      }
+    }
+    catch (Exception e) {
+      logger.debug("Unable to send answer", e);
+    }
+    if (statistic.isEnabled()) {
+      statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedRequest).inc();
+    }
+  }
+
   protected void sendErrorAnswer(IRequest request, String errorMessage, int resultCode, Avp ...avpsToAdd) {
     logger.debug("Could not process request. Result Code = [{}], Error Message: [{}]", resultCode, errorMessage);
     request.setRequest(false);
@@ -701,14 +792,14 @@ public class PeerImpl extends AbstractPeer implements IPeer {
       logger.debug("Sending response indicating we could not process request");
       sendMessage((IMessage) request);
       if (statistic.isEnabled()) {
-        statistic.getRecordByName(IStatisticRecord.Counters.SysGenResponse.name()).inc();
+        statistic.getRecordByName(IStatisticRecord.Counters.SysGenResponse).inc();
       }
     }
     catch (Exception e) {
       logger.debug("Unable to send answer", e);
     }
     if (statistic.isEnabled()) {
-      statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedRequest.name()).inc();
+      statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedRequest).inc();
     }
   }
 
@@ -790,20 +881,15 @@ public class PeerImpl extends AbstractPeer implements IPeer {
         int commandCode = message.getCommandCode();
         // We don't want this for CEx/DWx/DPx
         if (commandCode != 257 && commandCode != 280 && commandCode != 282) {
-          if (table instanceof MutablePeerTableImpl) { // available only to server, client skip this step
-            MutablePeerTableImpl peerTable = (MutablePeerTableImpl) table;
-            if (peerTable.isDuplicateProtection()) {
-              String[] originInfo = router.getRequestRouteInfo(message);
-              if (originInfo != null) {
-                // message.getDuplicationKey() doesn't work because it's answer
-                peerTable.saveToDuplicate(message.getDuplicationKey(originInfo[0], message.getEndToEndIdentifier()), message);
-              }
-            }
+          OverloadControl overloadControl = table.overloadControl;
+          if (overloadControl != null && overloadReporter.answerSent(message)) {
+            overloadControl.addReport(message, overloadReporter, fsm.getQueueInfo(), fsm.getQueueDelay());
           }
         }
+        // PCB added this
+        // only answers, a relayed request keeps its End-to-End identifier and may match the key of its own route info
+        router.garbageCollectRequestRouteInfo(message);
       }
-      // PCB added this
-      router.garbageCollectRequestRouteInfo(message);
 
       // Send to network
       message.setState(IMessage.STATE_SENT);
@@ -999,7 +1085,7 @@ public class PeerImpl extends AbstractPeer implements IPeer {
               try {
                 sendMessage(answer);
                 if (statistic.isEnabled()) {
-                  statistic.getRecordByName(IStatisticRecord.Counters.AppGenResponse.name()).inc();
+                  statistic.getRecordByName(IStatisticRecord.Counters.AppGenResponse).inc();
                 }
               }
               catch (Exception e) {
@@ -1008,13 +1094,13 @@ public class PeerImpl extends AbstractPeer implements IPeer {
             }
 
             if (statistic.isEnabled()) {
-              statistic.getRecordByName(IStatisticRecord.Counters.NetGenRequest.name()).inc();
+              statistic.getRecordByName(IStatisticRecord.Counters.NetGenRequest).inc();
             }
             isProcessed = true;
           }
           else {
             if (statistic.isEnabled()) {
-              statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedRequest.name()).inc();
+              statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedRequest).inc();
             }
           }
         }
@@ -1027,6 +1113,11 @@ public class PeerImpl extends AbstractPeer implements IPeer {
         if (request != null && !request.isTimeOut()) {
           request.clearTimer();
           request.setState(IMessage.STATE_ANSWERED);
+          recordLatency(request);
+          OverloadControl overloadControl = table.overloadControl;
+          if (overloadControl != null && table.isLocalRequest(request)) {
+            overloadControl.receiveReports(message, uri.getFQDN());
+          }
           Avp avpResCode = message.getAvps().getAvp(RESULT_CODE);
           if (isRedirectAnswer(avpResCode, message)) {
             message.setListener(request.getEventListener());
@@ -1042,24 +1133,24 @@ public class PeerImpl extends AbstractPeer implements IPeer {
             else {
               logger.debug("Unable to call answer listener for request {} because listener is not set", message);
               if (statistic.isEnabled()) {
-                statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedResponse.name()).inc();
+                statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedResponse).inc();
               }
             }
 
             isProcessed = true;
             if (statistic.isEnabled()) {
-              statistic.getRecordByName(IStatisticRecord.Counters.NetGenResponse.name()).inc();
+              statistic.getRecordByName(IStatisticRecord.Counters.NetGenResponse).inc();
             }
           }
           else {
             if (statistic.isEnabled()) {
-              statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedResponse.name()).inc();
+              statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedResponse).inc();
             }
           }
         }
         else {
           if (statistic.isEnabled()) {
-            statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedResponse.name()).inc();
+            statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedResponse).inc();
           }
         }
       }
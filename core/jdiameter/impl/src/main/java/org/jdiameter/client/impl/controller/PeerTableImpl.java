@@ -42,6 +42,7 @@
 
 package org.jdiameter.client.impl.controller;
 
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlMaxDelay;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerIp;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerLocalPortRange;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerName;
@@ -65,6 +66,7 @@ import org.jdiameter.api.IllegalDiameterStateException;
 import org.jdiameter.api.InternalException;
 import org.jdiameter.api.MetaData;
 import org.jdiameter.api.NetworkReqListener;
+import org.jdiameter.api.OverloadException;
 import org.jdiameter.api.Peer;
 import org.jdiameter.api.RouteException;
 import org.jdiameter.api.URI;
@@ -110,6 +112,8 @@ public class PeerTableImpl implements IPeerTable {
   protected IConcurrentFactory concurrentFactory;
   // XXX: FT/HA // protected ConcurrentHashMap<String, NetworkReqListener> sessionReqListeners = new ConcurrentHashMap<String, NetworkReqListener>();
   protected ISessionDatasource sessionDatasource;
+  // DOIC state shared by peers, null if overload control is off
+  protected OverloadControl overloadControl;
 
   protected final Dictionary dictionary = DictionarySingleton.getDictionary();
 
@@ -131,6 +135,10 @@ public class PeerTableImpl implements IPeerTable {
     this.concurrentFactory = concurrentFactory;
     this.stopTimeOut = globalConfig.getLongValue(StopTimeOut.ordinal(), (Long) StopTimeOut.defValue());
     this.sessionDatasource = stack.getAssemblerFacility().getComponentInstance(ISessionDatasource.class);
+    if (globalConfig.getBooleanValue(Parameters.OverloadControl.ordinal(), (Boolean) Parameters.OverloadControl.defValue())) {
+      this.overloadControl = new OverloadControl(
+          globalConfig.getLongValue(OverloadControlMaxDelay.ordinal(), (Long) OverloadControlMaxDelay.defValue()));
+    }
 
     logger.debug("Populating peerTable from configuration");
     Configuration[] peers = globalConfig.getChildren(Parameters.PeerTable.ordinal());
@@ -161,6 +169,20 @@ public class PeerTableImpl implements IPeerTable {
     }
   }
 
+  /**
+   * @return true if the request was originated by this node rather than forwarded
+   */
+  boolean isLocalRequest(IMessage message) {
+    try {
+      Avp originHost = message.getAvps().getAvp(Avp.ORIGIN_HOST);
+      return originHost != null
+          && OverloadControl.hostName(originHost.getDiameterIdentity()).equals(metaData.getLocalPeer().getUri().getFQDN());
+    }
+    catch (AvpDataException e) {
+      return false;
+    }
+  }
+
   protected Peer createPeer(int rating, String uri, String ip, String portRange, MetaData metaData, Configuration config, Configuration peerConfig,
       IFsmFactory fsmFactory, ITransportLayerFactory transportFactory, IStatisticManager statisticFactory, IConcurrentFactory concurrentFactory,
       IMessageParser parser)
@@ -203,6 +225,13 @@ public class PeerTableImpl implements IPeerTable {
         logger.debug("Request [{}] will be processed by local service", message);
       }
       else {
+        if (overloadControl != null && isLocalRequest(message)) {
+          if (overloadControl.isThrottled(message, peer.getUri().getFQDN())) {
+            throw new RouteException("Request dropped to abate overload of peer " + peer.getUri(),
+                new OverloadException("Request dropped to abate overload"));
+          }
+          overloadControl.addSupportedFeatures(message);
+        }
         message.setHopByHopIdentifier(peer.getHopByHopIdentifier());
         peer.addMessage(message);
         message.setPeer(peer);
@@ -231,12 +260,12 @@ public class PeerTableImpl implements IPeerTable {
         logger.debug("Message was submitted to be sent, now adding statistics");
         if (message.isRequest()) {
           if (peer.getStatistic().isEnabled()) {
-            peer.getStatistic().getRecordByName(IStatisticRecord.Counters.AppGenRequest.name()).inc();
+            peer.getStatistic().getRecordByName(IStatisticRecord.Counters.AppGenRequest).inc();
           }
         }
         else {
           if (peer.getStatistic().isEnabled()) {
-            peer.getStatistic().getRecordByName(IStatisticRecord.Counters.AppGenResponse.name()).inc();
+            peer.getStatistic().getRecordByName(IStatisticRecord.Counters.AppGenResponse).inc();
           }
         }
       }
@@ -245,12 +274,12 @@ public class PeerTableImpl implements IPeerTable {
       logger.error("Can not send message", e);
       if (message.isRequest()) {
         if (peer.getStatistic().isEnabled()) {
-          peer.getStatistic().getRecordByName(IStatisticRecord.Counters.AppGenRejectedRequest.name()).inc();
+          peer.getStatistic().getRecordByName(IStatisticRecord.Counters.AppGenRejectedRequest).inc();
         }
       }
       else {
         if (peer.getStatistic().isEnabled()) {
-          peer.getStatistic().getRecordByName(IStatisticRecord.Counters.AppGenRejectedResponse.name()).inc();
+          peer.getStatistic().getRecordByName(IStatisticRecord.Counters.AppGenRejectedResponse).inc();
         }
       }
 
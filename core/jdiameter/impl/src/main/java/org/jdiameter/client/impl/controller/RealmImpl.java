@@ -44,10 +44,12 @@ package org.jdiameter.client.impl.controller;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.jdiameter.api.ApplicationId;
 import org.jdiameter.api.LocalAction;
+import org.jdiameter.client.api.controller.IPeer;
 import org.jdiameter.client.api.controller.IRealm;
 import org.jdiameter.server.api.agent.IAgent;
 import org.jdiameter.server.api.agent.IAgentConfiguration;
@@ -68,6 +70,9 @@ public class RealmImpl implements IRealm {
   protected Collection<String> hosts = new ConcurrentLinkedQueue<String>();
   protected IAgent agent;
   protected IAgentConfiguration agentConfiguration;
+  // peers resolved by the router, dropped whenever hosts change
+  protected volatile List<IPeer> resolvedPeers;
+
   public RealmImpl(String name, ApplicationId applicationId, LocalAction localAction,
       IAgent agent, IAgentConfiguration agentConfiguration, boolean dynamic, long expirationTime, String... hosts) {
     this.hosts.addAll(Arrays.asList(hosts));
@@ -127,9 +132,10 @@ public class RealmImpl implements IRealm {
    *          name of peer host
    */
   @Override
-  public void addPeerName(String name) {
+  public synchronized void addPeerName(String name) {
     if (!hasPeerName(name)) {
       hosts.add(name);
+      resolvedPeers = null;
     }
   }
 
@@ -140,8 +146,10 @@ public class RealmImpl implements IRealm {
    *          name of peer host
    */
   @Override
-  public void removePeerName(String s) {
-    hosts.remove(name);
+  public synchronized void removePeerName(String s) {
+    if (hosts.remove(s)) {
+      resolvedPeers = null;
+    }
   }
 
   /**
@@ -169,6 +177,18 @@ public class RealmImpl implements IRealm {
     return this.hosts.contains(name);
   }
 
+  @Override
+  public List<IPeer> getResolvedPeers() {
+    return resolvedPeers;
+  }
+
+  @Override
+  public synchronized void setResolvedPeers(String[] peerNames, List<IPeer> peers) {
+    if (Arrays.equals(peerNames, getPeerNames())) {
+      resolvedPeers = peers;
+    }
+  }
+
   @Override
   public IAgent getAgent() {
     return agent;
@@ -120,8 +120,8 @@ public class RealmTableImpl implements IRealmTable {
     IAgent agent = null;
     switch (action) {
       case LOCAL:
-      case RELAY:
         break;
+      case RELAY:
       case PROXY:
         agent = this.assembler.getComponentInstance(IProxy.class);
         break;
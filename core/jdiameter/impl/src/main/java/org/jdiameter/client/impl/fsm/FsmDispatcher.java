@@ -0,0 +1,266 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.fsm;
+
+import static org.jdiameter.client.impl.helpers.Parameters.DispatchLaneCount;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jdiameter.api.Configuration;
+import org.jdiameter.api.app.StateEvent;
+import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fixed set of lanes processing the events of the peer FSMs of a stack. Each lane is a single thread consuming a lock
+ * free queue. Messages of a Diameter session are always put in the same lane, chosen by the hash of the Session-Id
+ * among the lanes of the peer, so that they are processed in order. Other events of a peer go, in order, to the first
+ * lane of the peer, which also checks its timers.
+ *
+ * Lanes are started on first {@link #acquire(IConcurrentFactory, Configuration)} for a stack, sized after the
+ * configuration passed there, and stopped once every user called {@link #release()}.
+ */
+final class FsmDispatcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(FsmDispatcher.class);
+
+  // how often FSM timers are checked when a lane is idle
+  static final long TIMER_CHECK_PERIOD = TimeUnit.MILLISECONDS.toNanos(100);
+
+  // one dispatcher per stack, stacks are told apart by their concurrent factory
+  private static final Map<IConcurrentFactory, FsmDispatcher> dispatchers = new IdentityHashMap<IConcurrentFactory, FsmDispatcher>();
+
+  /**
+   * Events handed to the lanes and timers checked by them.
+   */
+  interface Handler {
+
+    /**
+     * Processes an event, called by the lane the event was dispatched to.
+     *
+     * @param event event to process
+     * @param queued counter of queued events the event was counted in when dispatched
+     */
+    void processEvent(StateEvent event, AtomicInteger queued);
+
+    /**
+     * Fires timeouts, called by the lane the handler is registered with after events and at least every
+     * {@link #TIMER_CHECK_PERIOD}.
+     */
+    void checkTimer();
+  }
+
+  private final IConcurrentFactory key;
+  private final Lane[] lanes;
+  private final AtomicInteger nextLane = new AtomicInteger();
+  private int references;
+
+  FsmDispatcher(IConcurrentFactory key, int laneCount, ThreadFactory threadFactory) {
+    this.key = key;
+    this.lanes = new Lane[laneCount];
+    for (int i = 0; i < laneCount; i++) {
+      lanes[i] = new Lane();
+    }
+    for (Lane lane : lanes) {
+      lane.thread = threadFactory.newThread(lane);
+      lane.thread.setDaemon(true);
+      lane.thread.start();
+    }
+  }
+
+  /**
+   * Obtains the dispatcher of the stack, starting it if needed. Each call must be paired with a call to
+   * {@link #release()}.
+   *
+   * @param concurrentFactory concurrent factory of the stack, lane threads are obtained from it
+   * @param config stack configuration, used only if the dispatcher is started
+   * @return the dispatcher of the stack
+   */
+  static FsmDispatcher acquire(final IConcurrentFactory concurrentFactory, Configuration config) {
+    synchronized (dispatchers) {
+      FsmDispatcher dispatcher = dispatchers.get(concurrentFactory);
+      if (dispatcher == null) {
+        int laneCount = (Integer) DispatchLaneCount.defValue();
+        if (config != null) {
+          laneCount = config.getIntValue(DispatchLaneCount.ordinal(), laneCount);
+        }
+        if (laneCount <= 0) {
+          laneCount = Runtime.getRuntime().availableProcessors();
+        }
+        logger.debug("Starting FSM dispatcher with [{}] lanes", laneCount);
+        dispatcher = new FsmDispatcher(concurrentFactory, laneCount, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return concurrentFactory.getThread("FSM-lane", runnable);
+          }
+        });
+        dispatchers.put(concurrentFactory, dispatcher);
+      }
+      dispatcher.references++;
+      return dispatcher;
+    }
+  }
+
+  /**
+   * Releases the dispatcher obtained with {@link #acquire(IConcurrentFactory, Configuration)}, lanes are stopped
+   * when it was the last user of the dispatcher. Events already queued are processed before.
+   */
+  void release() {
+    synchronized (dispatchers) {
+      if (--references > 0) {
+        return;
+      }
+      if (dispatchers.get(key) == this) {
+        dispatchers.remove(key);
+      }
+    }
+    logger.debug("Stopping FSM dispatcher");
+    for (Lane lane : lanes) {
+      lane.stop();
+    }
+  }
+
+  int getLaneCount() {
+    return lanes.length;
+  }
+
+  /**
+   * @return index of the first lane of the next peer
+   */
+  int nextLane() {
+    return (nextLane.getAndIncrement() & Integer.MAX_VALUE) % lanes.length;
+  }
+
+  /**
+   * @param sessionId Session-Id of the message
+   * @param firstLane first lane of the peer
+   * @param laneSpan number of lanes, starting with the first one, the sessions of the peer are spread over
+   * @return index of the lane serving the session
+   */
+  int sessionLane(String sessionId, int firstLane, int laneSpan) {
+    int span = Math.max(1, Math.min(laneSpan, lanes.length));
+    int hash = sessionId.hashCode();
+    // spread, String hash codes of similar ids differ in low bits only
+    hash ^= (hash >>> 16);
+    hash *= 0x85EBCA6B;
+    hash ^= (hash >>> 13);
+    return (firstLane + (hash & Integer.MAX_VALUE) % span) % lanes.length;
+  }
+
+  /**
+   * Puts the event at the end of the lane.
+   *
+   * @param queued counter of queued events, already incremented for this event and handed back to the handler
+   */
+  void dispatch(int lane, Handler handler, StateEvent event, AtomicInteger queued) {
+    lanes[lane].add(new Task(handler, event, queued));
+  }
+
+  /**
+   * Timers of the handler are checked by the lane until {@link #unregister(int, Handler)} is called.
+   */
+  void register(int lane, Handler handler) {
+    lanes[lane].handlers.add(handler);
+  }
+
+  void unregister(int lane, Handler handler) {
+    lanes[lane].handlers.remove(handler);
+  }
+
+  private static final class Task {
+    final Handler handler;
+    final StateEvent event;
+    final AtomicInteger queued;
+
+    Task(Handler handler, StateEvent event, AtomicInteger queued) {
+      this.handler = handler;
+      this.event = event;
+      this.queued = queued;
+    }
+  }
+
+  private static final class Lane implements Runnable {
+
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<Task>();
+    private final CopyOnWriteArrayList<Handler> handlers = new CopyOnWriteArrayList<Handler>();
+    private volatile Thread thread;
+    private volatile boolean waiting;
+    private volatile boolean running = true;
+
+    void add(Task task) {
+      tasks.add(task);
+      if (waiting) {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    void stop() {
+      running = false;
+      LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+      logger.debug("FSM lane [{}] is started", thread.getName());
+      long nextTimerCheck = System.nanoTime() + TIMER_CHECK_PERIOD;
+      while (running || !tasks.isEmpty()) {
+        Task task = tasks.poll();
+        if (task != null) {
+          try {
+            task.handler.processEvent(task.event, task.queued);
+          }
+          catch (Throwable e) {
+            logger.debug("Error during processing FSM event", e);
+          }
+        }
+        long now = System.nanoTime();
+        if (now - nextTimerCheck >= 0) {
+          nextTimerCheck = now + TIMER_CHECK_PERIOD;
+          for (Handler handler : handlers) {
+            try {
+              handler.checkTimer();
+            }
+            catch (Throwable e) {
+              logger.debug("Error during checking FSM timer", e);
+            }
+          }
+        }
+        if (task == null && running) {
+          waiting = true;
+          // checked again, an event added meanwhile may have missed the wake up
+          if (tasks.isEmpty()) {
+            LockSupport.parkNanos(this, Math.max(0, nextTimerCheck - now));
+          }
+          waiting = false;
+        }
+      }
+      logger.debug("FSM lane [{}] is stopped", thread.getName());
+    }
+  }
+}
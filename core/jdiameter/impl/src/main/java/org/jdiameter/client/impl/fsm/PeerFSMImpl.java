@@ -54,8 +54,6 @@ import static org.jdiameter.client.impl.helpers.Parameters.RecTimeOut;
 
 import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -97,20 +95,17 @@ public class PeerFSMImpl implements IStateMachine {
   protected final Dictionary dictionary = DictionarySingleton.getDictionary();
 
   protected ConcurrentLinkedQueue<StateChangeListener> listeners;
-  protected LinkedBlockingQueue<StateEvent> eventQueue;
 
-  protected FsmState state = FsmState.DOWN;
+  protected volatile FsmState state = FsmState.DOWN;
   protected boolean watchdogSent;
   protected long timer;
   protected long CEA_TIMEOUT = 0, IAC_TIMEOUT = 0, REC_TIMEOUT = 0, DWA_TIMEOUT = 0, DPA_TIMEOUT = 0;
 
-  //PCB made FSM queue multi-threaded
-  private static int FSM_THREAD_COUNT = 3;
-
   protected final StateEvent timeOutEvent = new FsmEvent(EventTypes.TIMEOUT_EVENT);
   protected Random random = new Random();
 
   protected IConcurrentFactory concurrentFactory;
+  protected Configuration config;
   protected IContext context;
   protected State[] states;
   protected int predefSize;
@@ -120,10 +115,30 @@ public class PeerFSMImpl implements IStateMachine {
   protected IStatistic queueStat;
   protected IStatisticRecord timeSumm;
   protected IStatisticRecord timeCount;
+  // time in milliseconds the last processed event waited in the queue
+  protected volatile long queueDelay;
+
+  // events are processed by the lanes of the dispatcher while the FSM is not DOWN
+  protected volatile boolean mustRun = false;
+  protected FsmDispatcher dispatcher;
+  // lane processing events which do not belong to a session and checking timers
+  protected int peerLane;
+  // number of lanes, starting with peerLane, the sessions of the peer are spread over
+  protected int peerLaneSpan;
+  // events dispatched and not processed yet, replaced on each start so that events left from previous run are dropped
+  protected volatile AtomicInteger eventQueueSize = new AtomicInteger();
+
+  private final FsmDispatcher.Handler laneHandler = new FsmDispatcher.Handler() {
+    @Override
+    public void processEvent(StateEvent event, AtomicInteger queued) {
+      PeerFSMImpl.this.processEvent(event, queued);
+    }
 
-  //PCB changed for multi-thread
-  protected boolean mustRun = false;
-  protected AtomicInteger numberOfThreadsRunning = new AtomicInteger(0);
+    @Override
+    public void checkTimer() {
+      PeerFSMImpl.this.checkTimer();
+    }
+  };
 
   public PeerFSMImpl(IContext aContext, IConcurrentFactory concurrentFactory, Configuration config, IStatisticManager statisticFactory) {
     this.context = aContext;
@@ -131,11 +146,11 @@ public class PeerFSMImpl implements IStateMachine {
     this.predefSize = config.getIntValue(QueueSize.ordinal(), (Integer) QueueSize.defValue());
     //PCB added logging
     logger.debug("Maximum FSM Queue size is [{}]", predefSize);
-    this.eventQueue = new LinkedBlockingQueue<StateEvent>(predefSize);
     this.listeners = new ConcurrentLinkedQueue<StateChangeListener>();
     loadTimeOuts(config);
     this.concurrentFactory = concurrentFactory;
-    FSM_THREAD_COUNT = config.getIntValue(PeerFSMThreadCount.ordinal(), (Integer) PeerFSMThreadCount.defValue());
+    this.config = config;
+    this.peerLaneSpan = config.getIntValue(PeerFSMThreadCount.ordinal(), (Integer) PeerFSMThreadCount.defValue());
     runQueueProcessing();
   }
 
@@ -152,19 +167,19 @@ public class PeerFSMImpl implements IStateMachine {
 
   private void runQueueProcessing() {
     try {
-      // PCB - changed way it decides if queue processing must happen in order to allow for multithreaded FSM
       lock.lock();
-      if (numberOfThreadsRunning.get() > 0) {
+      if (mustRun) {
         // runQueueProcessing has been called
         return;
       }
-      eventQueue.clear();
-      mustRun = true;
+      // events left from previous run are dropped by the lanes
+      final AtomicInteger queued = new AtomicInteger();
+      eventQueueSize = queued;
 
       IStatisticRecord queueSize = statisticFactory.newCounterRecord(IStatisticRecord.Counters.QueueSize, new IStatisticRecord.IntegerValueHolder() {
         @Override
         public int getValueAsInt() {
-          return eventQueue.size();
+          return queued.get();
         }
 
         @Override
@@ -183,7 +198,7 @@ public class PeerFSMImpl implements IStateMachine {
               if (queueStat == null) {
                 return 0;
               }
-              IStatisticRecord mpta = queueStat.getRecordByName(IStatisticRecord.Counters.MessageProcessingTime.name());
+              IStatisticRecord mpta = queueStat.getRecordByName(IStatisticRecord.Counters.MessageProcessingTime);
               org.jdiameter.api.StatisticRecord[] children = mpta.getChilds();
               if (children.length == 2 && children[1].getValueAsLong() != 0) {
                 long count = children[1].getValueAsLong();
@@ -204,88 +219,103 @@ public class PeerFSMImpl implements IStateMachine {
       queueStat = statisticFactory.newStatistic(context.getPeerDescription(), IStatistic.Groups.PeerFSM, queueSize, messagePrcAverageTime);
       logger.debug("Finished Initializing QueueStat @ Thread[{}]", Thread.currentThread().getName());
 
-      Runnable fsmQueueProcessor = new Runnable() {
-        @Override
-        public void run() {
-          int runningNow = numberOfThreadsRunning.incrementAndGet();
-          logger.debug("Starting ... [{}] FSM threads are running", runningNow);
-          //PCB changed for multi-thread
-          while (mustRun) {
-            StateEvent event;
-            try {
-              event = eventQueue.poll(100, TimeUnit.MILLISECONDS);
-              if (logger.isDebugEnabled() && event != null) {
-                logger.debug("Got Event [{}] from Queue", event);
-              }
-            }
-            catch (InterruptedException e) {
-              logger.debug("Peer FSM stopped", e);
-              break;
-            }
-            //FIXME: baranowb: why this lock is here?
-            // PCB removed lock
-            // lock.lock();
-            try {
-              if (event != null) {
-                if (event instanceof FsmEvent && queueStat != null && queueStat.isEnabled()) {
-                  timeSumm.inc(System.currentTimeMillis() - ((FsmEvent) event).getCreatedTime());
-                  timeCount.inc();
-                }
-                logger.debug("Process event [{}]. Peer State is [{}]", event, state);
-                getStates()[state.ordinal()].processEvent(event);
-              }
-              if (timer != 0 && timer < System.currentTimeMillis()) {
-                // ZhixiaoLuo: add lock here to avoid 2 timeout events at the same time if 2 threads get into timer=0
-                // ZhixiaoLuo: use double check strategy to avoid locking most normal cases
-                lock.lock();
-                try {
-                  if (timer != 0 && timer < System.currentTimeMillis()) {
-                    timer = 0;
-                    if (state != DOWN) { //without this check this event is fired in DOWN state.... it should not be.
-                      logger.debug("Sending timeout event");
-                      handleEvent(timeOutEvent); //FIXME: check why timer is not killed?
-                    }
-                  }
-                }
-                finally {
-                  lock.unlock();
-                }
-              }
-            }
-            catch (Exception e) {
-              logger.debug("Error during processing FSM event", e);
-            }
-            finally {
-              // PCB removed lock
-              // lock.unlock();
-            }
-          }
-          //PCB added logging
-          logger.debug("FSM Thread {} is exiting", Thread.currentThread().getName());
-          //this happens when peer FSM is down, lets remove stat
-          statisticFactory.removeStatistic(queueStat);
-          logger.debug("Setting QueueStat to null @ Thread [{}]", Thread.currentThread().getName());
-          queueStat = null;
-          logger.debug("Done Setting QueueStat to null @ Thread [{}]", Thread.currentThread().getName());
-          int runningNowAfterStop = numberOfThreadsRunning.decrementAndGet();
-          logger.debug("Stopping ... [{}] FSM threads are running", runningNowAfterStop);
-        }
-      };
-      //PCB added FSM multithread
-      for (int i = 1; i <= FSM_THREAD_COUNT; i++) {
-        logger.debug("Starting FSM Thread {} of {}", i, FSM_THREAD_COUNT);
-        Thread executor = concurrentFactory.getThread("FSM-" + context.getPeerDescription() + "_" + i, fsmQueueProcessor);
-        executor.start();
+      dispatcher = FsmDispatcher.acquire(concurrentFactory, config);
+      peerLane = dispatcher.nextLane();
+      dispatcher.register(peerLane, laneHandler);
+      mustRun = true;
+      logger.debug("FSM of [{}] is served by lane [{}]", context.getPeerDescription(), peerLane);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops processing events, called when FSM goes DOWN. Events dispatched meanwhile are dropped.
+   */
+  protected void stopQueueProcessing() {
+    lock.lock();
+    try {
+      if (!mustRun) {
+        return;
       }
+      mustRun = false;
+      dispatcher.unregister(peerLane, laneHandler);
+      dispatcher.release();
+      //this happens when peer FSM is down, lets remove stat
+      statisticFactory.removeStatistic(queueStat);
+      logger.debug("Setting QueueStat to null @ Thread [{}]", Thread.currentThread().getName());
+      queueStat = null;
     }
     finally {
       lock.unlock();
     }
   }
 
+  /**
+   * Processes the event, called by the lane the event was dispatched to.
+   */
+  void processEvent(StateEvent event, AtomicInteger queued) {
+    queued.decrementAndGet();
+    if (queued != eventQueueSize || !mustRun) {
+      logger.debug("Dropping event [{}] dispatched before FSM was stopped", event);
+      return;
+    }
+    try {
+      if (logger.isDebugEnabled()) {
+        logger.debug("Got Event [{}] from Queue", event);
+      }
+      if (event instanceof FsmEvent) {
+        long delay = System.currentTimeMillis() - ((FsmEvent) event).getCreatedTime();
+        queueDelay = delay;
+        IStatistic stat = queueStat;
+        if (stat != null && stat.isEnabled()) {
+          timeSumm.inc(delay);
+          timeCount.inc();
+        }
+      }
+      logger.debug("Process event [{}]. Peer State is [{}]", event, state);
+      getStates()[state.ordinal()].processEvent(event);
+    }
+    catch (Exception e) {
+      logger.debug("Error during processing FSM event", e);
+    }
+  }
+
+  /**
+   * Fires timeout event if the timer expired, called periodically by the lane serving the FSM.
+   */
+  void checkTimer() {
+    if (timer != 0 && timer < System.currentTimeMillis()) {
+      // ZhixiaoLuo: add lock here to avoid 2 timeout events at the same time if 2 threads get into timer=0
+      // ZhixiaoLuo: use double check strategy to avoid locking most normal cases
+      lock.lock();
+      try {
+        if (timer != 0 && timer < System.currentTimeMillis()) {
+          timer = 0;
+          if (state != DOWN) { //without this check this event is fired in DOWN state.... it should not be.
+            logger.debug("Sending timeout event");
+            handleEvent(timeOutEvent); //FIXME: check why timer is not killed?
+          }
+        }
+      }
+      catch (OverloadException e) {
+        logger.debug("Can not put timeout event to FSM", e);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+
   @Override
   public double getQueueInfo() {
-    return eventQueue.size() * 1.0 / predefSize;
+    return eventQueueSize.get() * 1.0 / predefSize;
+  }
+
+  @Override
+  public long getQueueDelay() {
+    return queueDelay;
   }
 
   protected void loadTimeOuts(Configuration config) {
@@ -330,9 +360,8 @@ public class PeerFSMImpl implements IStateMachine {
     if (logger.isDebugEnabled()) {
       logger.debug("Handling event with type [{}]", event.getType());
     }
-    //PCB added FSM multithread
-    if (numberOfThreadsRunning.get() == 0) {
-      logger.debug("No FSM threads are running so calling runQueueProcessing()");
+    if (!mustRun) {
+      logger.debug("FSM events are not processed so calling runQueueProcessing()");
       runQueueProcessing();
     }
 
@@ -357,34 +386,29 @@ public class PeerFSMImpl implements IStateMachine {
       }
     }
 
-    boolean rc = false;
-    try {
-      if (logger.isDebugEnabled()) {
-        logger.debug("Placing event [{}] into linked blocking queue with remaining capacity: [{}].", event, eventQueue.remainingCapacity());
-        //PCB added logging
-        //int queueSize = eventQueue.size();
-        //if (System.currentTimeMillis() - lastLogged > 1000) {
-        //  lastLogged = System.currentTimeMillis();
-        //  if (queueSize >= 5) {
-        //    logger.debug("Diameter Event Queue size is [{}]", queueSize);
-        //  }
-        //}
-      }
-      rc = eventQueue.offer(event, IAC_TIMEOUT, TimeUnit.MILLISECONDS);
+    AtomicInteger queued = eventQueueSize;
+    if (queued.incrementAndGet() > predefSize) {
+      queued.decrementAndGet();
+      throw new OverloadException("FSM overloaded");
     }
-    catch (InterruptedException e) {
-      logger.debug("Can not put event '" + event.toString() + "' to FSM " + this.toString(), e);
-      throw new InternalError("Can not put event '" + event.toString() + "' to FSM " + this.toString());
+    FsmDispatcher dispatcher = this.dispatcher;
+    int lane = peerLane;
+    // messages of a session are processed in order by the lane of the session
+    EventTypes type = event.encodeType(EventTypes.class);
+    if ((type == EventTypes.RECEIVE_MSG_EVENT || type == EventTypes.SEND_MSG_EVENT) && event instanceof FsmEvent) {
+      IMessage message = ((FsmEvent) event).getMessage();
+      String sessionId = message != null ? message.getSessionId() : null;
+      if (sessionId != null) {
+        lane = dispatcher.sessionLane(sessionId, peerLane, peerLaneSpan);
+      }
     }
-    if (!rc) {
-      throw new OverloadException("FSM overloaded");
+    if (logger.isDebugEnabled()) {
+      logger.debug("Placing event [{}] into lane [{}], [{}] events are queued.", new Object[] {event, lane, queued.get()});
     }
+    dispatcher.dispatch(lane, laneHandler, event, queued);
     return true;
   }
 
-  //PCB added logging
-  //private static long lastLogged;
-
   protected void setInActiveTimer() {
     timer = IAC_TIMEOUT - 2 * 1000 + random.nextInt(5) * 1000 + System.currentTimeMillis();
   }
@@ -629,10 +653,7 @@ public class PeerFSMImpl implements IStateMachine {
             @Override
             public void entryAction() {
               clearTimer();
-              //PCB changed multithread FSM
-              logger.debug("Setting mustRun to false @ Thread [{}]", Thread.currentThread().getName());
-              mustRun = false;
-              logger.debug("Finished Setting mustRun to false @ Thread [{}]", Thread.currentThread().getName());
+              stopQueueProcessing();
               context.removeStatistics();
             }
 
@@ -129,7 +129,7 @@ public class Parameters extends Ordinal {
   public static final Parameters SessionTimeOut = new Parameters("SessionTimeOut", Long.class, 0L);
 
   /**
-   * Peer FSM Thread Count property
+   * Peer FSM Thread Count property, number of dispatch lanes the sessions of a peer are spread over
    */
   public static final Parameters PeerFSMThreadCount = new Parameters("PeerFSMThreadCount", Integer.class, 3);
 
@@ -402,6 +402,72 @@ public class Parameters extends Ordinal {
    */
   public static final Parameters DictionaryReceiveLevel = new Parameters("DictionaryReceiveLevel", String.class, "OFF");
 
+  /**
+   * Decode received AVPs as views over the message buffer, without copying their payload
+   */
+  public static final Parameters ZeroCopyDecoding = new Parameters("ZeroCopyDecoding", Boolean.class, false);
+
+  /**
+   * Decode only routing AVPs of received messages upfront, remaining ones on first access
+   */
+  public static final Parameters LazyDecoding = new Parameters("LazyDecoding", Boolean.class, false);
+
+  /**
+   * Number of threads of the event loop pool shared by Netty connections, 0 for twice the number of cores
+   */
+  public static final Parameters EventLoopThreadCount = new Parameters("EventLoopThreadCount", Integer.class, 0);
+
+  /**
+   * Use native epoll transport for Netty connections when available
+   */
+  public static final Parameters NativeTransport = new Parameters("NativeTransport", Boolean.class, true);
+
+  /**
+   * Number of reactor threads multiplexing NIO connections, 0 means number of available processors
+   */
+  public static final Parameters ReactorThreadCount = new Parameters("ReactorThreadCount", Integer.class, 0);
+
+  /**
+   * Number of threads passing messages received over NIO connections to listeners, 0 means twice the number of
+   * available processors
+   */
+  public static final Parameters DeliveryThreadCount = new Parameters("DeliveryThreadCount", Integer.class, 0);
+
+  /**
+   * Maximum number of outbound messages written to a connection at once
+   */
+  public static final Parameters WriteBatchSize = new Parameters("WriteBatchSize", Integer.class, 64);
+
+  /**
+   * Time in milliseconds outbound messages may wait to be written together, 0 writes them as soon as possible
+   */
+  public static final Parameters WriteFlushDelay = new Parameters("WriteFlushDelay", Long.class, 0L);
+
+  /**
+   * Duration of a tick of the timing wheel serving request and session timers, in milliseconds
+   */
+  public static final Parameters TimerTickDuration = new Parameters("TimerTickDuration", Long.class, 10L);
+
+  /**
+   * Number of lanes processing the events of all peer FSMs, 0 means number of available processors
+   */
+  public static final Parameters DispatchLaneCount = new Parameters("DispatchLaneCount", Integer.class, 0);
+
+  /**
+   * Act as reacting and reporting node of Diameter Overload Indication Conveyance (RFC 7683)
+   */
+  public static final Parameters OverloadControl = new Parameters("OverloadControl", Boolean.class, false);
+
+  /**
+   * Waiting time in milliseconds of FSM events at which a peer connection reports full load
+   */
+  public static final Parameters OverloadControlMaxDelay = new Parameters("OverloadControlMaxDelay", Long.class, 1000L);
+
+  /**
+   * Replication of clustered session data: WRITE_THROUGH on every change, or once per handled event, BATCHED or WRITE_BEHIND
+   */
+  public static final Parameters SessionReplicationMode = new Parameters("SessionReplicationMode", String.class, "WRITE_THROUGH");
+
   /**
    * Return all parameters as iterator
    *
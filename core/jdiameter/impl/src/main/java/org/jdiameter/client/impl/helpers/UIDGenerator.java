@@ -42,43 +42,25 @@
 
 package org.jdiameter.client.impl.helpers;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class provide uid range generator functionality
+ * This class provide uid generator functionality. Values are unique and increasing per instance, each one is taken
+ * with a single atomic increment, so that threads do not serialize on a lock.
  *
  * @author erick.svenson@yahoo.com
  * @author <a href="mailto:brainslog@gmail.com"> Alexandre Mendonca </a>
  * @author <a href="mailto:baranowb@gmail.com"> Bartosz Baranowski </a>
  */
-public class UIDGenerator {  // todo remove or redesign
+public class UIDGenerator {
 
-  private /*static*/ long value; // static causes repetitions
-  private static final Lock mutex = new ReentrantLock();
-  private static final ThreadLocal<Delta> ranges = new ThreadLocal<Delta>() {
-    @Override
-    protected synchronized Delta initialValue() {
-      return new Delta();
-    }
-  };
-
-  private static class Delta {
-    long start;
-    long stop;
-
-    public long update(long value) {
-      start = value;
-      stop  = value + 1;
-      return stop;
-    }
-  }
+  private final AtomicLong value; // static causes repetitions
 
   /**
    * Create instance of class
    */
   public UIDGenerator() {
-    value = System.currentTimeMillis();
+    this(System.currentTimeMillis());
   }
 
   /**
@@ -87,7 +69,7 @@ public class UIDGenerator {  // todo remove or redesign
    * @param startValue start value of counter
    */
   public UIDGenerator(long startValue) {
-    value = startValue;
+    value = new AtomicLong(startValue);
   }
 
   /**
@@ -105,12 +87,6 @@ public class UIDGenerator {  // todo remove or redesign
    * @return uid as long
    */
   public long nextLong() {
-    Delta d = ranges.get();
-    if (d.start <= d.stop) {
-      mutex.lock();
-      value = d.update(value);
-      mutex.unlock();
-    }
-    return d.start++;
+    return value.getAndIncrement();
   }
 }
@@ -72,7 +72,10 @@ class AvpImpl implements Avp {
   boolean isEncrypted = false;
   boolean isVendorSpecific = false;
 
+  // payload is held as a region of rawData; for AVPs decoded in zero-copy mode rawData is the whole message buffer
   byte[] rawData = new byte[0];
+  int rawOffset;
+  int rawLength;
   AvpSet groupedData;
 
   private static final Logger logger = LoggerFactory.getLogger(AvpImpl.class);
@@ -86,6 +89,17 @@ class AvpImpl implements Avp {
     //
     vendorID = vnd;
     rawData  = data;
+    rawLength = data != null ? data.length : 0;
+  }
+
+  /**
+   * Creates AVP which payload is a view over a region of a shared buffer. Buffer content is copied
+   * only if raw payload is requested, typed getters decode it in place.
+   */
+  AvpImpl(int code, int flags, long vnd, byte[] buffer, int offset, int length) {
+    this(code, flags, vnd, buffer);
+    rawOffset = offset;
+    rawLength = length;
   }
 
   AvpImpl(Avp avp) {
@@ -96,7 +110,8 @@ class AvpImpl implements Avp {
     isVendorSpecific = avp.isVendorId();
     try {
       rawData = avp.getRaw();
-      if (rawData == null || rawData.length == 0) {
+      rawLength = rawData != null ? rawData.length : 0;
+      if (rawLength == 0) {
         groupedData = avp.getGrouped();
       }
     }
@@ -137,18 +152,46 @@ class AvpImpl implements Avp {
 
   @Override
   public byte[] getRaw() throws AvpDataException {
-    return rawData;
+    return detach();
   }
 
   @Override
   public byte[] getOctetString() throws AvpDataException {
+    return detach();
+  }
+
+  /**
+   * Returns true if payload of this AVP is a view over a shared (message) buffer.
+   */
+  boolean isView() {
+    return rawOffset != 0 || (rawData != null && rawData.length != rawLength);
+  }
+
+  /**
+   * Gives this AVP its own copy of the payload, if it is still a view over a shared buffer.
+   *
+   * @return payload of this AVP
+   */
+  byte[] detach() {
+    if (isView()) {
+      byte[] data = new byte[rawLength];
+      System.arraycopy(rawData, rawOffset, data, 0, rawLength);
+      rawData = data;
+      rawOffset = 0;
+    }
     return rawData;
   }
 
+  private void checkLength(int size) throws AvpDataException {
+    if (rawLength < size) {
+      throw new AvpDataException("Not enough data in AVP payload", this);
+    }
+  }
+
   @Override
   public String getUTF8String() throws AvpDataException {
     try {
-      return parser.bytesToUtf8String(rawData);
+      return parser.bytesToUtf8String(rawData, rawOffset, rawLength);
     }
     catch (Exception e) {
       throw new AvpDataException(e, this);
@@ -158,7 +201,8 @@ class AvpImpl implements Avp {
   @Override
   public int getInteger32() throws AvpDataException {
     try {
-      return parser.bytesToInt(rawData);
+      checkLength(4);
+      return parser.bytesToInt(rawData, rawOffset);
     }
     catch (Exception e) {
       throw new AvpDataException(e, this);
@@ -168,7 +212,8 @@ class AvpImpl implements Avp {
   @Override
   public long getInteger64() throws AvpDataException {
     try {
-      return parser.bytesToLong(rawData);
+      checkLength(8);
+      return parser.bytesToLong(rawData, rawOffset);
     }
     catch (Exception e) {
       throw new AvpDataException(e, this);
@@ -178,9 +223,8 @@ class AvpImpl implements Avp {
   @Override
   public long getUnsigned32() throws AvpDataException {
     try {
-      byte[] u32ext = new byte[8];
-      System.arraycopy(rawData, 0, u32ext, 4, 4);
-      return parser.bytesToLong(u32ext);
+      checkLength(4);
+      return parser.bytesToUnsignedInt32(rawData, rawOffset);
     }
     catch (Exception e) {
       throw new AvpDataException(e, this);
@@ -190,7 +234,8 @@ class AvpImpl implements Avp {
   @Override
   public long getUnsigned64() throws AvpDataException {
     try {
-      return parser.bytesToLong(rawData);
+      checkLength(8);
+      return parser.bytesToLong(rawData, rawOffset);
     }
     catch (Exception e) {
       throw new AvpDataException(e, this);
@@ -200,7 +245,8 @@ class AvpImpl implements Avp {
   @Override
   public float getFloat32() throws AvpDataException {
     try {
-      return parser.bytesToFloat(rawData);
+      checkLength(4);
+      return Float.intBitsToFloat(parser.bytesToInt(rawData, rawOffset));
     }
     catch (Exception e) {
       throw new AvpDataException(e, this);
@@ -210,7 +256,8 @@ class AvpImpl implements Avp {
   @Override
   public double getFloat64() throws AvpDataException {
     try {
-      return parser.bytesToDouble(rawData);
+      checkLength(8);
+      return Double.longBitsToDouble(parser.bytesToLong(rawData, rawOffset));
     }
     catch (Exception e) {
       throw new AvpDataException(e, this);
@@ -220,7 +267,8 @@ class AvpImpl implements Avp {
   @Override
   public InetAddress getAddress() throws AvpDataException {
     try {
-      return parser.bytesToAddress(rawData);
+      checkLength(2);
+      return parser.bytesToAddress(rawData, rawOffset);
     }
     catch (Exception e) {
       throw new AvpDataException(e, this);
@@ -230,7 +278,8 @@ class AvpImpl implements Avp {
   @Override
   public Date getTime() throws AvpDataException {
     try {
-      return parser.bytesToDate(rawData);
+      checkLength(4);
+      return parser.bytesToDate(rawData, rawOffset);
     }
     catch (Exception e) {
       throw new AvpDataException(e, this);
@@ -240,7 +289,7 @@ class AvpImpl implements Avp {
   @Override
   public String getDiameterIdentity() throws AvpDataException {
     try {
-      return parser.bytesToOctetString(rawData);
+      return parser.bytesToOctetString(rawData, rawOffset, rawLength);
     }
     catch (Exception e) {
       throw new AvpDataException(e, this);
@@ -250,7 +299,7 @@ class AvpImpl implements Avp {
   @Override
   public URI getDiameterURI() throws AvpDataException {
     try {
-      return new URI(parser.bytesToOctetString(rawData));
+      return new URI(parser.bytesToOctetString(rawData, rawOffset, rawLength));
     }
     catch (URISyntaxException e) {
       throw new AvpDataException(e, this);
@@ -264,8 +313,11 @@ class AvpImpl implements Avp {
   public AvpSet getGrouped() throws AvpDataException {
     try {
       if (groupedData == null) {
-        groupedData = parser.decodeAvpSet(rawData);
+        // grouped content of a view is decoded as views over the same buffer
+        groupedData = parser.decodeAvpSet(rawData, rawOffset, rawLength, isView());
         rawData = new byte[0];
+        rawOffset = 0;
+        rawLength = 0;
       }
       return groupedData;
     }
@@ -286,7 +338,7 @@ class AvpImpl implements Avp {
 
   @Override
   public byte[] getRawData() {
-    return (rawData == null || rawData.length == 0) ? parser.encodeAvpSet(groupedData) : rawData;
+    return rawLength == 0 && groupedData != null ? parser.encodeAvpSet(groupedData) : detach();
   }
 
   // Caching toString.. Avp shouldn't be modified once created.
@@ -296,7 +348,7 @@ class AvpImpl implements Avp {
   public String toString() {
     if (toString == null) {
       this.toString = new StringBuffer("AvpImpl [avpCode=").append(avpCode).append(", vendorID=").append(vendorID).
-          append(", len=").append((rawData != null) ? rawData.length : null).append("]@").append(super.hashCode()).toString();
+          append(", len=").append(rawLength).append("]@").append(super.hashCode()).toString();
     }
 
     return this.toString;
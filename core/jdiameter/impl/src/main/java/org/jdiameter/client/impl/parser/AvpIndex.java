@@ -0,0 +1,101 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.parser;
+
+import java.util.List;
+
+import org.jdiameter.api.Avp;
+
+/**
+ * Lookup index over the list of AVPs held by {@link AvpSetImpl}. Positions of AVPs are chained per hash
+ * bucket of their code in ascending order, so walking a chain visits AVPs in the order of the list.
+ * Only appends are supported, any other change to the list requires the index to be rebuilt.
+ */
+final class AvpIndex {
+
+  // list the index was built for
+  private final List<Avp> avps;
+  // chains hold position + 1, so that 0 marks the end of a chain
+  private final int[] heads;
+  private final int[] tails;
+  private final int[] next;
+  private final int shift;
+  private int size;
+
+  AvpIndex(List<Avp> avps) {
+    // at least twice as many buckets as AVPs, room is left for the same number of appends
+    int capacity = Integer.highestOneBit(Math.max(avps.size(), 4) * 2 - 1) << 1;
+    this.avps = avps;
+    this.heads = new int[capacity];
+    this.tails = new int[capacity];
+    this.next = new int[capacity];
+    this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    for (Avp avp : avps) {
+      add(avp.getCode());
+    }
+  }
+
+  /**
+   * @return true if this index was built for the given list
+   */
+  boolean isFor(List<Avp> list) {
+    return avps == list;
+  }
+
+  private int bucket(int avpCode) {
+    return (avpCode * 0x9E3779B9) >>> shift;
+  }
+
+  /**
+   * Records position of AVP appended to the list.
+   *
+   * @param avpCode code of the appended AVP
+   * @return false if there is no room left, index must be dropped then
+   */
+  boolean add(int avpCode) {
+    if (size == next.length) {
+      return false;
+    }
+    int bucket = bucket(avpCode);
+    size++;
+    if (heads[bucket] == 0) {
+      heads[bucket] = size;
+    }
+    else {
+      next[tails[bucket] - 1] = size;
+    }
+    tails[bucket] = size;
+    return true;
+  }
+
+  /**
+   * @return first position which may hold AVP with the given code, -1 if there is none
+   */
+  int first(int avpCode) {
+    return heads[bucket(avpCode)] - 1;
+  }
+
+  /**
+   * @return next position after the given one which may hold AVP with the same code, -1 if there is none
+   */
+  int next(int position) {
+    return next[position] - 1;
+  }
+}
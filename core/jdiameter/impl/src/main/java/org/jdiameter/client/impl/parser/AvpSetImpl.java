@@ -58,6 +58,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
 import org.jdiameter.api.AvpSet;
 import org.jdiameter.api.InternalException;
 import org.jdiameter.api.URI;
@@ -78,79 +79,217 @@ class AvpSetImpl implements AvpSet {
   private static final long serialVersionUID = 1L;
   private static final ElementParser parser = new ElementParser();
 
-  List<Avp> avps = new ArrayList<Avp>();
+  // smaller sets are scanned, building lookup index for them does not pay off
+  private static final int INDEX_THRESHOLD = 8;
+  // matches AVPs of any vendor in lookups
+  private static final long ANY_VENDOR = -1;
+
+  /**
+   * Codes of AVPs which are decoded upfront when a set is decoded lazily. These are the ones needed to route
+   * a message and to create its answer, all others are decoded only when something else is accessed.
+   */
+  private static final boolean[] INDEXED_CODES = new boolean[512];
+
+  static {
+    int[] codes = {Avp.SESSION_ID, Avp.ORIGIN_HOST, Avp.ORIGIN_REALM, Avp.DESTINATION_HOST, Avp.DESTINATION_REALM,
+        Avp.ROUTE_RECORD, Avp.RESULT_CODE, Avp.EXPERIMENTAL_RESULT, Avp.AUTH_APPLICATION_ID, Avp.ACCT_APPLICATION_ID,
+        Avp.VENDOR_SPECIFIC_APPLICATION_ID, Avp.PROXY_INFO, Avp.ACC_SESSION_ID, Avp.ACC_SUB_SESSION_ID,
+        Avp.ACC_MULTI_SESSION_ID};
+    for (int code : codes) {
+      INDEXED_CODES[code] = true;
+    }
+  }
+
+  volatile List<Avp> avps = new ArrayList<Avp>();
+
+  // Encoded AVPs not decoded yet. While set, avps holds only the indexed AVPs found in it (in the same order),
+  // followed by AVPs added afterwards. Readers may decode it concurrently, the decoded list is published before
+  // it is cleared.
+  volatile byte[] pendingData;
+  int pendingOffset;
+  int pendingLength;
+  boolean pendingZeroCopy;
+  int pendingIndexed;
+
+  // Lookup index over avps, built on first lookup and dropped on any change other than append
+  private transient volatile AvpIndex positions;
 
   AvpSetImpl() {
 
   }
 
-  @Override
-  public Avp getAvp(int avpCode) {
-    for (Avp avp : this.avps) {
-      if (avp.getCode() == avpCode) {
-        return avp;
+  static boolean isIndexed(int avpCode) {
+    return avpCode >= 0 && avpCode < INDEXED_CODES.length && INDEXED_CODES[avpCode];
+  }
+
+  /**
+   * Marks region of the buffer as the not yet decoded content of this set. Must be called when this set holds
+   * exactly the indexed AVPs of that region.
+   */
+  void setPending(byte[] data, int offset, int length, boolean zeroCopy) {
+    this.pendingData = data;
+    this.pendingOffset = offset;
+    this.pendingLength = length;
+    this.pendingZeroCopy = zeroCopy;
+    this.pendingIndexed = avps.size();
+  }
+
+  /**
+   * @return true if pending data can be copied back as is when encoding this set, that is if none of the
+   * indexed AVPs decoded from it had its grouped content materialized (and so possibly modified)
+   */
+  boolean isPendingReusable() {
+    if (pendingData == null) {
+      return false;
+    }
+    for (int i = 0; i < pendingIndexed; i++) {
+      AvpImpl avp = (AvpImpl) avps.get(i);
+      if (avp.groupedData != null) {
+        return false;
       }
     }
-    return null;
+    return true;
+  }
+
+  /**
+   * @return list of all AVPs, decoding pending data if needed
+   */
+  private List<Avp> avps() {
+    if (pendingData != null) {
+      decodePending();
+    }
+    return avps;
+  }
+
+  /**
+   * @return list in which AVPs with the given code can be looked up, pending data is decoded only if
+   * such AVPs were not indexed
+   */
+  private List<Avp> avps(int avpCode) {
+    return pendingData != null && isIndexed(avpCode) ? avps : avps();
+  }
+
+  private synchronized void decodePending() {
+    byte[] data = pendingData;
+    if (data == null) {
+      // decoded by another reader meanwhile
+      return;
+    }
+    List<Avp> avps = this.avps;
+    List<Avp> decoded;
+    try {
+      decoded = parser.decodeAvpSet(data, pendingOffset, pendingLength, pendingZeroCopy).avps;
+    }
+    catch (AvpDataException e) {
+      // can't happen, framing was verified when indexed AVPs were decoded
+      throw new IllegalStateException(e);
+    }
+    // keep instances of already decoded AVPs, they could have been handed out and modified
+    for (int i = 0, indexed = 0; i < decoded.size() && indexed < pendingIndexed; i++) {
+      if (isIndexed(decoded.get(i).getCode())) {
+        decoded.set(i, avps.get(indexed++));
+      }
+    }
+    decoded.addAll(avps.subList(pendingIndexed, avps.size()));
+    this.avps = decoded;
+    positions = null;
+    pendingData = null;
+  }
+
+  private void append(Avp avp) {
+    avps.add(avp);
+    AvpIndex index = positions;
+    if (index != null && !index.add(avp.getCode())) {
+      positions = null;
+    }
+  }
+
+  private void insert(int index, Avp avp) {
+    avps().add(index, avp);
+    positions = null;
+  }
+
+  /**
+   * @return position of the first AVP with the given code and vendor in the list, -1 if there is none
+   */
+  private int indexOf(List<Avp> list, int avpCode, long vendorId) {
+    return indexOf(list, -1, avpCode, vendorId);
+  }
+
+  /**
+   * @return position of the first AVP with the given code and vendor in the list, following the given one,
+   * -1 if there is none
+   */
+  private int indexOf(List<Avp> list, int previous, int avpCode, long vendorId) {
+    // the index is only used with the list it was built for, readers may still hold the list replaced by decoding
+    AvpIndex index = positions;
+    if ((index == null || !index.isFor(list)) && list.size() >= INDEX_THRESHOLD) {
+      index = new AvpIndex(list);
+      positions = index;
+    }
+    if (index != null && index.isFor(list)) {
+      for (int i = previous < 0 ? index.first(avpCode) : index.next(previous); i >= 0; i = index.next(i)) {
+        if (matches(list.get(i), avpCode, vendorId)) {
+          return i;
+        }
+      }
+    }
+    else {
+      for (int i = previous + 1; i < list.size(); i++) {
+        if (matches(list.get(i), avpCode, vendorId)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static boolean matches(Avp avp, int avpCode, long vendorId) {
+    return avp.getCode() == avpCode && (vendorId == ANY_VENDOR || avp.getVendorId() == vendorId);
+  }
+
+  @Override
+  public Avp getAvp(int avpCode) {
+    return getAvp(avpCode, ANY_VENDOR);
   }
 
   @Override
   public Avp getAvpByIndex(int avpIndex) {
-    return this.avps.get(avpIndex);
+    return avps().get(avpIndex);
   }
 
   @Override
   public Avp getAvp(int avpCode, long vendorId) {
-    for (Avp avp : this.avps) {
-      if (avp.getCode() == avpCode && avp.getVendorId() == vendorId) {
-        return avp;
-      }
-    }
-    return null;
+    List<Avp> list = avps(avpCode);
+    int i = indexOf(list, avpCode, vendorId);
+    return i < 0 ? null : list.get(i);
   }
 
   @Override
   public AvpSet getAvps(int avpCode) {
-    AvpSet result = new AvpSetImpl();
-    for (Avp avp : this.avps) {
-      if (avp.getCode() == avpCode) {
-        result.addAvp(avp);
-      }
-    }
-    return result;
+    return getAvps(avpCode, ANY_VENDOR);
   }
 
 
 
   @Override
   public AvpSet getAvps(int avpCode, long vendorId) {
-    AvpSet result = new AvpSetImpl();
-    for (Avp avp : this.avps) {
-      if (avp.getCode() == avpCode && avp.getVendorId() == vendorId) {
-        result.addAvp(avp);
-      }
+    AvpSetImpl result = new AvpSetImpl();
+    List<Avp> list = avps(avpCode);
+    for (int i = indexOf(list, avpCode, vendorId); i >= 0; i = indexOf(list, i, avpCode, vendorId)) {
+      result.append(list.get(i));
     }
     return result;
   }
 
   @Override
   public int getAvpIndex(int avpCode) {
-    for (Avp avp : this.avps) {
-      if (avp.getCode() == avpCode) {
-        return this.avps.indexOf(avp);
-      }
-    }
-    return -1;
+    return indexOf(avps(), avpCode, ANY_VENDOR);
   }
 
   @Override
   public int getAvpIndex(int avpCode, long vendorId) {
-    for (Avp avp : this.avps) {
-      if (avp.getCode() == avpCode && avp.getVendorId() == vendorId) {
-        return this.avps.indexOf(avp);
-      }
-    }
-    return -1;
+    return indexOf(avps(), avpCode, vendorId);
   }
 
   @Override
@@ -167,7 +306,8 @@ class AvpSetImpl implements AvpSet {
     //      this.avps.remove(avp);
     //    }
     //  }
-    Iterator<Avp> it = this.avps.iterator();
+    Iterator<Avp> it = avps().iterator();
+    positions = null;
     while (it.hasNext()) {
       Avp avp = it.next();
       if (avp.getCode() == avpCode && avp.getVendorId() == vendorId) {
@@ -180,18 +320,19 @@ class AvpSetImpl implements AvpSet {
 
   @Override
   public Avp removeAvpByIndex(int i) {
-    return (i >= this.avps.size()) ? null : this.avps.remove(i);
+    positions = null;
+    return (i >= avps().size()) ? null : this.avps.remove(i);
   }
 
   @Override
   public Avp[] asArray() {
-    return this.avps.toArray(new Avp[avps.size()]);
+    return avps().toArray(new Avp[avps.size()]);
   }
 
   @Override
   public Avp addAvp(int avpCode, long value, boolean asUnsigned) {
     Avp res = new AvpImpl(avpCode, 0, 0, asUnsigned ? parser.intU32ToBytes(value) : parser.int64ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -199,7 +340,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, long value, boolean mFlag, boolean pFlag, boolean asUnsigned) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags , 0, asUnsigned ? parser.intU32ToBytes(value) : parser.int64ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -207,24 +348,26 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, long value, long vndId, boolean mFlag, boolean pFlag, boolean asUnsigned) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, asUnsigned ? parser.intU32ToBytes(value) : parser.int64ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
   @Override
   public void insertAvp(int index, Avp... avps) {
-    this.avps.addAll(index, Arrays.asList(avps));
+    avps().addAll(index, Arrays.asList(avps));
+    positions = null;
   }
 
   @Override
   public void insertAvp(int index, AvpSet avpSet) {
-    this.avps.addAll(index, Arrays.asList(avpSet.asArray()));
+    avps().addAll(index, Arrays.asList(avpSet.asArray()));
+    positions = null;
   }
 
   @Override
   public Avp insertAvp(int index, int avpCode, long value, boolean asUnsigned) {
     Avp res = new AvpImpl(avpCode, 0, 0, asUnsigned ? parser.intU32ToBytes(value) : parser.int64ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -232,7 +375,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, long value, boolean mFlag, boolean pFlag, boolean asUnsigned) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags , 0, asUnsigned ? parser.intU32ToBytes(value) : parser.int64ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -240,7 +383,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, long value, long vndId, boolean mFlag, boolean pFlag, boolean asUnsigned) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, asUnsigned ? parser.intU32ToBytes(value) : parser.int64ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -248,19 +391,19 @@ class AvpSetImpl implements AvpSet {
   public AvpSet insertGroupedAvp(int index, int avpCode) {
     AvpImpl res = new AvpImpl(avpCode, 0, 0, new byte[0]);
     res.groupedData = new AvpSetImpl();
-    this.avps.add(index, res);
+    insert(index, res);
     return res.groupedData;
   }
 
   @Override
   public int size() {
-    return this.avps.size();
+    return avps().size();
   }
 
   @Override
   public void addAvp(AvpSet avpSet) {
     for (Avp a:avpSet) {
-      avps.add(a);
+      append(a);
     }
   }
 
@@ -270,7 +413,7 @@ class AvpSetImpl implements AvpSet {
       // No need to clone AVP, right?
       // Avp res = new AvpImpl(a);
       if (a != null) {
-        this.avps.add(a);
+        append(a);
       }
     }
   }
@@ -278,7 +421,7 @@ class AvpSetImpl implements AvpSet {
   @Override
   public Avp addAvp(int avpCode, byte[] rawData) {
     Avp res = new AvpImpl(avpCode, 0, 0, rawData);
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -286,7 +429,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, byte[] rawData, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags , 0, rawData);
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -294,14 +437,14 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, byte[] rawData, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, rawData);
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
   @Override
   public Avp addAvp(int avpCode, int value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.int32ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -309,7 +452,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, int value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.int32ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -317,14 +460,14 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, int value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.int32ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
   @Override
   public Avp addAvp(int avpCode, long value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.int64ToBytes(value) );
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -332,7 +475,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, long value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.int64ToBytes(value) );
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -340,14 +483,14 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, long value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.int64ToBytes(value) );
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
   @Override
   public Avp addAvp(int avpCode, float value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.float32ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -355,7 +498,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, float value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.float32ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -363,14 +506,14 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, float value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.float32ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
   @Override
   public Avp addAvp(int avpCode, double value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.float64ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
 
   }
@@ -379,7 +522,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, double value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.float64ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -387,7 +530,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, double value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.float64ToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -396,7 +539,7 @@ class AvpSetImpl implements AvpSet {
     try {
       Avp res = new AvpImpl(avpCode, 0, 0, asOctetString ? parser.octetStringToBytes(value) : parser.utf8StringToBytes(value)
           );
-      this.avps.add(res);
+      append(res);
       return res;
     } catch (Exception e) {
       throw new IllegalArgumentException(e);
@@ -409,7 +552,7 @@ class AvpSetImpl implements AvpSet {
     try {
       Avp res = new AvpImpl(avpCode, flags, 0, asOctetString ? parser.octetStringToBytes(value) : parser.utf8StringToBytes(value)
           );
-      this.avps.add(res);
+      append(res);
       return res;
     } catch (Exception e) {
       throw new IllegalArgumentException(e);
@@ -422,7 +565,7 @@ class AvpSetImpl implements AvpSet {
     try {
       Avp res = new AvpImpl(avpCode, flags, vndId, asOctetString ? parser.octetStringToBytes(value) : parser.utf8StringToBytes(value)
           );
-      this.avps.add(res);
+      append(res);
       return res;
     } catch (Exception e) {
       throw new IllegalArgumentException(e);
@@ -433,7 +576,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, URI value) {
     try {
       Avp res = new AvpImpl(avpCode, 0, 0, parser.octetStringToBytes(value.toString()));
-      this.avps.add(res);
+      append(res);
       return res;
     } catch (ParseException e) {
       throw new IllegalArgumentException(e);
@@ -445,7 +588,7 @@ class AvpSetImpl implements AvpSet {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     try {
       Avp res = new AvpImpl(avpCode, flags, 0, parser.octetStringToBytes(value.toString()));
-      this.avps.add(res);
+      append(res);
       return res;
     } catch (ParseException e) {
       throw new IllegalArgumentException(e);
@@ -457,7 +600,7 @@ class AvpSetImpl implements AvpSet {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     try {
       Avp res = new AvpImpl(avpCode, flags, vndId, parser.octetStringToBytes(value.toString()));
-      this.avps.add(res);
+      append(res);
       return res;
     } catch (ParseException e) {
       throw new IllegalArgumentException(e);
@@ -467,7 +610,7 @@ class AvpSetImpl implements AvpSet {
   @Override
   public Avp addAvp(int avpCode, InetAddress value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.addressToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -475,7 +618,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, InetAddress value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.addressToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -483,14 +626,14 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, InetAddress value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.addressToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
   @Override
   public Avp addAvp(int avpCode, Date value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.dateToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
 
   }
@@ -499,7 +642,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, Date value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.dateToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -507,7 +650,7 @@ class AvpSetImpl implements AvpSet {
   public Avp addAvp(int avpCode, Date value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.dateToBytes(value));
-    this.avps.add(res);
+    append(res);
     return res;
   }
 
@@ -515,7 +658,7 @@ class AvpSetImpl implements AvpSet {
   public AvpSet addGroupedAvp(int avpCode) {
     AvpImpl res = new AvpImpl(avpCode, 0, 0, new byte[0] );
     res.groupedData = new AvpSetImpl();
-    this.avps.add(res);
+    append(res);
     return res.groupedData;
   }
 
@@ -524,7 +667,7 @@ class AvpSetImpl implements AvpSet {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     AvpImpl res = new AvpImpl(avpCode, flags, 0, new byte[0] );
     res.groupedData = new AvpSetImpl();
-    this.avps.add(res);
+    append(res);
     return res.groupedData;
   }
 
@@ -533,14 +676,14 @@ class AvpSetImpl implements AvpSet {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     AvpImpl res = new AvpImpl(avpCode, flags, vndId, new byte[0] );
     res.groupedData = new AvpSetImpl();
-    this.avps.add(res);
+    append(res);
     return res.groupedData;
   }
 
   @Override
   public Avp insertAvp(int index, int avpCode, byte[] value) {
     Avp res = new AvpImpl(avpCode, 0, 0, value);
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -548,7 +691,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, byte[] value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, value);
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
 
   }
@@ -557,14 +700,14 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, byte[] value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, value);
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
   @Override
   public Avp insertAvp(int index, int avpCode, int value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.int32ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -572,7 +715,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, int value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.int32ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -580,14 +723,14 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, int value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.int32ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
   @Override
   public Avp insertAvp(int index, int avpCode, long value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.int64ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -595,7 +738,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, long value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.int64ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -603,14 +746,14 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, long value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.int64ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
   @Override
   public Avp insertAvp(int index, int avpCode, float value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.float32ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -618,7 +761,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, float value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.float32ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -626,14 +769,14 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, float value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.float32ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
   @Override
   public Avp insertAvp(int index, int avpCode, double value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.float64ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -641,7 +784,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, double value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.float64ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -649,7 +792,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, double value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.float64ToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -658,7 +801,7 @@ class AvpSetImpl implements AvpSet {
     try {
       Avp res = new AvpImpl(avpCode, 0, 0, asOctetString ? parser.octetStringToBytes(value) :
           parser.utf8StringToBytes(value));
-      this.avps.add(index, res);
+      insert(index, res);
       return res;
     } catch (Exception e) {
       throw new IllegalArgumentException(e);
@@ -671,7 +814,7 @@ class AvpSetImpl implements AvpSet {
     try {
       Avp res = new AvpImpl(avpCode, flags, 0, asOctetString ? parser.octetStringToBytes(value) :
           parser.utf8StringToBytes(value));
-      this.avps.add(index, res);
+      insert(index, res);
       return res;
     } catch (Exception e) {
       throw new IllegalArgumentException(e);
@@ -685,7 +828,7 @@ class AvpSetImpl implements AvpSet {
     try {
       Avp res = new AvpImpl(avpCode, flags, vndId, asOctetString ? parser.octetStringToBytes(value) :
           parser.utf8StringToBytes(value));
-      this.avps.add(index, res);
+      insert(index, res);
       return res;
     } catch (Exception e) {
       throw new IllegalArgumentException(e);
@@ -696,7 +839,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, URI value) {
     try {
       Avp res = new AvpImpl(avpCode, 0, 0, parser.octetStringToBytes(value.toString()));
-      this.avps.add(index, res);
+      insert(index, res);
       return res;
     } catch (Exception e) {
       throw new IllegalArgumentException(e);
@@ -708,7 +851,7 @@ class AvpSetImpl implements AvpSet {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     try {
       Avp res = new AvpImpl(avpCode, flags, 0, parser.octetStringToBytes(value.toString()));
-      this.avps.add(index, res);
+      insert(index, res);
       return res;
     } catch (Exception e) {
       throw new IllegalArgumentException(e);
@@ -720,7 +863,7 @@ class AvpSetImpl implements AvpSet {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     try {
       Avp res = new AvpImpl(avpCode, flags, vndId, parser.octetStringToBytes(value.toString()));
-      this.avps.add(index, res);
+      insert(index, res);
       return res;
     } catch (Exception e) {
       throw new IllegalArgumentException(e);
@@ -730,7 +873,7 @@ class AvpSetImpl implements AvpSet {
   @Override
   public Avp insertAvp(int index, int avpCode, InetAddress value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.addressToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -738,7 +881,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, InetAddress value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.addressToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -746,14 +889,14 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, InetAddress value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.addressToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
   @Override
   public Avp insertAvp(int index, int avpCode, Date value) {
     Avp res = new AvpImpl(avpCode, 0, 0, parser.dateToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -761,7 +904,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, Date value, boolean mFlag, boolean pFlag) {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, 0, parser.dateToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -769,7 +912,7 @@ class AvpSetImpl implements AvpSet {
   public Avp insertAvp(int index, int avpCode, Date value, long vndId, boolean mFlag, boolean pFlag) {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     Avp res = new AvpImpl(avpCode, flags, vndId, parser.dateToBytes(value));
-    this.avps.add(index, res);
+    insert(index, res);
     return res;
   }
 
@@ -778,7 +921,7 @@ class AvpSetImpl implements AvpSet {
     int flags = ((mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     AvpImpl res = new AvpImpl(avpCode, flags, 0, new byte[0] );
     res.groupedData = new AvpSetImpl();
-    this.avps.add(index, res);
+    insert(index, res);
     return res.groupedData;
   }
 
@@ -787,7 +930,7 @@ class AvpSetImpl implements AvpSet {
     int flags = ((vndId != 0 ? 0x80 : 0) | (mFlag ? 0x40 : 0) | (pFlag ? 0x20 : 0));
     AvpImpl res = new AvpImpl(avpCode, flags, vndId, new byte[0] );
     res.groupedData = new AvpSetImpl();
-    this.avps.add(index, res);
+    insert(index, res);
     return res.groupedData;
   }
 
@@ -805,11 +948,29 @@ class AvpSetImpl implements AvpSet {
   public Iterator<Avp> iterator() {
     // Iterator contract demands it to be able to remove items
     // return Collections.unmodifiableList(this.avps).iterator();
-    return this.avps.iterator();
+    final Iterator<Avp> it = avps().iterator();
+    return new Iterator<Avp>() {
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public Avp next() {
+        return it.next();
+      }
+
+      @Override
+      public void remove() {
+        it.remove();
+        positions = null;
+      }
+    };
   }
 
   @Override
   public String toString() {
-    return new StringBuffer("AvpSetImpl [avps=").append(avps).append("]@").append(super.hashCode()).toString();
+    return new StringBuffer("AvpSetImpl [avps=").append(avps()).append("]@").append(super.hashCode()).toString();
   }
 }
@@ -42,8 +42,6 @@
 
 package org.jdiameter.client.impl.parser;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.Inet4Address;
@@ -83,31 +81,50 @@ public class ElementParser implements IElementParser {
 
   @Override
   public int bytesToInt(byte[] rawData) throws AvpDataException {
+    return bytesToInt(rawData, 0);
+  }
+
+  /**
+   * Reads a 32 bit integer starting at the given offset of the buffer.
+   */
+  public int bytesToInt(byte[] rawData, int offset) throws AvpDataException {
     // http://stackoverflow.com/a/9581858
     return
-        (rawData[0] & 0xFF) << 24 |
-        (rawData[1] & 0xFF) << 16 |
-        (rawData[2] & 0xFF) << 8 |
-        (rawData[3] & 0xFF) << 0;
+        (rawData[offset] & 0xFF) << 24 |
+        (rawData[offset + 1] & 0xFF) << 16 |
+        (rawData[offset + 2] & 0xFF) << 8 |
+        (rawData[offset + 3] & 0xFF) << 0;
   }
 
   @Override
   public long bytesToLong(byte[] rawData) throws AvpDataException {
+    return bytesToLong(rawData, 0);
+  }
+
+  /**
+   * Reads a 64 bit integer starting at the given offset of the buffer.
+   */
+  public long bytesToLong(byte[] rawData, int offset) throws AvpDataException {
     // http://stackoverflow.com/a/1026804
-    return (rawData[0] & 0xFFL) << 56
-        | (rawData[1] & 0xFFL) << 48
-        | (rawData[2] & 0xFFL) << 40
-        | (rawData[3] & 0xFFL) << 32
-        | (rawData[4] & 0xFFL) << 24
-        | (rawData[5] & 0xFFL) << 16
-        | (rawData[6] & 0xFFL) << 8
-        | (rawData[7] & 0xFFL) << 0;
+    return (rawData[offset] & 0xFFL) << 56
+        | (rawData[offset + 1] & 0xFFL) << 48
+        | (rawData[offset + 2] & 0xFFL) << 40
+        | (rawData[offset + 3] & 0xFFL) << 32
+        | (rawData[offset + 4] & 0xFFL) << 24
+        | (rawData[offset + 5] & 0xFFL) << 16
+        | (rawData[offset + 6] & 0xFFL) << 8
+        | (rawData[offset + 7] & 0xFFL) << 0;
   }
 
   public long bytesToUnsignedInt32(byte[] rawData) throws AvpDataException {
-    byte[] u32ext = new byte[INT64_SIZE];
-    System.arraycopy(rawData, 0, u32ext, 4, 4);
-    return bytesToLong(u32ext);
+    return bytesToUnsignedInt32(rawData, 0);
+  }
+
+  /**
+   * Reads an unsigned 32 bit integer starting at the given offset of the buffer.
+   */
+  public long bytesToUnsignedInt32(byte[] rawData, int offset) throws AvpDataException {
+    return bytesToInt(rawData, offset) & 0xFFFFFFFFL;
   }
 
   @Override
@@ -123,8 +140,15 @@ public class ElementParser implements IElementParser {
 
   @Override
   public String bytesToOctetString(byte[] rawData) throws AvpDataException {
+    return bytesToOctetString(rawData, 0, rawData.length);
+  }
+
+  /**
+   * Decodes an OctetString held in a region of the buffer.
+   */
+  public String bytesToOctetString(byte[] rawData, int offset, int length) throws AvpDataException {
     try {
-      return new String(rawData, "iso-8859-1");
+      return new String(rawData, offset, length, "iso-8859-1");
     }
     catch (UnsupportedEncodingException e) {
       throw new AvpDataException("Invalid data type", e);
@@ -133,8 +157,15 @@ public class ElementParser implements IElementParser {
 
   @Override
   public String bytesToUtf8String(byte[] rawData) throws AvpDataException {
+    return bytesToUtf8String(rawData, 0, rawData.length);
+  }
+
+  /**
+   * Decodes an UTF8String held in a region of the buffer.
+   */
+  public String bytesToUtf8String(byte[] rawData, int offset, int length) throws AvpDataException {
     try {
-      return new String(rawData, "utf8");
+      return new String(rawData, offset, length, "utf8");
     }
     catch (UnsupportedEncodingException e) {
       throw new AvpDataException("Invalid data type", e);
@@ -143,10 +174,15 @@ public class ElementParser implements IElementParser {
 
   @Override
   public Date bytesToDate(byte[] rawData) throws AvpDataException {
+    return bytesToDate(rawData, 0);
+  }
+
+  /**
+   * Decodes a Time value starting at the given offset of the buffer.
+   */
+  public Date bytesToDate(byte[] rawData, int offset) throws AvpDataException {
     try {
-      byte[] tmp = new byte[8];
-      System.arraycopy(rawData, 0 , tmp, 4, 4);
-      return new Date(((bytesToLong(tmp) - SECOND_SHIFT) * 1000L));
+      return new Date(((bytesToUnsignedInt32(rawData, offset) - SECOND_SHIFT) * 1000L));
     }
     catch (Exception e) {
       throw new AvpDataException(e);
@@ -155,12 +191,19 @@ public class ElementParser implements IElementParser {
 
   @Override
   public InetAddress bytesToAddress(byte[] rawData) throws AvpDataException {
+    return bytesToAddress(rawData, 0);
+  }
+
+  /**
+   * Decodes an Address value starting at the given offset of the buffer.
+   */
+  public InetAddress bytesToAddress(byte[] rawData, int offset) throws AvpDataException {
     InetAddress inetAddress;
     try {
-      boolean isIPv6 = rawData[INT_INET4] != INT_INET4;
+      boolean isIPv6 = rawData[offset + INT_INET4] != INT_INET4;
       byte[] address = new byte[isIPv6 ? 16 : 4];
-      System.arraycopy(rawData, 2, address, 0, address.length);
-      inetAddress = isIPv6 ? InetAddress.getByAddress(address) : InetAddress.getByAddress(address);
+      System.arraycopy(rawData, offset + 2, address, 0, address.length);
+      inetAddress = InetAddress.getByAddress(address);
     }
     catch (Exception e) {
       throw new AvpDataException(e);
@@ -273,130 +316,235 @@ public class ElementParser implements IElementParser {
    * @throws AvpDataException
    */
   public AvpSetImpl decodeAvpSet(byte[] buffer, int shift) throws IOException, AvpDataException {
+    return this.decodeAvpSet(buffer, shift, buffer.length - shift, false);
+  }
+
+  /**
+   * Decodes the AVPs held in a region of the buffer.
+   *
+   * When <code>zeroCopy</code> is set, decoded AVPs do not get a private copy of their payload but keep
+   * offset and length into <code>buffer</code>, which must therefore not be modified afterwards. The payload
+   * is copied only when raw bytes are requested from such an AVP.
+   *
+   * @param buffer buffer holding encoded AVPs
+   * @param offset position of the first AVP in the buffer
+   * @param length number of bytes to decode
+   * @param zeroCopy if true, AVPs are created as views over the buffer
+   * @return decoded set of AVPs
+   * @throws AvpDataException if the buffer does not contain a valid sequence of AVPs
+   */
+  public AvpSetImpl decodeAvpSet(byte[] buffer, int offset, int length, boolean zeroCopy) throws AvpDataException {
+    return decodeAvpSet(buffer, offset, length, zeroCopy, false);
+  }
+
+  /**
+   * Decodes the AVPs held in a region of the buffer, possibly leaving some of them in encoded form.
+   *
+   * When <code>lazy</code> is set, only AVPs needed for routing and answer creation are decoded, the whole
+   * region is just walked to verify AVP framing. Remaining AVPs are decoded by the returned set when they are
+   * first accessed, so the buffer must not be modified afterwards.
+   *
+   * @param buffer buffer holding encoded AVPs
+   * @param offset position of the first AVP in the buffer
+   * @param length number of bytes to decode
+   * @param zeroCopy if true, AVPs are created as views over the buffer
+   * @param lazy if true, only routing AVPs are decoded upfront
+   * @return decoded set of AVPs
+   * @throws AvpDataException if the buffer does not contain a valid sequence of AVPs
+   */
+  public AvpSetImpl decodeAvpSet(byte[] buffer, int offset, int length, boolean zeroCopy, boolean lazy) throws AvpDataException {
     AvpSetImpl avps = new AvpSetImpl();
-    int tmp, counter = shift;
-    DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer, shift, buffer.length /* - shift ? */));
+    int counter = offset;
+    int end = offset + length;
+    boolean skipped = false;
 
-    while (counter < buffer.length) {
-      int code = in.readInt();
-      tmp = in.readInt();
+    while (counter < end) {
+      if (counter + 8 > end) {
+        throw new AvpDataException("Not enough data in buffer!");
+      }
+      int code = bytesToInt(buffer, counter);
+      int tmp = bytesToInt(buffer, counter + 4);
       int flags = (tmp >> 24) & 0xFF;
-      int length  = tmp & 0xFFFFFF;
-      if (length < 0 || counter + length > buffer.length) {
+      int avpLength  = tmp & 0xFFFFFF;
+      int headerLength = (flags & 0x80) != 0 ? 12 : 8;
+      if (avpLength < headerLength || counter + avpLength > end) {
         throw new AvpDataException("Not enough data in buffer!");
       }
       long vendor = 0;
-      boolean hasVendor = false;
-      if ((flags & 0x80) != 0) {
-        vendor = in.readInt();
-        hasVendor = true;
+      if (headerLength == 12) {
+        vendor = bytesToInt(buffer, counter + 8);
+      }
+      if (lazy && !AvpSetImpl.isIndexed(code)) {
+        skipped = true;
       }
-      // Determine body L = length - 4(code) -1(flags) -3(length) [-4(vendor)]
-      byte[] rawData = new byte[length - (8 + (hasVendor ? 4 : 0))];
-      in.read(rawData);
-      // skip remaining.
-      // TODO: Do we need to padd everything? Or on send stack should properly fill byte[] ... ?
-      if (length % 4 != 0) {
-        for (int i; length % 4 != 0; length += i) {
-          i = (int) in.skip((4 - length % 4));
-        }
+      else {
+        // Determine body L = length - 4(code) -1(flags) -3(length) [-4(vendor)]
+        int dataOffset = counter + headerLength;
+        int dataLength = avpLength - headerLength;
+        AvpImpl avp = zeroCopy ? new AvpImpl(code, flags, vendor, buffer, dataOffset, dataLength) :
+          new AvpImpl(code, flags, vendor, Arrays.copyOfRange(buffer, dataOffset, dataOffset + dataLength));
+        avps.addAvp(avp);
       }
-      AvpImpl avp = new AvpImpl(code, (short) flags, (int) vendor, rawData);
-      avps.addAvp(avp);
-      counter += length;
+      // skip padding, last AVP in buffer may come without it
+      counter += (avpLength + 3) & ~3;
+    }
+    if (skipped) {
+      avps.setPending(buffer, offset, length, zeroCopy);
     }
     return avps;
   }
 
-  public byte[] encodeAvpSet(AvpSet avps) {
-    //ByteArrayOutputStream out = new ByteArrayOutputStream();
-    DynamicByteArray dba = new DynamicByteArray(0);
-    try {
-      //DataOutputStream data = new DataOutputStream(out);
-      for (Avp a : avps) {
-        if (a instanceof AvpImpl) {
-          AvpImpl aImpl = (AvpImpl) a;
-          if (aImpl.rawData.length == 0 && aImpl.groupedData != null) {
-            aImpl.rawData = encodeAvpSet(a.getGrouped());
-          }
-          //data.write(newEncodeAvp(aImpl));
-          dba.add(encodeAvp(aImpl));
-        }
+  /**
+   * Decodes the AVPs held in a region of the buffer, which may be a direct one. Payload of each AVP is copied
+   * out of the buffer, so it can be reused as soon as this method returns. Buffer position is not changed.
+   *
+   * @param buffer buffer holding encoded AVPs
+   * @param offset position of the first AVP in the buffer
+   * @param length number of bytes to decode
+   * @return decoded set of AVPs
+   * @throws AvpDataException if the buffer does not contain a valid sequence of AVPs
+   */
+  public AvpSetImpl decodeAvpSet(ByteBuffer buffer, int offset, int length) throws AvpDataException {
+    AvpSetImpl avps = new AvpSetImpl();
+    ByteBuffer data = buffer.duplicate();
+    int counter = offset;
+    int end = offset + length;
+
+    while (counter < end) {
+      if (counter + 8 > end) {
+        throw new AvpDataException("Not enough data in buffer!");
       }
+      int code = buffer.getInt(counter);
+      int tmp = buffer.getInt(counter + 4);
+      int flags = (tmp >> 24) & 0xFF;
+      int avpLength  = tmp & 0xFFFFFF;
+      int headerLength = (flags & 0x80) != 0 ? 12 : 8;
+      if (avpLength < headerLength || counter + avpLength > end) {
+        throw new AvpDataException("Not enough data in buffer!");
+      }
+      long vendor = 0;
+      if (headerLength == 12) {
+        vendor = buffer.getInt(counter + 8);
+      }
+      byte[] rawData = new byte[avpLength - headerLength];
+      data.limit(counter + avpLength);
+      data.position(counter + headerLength);
+      data.get(rawData);
+      avps.addAvp(new AvpImpl(code, flags, vendor, rawData));
+      // skip padding, last AVP in buffer may come without it
+      counter += (avpLength + 3) & ~3;
     }
-    catch (Exception e) {
-      e.printStackTrace();
-      logger.debug("Error during encode avps", e);
-    }
-    return dba.getResult();
+    return avps;
   }
 
-  protected class DynamicByteArray {
-
-    private byte[] array;
-    private int size;
-
-    public DynamicByteArray(int cap) {
-      array = new byte[cap > 0 ? cap : 256];
-      size = 0;
+  /**
+   * Computes the number of bytes the set occupies once encoded, padding of each AVP included.
+   *
+   * @param avps set of AVPs
+   * @return encoded length of the set
+   */
+  public int getEncodedLength(AvpSet avps) {
+    int length = 0;
+    Iterable<Avp> encoded = avps;
+    if (avps instanceof AvpSetImpl) {
+      AvpSetImpl set = (AvpSetImpl) avps;
+      if (set.isPendingReusable()) {
+        // last AVP of the pending data may come without padding
+        length = (set.pendingLength + 3) & ~3;
+        encoded = set.avps.subList(set.pendingIndexed, set.avps.size());
+      }
     }
-
-    public int get(int pos) {
-      if (pos >= size) {
-        throw new ArrayIndexOutOfBoundsException();
+    for (Avp a : encoded) {
+      if (a instanceof AvpImpl) {
+        length += getEncodedLength((AvpImpl) a);
       }
-      return array[pos];
     }
+    return length;
+  }
 
-    public void add(byte[] bytes) {
-      if (size + bytes.length > array.length) {
-        byte[] newarray = new byte[array.length + bytes.length * 2];
-        System.arraycopy(array, 0, newarray, 0, size);
-        array = newarray;
+  /**
+   * Computes the number of bytes the AVP occupies once encoded, padding included.
+   *
+   * @param avp AVP
+   * @return encoded length of the AVP
+   */
+  public int getEncodedLength(AvpImpl avp) {
+    int payloadSize = avp.rawLength == 0 && avp.groupedData != null ? getEncodedLength(avp.groupedData) : avp.rawLength;
+    return (avp.getVendorId() != 0 ? 12 : 8) + ((payloadSize + 3) & ~3);
+  }
+
+  public byte[] encodeAvpSet(AvpSet avps) {
+    ByteBuffer buffer = ByteBuffer.allocate(getEncodedLength(avps));
+    encodeAvpSet(avps, buffer);
+    return buffer.array();
+  }
+
+  /**
+   * Encodes the set into the buffer, starting at its current position. Content of grouped AVPs is encoded
+   * straight into the buffer too, no intermediate arrays are created.
+   *
+   * @param avps set of AVPs
+   * @param buffer big endian buffer with at least {@link #getEncodedLength(AvpSet)} bytes remaining
+   */
+  public void encodeAvpSet(AvpSet avps, ByteBuffer buffer) {
+    Iterable<Avp> encoded = avps;
+    if (avps instanceof AvpSetImpl) {
+      AvpSetImpl set = (AvpSetImpl) avps;
+      if (set.isPendingReusable()) {
+        // nothing decoded from the pending data could have changed, copy it back as received
+        buffer.put(set.pendingData, set.pendingOffset, set.pendingLength);
+        pad(buffer, set.pendingLength);
+        encoded = set.avps.subList(set.pendingIndexed, set.avps.size());
       }
-      System.arraycopy(bytes, 0, array, size, bytes.length);
-      size += bytes.length;
     }
-
-    public byte[] getResult() {
-      return Arrays.copyOfRange(array, 0, size);
+    for (Avp a : encoded) {
+      if (a instanceof AvpImpl) {
+        encodeAvp((AvpImpl) a, buffer);
+      }
     }
   }
 
   public byte[] encodeAvp(AvpImpl avp) {
-    try {
-      int payloadSize = avp.getRaw().length;
-      boolean hasVendorId = avp.getVendorId() != 0;
-      int origLength = payloadSize + 8 + (hasVendorId ? 4 : 0);
-      int tmp = payloadSize % 4;
-      int paddingSize = tmp > 0 ? (4 - tmp) : 0;
-
-      byte[] bCode = this.int32ToBytes(avp.getCode());
-      int flags = (byte) ((hasVendorId ? 0x80 : 0) |
-          (avp.isMandatory() ? 0x40 : 0) | (avp.isEncrypted() ? 0x20 : 0));
-      byte[] bFlags = this.int32ToBytes(((flags << 24) & 0xFF000000) + origLength);
-      byte[] bVendor = hasVendorId ? int32ToBytes((int) avp.getVendorId()) : new byte[0];
-      return concat(origLength + paddingSize, bCode, bFlags, bVendor, avp.getRaw());
+    ByteBuffer buffer = ByteBuffer.allocate(getEncodedLength(avp));
+    encodeAvp(avp, buffer);
+    return buffer.array();
+  }
+
+  /**
+   * Encodes the AVP into the buffer, starting at its current position.
+   *
+   * @param avp AVP
+   * @param buffer big endian buffer with at least {@link #getEncodedLength(AvpImpl)} bytes remaining
+   */
+  public void encodeAvp(AvpImpl avp, ByteBuffer buffer) {
+    int start = buffer.position();
+    boolean hasVendorId = avp.getVendorId() != 0;
+    int flags = (hasVendorId ? 0x80 : 0) | (avp.isMandatory() ? 0x40 : 0) | (avp.isEncrypted() ? 0x20 : 0);
+    buffer.putInt(avp.getCode());
+    // length is filled in once the payload is written
+    buffer.putInt(0);
+    if (hasVendorId) {
+      buffer.putInt((int) avp.getVendorId());
     }
-    catch (Exception e) {
-      logger.debug("Error during encode avp", e);
-      return new byte[0];
+    int payloadSize;
+    if (avp.rawLength == 0 && avp.groupedData != null) {
+      int payloadStart = buffer.position();
+      encodeAvpSet(avp.groupedData, buffer);
+      payloadSize = buffer.position() - payloadStart;
+    }
+    else {
+      // payload may be a view over the message buffer, copy it straight from there
+      payloadSize = avp.rawLength;
+      buffer.put(avp.rawData, avp.rawOffset, payloadSize);
     }
+    buffer.putInt(start + 4, (flags << 24) | (buffer.position() - start));
+    pad(buffer, payloadSize);
   }
 
-  private byte[] concat(int length, byte[]... arrays) {
-    if (length == 0) {
-      for (byte[] array : arrays) {
-        length += array.length;
-      }
-    }
-    byte[] result = new byte[length];
-    int pos = 0;
-    for (byte[] array : arrays) {
-      System.arraycopy(array, 0, result, pos, array.length);
-      pos += array.length;
+  private void pad(ByteBuffer buffer, int length) {
+    for (int i = length & 3; i > 0 && i < 4; i++) {
+      buffer.put((byte) 0);
     }
-    return result;
   }
 
   protected ByteBuffer prepareBuffer(byte [] bytes, int len) throws AvpDataException  {
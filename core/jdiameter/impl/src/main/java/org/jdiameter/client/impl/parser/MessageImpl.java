@@ -44,9 +44,6 @@ package org.jdiameter.client.impl.parser;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.jdiameter.api.Answer;
@@ -58,7 +55,9 @@ import org.jdiameter.api.InternalException;
 import org.jdiameter.client.api.IEventListener;
 import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerLoad;
 import org.jdiameter.client.impl.router.RouterImpl;
+import org.jdiameter.common.impl.timer.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -95,6 +94,8 @@ public class MessageImpl implements IMessage {
   // Cached result for getApplicationIdAvps() method. It is called extensively and takes some time.
   // Potential place for dirt, but Application IDs don't change during message life time.
   transient List<ApplicationId> applicationIds;
+  // Cached result for getSingleApplicationId() method, looked up for each request dispatched to a listener.
+  transient ApplicationId singleApplicationId;
 
   /**
    * Create empty message
@@ -324,7 +325,12 @@ public class MessageImpl implements IMessage {
 
   @Override
   public ApplicationId getSingleApplicationId() {
-    return getSingleApplicationId(this.applicationId);
+    ApplicationId singleApplicationId = this.singleApplicationId;
+    if (singleApplicationId == null) {
+      singleApplicationId = getSingleApplicationId(this.applicationId);
+      this.singleApplicationId = singleApplicationId;
+    }
+    return singleApplicationId;
   }
 
   @Override
@@ -510,6 +516,7 @@ public class MessageImpl implements IMessage {
   @Override
   public void setHeaderApplicationId(long applicationId) {
     this.applicationId = applicationId;
+    this.singleApplicationId = null;
   }
 
   @Override
@@ -523,14 +530,21 @@ public class MessageImpl implements IMessage {
   }
 
   @Override
-  public void createTimer(ScheduledExecutorService scheduledFacility, long timeOut, TimeUnit timeUnit) {
+  public void createTimer(TimingWheel timingWheel, long timeOut, TimeUnit timeUnit) {
     timerTask = new TimerTask(this);
-    timerTask.setTimerHandler(scheduledFacility, scheduledFacility.schedule(timerTask, timeOut, timeUnit));
+    timerTask.setTimerHandler(timingWheel.schedule(timerTask, timeOut, timeUnit));
+  }
+
+  @Override
+  public long getTimerStartTime() {
+    TimerTask timerTask = this.timerTask;
+    return timerTask != null ? timerTask.startTime : 0;
   }
 
   @Override
   public void runTimer() {
-    if (timerTask != null && !timerTask.isDone() && !timerTask.isCancelled()) {
+    // timeout is claimed first so that the task does not run twice
+    if (timerTask != null && timerTask.timerHandler != null && timerTask.timerHandler.cancel()) {
       timerTask.run();
     }
   }
@@ -615,16 +629,15 @@ public class MessageImpl implements IMessage {
 
   protected static class TimerTask implements Runnable {
 
-    ScheduledFuture timerHandler;
+    TimingWheel.Timeout timerHandler;
     MessageImpl message;
-    ScheduledExecutorService scheduledFacility;
+    final long startTime = System.nanoTime();
 
     public TimerTask(MessageImpl message) {
       this.message = message;
     }
 
-    public void setTimerHandler(ScheduledExecutorService scheduledFacility, ScheduledFuture timerHandler) {
-      this.scheduledFacility = scheduledFacility;
+    public void setTimerHandler(TimingWheel.Timeout timerHandler) {
       this.timerHandler = timerHandler;
     }
 
@@ -632,6 +645,9 @@ public class MessageImpl implements IMessage {
     public void run() {
       try {
         if (message != null && message.state != STATE_ANSWERED) {
+          if (message.peer instanceof IPeerLoad) {
+            ((IPeerLoad) message.peer).requestTimedOut(message);
+          }
           IEventListener listener = null;
           if (message.listener  instanceof IEventListener) {
             listener = message.listener;
@@ -651,16 +667,13 @@ public class MessageImpl implements IMessage {
 
     public void cancel() {
       if (timerHandler != null) {
-        timerHandler.cancel(true);
-        if (scheduledFacility instanceof ThreadPoolExecutor && timerHandler instanceof Runnable) {
-          ((ThreadPoolExecutor) scheduledFacility).remove((Runnable) timerHandler);
-        }
+        timerHandler.cancel();
       }
       message = null;
     }
 
     public boolean isDone() {
-      return timerHandler != null && timerHandler.isDone();
+      return timerHandler != null && !timerHandler.isPending();
     }
 
     public boolean isCancelled() {
@@ -46,17 +46,16 @@ import static org.jdiameter.api.Avp.ACCT_APPLICATION_ID;
 import static org.jdiameter.api.Avp.AUTH_APPLICATION_ID;
 import static org.jdiameter.api.Avp.SESSION_ID;
 import static org.jdiameter.api.Avp.VENDOR_SPECIFIC_APPLICATION_ID;
+import static org.jdiameter.client.impl.helpers.Parameters.LazyDecoding;
+import static org.jdiameter.client.impl.helpers.Parameters.ZeroCopyDecoding;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
 
 import org.jdiameter.api.Avp;
 import org.jdiameter.api.AvpDataException;
 import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.Configuration;
 import org.jdiameter.api.Request;
 import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.IRequest;
@@ -82,17 +81,29 @@ public class MessageParser extends ElementParser implements IMessageParser {
 
 
 
+  // if set, AVPs of received messages are not copied out of the message buffer
+  protected boolean zeroCopyDecoding;
+  // if set, only routing AVPs of received messages are decoded upfront
+  protected boolean lazyDecoding;
+
   public MessageParser() {
 
   }
 
+  public MessageParser(Configuration config) {
+    this.zeroCopyDecoding = config.getBooleanValue(ZeroCopyDecoding.ordinal(), (Boolean) ZeroCopyDecoding.defValue());
+    this.lazyDecoding = config.getBooleanValue(LazyDecoding.ordinal(), (Boolean) LazyDecoding.defValue());
+  }
+
   @Override
   public IMessage createMessage(byte[] message) throws AvpDataException {
     // Read header
     try {
+      if (message.length < 20) {
+        throw new Exception("Not enough data for message header: " + message.length);
+      }
       long tmp;
-      DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
-      tmp = in.readInt();
+      tmp = bytesToInt(message, 0);
       short version = (short) (tmp >> 24);
       if (version != 1) {
         throw new Exception("Illegal value of version " + version);
@@ -103,17 +114,17 @@ public class MessageParser extends ElementParser implements IMessageParser {
         throw new Exception("Wrong length of data: " + (tmp & 0x00FFFFFF));
       }
 
-      tmp = in.readInt();
+      tmp = bytesToInt(message, 4);
       short flags        = (short) ((tmp >> 24) & 0xFF);
       int commandCode    = (int) (tmp & 0xFFFFFF);
-      long applicationId = ((long) in.readInt() << 32) >>> 32;
-      long hopByHopId    = ((long) in.readInt() << 32) >>> 32;
-      long endToEndId    = ((long) in.readInt() << 32) >>> 32;
+      long applicationId = bytesToUnsignedInt32(message, 8);
+      long hopByHopId    = bytesToUnsignedInt32(message, 12);
+      long endToEndId    = bytesToUnsignedInt32(message, 16);
       // Read body
       // byte[] body = new byte[message.length - 20];
       // System.arraycopy(message, 20, body, 0, body.length);
       // AvpSetImpl avpSet = decodeAvpSet(body);
-      AvpSetImpl avpSet = decodeAvpSet(message, 20);
+      AvpSetImpl avpSet = decodeAvpSet(message, 20, message.length - 20, zeroCopyDecoding, lazyDecoding);
 
       return new MessageImpl(commandCode, applicationId, flags, hopByHopId, endToEndId, avpSet);
     }
@@ -128,6 +139,48 @@ public class MessageParser extends ElementParser implements IMessageParser {
     return createMessage(message);
   }
 
+  @Override
+  public IMessage createMessage(ByteBuffer data, int offset, int length) throws AvpDataException {
+    if (zeroCopyDecoding || lazyDecoding) {
+      // decoded message refers to the data it was decoded from, it has to own a copy of it
+      byte[] message = new byte[length];
+      ByteBuffer region = data.duplicate();
+      region.limit(offset + length);
+      region.position(offset);
+      region.get(message);
+      return createMessage(message);
+    }
+    // Read header
+    try {
+      if (length < 20) {
+        throw new Exception("Not enough data for message header: " + length);
+      }
+      int tmp = data.getInt(offset);
+      short version = (short) (tmp >> 24);
+      if (version != 1) {
+        throw new Exception("Illegal value of version " + version);
+      }
+
+      if (length != (tmp & 0x00FFFFFF)) {
+        throw new Exception("Wrong length of data: " + (tmp & 0x00FFFFFF));
+      }
+
+      tmp = data.getInt(offset + 4);
+      short flags        = (short) ((tmp >> 24) & 0xFF);
+      int commandCode    = tmp & 0xFFFFFF;
+      long applicationId = data.getInt(offset + 8) & 0xFFFFFFFFL;
+      long hopByHopId    = data.getInt(offset + 12) & 0xFFFFFFFFL;
+      long endToEndId    = data.getInt(offset + 16) & 0xFFFFFFFFL;
+      // Read body, AVP payloads are copied straight out of the buffer
+      AvpSetImpl avpSet = decodeAvpSet(data, offset + 20, length - 20);
+
+      return new MessageImpl(commandCode, applicationId, flags, hopByHopId, endToEndId, avpSet);
+    }
+    catch (Exception exc) {
+      throw new AvpDataException(exc);
+    }
+  }
+
   @Override
   public <T> T createMessage(Class<?> iface, ByteBuffer data) throws AvpDataException {
     if (iface == IMessage.class) {
@@ -284,46 +337,37 @@ public class MessageParser extends ElementParser implements IMessageParser {
     return byteArrayToHexString(in, true);
   }
 
+  @Override
+  public int getMessageLength(IMessage message) {
+    return 20 + getEncodedLength(message.getAvps());
+  }
+
   @Override
   public ByteBuffer encodeMessage(IMessage message) throws ParseException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteBuffer buffer = ByteBuffer.allocate(getMessageLength(message));
+    encodeMessage(message, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public void encodeMessage(IMessage message, ByteBuffer buffer) throws ParseException {
+    int start = buffer.position();
     try {
-      byte[] rawData = encodeAvpSet(message.getAvps());
-      DataOutputStream data = new DataOutputStream(out);
-      // Wasting processor time, are we ?
-      // int tmp = (1 << 24) & 0xFF000000;
-      int tmp = (1 << 24);
-      tmp += 20 + rawData.length;
-      data.writeInt(tmp);
-      // Again, unneeded operation ?
-      // tmp = (message.getFlags() << 24) & 0xFF000000;
-      tmp = (message.getFlags() << 24);
-      tmp += message.getCommandCode();
-      data.writeInt(tmp);
-      data.write(toBytes(message.getHeaderApplicationId()));
-      data.write(toBytes(message.getHopByHopIdentifier()));
-      data.write(toBytes(message.getEndToEndIdentifier()));
-      data.write(rawData);
+      // length is filled in once the AVPs are written
+      buffer.putInt(0);
+      buffer.putInt((message.getFlags() << 24) | message.getCommandCode());
+      buffer.putInt((int) message.getHeaderApplicationId());
+      buffer.putInt((int) message.getHopByHopIdentifier());
+      buffer.putInt((int) message.getEndToEndIdentifier());
+      encodeAvpSet(message.getAvps(), buffer);
+      buffer.putInt(start, (1 << 24) | (buffer.position() - start));
     }
     catch (Exception e) {
       //logger.debug("Error during encode message", e);
+      buffer.position(start);
       throw new ParseException("Failed to encode message.", e);
     }
-    try {
-      return prepareBuffer(out.toByteArray(), out.size());
-    }
-    catch (AvpDataException ade) {
-      throw new ParseException(ade);
-    }
-  }
-
-  private byte[] toBytes(long value) {
-    byte[] data = new byte[4];
-    data[0] = (byte) ((value >> 24) & 0xFF);
-    data[1] = (byte) ((value >> 16) & 0xFF);
-    data[2] = (byte) ((value >> 8) & 0xFF);
-    data[3] = (byte) ((value) & 0xFF);
-    return data;
   }
 
   @Override
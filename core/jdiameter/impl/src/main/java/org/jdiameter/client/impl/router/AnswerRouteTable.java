@@ -0,0 +1,201 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.router;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock free table of values keyed by a primitive long, used to route answers back to the peer the request
+ * came from. The table is split into shards of fixed size, each entry is looked up within a short window of slots
+ * following its hash. Entries expire after a fixed time and their slots are reused by later inserts, when a window
+ * holds only live entries the oldest one is replaced, so the table never grows nor needs to be cleared.
+ *
+ * @param <V> type of stored values
+ */
+public final class AnswerRouteTable<V> {
+
+  // number of slots an entry may be stored at
+  private static final int PROBE_LIMIT = 8;
+  private static final int MAX_SHARDS = 16;
+
+  private final Shard<V>[] shards;
+  private final int shardShift;
+  private final int slotMask;
+  private final long expiryNanos;
+
+  /**
+   * @param capacity number of entries the table should hold, rounded up to a power of two
+   * @param expiry time in milliseconds after which entries are discarded
+   */
+  @SuppressWarnings("unchecked")
+  public AnswerRouteTable(int capacity, long expiry) {
+    int slots = Integer.highestOneBit(Math.max(capacity, PROBE_LIMIT * MAX_SHARDS) - 1) << 1;
+    this.shards = (Shard<V>[]) new Shard<?>[MAX_SHARDS];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard<V>(slots / MAX_SHARDS);
+    }
+    this.shardShift = 32 - Integer.numberOfTrailingZeros(MAX_SHARDS);
+    this.slotMask = slots / MAX_SHARDS - 1;
+    this.expiryNanos = TimeUnit.MILLISECONDS.toNanos(expiry);
+  }
+
+  static int hash(long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  /**
+   * Stores the value, replacing the one stored with the same key, if any.
+   */
+  public void put(long key, V value) {
+    int hash = hash(key);
+    Shard<V> shard = shards[hash >>> shardShift];
+    long now = System.nanoTime();
+    Entry<V> entry = new Entry<V>(key, now + expiryNanos, value);
+    while (true) {
+      // the slot holding the key, else the first free or expired one, else the one of the oldest entry
+      int target = -1;
+      Entry<V> targetEntry = null;
+      boolean found = false;
+      int victim = -1;
+      Entry<V> victimEntry = null;
+      for (int i = 0; i < PROBE_LIMIT; i++) {
+        int slot = (hash + i) & slotMask;
+        Entry<V> current = shard.slots.get(slot);
+        if (current != null && current.key == key) {
+          target = slot;
+          targetEntry = current;
+          found = true;
+          break;
+        }
+        if (target < 0 && (current == null || current.deadline - now <= 0)) {
+          target = slot;
+          targetEntry = current;
+        }
+        else if (current != null && (victimEntry == null || current.deadline - victimEntry.deadline < 0)) {
+          victim = slot;
+          victimEntry = current;
+        }
+      }
+      if (target < 0) {
+        target = victim;
+        targetEntry = victimEntry;
+      }
+      // when the slot changed meanwhile the window is scanned again, the key may have been stored by now
+      if (shard.slots.compareAndSet(target, targetEntry, entry)) {
+        if (targetEntry == null) {
+          shard.size.incrementAndGet();
+        }
+        if (!found) {
+          removeOlder(shard, hash, entry, target);
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Removes entries with the same key stored by concurrent puts in other slots of the window, older than the given.
+   */
+  private void removeOlder(Shard<V> shard, int hash, Entry<V> entry, int slotOfEntry) {
+    for (int i = 0; i < PROBE_LIMIT; i++) {
+      int slot = (hash + i) & slotMask;
+      Entry<V> current = shard.slots.get(slot);
+      if (slot != slotOfEntry && current != null && current.key == entry.key && current.deadline - entry.deadline < 0
+          && shard.slots.compareAndSet(slot, current, null)) {
+        shard.size.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * @return value stored with the key, null if there is none or it expired
+   */
+  public V get(long key) {
+    int hash = hash(key);
+    Shard<V> shard = shards[hash >>> shardShift];
+    long now = System.nanoTime();
+    for (int i = 0; i < PROBE_LIMIT; i++) {
+      Entry<V> current = shard.slots.get((hash + i) & slotMask);
+      if (current != null && current.key == key && current.deadline - now > 0) {
+        return current.value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes the value stored with the key, if any.
+   */
+  public void remove(long key) {
+    int hash = hash(key);
+    Shard<V> shard = shards[hash >>> shardShift];
+    for (int i = 0; i < PROBE_LIMIT; i++) {
+      int slot = (hash + i) & slotMask;
+      Entry<V> current = shard.slots.get(slot);
+      if (current != null && current.key == key && shard.slots.compareAndSet(slot, current, null)) {
+        shard.size.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * @return number of occupied slots, including expired entries not reused yet
+   */
+  public int size() {
+    int size = 0;
+    for (Shard<V> shard : shards) {
+      size += shard.size.get();
+    }
+    return size;
+  }
+
+  public void clear() {
+    for (Shard<V> shard : shards) {
+      for (int i = 0; i < shard.slots.length(); i++) {
+        if (shard.slots.getAndSet(i, null) != null) {
+          shard.size.decrementAndGet();
+        }
+      }
+    }
+  }
+
+  private static final class Shard<V> {
+    final AtomicReferenceArray<Entry<V>> slots;
+    final AtomicInteger size = new AtomicInteger();
+
+    Shard(int capacity) {
+      this.slots = new AtomicReferenceArray<Entry<V>>(capacity);
+    }
+  }
+
+  private static final class Entry<V> {
+    final long key;
+    final long deadline;
+    final V value;
+
+    Entry(long key, long deadline, V value) {
+      this.key = key;
+      this.deadline = deadline;
+      this.value = value;
+    }
+  }
+}
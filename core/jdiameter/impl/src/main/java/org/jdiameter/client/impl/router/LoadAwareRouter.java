@@ -0,0 +1,121 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.router;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jdiameter.api.Configuration;
+import org.jdiameter.api.MetaData;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerLoad;
+import org.jdiameter.client.api.controller.IRealmTable;
+import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.jdiameter.server.api.IRouter;
+
+/**
+ * Router balancing requests on the live load of peers. The load of a peer is the moving average of its answer
+ * latency times the count of its pending requests, divided by its rating. Each request goes to the least loaded of
+ * two peers drawn at random, which steers traffic away from slow or backlogged peers as soon as their answers or
+ * pending requests show it, without sending everything to the single least loaded peer. A peer which did not answer
+ * yet is given the latency of the peer it is compared with.
+ * <p>
+ * Statistics do not need to be enabled. In the configuration, please use the following settings:
+ *
+ * <pre>
+ *   ...
+ *   <Extensions>
+ *   <RouterEngine value="org.jdiameter.client.impl.router.LoadAwareRouter" />
+ *   </Extensions>
+ * </pre>
+ *
+ * @see "M. Mitzenmacher, The Power of Two Choices in Randomized Load Balancing"
+ */
+public class LoadAwareRouter extends RouterImpl implements IRouter {
+
+  protected LoadAwareRouter(IRealmTable table, Configuration config) {
+    super(null, null, table, config, null);
+  }
+
+  public LoadAwareRouter(IContainer container, IConcurrentFactory concurrentFactory,
+                         IRealmTable realmTable, Configuration config, MetaData aMetaData) {
+    super(container, concurrentFactory, realmTable, config, aMetaData);
+  }
+
+  /**
+   * Select the least loaded of two peers chosen at random
+   *
+   * @param availablePeers list of peers that are in {@link org.jdiameter.api.PeerState#OKAY OKAY} state
+   * @return the selected peer
+   */
+  @Override
+  public IPeer selectPeer(List<IPeer> availablePeers) {
+    int peerSize = availablePeers != null ? availablePeers.size() : 0;
+
+    // Return none if empty, or first if only one member found
+    if (peerSize <= 0) {
+      return null;
+    }
+    if (peerSize == 1) {
+      return availablePeers.get(0);
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(peerSize);
+    int second = random.nextInt(peerSize - 1);
+    if (second >= first) {
+      second++;
+    }
+    IPeer firstPeer = availablePeers.get(first);
+    IPeer secondPeer = availablePeers.get(second);
+    long firstLatency = getLatency(firstPeer);
+    long secondLatency = getLatency(secondPeer);
+    double firstLoad = getLoad(firstPeer, firstLatency != 0 ? firstLatency : secondLatency);
+    double secondLoad = getLoad(secondPeer, secondLatency != 0 ? secondLatency : firstLatency);
+    return secondLoad < firstLoad ? secondPeer : firstPeer;
+  }
+
+  /**
+   * Return answer latency of the peer
+   *
+   * @param peer peer to evaluate
+   * @return latency in nanoseconds, 0 if unknown
+   */
+  protected long getLatency(IPeer peer) {
+    return peer instanceof IPeerLoad ? ((IPeerLoad) peer).getAnswerLatency() : 0;
+  }
+
+  /**
+   * Return load of the peer, peers not reporting their load have none
+   *
+   * @param peer peer to evaluate
+   * @param latency answer latency of the peer
+   * @return load of the peer
+   */
+  protected double getLoad(IPeer peer, long latency) {
+    int rating = Math.max(1, peer.getRating());
+    if (!(peer instanceof IPeerLoad)) {
+      return 1.0 / rating;
+    }
+    int pending = ((IPeerLoad) peer).getPendingRequestCount();
+    return (latency + 1.0) * (pending + 1) / rating;
+  }
+}
@@ -56,7 +56,7 @@ import static org.jdiameter.server.impl.helpers.Parameters.RealmHosts;
 import static org.jdiameter.server.impl.helpers.Parameters.RealmLocalAction;
 import static org.jdiameter.server.impl.helpers.Parameters.RealmName;
 import static org.jdiameter.server.impl.helpers.Parameters.RequestTable;
-import static org.jdiameter.server.impl.helpers.Parameters.RequestTableClearSize;
+import static org.jdiameter.server.impl.helpers.Parameters.RequestTableExpiry;
 import static org.jdiameter.server.impl.helpers.Parameters.RequestTableSize;
 
 import java.io.IOException;
@@ -64,13 +64,9 @@ import java.net.URISyntaxException;
 import java.net.UnknownServiceException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-//PCB added for thread safe
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.jdiameter.api.ApplicationId;
@@ -134,12 +130,14 @@ public class RouterImpl implements IRouter {
 
   // Answer routing feature
   public static int REQUEST_TABLE_SIZE = 10 * 1024;
+  // no longer used, entries expire instead of the table being cleared
+  @Deprecated
   public static int REQUEST_TABLE_CLEAR_SIZE = 2 * 1024;
+  public static long REQUEST_TABLE_EXPIRY = 60 * 1000L;
 
-  protected Lock requestEntryTableLock = new ReentrantLock();
   protected ReadWriteLock redirectTableLock = new ReentrantReadWriteLock();
-  //PCB added
-  protected Map<String, AnswerEntry> requestEntryMap;
+  // keyed by hop-by-hop and end-to-end identifiers, see makeRoutingKey
+  protected AnswerRouteTable<AnswerEntry> requestEntryMap;
   //protected List<Long> requestSortedEntryTable = new ArrayList<Long>();
   protected boolean isStopped = true;
 
@@ -169,19 +167,12 @@ public class RouterImpl implements IRouter {
     if (config.getChildren(RequestTable.ordinal()) != null) {
       AppConfiguration requestTableConfig = (AppConfiguration) config.getChildren(org.jdiameter.server.impl.helpers.Parameters.RequestTable.ordinal())[0];
       int tSize = requestTableConfig.getIntValue(RequestTableSize.ordinal(),(Integer) RequestTableSize.defValue());
-      int tClearSize = requestTableConfig.getIntValue(RequestTableClearSize.ordinal(),(Integer) RequestTableClearSize.defValue());
-      if (tSize > 0 && tClearSize >= tSize) {
-        logger.warn("Configuration entry RequestTable, attribute 'clear_size' [{}] should not be greater than 'size' [{}]. Adjusting.", tSize, tClearSize);
-        while (tClearSize >= tSize) {
-          tSize *= 10;
-        }
-      }
+      long tExpiry = requestTableConfig.getLongValue(RequestTableExpiry.ordinal(), (Long) RequestTableExpiry.defValue());
       REQUEST_TABLE_SIZE = tSize;
-      REQUEST_TABLE_CLEAR_SIZE = tClearSize;
+      REQUEST_TABLE_EXPIRY = tExpiry;
     }
-    //PCB added thread safety
-    this.requestEntryMap = new ConcurrentHashMap<String, AnswerEntry>(REQUEST_TABLE_SIZE);
-    logger.debug("Configured Request Table with size[{}] and clear size[{}].", REQUEST_TABLE_SIZE, REQUEST_TABLE_CLEAR_SIZE);
+    this.requestEntryMap = new AnswerRouteTable<AnswerEntry>(REQUEST_TABLE_SIZE, REQUEST_TABLE_EXPIRY);
+    logger.debug("Configured Request Table with size[{}] and expiry[{}]ms.", REQUEST_TABLE_SIZE, REQUEST_TABLE_EXPIRY);
 
     //add realms based on realm table.
     if (config.getChildren(RealmTable.ordinal()) != null) {
@@ -252,8 +243,6 @@ public class RouterImpl implements IRouter {
     }
 
     try {
-      // PCB removed lock
-      // requestEntryTableLock.writeLock().lock();
       long hopByHopId = request.getHopByHopIdentifier();
       Avp hostAvp = request.getAvps().getAvp(Avp.ORIGIN_HOST);
       // we store the peer FQDN instead of Origin-Host as we want to route back to it, in case of proxied requests this
@@ -278,56 +267,24 @@ public class RouterImpl implements IRouter {
         entry = new AnswerEntry(hopByHopId, host, realmAvp != null ? realmAvp.getDiameterIdentity() : null);
       }
 
-      int s = requestEntryMap.size();
-      // PCB added logging
-      logger.debug("RequestRoute map size is [{}]", s);
-
-      //PCB added
-      if (s > REQUEST_TABLE_CLEAR_SIZE) {
-        try {
-          requestEntryTableLock.lock();
-          s = requestEntryMap.size();
-          logger.debug("After 'lock', RequestRoute map size is [{}]", s);
-          // The double-check with a gap is in case while about to clear the map, it drops below REQUEST_TABLE_SIZE due to a
-          // response being sent, and then the lock might not be in effect for another thread
-          // Hence lock at REQUEST_TABLE_CLEAR_SIZE and clear at REQUEST_TABLE_SIZE so that all threads would be locked not
-          // just the first to reach REQUEST_TABLE_SIZE
-          if (s > REQUEST_TABLE_SIZE) {
-            // Going to clear it out and suffer the consequences of some messages possibly not being routed back the clients..
-            logger.warn("RequestRoute map size is [{}]. There's probably a leak. Cleaning up after a short wait...", s);
-            // Lets do our best to avoid lost messages by locking table from writes (as this is the only code writing to it),
-            // sleeping for a while for responses to be sent and then clearing it
-            Thread.sleep(5000);
-            logger.warn("RequestRoute map size is now [{}] after sleeping. Clearing it!", requestEntryMap.size());
-            requestEntryMap.clear();
-          }
-        }
-        catch (Exception e) {
-          logger.warn("Failure trying to clear RequestRoute map", e);
-        }
-        finally {
-          requestEntryTableLock.unlock();
-        }
+      // stale entries are replaced as the table is filled, there is no need to clear it
+      long messageKey = makeRoutingKey(request);
+      if (logger.isDebugEnabled()) {
+        logger.debug("Adding request key [{}] to RequestRoute table with entry [{}] for routing answers back to the requesting peer",
+            Long.toHexString(messageKey), entry);
       }
-
-      String messageKey = makeRoutingKey(request);
-      logger.debug("Adding request key [{}] to RequestRoute map with entry [{}] for routing answers back to the requesting peer", messageKey, entry);
       requestEntryMap.put(messageKey, entry);
-      // requestSortedEntryTable.add(hopByHopId);
     }
     catch (Exception e) {
       logger.warn("Unable to store route info", e);
     }
-    finally {
-      // requestEntryTableLock.writeLock().unlock();
-    }
   }
 
-  // PCB - Made better routing algorithm that should not grow all the time
-  private String makeRoutingKey(Message message) {
-    String sessionId = message.getSessionId();
-    return new StringBuilder(sessionId != null ? sessionId : "null").append(message.getEndToEndIdentifier())
-        .append(message.getHopByHopIdentifier()).toString();
+  // Hop-by-Hop identifier is restored in the answer, End-to-End identifier tells apart requests of different peers
+  // which happen to use the same Hop-by-Hop identifier. Peer of an answer is not used as relayed answers carry the
+  // peer they were received from.
+  private long makeRoutingKey(Message message) {
+    return (message.getHopByHopIdentifier() << 32) | (message.getEndToEndIdentifier() & 0xFFFFFFFFL);
   }
 
   private String[] getRequestRouteInfoAndCopyProxyAvps(IMessage message, boolean copy) {
@@ -337,11 +294,12 @@ public class RouterImpl implements IRouter {
     }
 
     // using request table
-    String messageKey = makeRoutingKey(message);
+    long messageKey = makeRoutingKey(message);
     AnswerEntry ans = requestEntryMap.get(messageKey);
     if (ans != null) {
       if (logger.isDebugEnabled()) {
-        logger.debug("getRequestRouteInfo found host [{}] and realm [{}] for Message key Id [{}]", new Object[]{ans.getHost(), ans.getRealm(), messageKey});
+        logger.debug("getRequestRouteInfo found host [{}] and realm [{}] for Message key Id [{}]",
+            new Object[]{ans.getHost(), ans.getRealm(), Long.toHexString(messageKey)});
       }
       if (ans.getRouteRecords() != null && ans.getRouteRecords().size() > 0) {
         AvpSet msgRouteRecords = message.getAvps().getAvps(Avp.ROUTE_RECORD);
@@ -358,7 +316,7 @@ public class RouterImpl implements IRouter {
     }
     else {
       if (logger.isWarnEnabled()) {
-        logger.warn("Could not find route info for message key [{}]. Table size is [{}]", messageKey, requestEntryMap.size());
+        logger.warn("Could not find route info for message key [{}]. Table size is [{}]", Long.toHexString(messageKey), requestEntryMap.size());
       }
       return null;
     }
@@ -376,8 +334,7 @@ public class RouterImpl implements IRouter {
       return; // we don't have anything to do as we are storing routing info at answer message
     }
 
-    String messageKey = makeRoutingKey(message);
-    requestEntryMap.remove(messageKey);
+    requestEntryMap.remove(makeRoutingKey(message));
   }
 
   @Override
@@ -471,43 +428,21 @@ public class RouterImpl implements IRouter {
     else {
       logger.debug("Finding peer by destination host avp [host={}] did not find anything. Now going to try finding one by destination realm [{}]",
           destHost, destRealm);
-      String[] peers = matchedRealm.getPeerNames();
-      if (peers == null || peers.length == 0) {
-        throw new RouteException("Unable to find context by route information [" + destRealm + " ," + destHost + "]");
-      }
-
-      // Collect peers
-      ArrayList<IPeer> availablePeers = new ArrayList<IPeer>(5);
-      logger.debug("Looping through peers in realm [{}]", destRealm);
-      for (String peerName : peers) {
-        IPeer localPeer = manager.getPeer(peerName);
-        if (logger.isDebugEnabled()) {
-          logger.debug("Checking peer [{}] for name [{}]", new Object[]{localPeer, peerName});
-        }
-        // ammendonca: added peer state check.. should not be needed but
-        // hasValidConnection is returning true for disconnected peers in *FTFlowTests
-        if (localPeer != null && localPeer.getState(PeerState.class) == PeerState.OKAY) {
-          if (localPeer.hasValidConnection()) {
-            if (logger.isDebugEnabled()) {
-              logger.debug("Found available peer to add to available peer list with uri [{}] with a valid connection", localPeer.getUri().toString());
-            }
-            availablePeers.add(localPeer);
-          }
-          else {
-            if (logger.isDebugEnabled()) {
-              logger.debug("Found a peer with uri [{}] with no valid connection", localPeer.getUri());
-            }
-          }
-        }
-      }
-
-      if (logger.isDebugEnabled()) {
-        logger.debug("Performing Realm routing. Realm [{}] has the following peers available [{}] from list [{}]",
-            new Object[] {destRealm, availablePeers, Arrays.asList(peers)});
+      // Peers resolved by a previous request are used without looking them up again
+      List<IPeer> resolvedPeers = matchedRealm.getResolvedPeers();
+      List<IPeer> availablePeers = resolvedPeers != null ? filterAvailable(resolvedPeers, manager) : null;
+      if (availablePeers == null) {
+        availablePeers = collectAvailablePeers(matchedRealm, manager, destRealm, destHost);
+        resolvedPeers = null;
       }
 
       // Balancing
       IPeer peer = selectPeer(availablePeers);
+      // a resolved peer may have been removed or replaced in the peer table since, it is never routed to
+      if (peer != null && resolvedPeers != null && manager.getPeer(peer.getUri().getFQDN()) != peer) {
+        logger.debug("Peer [{}] is no longer in the peer table, resolving peers of realm [{}] again", peer.getUri(), destRealm);
+        peer = selectPeer(collectAvailablePeers(matchedRealm, manager, destRealm, destHost));
+      }
       if (peer == null) {
         throw new RouteException("Unable to find valid connection to peer[" + destHost + "] in realm[" + destRealm + "]");
       }
@@ -521,6 +456,88 @@ public class RouterImpl implements IRouter {
     }
   }
 
+  /**
+   * Looks up the peers of the realm in the peer table and returns those available. Peers are kept in the realm for
+   * the following requests when all of them are found, otherwise the peers kept before are dropped.
+   */
+  private List<IPeer> collectAvailablePeers(IRealm matchedRealm, IPeerTable manager, String destRealm, String destHost) throws RouteException {
+    String[] peers = matchedRealm.getPeerNames();
+    if (peers == null || peers.length == 0) {
+      throw new RouteException("Unable to find context by route information [" + destRealm + " ," + destHost + "]");
+    }
+
+    // Collect peers
+    IPeer[] resolvedPeers = new IPeer[peers.length];
+    boolean resolved = true;
+    ArrayList<IPeer> availablePeers = new ArrayList<IPeer>(5);
+    logger.debug("Looping through peers in realm [{}]", destRealm);
+    for (int i = 0; i < peers.length; i++) {
+      String peerName = peers[i];
+      IPeer localPeer = manager.getPeer(peerName);
+      if (logger.isDebugEnabled()) {
+        logger.debug("Checking peer [{}] for name [{}]", new Object[]{localPeer, peerName});
+      }
+      resolvedPeers[i] = localPeer;
+      resolved &= localPeer != null;
+      // ammendonca: added peer state check.. should not be needed but
+      // hasValidConnection is returning true for disconnected peers in *FTFlowTests
+      if (localPeer != null && localPeer.getState(PeerState.class) == PeerState.OKAY) {
+        if (localPeer.hasValidConnection()) {
+          if (logger.isDebugEnabled()) {
+            logger.debug("Found available peer to add to available peer list with uri [{}] with a valid connection", localPeer.getUri().toString());
+          }
+          availablePeers.add(localPeer);
+        }
+        else {
+          if (logger.isDebugEnabled()) {
+            logger.debug("Found a peer with uri [{}] with no valid connection", localPeer.getUri());
+          }
+        }
+      }
+    }
+    // peers which are not all in the peer table are not kept, nor are those resolved before
+    matchedRealm.setResolvedPeers(peers, resolved ? Collections.unmodifiableList(Arrays.asList(resolvedPeers)) : null);
+
+    if (logger.isDebugEnabled()) {
+      logger.debug("Performing Realm routing. Realm [{}] has the following peers available [{}] from list [{}]",
+          new Object[] {destRealm, availablePeers, Arrays.asList(peers)});
+    }
+    return availablePeers;
+  }
+
+  /**
+   * Returns the available peers among the resolved ones, the list itself when all of them are. Returns null when a
+   * peer that is not available has been replaced in the peer table, for the peers to be resolved again.
+   */
+  private static List<IPeer> filterAvailable(List<IPeer> resolvedPeers, IPeerTable manager) {
+    int size = resolvedPeers.size();
+    int i = 0;
+    while (i < size && isAvailable(resolvedPeers.get(i))) {
+      i++;
+    }
+    if (i == size) {
+      return resolvedPeers;
+    }
+    ArrayList<IPeer> availablePeers = new ArrayList<IPeer>(size - 1);
+    for (int j = 0; j < size; j++) {
+      IPeer peer = resolvedPeers.get(j);
+      if (j < i || (j > i && isAvailable(peer))) {
+        availablePeers.add(peer);
+      }
+      else {
+        IPeer current = manager.getPeer(peer.getUri().getFQDN());
+        if (current != null && current != peer) {
+          return null;
+        }
+      }
+    }
+    return availablePeers;
+  }
+
+  private static boolean isAvailable(IPeer peer) {
+    return peer.getState(PeerState.class) == PeerState.OKAY && peer.hasValidConnection();
+  }
+
   @Override
   public IRealmTable getRealmTable() {
     return this.realmTable;
@@ -789,7 +806,8 @@ public class RouterImpl implements IRouter {
 
   protected IPeer selectPeer(List<IPeer> availablePeers) {
     IPeer p = null;
-    for (IPeer c : availablePeers) {
+    for (int i = 0; i < availablePeers.size(); i++) {
+      IPeer c = availablePeers.get(i);
       if (p == null || c.getRating() >= p.getRating()) {
         p = c;
       }
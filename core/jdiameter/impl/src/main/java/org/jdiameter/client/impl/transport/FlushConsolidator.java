@@ -0,0 +1,109 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport;
+
+import static org.jdiameter.client.impl.helpers.Parameters.WriteBatchSize;
+import static org.jdiameter.client.impl.helpers.Parameters.WriteFlushDelay;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdiameter.api.Configuration;
+
+import io.netty.channel.Channel;
+
+/**
+ * Writes messages to a Netty channel without flushing each of them. Messages are queued and a single task is
+ * scheduled on the channel event loop, which writes every queued message and flushes them together so that they
+ * reach the socket with gathering writes of up to <code>WriteBatchSize</code> messages. The task runs as soon as
+ * the event loop is free, or after <code>WriteFlushDelay</code> if configured unless a full batch is queued.
+ */
+public final class FlushConsolidator implements Runnable {
+
+  private final Channel channel;
+  private final int batchSize;
+  private final long flushDelay;
+  private final Queue<Object> pendingWrites = new ConcurrentLinkedQueue<Object>();
+  private final AtomicInteger pendingSize = new AtomicInteger();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+  /**
+   * @param channel channel messages are written to
+   * @param config stack configuration, may be null
+   */
+  public FlushConsolidator(Channel channel, Configuration config) {
+    int batchSize = (Integer) WriteBatchSize.defValue();
+    long flushDelay = (Long) WriteFlushDelay.defValue();
+    if (config != null) {
+      batchSize = config.getIntValue(WriteBatchSize.ordinal(), batchSize);
+      flushDelay = config.getLongValue(WriteFlushDelay.ordinal(), flushDelay);
+    }
+    this.channel = channel;
+    this.batchSize = Math.max(1, batchSize);
+    this.flushDelay = flushDelay;
+  }
+
+  /**
+   * Queues the message, it is written and flushed later together with other pending messages.
+   *
+   * @param message message to write
+   */
+  public void write(Object message) {
+    pendingWrites.add(message);
+    int queued = pendingSize.incrementAndGet();
+    if (flushScheduled.compareAndSet(false, true)) {
+      if (flushDelay > 0) {
+        channel.eventLoop().schedule(this, flushDelay, TimeUnit.MILLISECONDS);
+      }
+      else {
+        channel.eventLoop().execute(this);
+      }
+    }
+    else if (flushDelay > 0 && queued == batchSize) {
+      // full batch does not wait for the delay
+      channel.eventLoop().execute(this);
+    }
+  }
+
+  /**
+   * Writes and flushes pending messages, run by the channel event loop.
+   */
+  @Override
+  public void run() {
+    // cleared first, messages queued from now on are either written here or by the next run
+    flushScheduled.set(false);
+    int count = 0;
+    Object message;
+    while ((message = pendingWrites.poll()) != null) {
+      pendingSize.decrementAndGet();
+      channel.write(message);
+      if (++count == batchSize) {
+        channel.flush();
+        count = 0;
+      }
+    }
+    if (count > 0) {
+      channel.flush();
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport;
+
+import static org.jdiameter.client.impl.helpers.Parameters.EventLoopThreadCount;
+import static org.jdiameter.client.impl.helpers.Parameters.NativeTransport;
+
+import org.jdiameter.api.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * Event loops and message processing threads shared by all Netty based connections, client and server side, so
+ * that the number of threads does not grow with the number of peers. Native epoll transport is used when it is
+ * available and enabled.
+ *
+ * Threads are started on first {@link #acquire(Configuration)}, sized after the configuration passed there, and
+ * shut down once every user called {@link #release()}. Stacks acquiring the running group with other settings
+ * share it as it is, a warning is logged in that case.
+ */
+public final class SharedEventLoopGroup {
+
+  private static final Logger logger = LoggerFactory.getLogger(SharedEventLoopGroup.class);
+
+  private static SharedEventLoopGroup instance;
+
+  private final EventLoopGroup eventLoopGroup;
+  private final EventExecutorGroup eventExecutorGroup;
+  private final int threads;
+  private final boolean epoll;
+  private int references;
+
+  private SharedEventLoopGroup(int threads, boolean epoll) {
+    this.threads = threads;
+    this.epoll = epoll;
+    DefaultThreadFactory threadFactory = new DefaultThreadFactory("DiameterEventLoop");
+    this.eventLoopGroup = epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    this.eventExecutorGroup = new DefaultEventExecutorGroup(threads, new DefaultThreadFactory("DiameterMessageHandler"));
+  }
+
+  /**
+   * Obtains the shared group, starting it if needed. Each call must be paired with a call to {@link #release()}.
+   *
+   * @param config stack configuration, used to size the group if it is started
+   * @return the shared group
+   */
+  public static synchronized SharedEventLoopGroup acquire(Configuration config) {
+    int threads = (Integer) EventLoopThreadCount.defValue();
+    boolean nativeTransport = (Boolean) NativeTransport.defValue();
+    if (config != null) {
+      threads = config.getIntValue(EventLoopThreadCount.ordinal(), threads);
+      nativeTransport = config.getBooleanValue(NativeTransport.ordinal(), nativeTransport);
+    }
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors() * 2;
+    }
+    boolean epoll = nativeTransport && Epoll.isAvailable();
+    if (instance == null) {
+      logger.debug("Starting shared event loop group with [{}] threads, epoll [{}]", threads, epoll);
+      instance = new SharedEventLoopGroup(threads, epoll);
+    }
+    else if (instance.threads != threads || instance.epoll != epoll) {
+      logger.warn("Shared event loop group is already running with [{}] threads, epoll [{}], ignoring configured [{}] threads, epoll [{}]",
+          new Object[] {instance.threads, instance.epoll, threads, epoll});
+    }
+    instance.references++;
+    return instance;
+  }
+
+  /**
+   * Releases the group obtained with {@link #acquire(Configuration)}, threads are shut down when it was the last
+   * user of the group.
+   */
+  public void release() {
+    synchronized (SharedEventLoopGroup.class) {
+      if (--references > 0) {
+        return;
+      }
+      if (instance == this) {
+        instance = null;
+      }
+    }
+    logger.debug("Shutting down shared event loop group");
+    eventLoopGroup.shutdownGracefully();
+    eventExecutorGroup.shutdownGracefully();
+  }
+
+  /**
+   * @return number of event loop threads
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * @return true if native epoll transport is used
+   */
+  public boolean isEpoll() {
+    return epoll;
+  }
+
+  /**
+   * @return event loops serving connections IO
+   */
+  public EventLoopGroup getEventLoopGroup() {
+    return eventLoopGroup;
+  }
+
+  /**
+   * @return executors processing received messages out of the event loops
+   */
+  public EventExecutorGroup getEventExecutorGroup() {
+    return eventExecutorGroup;
+  }
+
+  /**
+   * @return class of client channels matching the event loops
+   */
+  public Class<? extends SocketChannel> getSocketChannelClass() {
+    return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+  }
+
+  /**
+   * @return class of server channels matching the event loops
+   */
+  public Class<? extends ServerSocketChannel> getServerSocketChannelClass() {
+    return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+  }
+}
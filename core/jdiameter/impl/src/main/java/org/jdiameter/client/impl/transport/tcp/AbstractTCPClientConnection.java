@@ -0,0 +1,253 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport.tcp;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.InternalException;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.io.IConnection;
+import org.jdiameter.client.api.io.IConnectionListener;
+import org.jdiameter.client.api.io.TransportError;
+import org.jdiameter.client.api.io.TransportException;
+import org.jdiameter.client.api.parser.IMessageParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listener handling shared by the TCP connections. Transport events are passed to the connection listeners,
+ * events raised while there is no listener are buffered until one is added.
+ */
+public abstract class AbstractTCPClientConnection implements IConnection {
+
+  private static Logger logger = LoggerFactory.getLogger(AbstractTCPClientConnection.class);
+
+  private final long createdTime;
+  private LinkedBlockingDeque<Event> buffer = new LinkedBlockingDeque<Event>(64);
+  protected IMessageParser parser;
+  private Lock lock = new ReentrantLock();
+  private ConcurrentLinkedQueue<IConnectionListener> listeners = new ConcurrentLinkedQueue<IConnectionListener>();
+
+  // Cached value for connection key
+  private String cachedKey = null;
+
+  protected AbstractTCPClientConnection(IMessageParser parser) {
+    this.createdTime = System.currentTimeMillis();
+    this.parser = parser;
+  }
+
+  @Override
+  public long getCreatedTime() {
+    return createdTime;
+  }
+
+  @Override
+  public boolean isNetworkInitiated() {
+    return false;
+  }
+
+  @Override
+  public void addConnectionListener(IConnectionListener listener) {
+    lock.lock();
+    try {
+      listeners.add(listener);
+      if (buffer.size() != 0) {
+        for (Event e : buffer) {
+          try {
+            logger.debug("Processing event from buffer");
+            onEvent(e);
+          }
+          catch (AvpDataException e1) {
+            // ignore
+          }
+        }
+        buffer.clear();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void remAllConnectionListener() {
+    logger.debug("Waiting to get lock in order to remove all listeners");
+    lock.lock();
+    try {
+      logger.debug("Removing all listeners on [{}]", this.getKey());
+      listeners.clear();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void remConnectionListener(IConnectionListener listener) {
+    lock.lock();
+    try {
+      logger.debug("Removing listener [{}] on [{}]", listener.getClass().getName(), this.getKey());
+      listeners.remove(listener);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> aClass) throws InternalException {
+    return false;
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> aClass) throws InternalException {
+    return null;
+  }
+
+  @Override
+  public String getKey() {
+    if (this.cachedKey == null) {
+      this.cachedKey = new StringBuffer("aaa://").append(getRemoteAddress().getHostName()).append(":").append(getRemotePort()).toString();
+    }
+
+    return this.cachedKey;
+  }
+
+  /**
+   * Drops the parser, buffered events and listeners once the connection is released.
+   */
+  protected void clear() {
+    parser = null;
+    buffer.clear();
+    remAllConnectionListener();
+  }
+
+  protected void onDisconnect() throws AvpDataException {
+    onEvent(new Event(EventType.DISCONNECTED));
+  }
+
+  protected void onMessageReceived(IMessage message) throws AvpDataException {
+    onEvent(new Event(EventType.MESSAGE_RECEIVED, message));
+  }
+
+  protected void onAvpDataException(AvpDataException e) {
+    try {
+      onEvent(new Event(EventType.DATA_EXCEPTION, e));
+    }
+    catch (AvpDataException e1) {
+      // ignore
+    }
+  }
+
+  protected void onConnected() {
+    try {
+      onEvent(new Event(EventType.CONNECTED));
+    }
+    catch (AvpDataException e1) {
+      // ignore
+    }
+  }
+
+  /**
+   * Passes the event to the listeners, or buffers it if there is none yet.
+   */
+  protected void onEvent(Event event) throws AvpDataException {
+    logger.debug("In onEvent for connection [{}]. Getting lock", this.getKey());
+    lock.lock();
+    logger.debug("Got lock");
+    try {
+      if (processBufferedMessages(event)) {
+        for (IConnectionListener listener : listeners) {
+          if (logger.isDebugEnabled()) {
+            logger.debug("Passing event to listener. Event type is [{}]", event.type.toString());
+          }
+          switch (event.type) {
+            case CONNECTED:
+              listener.connectionOpened(getKey());
+              break;
+            case DISCONNECTED:
+              listener.connectionClosed(getKey(), null);
+              break;
+            case MESSAGE_RECEIVED:
+              listener.messageReceived(getKey(), event.message);
+              break;
+            case DATA_EXCEPTION:
+              listener.internalError(getKey(), null, new TransportException("Avp Data Exception:",
+                  TransportError.ReceivedBrokenMessage, event.exception));
+              break;
+          }
+        }
+      }
+    }
+    finally {
+      logger.debug("Releasing lock and finished onEvent for connection [{}]", this.getKey());
+      lock.unlock();
+    }
+  }
+
+  protected boolean processBufferedMessages(Event event) throws AvpDataException {
+    if (listeners.size() == 0) {
+      logger.debug("listeners.size() == 0 on connection [{}]", this.getKey());
+      if (!buffer.offer(event)) {
+        logger.debug("Event buffer is full, replacing last event");
+        buffer.pollLast();
+        buffer.offer(event);
+      }
+      logger.debug("processBufferedMessages is returning false");
+      return false;
+    }
+    else {
+      logger.debug("processBufferedMessages is returning true on connection [{}] as there are listeners", getKey());
+      return true;
+    }
+  }
+
+  //------------------ helper classes ------------------------
+  private enum EventType {
+    CONNECTED, DISCONNECTED, MESSAGE_RECEIVED, DATA_EXCEPTION
+  }
+
+  /**
+   * Transport event passed to the listeners.
+   */
+  protected static class Event {
+    private EventType type;
+    private IMessage message;
+    private Exception exception;
+
+    Event(EventType type) {
+      this.type = type;
+    }
+
+    Event(EventType type, Exception exception) {
+      this(type);
+      this.exception = exception;
+    }
+
+    Event(EventType type, IMessage message) {
+      this(type);
+      this.message = message;
+    }
+  }
+}
@@ -47,18 +47,11 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ConcurrentLinkedQueue;
-// FIXME : requires JDK6 : import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.jdiameter.api.AvpDataException;
 import org.jdiameter.api.Configuration;
-import org.jdiameter.api.InternalException;
 import org.jdiameter.api.OverloadException;
 import org.jdiameter.client.api.IMessage;
-import org.jdiameter.client.api.io.IConnection;
 import org.jdiameter.client.api.io.IConnectionListener;
 import org.jdiameter.client.api.io.TransportError;
 import org.jdiameter.client.api.io.TransportException;
@@ -74,38 +67,31 @@ import org.slf4j.LoggerFactory;
  * @author <a href="mailto:baranowb@gmail.com"> Bartosz Baranowski </a>
  * @author <a href="mailto:brainslog@gmail.com"> Alexandre Mendonca </a>
  */
-public class TCPClientConnection implements IConnection {
+public class TCPClientConnection extends AbstractTCPClientConnection {
 
   private static Logger logger = LoggerFactory.getLogger(TCPClientConnection.class);
 
-  private final long createdTime;
   private TCPTransportClient client;
-  //FIXME : requires JDK6 : protected LinkedBlockingDeque<Event> buffer = new LinkedBlockingDeque<Event>(64);
-  private LinkedBlockingQueue<Event> buffer = new LinkedBlockingQueue<Event>(64);
-  private IMessageParser parser;
-  private Lock lock = new ReentrantLock();
-  private ConcurrentLinkedQueue<IConnectionListener> listeners = new ConcurrentLinkedQueue<IConnectionListener>();
-
-  // Cached value for connection key
-  private String cachedKey = null;
 
   protected TCPClientConnection(IConcurrentFactory concurrentFactory, IMessageParser parser) {
-    this.createdTime = System.currentTimeMillis();
-    this.parser = parser;
-    client = new TCPTransportClient(concurrentFactory, this);
+    this(null, concurrentFactory, parser);
+  }
+
+  protected TCPClientConnection(Configuration config, IConcurrentFactory concurrentFactory, IMessageParser parser) {
+    super(parser);
+    client = new TCPTransportClient(config, concurrentFactory, this);
   }
 
   public TCPClientConnection(Configuration config, IConcurrentFactory concurrentFactory, Socket socket,
       IMessageParser parser, String ref) throws Exception {
-    this(concurrentFactory, parser);
-    client = new TCPTransportClient(concurrentFactory, this);
+    this(config, concurrentFactory, parser);
     client.initialize(socket);
     client.start();
   }
 
   public TCPClientConnection(Configuration config, IConcurrentFactory concurrentFactory, InetAddress remoteAddress,
       int remotePort, InetAddress localAddress, int localPort, IMessageParser parser, String ref) {
-    this(concurrentFactory, parser);
+    this(config, concurrentFactory, parser);
     client.setDestAddress(new InetSocketAddress(remoteAddress, remotePort));
     client.setOrigAddress(new InetSocketAddress(localAddress, localPort));
   }
@@ -113,15 +99,10 @@ public class TCPClientConnection implements IConnection {
   public TCPClientConnection(Configuration config, IConcurrentFactory concurrentFactory, InetAddress remoteAddress,
       int remotePort, InetAddress localAddress, int localPort, IConnectionListener listener,
       IMessageParser parser, String ref) {
-    this(concurrentFactory, parser);
+    this(config, concurrentFactory, parser);
     client.setDestAddress(new InetSocketAddress(remoteAddress, remotePort));
     client.setOrigAddress(new InetSocketAddress(localAddress, localPort));
-    listeners.add(listener);
-  }
-
-  @Override
-  public long getCreatedTime() {
-    return createdTime;
+    addConnectionListener(listener);
   }
 
   @Override
@@ -165,9 +146,7 @@ public class TCPClientConnection implements IConnection {
       throw new IOException(e.getMessage());
     }
     finally {
-      parser = null;
-      buffer.clear();
-      remAllConnectionListener();
+      clear();
     }
   }
 
@@ -175,22 +154,7 @@ public class TCPClientConnection implements IConnection {
   public void sendMessage(IMessage message) throws TransportException, OverloadException {
     try {
       if (getClient() != null) {
-        //PCB added logging
-        //Long receivedAt = timerMap.remove(message.getEndToEndIdentifier() + "_"+ message.getHopByHopIdentifier());
-        //if (receivedAt != null) {
-        //  long millis = System.currentTimeMillis() - receivedAt;
-        //  if (millis >= 200) {
-        //    logger.warn("Diameter Message processing took [{}]ms", millis);
-        //  }
-        //}
         getClient().sendMessage(parser.encodeMessage(message));
-        //PCB added logging
-        //if (receivedAt != null) {
-        //  long millis = System.currentTimeMillis() - receivedAt;
-        //  if (millis >= 200) {
-        //    logger.warn("Diameter Message processing and sending took [{}]ms", millis);
-        //  }
-        //}
       }
     }
     catch (Exception e) {
@@ -202,11 +166,6 @@ public class TCPClientConnection implements IConnection {
     return client;
   }
 
-  @Override
-  public boolean isNetworkInitiated() {
-    return false;
-  }
-
   @Override
   public boolean isConnected() {
     return getClient() != null && getClient().isConnected();
@@ -222,81 +181,6 @@ public class TCPClientConnection implements IConnection {
     return getClient().getDestAddress().getPort();
   }
 
-  @Override
-  public void addConnectionListener(IConnectionListener listener) {
-    lock.lock();
-    try {
-      listeners.add(listener);
-      if (buffer.size() != 0) {
-        for (Event e : buffer) {
-          try {
-            //PCB added logging
-            logger.debug("Processing event from buffer");
-            onEvent(e);
-          }
-          catch (AvpDataException e1) {
-            // ignore
-          }
-        }
-        buffer.clear();
-      }
-    }
-    finally {
-      lock.unlock();
-    }
-  }
-
-  @Override
-  public void remAllConnectionListener() {
-    //PCB added logging
-    logger.debug("Waiting to get lock in order to remove all listeners");
-    lock.lock();
-    try {
-      //PCB added logging
-      logger.debug("Removing all listeners on [{}]", this.getKey());
-      listeners.clear();
-    }
-    finally {
-      lock.unlock();
-    }
-  }
-
-  @Override
-  public void remConnectionListener(IConnectionListener listener) {
-    lock.lock();
-    try {
-      //PCB added logging
-      logger.debug("Removing listener [{}] on [{}]", listener.getClass().getName(), this.getKey());
-      listeners.remove(listener);
-    }
-    finally {
-      lock.unlock();
-    }
-  }
-
-  @Override
-  public boolean isWrapperFor(Class<?> aClass) throws InternalException {
-    return false;
-  }
-
-  @Override
-  public <T> T unwrap(Class<T> aClass) throws InternalException {
-    return null;
-  }
-
-  @Override
-  public String getKey() {
-    if (this.cachedKey == null) {
-      this.cachedKey = new StringBuffer("aaa://").append(getRemoteAddress().getHostName()).append(":").append(getRemotePort()).toString();
-    }
-
-    return this.cachedKey;
-  }
-
-  protected void onDisconnect() throws AvpDataException {
-    onEvent(new Event(EventType.DISCONNECTED));
-  }
-
   protected void onMessageReceived(ByteBuffer message) throws AvpDataException {
     if (logger.isDebugEnabled()) {
       if (logger.isTraceEnabled()) {
@@ -307,116 +191,6 @@ public class TCPClientConnection implements IConnection {
         logger.debug("Received message of size [{}]", message.array().length);
       }
     }
-    onEvent(new Event(EventType.MESSAGE_RECEIVED, message));
+    onMessageReceived(parser.createMessage(message));
   }
-
-  protected void onAvpDataException(AvpDataException e) {
-    try {
-      onEvent(new Event(EventType.DATA_EXCEPTION, e));
-    }
-    catch (AvpDataException e1) {
-      // ignore
-    }
-  }
-
-  protected void onConnected() {
-    try {
-      onEvent(new Event(EventType.CONNECTED));
-    }
-    catch (AvpDataException e1) {
-      // ignore
-    }
-  }
-
-  protected void onEvent(Event event) throws AvpDataException {
-    //PCB added logging
-    logger.debug("In onEvent for connection [{}]. Getting lock", this.getKey());
-    lock.lock();
-    //PCB added logging
-    logger.debug("Got lock");
-    try {
-      if (processBufferedMessages(event)) {
-        for (IConnectionListener listener : listeners) {
-          //PCB added logging
-          if (logger.isDebugEnabled()) {
-            logger.debug("Passing event to listener. Event type is [{}]", event.type.toString());
-          }
-          switch (event.type) {
-            case CONNECTED:
-              listener.connectionOpened(getKey());
-              break;
-            case DISCONNECTED:
-              listener.connectionClosed(getKey(), null);
-              break;
-            case MESSAGE_RECEIVED:
-              //PCB added
-              IMessage msg = parser.createMessage(event.message);
-              //timerMap.put(msg.getEndToEndIdentifier() + "_"+ msg.getHopByHopIdentifier(), System.currentTimeMillis());
-              listener.messageReceived(getKey(), msg);
-              break;
-            case DATA_EXCEPTION:
-              listener.internalError(getKey(), null, new TransportException("Avp Data Exception:",
-                  TransportError.ReceivedBrokenMessage, event.exception));
-              break;
-          }
-        }
-      }
-    }
-    finally {
-      logger.debug("Releasing lock and finished onEvent for connection [{}]", this.getKey());
-      lock.unlock();
-    }
-  }
-
-  //private static final Map<String, Long> timerMap = new ConcurrentHashMap<String, Long>();
-
-  protected boolean processBufferedMessages(Event event) throws AvpDataException {
-    if (listeners.size() == 0) {
-      //PCB added logging
-      logger.debug("listeners.size() == 0 on connection [{}]", this.getKey());
-      try {
-        buffer.add(event);
-      }
-      catch (IllegalStateException e) {
-        logger.debug("Got IllegalStateException in processBufferedMessages");
-        // FIXME : requires JDK6 : buffer.removeLast();
-        Event[] tempBuffer = buffer.toArray(new Event[buffer.size()]);
-        buffer.remove(tempBuffer[tempBuffer.length - 1]);
-        buffer.add(event);
-      }
-      //PCB added logging
-      logger.debug("processBufferedMessages is returning false");
-      return false;
-    }
-    else {
-      logger.debug("processBufferedMessages is returning true on connection [{}] as there are listeners", getKey());
-      return true;
-    }
-  }
-
-  //------------------ helper classes ------------------------
-  private enum EventType {
-    CONNECTED, DISCONNECTED, MESSAGE_RECEIVED, DATA_EXCEPTION
-  }
-
-  private static class Event {
-    EventType type;
-    ByteBuffer message;
-    Exception exception;
-
-    Event(EventType type) {
-      this.type = type;
-    }
-
-    Event(EventType type, Exception exception) {
-      this(type);
-      this.exception = exception;
-    }
-
-    Event(EventType type, ByteBuffer message) {
-      this(type);
-      this.message = message;
-    }
-  }
-
-}
\ No newline at end of file
+}
@@ -42,6 +42,8 @@
 
 package org.jdiameter.client.impl.transport.tcp;
 
+import static org.jdiameter.client.impl.helpers.Parameters.WriteBatchSize;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -50,15 +52,20 @@ import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.Configuration;
 import org.jdiameter.client.api.io.NotInitializedException;
 import org.jdiameter.client.impl.parser.MessageParser;
 import org.jdiameter.common.api.concurrent.IConcurrentFactory;
@@ -89,7 +96,23 @@ public class TCPTransportClient implements Runnable {
   protected InetSocketAddress origAddress;
 
   protected SocketChannel socketChannel;
-  protected Lock lock = new ReentrantLock();
+
+  // messages waiting for the writer thread
+  protected Queue<PendingWrite> outbound = new ConcurrentLinkedQueue<PendingWrite>();
+  // only accessed by the writer thread
+  protected ByteBuffer[] batch = new ByteBuffer[(Integer) WriteBatchSize.defValue()];
+  protected PendingWrite[] batchWrites = new PendingWrite[batch.length];
+  // selector waiting for the socket to accept more data, only used by the writer thread
+  private volatile Selector writeSelector;
+  // started by the first message sent, runs while the socket is open
+  private Thread writerThread;
+  private volatile boolean writerWaiting;
+  private final Runnable writer = new Runnable() {
+    @Override
+    public void run() {
+      writeQueued();
+    }
+  };
 
   protected int storageSize = DEFAULT_STORAGE_SIZE;
   protected ByteBuffer storage = ByteBuffer.allocate(storageSize);
@@ -116,6 +139,21 @@ public class TCPTransportClient implements Runnable {
     this.concurrentFactory = concurrentFactory;
   }
 
+  /**
+   * Constructor taking write batch size from configuration
+   *
+   * @param config stack configuration
+   * @param concurrentFactory factory for create threads
+   * @param parenConnection connection created this transport
+   */
+  TCPTransportClient(Configuration config, IConcurrentFactory concurrentFactory, TCPClientConnection parenConnection) {
+    this(concurrentFactory, parenConnection);
+    if (config != null) {
+      this.batch = new ByteBuffer[Math.max(1, config.getIntValue(WriteBatchSize.ordinal(), batch.length))];
+      this.batchWrites = new PendingWrite[batch.length];
+    }
+  }
+
   /**
    *  Network init socket
    */
@@ -263,6 +301,13 @@ public class TCPTransportClient implements Runnable {
     if (socketChannel != null && socketChannel.isOpen()) {
       socketChannel.close();
     }
+    // wakes up the writer waiting for the socket
+    Selector selector = writeSelector;
+    if (selector != null) {
+      writeSelector = null;
+      selector.close();
+    }
+    wakeUpWriter();
     if (selfThread != null) {
       selfThread.join(100);
     }
@@ -302,7 +347,14 @@ public class TCPTransportClient implements Runnable {
     return this.origAddress;
   }
 
-  public void sendMessage(ByteBuffer bytes) throws IOException {
+  /**
+   * Queues the message for the writer thread of the transport, the sender does not wait for the socket.
+   *
+   * @param bytes encoded message
+   * @return the queued write, telling once done whether the message was written or why it failed
+   * @throws IOException if the socket is not open
+   */
+  public PendingWrite sendMessage(ByteBuffer bytes) throws IOException {
     if (logger.isDebugEnabled()) {
       if (logger.isTraceEnabled()) {
         String hex = MessageParser.byteArrayToHexString(bytes.array());
@@ -313,30 +365,173 @@ public class TCPTransportClient implements Runnable {
         logger.debug("About to send a byte buffer of size [{}] over the TCP nio socket [{}]", bytes.array().length, socketDescription);
       }
     }
-    int rc = 0;
-    // PCB - removed locking
-    // ZhixiaoLuo: Fix #28, without the lock the data in the socketChannel will get mixed in multi-threads.
-    lock.lock();
+    SocketChannel channel = socketChannel;
+    if (channel == null || !channel.isOpen()) {
+      throw new IOException("Socket is not open: " + socketDescription);
+    }
+    // ZhixiaoLuo: Fix #28, data of concurrent senders would get mixed in the socketChannel, so only the writer thread
+    // writes to it.
+    PendingWrite write = new PendingWrite(bytes);
+    outbound.add(write);
+    if (writerWaiting) {
+      wakeUpWriter();
+    }
+    else {
+      startWriter();
+    }
+    return write;
+  }
+
+  private synchronized void startWriter() {
+    if (writerThread == null) {
+      writerThread = concurrentFactory != null ? concurrentFactory.getThread("TCPWriter", writer) : new Thread(writer, "TCPWriter");
+      writerThread.setDaemon(true);
+      writerThread.start();
+    }
+  }
+
+  private synchronized void wakeUpWriter() {
+    if (writerThread != null) {
+      LockSupport.unpark(writerThread);
+    }
+  }
+
+  /**
+   * Run by the writer thread, writes queued messages while the socket is open. Messages still queued once it is
+   * closed are marked as failed.
+   */
+  private void writeQueued() {
+    logger.debug("Writer thread is started for socket [{}]", socketDescription);
+    while (socketChannel.isOpen()) {
+      if (outbound.isEmpty()) {
+        writerWaiting = true;
+        // checked again, a message queued meanwhile may have missed the wake up
+        if (outbound.isEmpty()) {
+          LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(SELECT_TIMEOUT));
+        }
+        writerWaiting = false;
+      }
+      else {
+        writeBatch();
+      }
+    }
+    synchronized (this) {
+      writerThread = null;
+    }
+    failQueued(new ClosedChannelException());
+    // a message queued after the check above, with a socket opened again meanwhile, needs a new writer
+    if (!outbound.isEmpty() && socketChannel.isOpen()) {
+      startWriter();
+    }
+    logger.debug("Writer thread is stopped for socket [{}]", socketDescription);
+  }
+
+  private void failQueued(IOException failure) {
+    PendingWrite next;
+    while ((next = outbound.poll()) != null) {
+      next.failure = failure;
+    }
+  }
+
+  /**
+   * Writes queued messages with one gathering write of up to batch size messages, called by the writer thread.
+   * Each message of the batch is marked as written or failed. The socket is closed on failure, as a message may
+   * have been written in part.
+   */
+  private void writeBatch() {
+    int count = 0;
+    long remaining = 0;
+    PendingWrite next;
+    while (count < batch.length && (next = outbound.poll()) != null) {
+      remaining += next.bytes.remaining();
+      batch[count] = next.bytes;
+      batchWrites[count++] = next;
+    }
     try {
-      while (rc < bytes.array().length) {
-        rc += socketChannel.write(bytes);
+      while (remaining > 0) {
+        long written = socketChannel.write(batch, 0, count);
+        remaining -= written;
+        if (written == 0) {
+          awaitWritable();
+        }
+      }
+      for (int i = 0; i < count; i++) {
+        batchWrites[i].written = true;
       }
+      logger.debug("Wrote [{}] messages over the TCP nio socket [{}]", count, socketDescription);
     }
     catch (Exception e) {
-      logger.error("Unable to send message", e);
-      throw new IOException("Error while sending message: " + e);
+      IOException failure = e instanceof IOException ? (IOException) e : new IOException(e);
+      logger.error("Unable to send messages over socket [" + socketDescription + "]", failure);
+      for (int i = 0; i < count; i++) {
+        batchWrites[i].failure = failure;
+      }
+      try {
+        socketChannel.close();
+      }
+      catch (IOException ce) {
+        logger.debug("Failure while closing socket", ce);
+      }
     }
     finally {
-      lock.unlock();
+      Arrays.fill(batch, 0, count, null);
+      Arrays.fill(batchWrites, 0, count, null);
+    }
+  }
+
+  /**
+   * Waits until the socket accepts more data, instead of retrying the write while its send buffer is full.
+   */
+  private void awaitWritable() throws IOException {
+    Selector selector = writeSelector;
+    if (selector == null || socketChannel.keyFor(selector) == null) {
+      if (selector != null) {
+        // registered with the channel of a previous connection
+        selector.close();
+      }
+      selector = Selector.open();
+      socketChannel.register(selector, SelectionKey.OP_WRITE);
+      writeSelector = selector;
     }
-    if (rc == -1) {
-      throw new IOException("Connection closed");
+    selector.select(SELECT_TIMEOUT);
+    selector.selectedKeys().clear();
+    if (!socketChannel.isOpen()) {
+      throw new ClosedChannelException();
     }
-    else if (rc == 0) {
-      logger.error("socketChannel.write(bytes) - returned zero indicating that perhaps the write buffer is full");
+  }
+
+  /**
+   * Message queued for writing, tells its sender the result once the writer thread is done with it.
+   */
+  public static final class PendingWrite {
+
+    final ByteBuffer bytes;
+    volatile boolean written;
+    volatile IOException failure;
+
+    PendingWrite(ByteBuffer bytes) {
+      this.bytes = bytes;
     }
-    if (logger.isDebugEnabled()) {
-      logger.debug("Sent a byte buffer of size [{}] over the TCP nio socket [{}]", bytes.array().length, socketDescription);
+
+    /**
+     * @return true once the message was written or failed
+     */
+    public boolean isDone() {
+      return written || failure != null;
+    }
+
+    /**
+     * @return true if the message was written whole to the socket
+     */
+    public boolean isWritten() {
+      return written;
+    }
+
+    /**
+     * @return reason the message was not written, null unless it failed
+     */
+    public IOException getFailure() {
+      return failure;
     }
   }
 
@@ -19,6 +19,7 @@
 
 package org.jdiameter.client.impl.transport.tcp.netty;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.jdiameter.api.AvpDataException;
@@ -55,11 +56,12 @@ public class DiameterMessageDecoder extends ByteToMessageDecoder {
         return;
       }
 
-      byte[] bytes = new byte[messageLength];
-      in.readBytes(bytes);
+      // decode straight from the pooled buffer, message does not keep references to it
+      ByteBuffer frame = in.nioBuffer(in.readerIndex(), messageLength);
+      in.skipBytes(messageLength);
 
       try {
-        out.add(this.parser.createMessage(bytes));
+        out.add(this.parser.createMessage(frame, frame.position(), messageLength));
       } catch (AvpDataException e) {
         this.parentConnection.onAvpDataException(e);
       }
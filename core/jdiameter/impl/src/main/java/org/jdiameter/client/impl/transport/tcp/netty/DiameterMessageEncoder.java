@@ -23,7 +23,6 @@ import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.parser.IMessageParser;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 
@@ -40,7 +39,11 @@ public class DiameterMessageEncoder extends MessageToByteEncoder<IMessage> {
 
   @Override
   protected void encode(ChannelHandlerContext ctx, IMessage msg, ByteBuf out) throws Exception {
-    out.writeBytes(Unpooled.wrappedBuffer(parser.encodeMessage(msg)));
+    // encode straight into the outbound buffer
+    int length = parser.getMessageLength(msg);
+    out.ensureWritable(length);
+    parser.encodeMessage(msg, out.nioBuffer(out.writerIndex(), length));
+    out.writerIndex(out.writerIndex() + length);
   }
 
 }
@@ -43,6 +43,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 /**
  *
@@ -67,7 +68,7 @@ public class TCPClientConnection implements IConnection {
   public TCPClientConnection(Configuration config, IConcurrentFactory concurrentFactory, InetAddress remoteAddress,
       int remotePort, InetAddress localAddress, int localPort, IMessageParser parser, String ref) {
     this.parser = parser;
-    this.client = new TCPTransportClient(this, parser, new InetSocketAddress(remoteAddress, remotePort),
+    this.client = new TCPTransportClient(this, parser, config, new InetSocketAddress(remoteAddress, remotePort),
         new InetSocketAddress(localAddress, localPort));
 
   }
@@ -79,9 +80,10 @@ public class TCPClientConnection implements IConnection {
     listeners.add(listener);
   }
 
-  public TCPClientConnection(Channel channel, IMessageParser parser) {
+  public TCPClientConnection(Configuration config, Channel channel, IMessageParser parser,
+      EventExecutorGroup eventExecutorGroup) {
     this.parser = parser;
-    this.client = new TCPTransportClient(this, parser, channel);
+    this.client = new TCPTransportClient(this, parser, config, channel, eventExecutorGroup);
   }
 
   public long getCreatedTime() {
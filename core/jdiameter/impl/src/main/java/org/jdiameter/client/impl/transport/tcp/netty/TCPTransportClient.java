@@ -22,21 +22,21 @@ package org.jdiameter.client.impl.transport.tcp.netty;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 
+import org.jdiameter.api.Configuration;
 import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.impl.transport.FlushConsolidator;
+import org.jdiameter.client.impl.transport.SharedEventLoopGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.util.concurrent.DefaultEventExecutorGroup;
 import io.netty.util.concurrent.EventExecutorGroup;
 
 /**
@@ -44,9 +44,11 @@ import io.netty.util.concurrent.EventExecutorGroup;
  * @author <a href="mailto:jqayyum@gmail.com"> Jehanzeb Qayyum </a>
  */
 public class TCPTransportClient {
-  protected EventLoopGroup workerGroup;
-  protected EventExecutorGroup eventExecutorGroup = new DefaultEventExecutorGroup(1);
+  // event loops shared with other connections, acquired only by client side connections
+  protected SharedEventLoopGroup eventLoops;
+  protected Configuration config;
   protected Channel channel;
+  protected FlushConsolidator flusher;
   protected TCPClientConnection parentConnection;
   protected InetSocketAddress destAddress;
   protected InetSocketAddress sourceAddress; // TODO: what?
@@ -68,9 +70,10 @@ public class TCPTransportClient {
     this.parser = parser;
   }
 
-  public TCPTransportClient(TCPClientConnection parentConnection, IMessageParser parser, InetSocketAddress destAddress,
-      InetSocketAddress sourceAddress) {
+  public TCPTransportClient(TCPClientConnection parentConnection, IMessageParser parser, Configuration config,
+      InetSocketAddress destAddress, InetSocketAddress sourceAddress) {
     this(parentConnection, parser);
+    this.config = config;
 
     logger.debug("Client only connection");
 
@@ -88,14 +91,17 @@ public class TCPTransportClient {
     }
   }
 
-  public TCPTransportClient(TCPClientConnection parentConnection, IMessageParser parser, Channel channel) {
+  public TCPTransportClient(TCPClientConnection parentConnection, IMessageParser parser, Configuration config,
+      Channel channel, EventExecutorGroup eventExecutorGroup) {
     this(parentConnection, parser);
+    this.config = config;
     logger.debug("Server only connection");
 
     if (channel == null) {
       throw new IllegalArgumentException("Channel cannot be null");
     }
     this.channel = channel;
+    this.flusher = new FlushConsolidator(channel, config);
     ChannelPipeline pipeline = this.channel.pipeline();
     pipeline.addLast("decoder", new DiameterMessageDecoder(parentConnection, parser));
     pipeline.addLast("encoder", new DiameterMessageEncoder(parser));
@@ -111,9 +117,11 @@ public class TCPTransportClient {
       return;
     }
 
-    this.workerGroup = new NioEventLoopGroup();
-    Bootstrap bootstrap = new Bootstrap().group(workerGroup).channel(NioSocketChannel.class)
+    this.eventLoops = SharedEventLoopGroup.acquire(config);
+    final EventExecutorGroup eventExecutorGroup = eventLoops.getEventExecutorGroup();
+    Bootstrap bootstrap = new Bootstrap().group(eventLoops.getEventLoopGroup()).channel(eventLoops.getSocketChannelClass())
         .option(ChannelOption.SO_KEEPALIVE, true).option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT)
+        .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
         .handler(new ChannelInitializer<SocketChannel>() {
           @Override
           public void initChannel(SocketChannel ch) throws Exception {
@@ -124,7 +132,17 @@ public class TCPTransportClient {
           }
         });
 
-    this.channel = bootstrap.remoteAddress(destAddress).connect().sync().channel();
+    boolean connected = false;
+    try {
+      this.channel = bootstrap.remoteAddress(destAddress).connect().sync().channel();
+      this.flusher = new FlushConsolidator(channel, config);
+      connected = true;
+    }
+    finally {
+      if (!connected) {
+        releaseEventLoops();
+      }
+    }
     logger.debug("TCP Transport connected successfully, [{}]", socketDescription);
 
     parentConnection.onConnected();
@@ -134,40 +152,26 @@ public class TCPTransportClient {
     logger.debug("Stopping TCP Transport, [{}]", socketDescription);
     if (!isConnected()) {
       logger.debug("Already stoppped TCP Transport, [{}]", socketDescription);
+      releaseEventLoops();
       return;
     }
     closeChannel();
-    closeWorkerGroup();
-    closeEventExecutorGroup();
+    releaseEventLoops();
     logger.debug("Transport is stopped [{}]", socketDescription);
   }
 
-  private void closeEventExecutorGroup() {
-    if (eventExecutorGroup != null) {
-      try {
-        eventExecutorGroup.shutdownGracefully().sync();
-      } catch (InterruptedException e) {
-        logger.error("Error stopping socket " + socketDescription, e);
-      }
-      eventExecutorGroup = null;
-    }
-  }
-
-  private void closeWorkerGroup() {
-    if (workerGroup != null) {
-      try {
-        workerGroup.shutdownGracefully().sync();
-      } catch (InterruptedException e) {
-        logger.error("Error stopping socket " + socketDescription, e);
-      }
-      workerGroup = null;
+  private void releaseEventLoops() {
+    if (eventLoops != null) {
+      eventLoops.release();
+      eventLoops = null;
     }
   }
 
   private void closeChannel() {
     if (channel != null) {
       try {
-        channel.closeFuture().sync();
+        // event loops are shared, channel has to be closed explicitly
+        channel.close().sync();
       } catch (InterruptedException e) {
         logger.error("Error stopping socket " + socketDescription, e);
       }
@@ -186,7 +190,7 @@ public class TCPTransportClient {
     if (!isConnected()) {
       throw new IllegalStateException("TCP transport is stopped on socket " + socketDescription);
     }
-    channel.writeAndFlush(message);
+    flusher.write(message);
   }
 
   public String toString() {
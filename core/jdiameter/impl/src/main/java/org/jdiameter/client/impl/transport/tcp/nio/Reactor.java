@@ -0,0 +1,190 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport.tcp.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single selector thread serving every connection registered with it. Registrations and other tasks
+ * submitted from other threads are queued and run by the reactor thread between two selections, delayed tasks
+ * are run once the selection times out.
+ */
+final class Reactor implements Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(Reactor.class);
+
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  // only accessed by the reactor thread
+  private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<ScheduledTask>();
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  Reactor(String name) throws IOException {
+    this.selector = Selector.open();
+    this.thread = new Thread(this, name);
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  void stop() {
+    running = false;
+    selector.wakeup();
+  }
+
+  /**
+   * Runs the task on the reactor thread.
+   */
+  void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Runs the task on the reactor thread once the delay elapsed.
+   */
+  void schedule(final Runnable task, long delay) {
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        scheduledTasks.add(new ScheduledTask(task, deadline));
+      }
+    });
+  }
+
+  /**
+   * Registers connected channel for reading, transport is notified each time data can be read.
+   */
+  void register(final SocketChannel channel, final TCPTransportClient transport) {
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          transport.onRegistered(channel.register(selector, SelectionKey.OP_READ, transport));
+        }
+        catch (ClosedChannelException e) {
+          logger.debug("Channel was closed before it could be registered");
+          transport.onClosed();
+        }
+      }
+    });
+  }
+
+  @Override
+  public void run() {
+    logger.debug("Reactor [{}] is started", thread.getName());
+    try {
+      while (running) {
+        selector.select(runScheduledTasks());
+        runTasks();
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (key.isValid()) {
+            try {
+              ((TCPTransportClient) key.attachment()).onSelected(key);
+            }
+            catch (Exception e) {
+              logger.error("Failure while serving connection", e);
+            }
+          }
+        }
+      }
+    }
+    catch (Throwable e) {
+      logger.error("Reactor exception", e);
+    }
+    finally {
+      try {
+        selector.close();
+      }
+      catch (IOException e) {
+        // ignore
+      }
+      logger.debug("Reactor [{}] is stopped", thread.getName());
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      }
+      catch (Exception e) {
+        logger.error("Failure while running reactor task", e);
+      }
+    }
+  }
+
+  /**
+   * @return time in milliseconds until the next scheduled task is due, 0 if there is none
+   */
+  private long runScheduledTasks() {
+    ScheduledTask next;
+    while ((next = scheduledTasks.peek()) != null) {
+      long remaining = next.deadline - System.nanoTime();
+      if (remaining > 0) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+      }
+      scheduledTasks.poll();
+      try {
+        next.task.run();
+      }
+      catch (Exception e) {
+        logger.error("Failure while running reactor task", e);
+      }
+    }
+    return 0;
+  }
+
+  private static final class ScheduledTask implements Comparable<ScheduledTask> {
+    private final Runnable task;
+    private final long deadline;
+
+    ScheduledTask(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public int compareTo(ScheduledTask other) {
+      long diff = deadline - other.deadline;
+      return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport.tcp.nio;
+
+import static org.jdiameter.client.impl.helpers.Parameters.DeliveryThreadCount;
+import static org.jdiameter.client.impl.helpers.Parameters.ReactorThreadCount;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdiameter.api.Configuration;
+import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fixed set of reactor threads shared by all NIO connections of a stack, client and server side, so that the
+ * number of threads does not grow with the number of peers. Connections are spread over the reactors round robin.
+ *
+ * Received messages are passed to listeners by a fixed pool of delivery threads, obtained from the concurrent
+ * factory of the stack, so that a slow listener does not hold up the other connections of its reactor. A
+ * connection queues at most one delivery task at a time, so the pool queue is bounded by the number of
+ * connections.
+ *
+ * Reactors are started on first {@link #acquire(IConcurrentFactory, Configuration)} for a stack, sized after the
+ * configuration passed there, and stopped once every user called {@link #release()}.
+ */
+public final class ReactorGroup {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReactorGroup.class);
+
+  // idle delivery threads are stopped after this time, in seconds
+  private static final long DELIVERY_KEEP_ALIVE = 60;
+
+  // one group per stack, stacks are told apart by their concurrent factory
+  private static final Map<IConcurrentFactory, ReactorGroup> groups = new IdentityHashMap<IConcurrentFactory, ReactorGroup>();
+
+  private final IConcurrentFactory key;
+  private final Reactor[] reactors;
+  private final AtomicInteger nextReactor = new AtomicInteger();
+  private final ExecutorService deliveryExecutor;
+  private int references;
+
+  private ReactorGroup(IConcurrentFactory key, int threads, int deliveryThreads, ThreadFactory deliveryThreadFactory)
+      throws IOException {
+    this.key = key;
+    this.reactors = new Reactor[threads];
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(deliveryThreads, deliveryThreads, DELIVERY_KEEP_ALIVE,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), deliveryThreadFactory);
+    executor.allowCoreThreadTimeOut(true);
+    this.deliveryExecutor = executor;
+    try {
+      for (int i = 0; i < threads; i++) {
+        reactors[i] = new Reactor("DiameterReactor-" + i);
+      }
+    }
+    catch (IOException e) {
+      stop();
+      throw e;
+    }
+    for (Reactor reactor : reactors) {
+      reactor.start();
+    }
+  }
+
+  /**
+   * Obtains the group of the stack, starting it if needed. Each call must be paired with a call to
+   * {@link #release()}.
+   *
+   * @param concurrentFactory concurrent factory of the stack, delivery threads are obtained from it
+   * @param config stack configuration, used only if the group is started
+   * @return the group of the stack
+   * @throws IOException if selectors can not be opened
+   */
+  public static ReactorGroup acquire(final IConcurrentFactory concurrentFactory, Configuration config) throws IOException {
+    synchronized (groups) {
+      ReactorGroup group = groups.get(concurrentFactory);
+      if (group == null) {
+        int threads = (Integer) ReactorThreadCount.defValue();
+        int deliveryThreads = (Integer) DeliveryThreadCount.defValue();
+        if (config != null) {
+          threads = config.getIntValue(ReactorThreadCount.ordinal(), threads);
+          deliveryThreads = config.getIntValue(DeliveryThreadCount.ordinal(), deliveryThreads);
+        }
+        if (threads <= 0) {
+          threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (deliveryThreads <= 0) {
+          deliveryThreads = 2 * Runtime.getRuntime().availableProcessors();
+        }
+        logger.debug("Starting reactor group with [{}] threads and [{}] delivery threads", threads, deliveryThreads);
+        group = new ReactorGroup(concurrentFactory, threads, deliveryThreads, new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable task) {
+            Thread thread = concurrentFactory != null ? concurrentFactory.getThread("DiameterDelivery", task)
+                : new Thread(task, "DiameterDelivery-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+        groups.put(concurrentFactory, group);
+      }
+      group.references++;
+      return group;
+    }
+  }
+
+  /**
+   * Releases the group obtained with {@link #acquire(IConcurrentFactory, Configuration)}, reactors are stopped
+   * when it was the last user of the group.
+   */
+  public void release() {
+    synchronized (groups) {
+      if (--references > 0) {
+        return;
+      }
+      if (groups.get(key) == this) {
+        groups.remove(key);
+      }
+    }
+    logger.debug("Stopping reactor group");
+    stop();
+  }
+
+  /**
+   * @return reactor which should serve the next connection
+   */
+  Reactor next() {
+    return reactors[(nextReactor.getAndIncrement() & Integer.MAX_VALUE) % reactors.length];
+  }
+
+  /**
+   * @return executor passing received messages to listeners
+   */
+  ExecutorService getDeliveryExecutor() {
+    return deliveryExecutor;
+  }
+
+  private void stop() {
+    for (Reactor reactor : reactors) {
+      if (reactor != null) {
+        reactor.stop();
+      }
+    }
+    // already queued deliveries are still run
+    deliveryExecutor.shutdown();
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport.tcp.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.Configuration;
+import org.jdiameter.api.OverloadException;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.io.IConnectionListener;
+import org.jdiameter.client.api.io.TransportError;
+import org.jdiameter.client.api.io.TransportException;
+import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.impl.transport.tcp.AbstractTCPClientConnection;
+import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TCP connection served by the shared reactor threads of {@link ReactorGroup}. It is selected with
+ * <code>org.jdiameter.client.impl.transport.tcp.nio.TCPClientConnection</code> as internal connection
+ * class.
+ *
+ * Events are passed to listeners in order by one delivery thread at a time, never by the reactor thread, so a
+ * slow listener only holds up its own connection.
+ */
+public class TCPClientConnection extends AbstractTCPClientConnection {
+
+  private static Logger logger = LoggerFactory.getLogger(TCPClientConnection.class);
+
+  private TCPTransportClient client;
+
+  // events waiting for the delivery thread
+  private final Queue<Event> pendingEvents = new ConcurrentLinkedQueue<Event>();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final AtomicBoolean delivering = new AtomicBoolean();
+  private final Runnable deliveryTask = new Runnable() {
+    @Override
+    public void run() {
+      deliverPendingEvents();
+    }
+  };
+
+  protected TCPClientConnection(Configuration config, IConcurrentFactory concurrentFactory, IMessageParser parser) {
+    super(parser);
+    client = new TCPTransportClient(this, parser, config, concurrentFactory);
+  }
+
+  public TCPClientConnection(Configuration config, IConcurrentFactory concurrentFactory, Socket socket,
+      IMessageParser parser, String ref) throws Exception {
+    this(config, concurrentFactory, parser);
+    client.initialize(socket);
+    client.start();
+  }
+
+  public TCPClientConnection(Configuration config, IConcurrentFactory concurrentFactory, InetAddress remoteAddress,
+      int remotePort, InetAddress localAddress, int localPort, IMessageParser parser, String ref) {
+    this(config, concurrentFactory, parser);
+    client.setDestAddress(new InetSocketAddress(remoteAddress, remotePort));
+    client.setOrigAddress(new InetSocketAddress(localAddress, localPort));
+  }
+
+  public TCPClientConnection(Configuration config, IConcurrentFactory concurrentFactory, InetAddress remoteAddress,
+      int remotePort, InetAddress localAddress, int localPort, IConnectionListener listener,
+      IMessageParser parser, String ref) {
+    this(config, concurrentFactory, remoteAddress, remotePort, localAddress, localPort, parser, ref);
+    addConnectionListener(listener);
+  }
+
+  @Override
+  public void connect() throws TransportException {
+    try {
+      getClient().initialize();
+      getClient().start();
+    }
+    catch (IOException e) {
+      throw new TransportException("Cannot init transport: ", TransportError.NetWorkError, e);
+    }
+    catch (Exception e) {
+      throw new TransportException("Cannot init transport: ", TransportError.Internal, e);
+    }
+  }
+
+  @Override
+  public void disconnect() throws InternalError {
+    logger.debug("In disconnect for [{}]", this.getKey());
+    try {
+      if (getClient() != null) {
+        getClient().stop();
+      }
+    }
+    catch (Exception e) {
+      throw new InternalError("Error while stopping transport: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public void release() throws IOException {
+    logger.debug("In release for [{}]", this.getKey());
+    try {
+      if (getClient() != null) {
+        getClient().release();
+      }
+    }
+    catch (Exception e) {
+      throw new IOException(e.getMessage());
+    }
+    finally {
+      clear();
+    }
+  }
+
+  @Override
+  public void sendMessage(IMessage message) throws TransportException, OverloadException {
+    try {
+      if (getClient() != null) {
+        getClient().sendMessage(parser.encodeMessage(message));
+      }
+    }
+    catch (Exception e) {
+      throw new TransportException("Cannot send message: ", TransportError.FailedSendMessage, e);
+    }
+  }
+
+  protected TCPTransportClient getClient() {
+    return client;
+  }
+
+  @Override
+  public boolean isConnected() {
+    return getClient() != null && getClient().isConnected();
+  }
+
+  @Override
+  public InetAddress getRemoteAddress() {
+    return getClient().getDestAddress().getAddress();
+  }
+
+  @Override
+  public int getRemotePort() {
+    return getClient().getDestAddress().getPort();
+  }
+
+  // transport events, overridden to be visible to the transport of this package
+
+  @Override
+  protected void onConnected() {
+    super.onConnected();
+  }
+
+  @Override
+  protected void onDisconnect() throws AvpDataException {
+    super.onDisconnect();
+  }
+
+  @Override
+  protected void onMessageReceived(IMessage message) throws AvpDataException {
+    super.onMessageReceived(message);
+  }
+
+  @Override
+  protected void onAvpDataException(AvpDataException e) {
+    super.onAvpDataException(e);
+  }
+
+  /**
+   * Queues the event for the delivery thread. Events raised while the transport is not started are passed to
+   * the listeners by the calling thread.
+   */
+  @Override
+  protected void onEvent(Event event) throws AvpDataException {
+    Executor executor = getClient().getDeliveryExecutor();
+    if (executor == null) {
+      super.onEvent(event);
+      return;
+    }
+    pendingEvents.add(event);
+    pendingCount.incrementAndGet();
+    if (delivering.compareAndSet(false, true)) {
+      try {
+        executor.execute(deliveryTask);
+      }
+      catch (RejectedExecutionException e) {
+        // reactor group was stopped meanwhile
+        deliverPendingEvents();
+      }
+    }
+  }
+
+  /**
+   * @return number of events waiting for the delivery thread
+   */
+  int getPendingEvents() {
+    return pendingCount.get();
+  }
+
+  private void deliverPendingEvents() {
+    do {
+      Event event;
+      while ((event = pendingEvents.poll()) != null) {
+        pendingCount.decrementAndGet();
+        try {
+          super.onEvent(event);
+        }
+        catch (Exception e) {
+          logger.error("Failure while passing event to listeners of connection [" + getKey() + "]", e);
+        }
+      }
+      delivering.set(false);
+      getClient().onEventsDelivered();
+    } while (!pendingEvents.isEmpty() && delivering.compareAndSet(false, true));
+  }
+}
@@ -0,0 +1,505 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport.tcp.nio;
+
+import static org.jdiameter.client.impl.helpers.Parameters.WriteBatchSize;
+import static org.jdiameter.client.impl.helpers.Parameters.WriteFlushDelay;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.Configuration;
+import org.jdiameter.client.api.io.NotInitializedException;
+import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TCP transport whose socket is served by one of the shared {@link ReactorGroup} threads instead of a reader
+ * thread of its own. Received bytes are read into a per connection direct buffer and complete messages are
+ * decoded straight from it, only the trailing partial message is moved to the start of the buffer.
+ *
+ * Outbound messages are queued and written by the reactor thread with gathering writes, so senders never wait
+ * for the socket. Writing may be delayed by <code>WriteFlushDelay</code> to let more messages join a batch.
+ *
+ * Decoded messages are handed to the delivery threads of the group. Reading is suspended while too many of
+ * them wait for delivery, as the socket of a blocking transport would not be read while its listener is busy.
+ */
+public class TCPTransportClient {
+
+  private static final Logger logger = LoggerFactory.getLogger(TCPTransportClient.class);
+
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  // smallest valid message, the header
+  private static final int MIN_MESSAGE_LENGTH = 20;
+
+  // received events waiting for delivery above which reading is suspended
+  static final int MAX_PENDING_EVENTS = 256;
+
+  private TCPClientConnection parentConnection;
+  private IMessageParser parser;
+  private Configuration config;
+  private IConcurrentFactory concurrentFactory;
+  private ReactorGroup reactors;
+  private volatile Reactor reactor;
+  private volatile Executor deliveryExecutor;
+  private SelectionKey selectionKey;
+  // written by the reactor thread only
+  private volatile boolean readSuspended;
+
+  protected InetSocketAddress destAddress;
+  protected InetSocketAddress origAddress;
+
+  protected SocketChannel socketChannel;
+
+  // only accessed by the reactor thread once the transport is started
+  protected ByteBuffer buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+
+  private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+  private final AtomicInteger outboundSize = new AtomicInteger();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  // messages of the batch being written, only accessed by the reactor thread
+  private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<ByteBuffer>();
+  private final ByteBuffer[] batch;
+  private final long flushDelay;
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  private final Runnable resumeReadingTask = new Runnable() {
+    @Override
+    public void run() {
+      resumeReading();
+    }
+  };
+
+  private String socketDescription = null;
+
+  /**
+   * Default constructor
+   *
+   * @param parentConnection connection created this transport
+   * @param parser parser used to decode received messages
+   * @param config stack configuration, used to size the reactor group and write batches
+   * @param concurrentFactory concurrent factory of the stack, the reactor group of the stack is looked up with it
+   */
+  TCPTransportClient(TCPClientConnection parentConnection, IMessageParser parser, Configuration config,
+      IConcurrentFactory concurrentFactory) {
+    this.parentConnection = parentConnection;
+    this.parser = parser;
+    this.config = config;
+    this.concurrentFactory = concurrentFactory;
+    int batchSize = (Integer) WriteBatchSize.defValue();
+    long delay = (Long) WriteFlushDelay.defValue();
+    if (config != null) {
+      batchSize = config.getIntValue(WriteBatchSize.ordinal(), batchSize);
+      delay = config.getLongValue(WriteFlushDelay.ordinal(), delay);
+    }
+    this.batch = new ByteBuffer[Math.max(1, batchSize)];
+    this.flushDelay = delay;
+  }
+
+  /**
+   *  Network init socket
+   */
+  public void initialize() throws IOException, NotInitializedException {
+    logger.debug("Initialising TCPTransportClient. Origin address is [{}] and destination address is [{}]", origAddress, destAddress);
+    if (destAddress == null) {
+      throw new NotInitializedException("Destination address is not set");
+    }
+    socketChannel = SelectorProvider.provider().openSocketChannel();
+
+    try {
+      if (origAddress != null) {
+        socketChannel.socket().bind(origAddress);
+      }
+
+      socketChannel.connect(destAddress);
+      socketChannel.configureBlocking(false);
+      getParent().onConnected();
+    }
+    catch (IOException e) {
+      socketChannel.close();
+      throw e;
+    }
+  }
+
+  public void initialize(Socket socket) throws IOException, NotInitializedException {
+    logger.debug("Initialising TCPTransportClient for a socket on [{}]", socket);
+    socketDescription = socket.toString();
+    socketChannel = socket.getChannel();
+    socketChannel.configureBlocking(false);
+    destAddress = new InetSocketAddress(socket.getInetAddress(), socket.getPort());
+  }
+
+  public TCPClientConnection getParent() {
+    return parentConnection;
+  }
+
+  public synchronized void start() throws NotInitializedException, IOException {
+    // for client
+    if (socketDescription == null && socketChannel != null) {
+      socketDescription = socketChannel.socket().toString();
+    }
+    logger.debug("Starting transport. Socket is {}", socketDescription);
+    if (socketChannel == null) {
+      throw new NotInitializedException("Transport is not initialized");
+    }
+    if (!socketChannel.isConnected()) {
+      throw new NotInitializedException("Socket channel is not connected");
+    }
+    if (getParent() == null) {
+      throw new NotInitializedException("No parent connection is set is set");
+    }
+    if (reactors != null) {
+      return;
+    }
+    buffer.clear();
+    writing.clear();
+    flushScheduled.set(false);
+    readSuspended = false;
+    reactors = ReactorGroup.acquire(concurrentFactory, config);
+    deliveryExecutor = reactors.getDeliveryExecutor();
+    reactor = reactors.next();
+    reactor.register(socketChannel, this);
+  }
+
+  public void stop() throws Exception {
+    logger.debug("Stopping transport. Socket is [{}]", socketDescription);
+    onClosed();
+    logger.debug("Transport is stopped. Socket is [{}]", socketDescription);
+  }
+
+  public void release() throws Exception {
+    stop();
+    destAddress = null;
+  }
+
+  /**
+   * Closes the socket and reports disconnection, only the first call after the transport was started has effect.
+   */
+  void onClosed() {
+    ReactorGroup group;
+    synchronized (this) {
+      group = reactors;
+      reactors = null;
+      reactor = null;
+    }
+    if (socketChannel != null && socketChannel.isOpen()) {
+      try {
+        socketChannel.close();
+      }
+      catch (IOException e) {
+        logger.debug("Failure while closing socket", e);
+      }
+    }
+    if (group == null) {
+      return;
+    }
+    outbound.clear();
+    outboundSize.set(0);
+    try {
+      getParent().onDisconnect();
+    }
+    catch (AvpDataException e) {
+      logger.error("Error", e);
+    }
+    // delivery threads run queued events even if the group is stopped
+    group.release();
+    synchronized (this) {
+      if (reactors == null) {
+        deliveryExecutor = null;
+      }
+    }
+    logger.info("Transport is closed for socket [{}]", socketDescription);
+  }
+
+  /**
+   * Called by the reactor thread once the socket is registered with it.
+   */
+  void onRegistered(SelectionKey key) {
+    this.selectionKey = key;
+    if (readSuspended) {
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+    if (!outbound.isEmpty()) {
+      flush();
+    }
+  }
+
+  /**
+   * Called by the reactor thread when the socket is ready for reading or writing.
+   */
+  void onSelected(SelectionKey key) {
+    if (key.isWritable()) {
+      flush();
+    }
+    if (key.isValid() && key.isReadable()) {
+      read();
+    }
+  }
+
+  private void read() {
+    int dataLength;
+    try {
+      dataLength = socketChannel.read(buffer);
+    }
+    catch (IOException e) {
+      logger.debug("Transport exception on [{}]", socketDescription, e);
+      onClosed();
+      return;
+    }
+    logger.debug("Just read [{}] bytes on [{}]", dataLength, socketDescription);
+    if (dataLength == -1) {
+      onClosed();
+      return;
+    }
+    decodeMessages();
+    if (getParent().getPendingEvents() >= MAX_PENDING_EVENTS) {
+      suspendReading();
+    }
+  }
+
+  private void suspendReading() {
+    logger.debug("Suspending reading on [{}] until received messages are delivered", socketDescription);
+    readSuspended = true;
+    selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+    // events may have been delivered before reading was marked as suspended
+    if (getParent().getPendingEvents() < MAX_PENDING_EVENTS) {
+      resumeReading();
+    }
+  }
+
+  private void resumeReading() {
+    SelectionKey key = selectionKey;
+    if (readSuspended && key != null && key.isValid()) {
+      logger.debug("Resuming reading on [{}]", socketDescription);
+      readSuspended = false;
+      key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+    }
+  }
+
+  /**
+   * Called by the delivery thread once it passed every pending event to the listeners.
+   */
+  void onEventsDelivered() {
+    if (readSuspended) {
+      Reactor current = reactor;
+      if (current != null) {
+        current.execute(resumeReadingTask);
+      }
+    }
+  }
+
+  /**
+   * @return executor delivering received events to listeners, null if the transport is not started
+   */
+  Executor getDeliveryExecutor() {
+    return deliveryExecutor;
+  }
+
+  private int readOps() {
+    return readSuspended ? 0 : SelectionKey.OP_READ;
+  }
+
+  private void decodeMessages() {
+    int end = buffer.position();
+    int offset = 0;
+    int pendingLength = 0;
+    while (end - offset >= 4) {
+      // get first four bytes for version and message length
+      int tmp = buffer.getInt(offset);
+      // check that version is 1, as per RFC 3588 - Section 3:
+      // This Version field MUST be set to 1 to indicate Diameter Version 1
+      byte vers = (byte) (tmp >> 24);
+      int messageLength = tmp & 0xFFFFFF;
+      if (vers != 1 || messageLength < MIN_MESSAGE_LENGTH) {
+        logger.error("Invalid message version [{}] or length [{}] detected, discarding received data", vers, messageLength);
+        buffer.clear();
+        return;
+      }
+      if (end - offset < messageLength) {
+        logger.debug("Received partial message, waiting for remaining (expected: {} bytes, got {} bytes).", messageLength, end - offset);
+        pendingLength = messageLength;
+        break;
+      }
+      try {
+        getParent().onMessageReceived(parser.createMessage(buffer, offset, messageLength));
+      }
+      catch (AvpDataException e) {
+        logger.debug("Garbage was received. Discarding.");
+        buffer.clear();
+        getParent().onAvpDataException(e);
+        return;
+      }
+      offset += messageLength;
+    }
+
+    if (offset == end && buffer.capacity() > DEFAULT_BUFFER_SIZE) {
+      // drop buffer grown for a large message
+      buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+      return;
+    }
+    buffer.limit(end);
+    buffer.position(offset);
+    if (pendingLength > buffer.capacity()) {
+      ByteBuffer larger = ByteBuffer.allocateDirect(pendingLength);
+      larger.put(buffer);
+      buffer = larger;
+      logger.debug("Increased buffer size to {} bytes", pendingLength);
+    }
+    else {
+      buffer.compact();
+    }
+  }
+
+  public InetSocketAddress getDestAddress() {
+    return this.destAddress;
+  }
+
+  public void setDestAddress(InetSocketAddress address) {
+    this.destAddress = address;
+    if (logger.isDebugEnabled()) {
+      logger.debug("Destination address is set to [{}] : [{}]", destAddress.getHostName(), destAddress.getPort());
+    }
+  }
+
+  public void setOrigAddress(InetSocketAddress address) {
+    this.origAddress = address;
+    if (logger.isDebugEnabled()) {
+      logger.debug("Origin address is set to [{}] : [{}]", origAddress.getHostName(), origAddress.getPort());
+    }
+  }
+
+  public InetSocketAddress getOrigAddress() {
+    return this.origAddress;
+  }
+
+  /**
+   * Queues message for writing, it is written by the reactor thread together with other queued messages.
+   */
+  public void sendMessage(ByteBuffer bytes) throws IOException {
+    Reactor current = reactor;
+    if (current == null || !isConnected()) {
+      throw new IOException("Transport is not started on socket " + socketDescription);
+    }
+    logger.debug("Queueing a byte buffer of size [{}] for the TCP nio socket [{}]", bytes.remaining(), socketDescription);
+    outbound.add(bytes);
+    int queued = outboundSize.incrementAndGet();
+    if (flushScheduled.compareAndSet(false, true)) {
+      if (flushDelay > 0) {
+        current.schedule(flushTask, flushDelay);
+      }
+      else {
+        current.execute(flushTask);
+      }
+    }
+    else if (flushDelay > 0 && queued == batch.length) {
+      // full batch does not wait for the delay
+      current.execute(flushTask);
+    }
+  }
+
+  /**
+   * Writes queued messages until the queue is drained or the socket can not take more, in which case writing
+   * is resumed once the socket is writable again.
+   */
+  private void flush() {
+    flushScheduled.set(false);
+    SelectionKey key = selectionKey;
+    if (key == null || !key.isValid()) {
+      // not registered yet, or already closed
+      return;
+    }
+    try {
+      while (true) {
+        int count = 0;
+        for (ByteBuffer pending : writing) {
+          batch[count++] = pending;
+        }
+        ByteBuffer next;
+        while (count < batch.length && (next = outbound.poll()) != null) {
+          outboundSize.decrementAndGet();
+          writing.add(next);
+          batch[count++] = next;
+        }
+        if (count == 0) {
+          break;
+        }
+        long written = socketChannel.write(batch, 0, count);
+        logger.debug("Wrote [{}] bytes of [{}] messages over the TCP nio socket [{}]", written, count, socketDescription);
+        Arrays.fill(batch, 0, count, null);
+        while (!writing.isEmpty() && !writing.peek().hasRemaining()) {
+          writing.poll();
+        }
+        if (!writing.isEmpty()) {
+          key.interestOps(readOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+      }
+      if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+        key.interestOps(readOps());
+      }
+    }
+    catch (IOException e) {
+      logger.error("Unable to send message", e);
+      onClosed();
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer buffer = new StringBuffer();
+    buffer.append("Transport to ");
+    if (this.destAddress != null) {
+      buffer.append(this.destAddress.getHostName());
+      buffer.append(":");
+      buffer.append(this.destAddress.getPort());
+    }
+    else {
+      buffer.append("null");
+    }
+    buffer.append("@");
+    buffer.append(super.toString());
+    return buffer.toString();
+  }
+
+  boolean isConnected() {
+    return socketChannel != null && socketChannel.isOpen() && socketChannel.isConnected();
+  }
+}
@@ -25,7 +25,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 
@@ -46,7 +45,11 @@ public class DiameterMessageEncoder extends MessageToByteEncoder<IMessage> {
   protected void encode(ChannelHandlerContext ctx, IMessage msg, ByteBuf out) throws Exception {
     logger.debug("DiameterMessageEncoder");
     logger.debug("Encoding message command code {}", msg.getCommandCode());
-    out.writeBytes(Unpooled.wrappedBuffer(parser.encodeMessage(msg)));
+    // encode straight into the outbound buffer
+    int length = parser.getMessageLength(msg);
+    out.ensureWritable(length);
+    parser.encodeMessage(msg, out.nioBuffer(out.writerIndex(), length));
+    out.writerIndex(out.writerIndex() + length);
   }
 
 }
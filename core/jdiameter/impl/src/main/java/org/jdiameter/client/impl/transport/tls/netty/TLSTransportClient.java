@@ -25,18 +25,19 @@ import java.net.InetSocketAddress;
 import org.jdiameter.api.Configuration;
 import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.impl.transport.FlushConsolidator;
+import org.jdiameter.client.impl.transport.SharedEventLoopGroup;
 import org.jdiameter.common.api.concurrent.IConcurrentFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 
 /**
  *
@@ -55,7 +56,10 @@ public class TLSTransportClient {
   private String socketDescription = null;
 
   private Channel channel;
-  private EventLoopGroup workerGroup;
+  private FlushConsolidator flusher;
+  // event loops shared with other connections, acquired only by client side connections
+  private SharedEventLoopGroup eventLoops;
+  private Configuration stackConfig;
 
   private volatile TlsHandshakingState tlsHandshakingState = TlsHandshakingState.INIT;
 
@@ -72,8 +76,9 @@ public class TLSTransportClient {
   }
 
   public TLSTransportClient(TLSClientConnection parenConnection, IConcurrentFactory concurrentFactory, IMessageParser parser,
-      Configuration config, InetSocketAddress destAddress, InetSocketAddress origAddress) {
+      Configuration config, Configuration stackConfig, InetSocketAddress destAddress, InetSocketAddress origAddress) {
     this(parenConnection, concurrentFactory, parser, config);
+    this.stackConfig = stackConfig;
 
     if (destAddress == null) {
       throw new IllegalArgumentException("Destination address is required");
@@ -86,12 +91,14 @@ public class TLSTransportClient {
   }
 
   public TLSTransportClient(TLSClientConnection parenConnection, IConcurrentFactory concurrentFactory, IMessageParser parser,
-      Configuration config, Channel channel) {
+      Configuration config, Configuration stackConfig, Channel channel) {
     this(parenConnection, concurrentFactory, parser, config);
+    this.stackConfig = stackConfig;
     if (channel == null) {
       throw new IllegalArgumentException("Channel is required");
     }
     this.channel = channel;
+    this.flusher = new FlushConsolidator(channel, stackConfig);
     this.origAddress = (InetSocketAddress) this.channel.localAddress();
     this.destAddress = (InetSocketAddress) this.channel.remoteAddress();
     this.socketDescription = origAddress.toString() + "->" + destAddress.toString();
@@ -114,9 +121,10 @@ public class TLSTransportClient {
       return;
     }
 
-    workerGroup = new NioEventLoopGroup();
+    eventLoops = SharedEventLoopGroup.acquire(stackConfig);
     Bootstrap bootstrap = new Bootstrap();
-    bootstrap.group(workerGroup).channel(NioSocketChannel.class).handler(new ChannelInitializer<SocketChannel>() {
+    bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    bootstrap.group(eventLoops.getEventLoopGroup()).channel(eventLoops.getSocketChannelClass()).handler(new ChannelInitializer<SocketChannel>() {
       @Override
       protected void initChannel(SocketChannel channel) throws Exception {
         ChannelPipeline pipeline = channel.pipeline();
@@ -128,7 +136,17 @@ public class TLSTransportClient {
       }
     });
 
-    this.channel = bootstrap.remoteAddress(destAddress).connect().sync().channel();
+    boolean connected = false;
+    try {
+      this.channel = bootstrap.remoteAddress(destAddress).connect().sync().channel();
+      this.flusher = new FlushConsolidator(channel, stackConfig);
+      connected = true;
+    }
+    finally {
+      if (!connected) {
+        releaseEventLoops();
+      }
+    }
 
     parentConnection.onConnected();
 
@@ -171,7 +189,7 @@ public class TLSTransportClient {
     }
 
     logger.debug("About to send a message over the TLS socket [{}]", socketDescription);
-    channel.writeAndFlush(message);
+    flusher.write(message);
   }
 
   boolean isConnected() {
@@ -182,7 +200,7 @@ public class TLSTransportClient {
     //logger.debug("Stopping TLS Transport {}", socketDescription);
 
     closeChannel();
-    closeWorkerGroup();
+    releaseEventLoops();
 
     //logger.debug("TLS Transport is stopped {}", socketDescription);
 
@@ -198,7 +216,8 @@ public class TLSTransportClient {
   private void closeChannel() {
     if (channel != null && channel.isActive()) {
       try {
-        channel.closeFuture().sync();
+        // event loops are shared, channel has to be closed explicitly
+        channel.close().sync();
       } catch (InterruptedException e) {
         logger.error("Error stopping socket " + socketDescription, e);
       }
@@ -206,14 +225,10 @@ public class TLSTransportClient {
     }
   }
 
-  private void closeWorkerGroup() {
-    if (workerGroup != null && !workerGroup.isShuttingDown()) {
-      try {
-        workerGroup.shutdownGracefully().sync();
-      } catch (InterruptedException e) {
-        logger.error("Error stopping socket " + socketDescription, e);
-      }
-      workerGroup = null;
+  private void releaseEventLoops() {
+    if (eventLoops != null) {
+      eventLoops.release();
+      eventLoops = null;
     }
   }
 
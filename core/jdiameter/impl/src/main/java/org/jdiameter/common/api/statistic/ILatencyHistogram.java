@@ -0,0 +1,61 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.api.statistic;
+
+/**
+ * Distribution of request/answer latencies. Values are kept in microseconds with a bounded relative error, so that
+ * percentiles can be read at any time while latencies are being recorded.
+ */
+public interface ILatencyHistogram {
+
+  /**
+   * Records one latency
+   *
+   * @param nanos latency in nanoseconds
+   */
+  void record(long nanos);
+
+  /**
+   * @return count of recorded latencies
+   */
+  long getCount();
+
+  /**
+   * @return mean of recorded latencies in microseconds
+   */
+  double getMean();
+
+  /**
+   * @return highest recorded latency in microseconds
+   */
+  long getMax();
+
+  /**
+   * @param percentile percentile between 0 and 100
+   * @return latency in microseconds below or at which the given percentage of recorded latencies fall
+   */
+  long getPercentile(double percentile);
+
+  /**
+   * Clears recorded latencies
+   */
+  void reset();
+
+}
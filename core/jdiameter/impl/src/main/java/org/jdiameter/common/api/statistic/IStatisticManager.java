@@ -43,6 +43,7 @@
 package org.jdiameter.common.api.statistic;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -79,6 +80,16 @@ public interface IStatisticManager {
 
   void removeStatistic(IStatistic stat);
 
+  /**
+   * Returns the histogram of latencies between sending requests and receiving their answers, created on first use.
+   *
+   * @param peer URI of the peer answering the requests
+   * @param applicationId Application-Id of the requests
+   * @param commandCode command code of the requests
+   * @return latency histogram
+   */
+  ILatencyHistogram getLatencyHistogram(String peer, long applicationId, int commandCode);
+
   // --- non factory methods, metadata access
   boolean isOn();
 
@@ -94,4 +105,9 @@ public interface IStatisticManager {
 
   List<IStatistic> getStatistic();
 
+  /**
+   * @return latency histograms keyed by peer URI, Application-Id and command code, separated by '/'
+   */
+  Map<String, ILatencyHistogram> getLatencyHistograms();
+
 }
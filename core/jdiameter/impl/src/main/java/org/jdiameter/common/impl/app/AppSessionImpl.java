@@ -55,6 +55,7 @@ import org.jdiameter.api.app.AppSession;
 import org.jdiameter.client.api.IAssembler;
 import org.jdiameter.client.api.ISessionFactory;
 import org.jdiameter.common.api.app.IAppSessionData;
+import org.jdiameter.common.api.app.IBatchedAppSessionData;
 import org.jdiameter.common.api.concurrent.IConcurrentFactory;
 import org.jdiameter.common.api.timer.ITimerFacility;
 import org.slf4j.Logger;
@@ -207,6 +208,24 @@ public abstract class AppSessionImpl implements AppSession {
 
   public abstract void onTimer(String timerName);
 
+  /**
+   * Starts an event-handling pass, whose changes of the session data may be stored together once it ends.
+   */
+  protected void beginDataBatch() {
+    if (appSessionData instanceof IBatchedAppSessionData) {
+      ((IBatchedAppSessionData) appSessionData).beginBatch();
+    }
+  }
+
+  /**
+   * Ends an event-handling pass started with {@link #beginDataBatch()}.
+   */
+  protected void endDataBatch() {
+    if (appSessionData instanceof IBatchedAppSessionData) {
+      ((IBatchedAppSessionData) appSessionData).endBatch();
+    }
+  }
+
   protected void checkIdleAppSession() {
     if (!isValid() || (maxIdleTime > 0 && System.currentTimeMillis() - getLastAccessedTime() >= maxIdleTime)) {
       logger.debug("Terminating idle/invalid application session [{}] with SID[{}]", this, getSessionId());
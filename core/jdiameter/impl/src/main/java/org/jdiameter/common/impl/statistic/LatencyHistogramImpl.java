@@ -0,0 +1,130 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.statistic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jdiameter.common.api.statistic.ILatencyHistogram;
+
+/**
+ * Log-linear histogram in the manner of HdrHistogram. Values below 2^SUB_BUCKET_BITS microseconds get a bucket
+ * each, every further power of two is split into 2^(SUB_BUCKET_BITS - 1) buckets of equal width, which bounds the
+ * relative error of reported values to 1/2^(SUB_BUCKET_BITS - 1). Recording increments one bucket and takes no lock,
+ * reads walk the buckets and are not atomic with respect to concurrent recording.
+ */
+final class LatencyHistogramImpl implements ILatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+  // about 19 hours, longer latencies are recorded as this value
+  private static final long MAX_VALUE = (1L << 36) - 1;
+  private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final StripedCounter sum = new StripedCounter(0);
+  private final AtomicLong max = new AtomicLong();
+
+  @Override
+  public void record(long nanos) {
+    long value = Math.min(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)), MAX_VALUE);
+    counts.incrementAndGet(index(value));
+    sum.add(value);
+    long current;
+    while (value > (current = max.get())) {
+      if (max.compareAndSet(current, value)) {
+        break;
+      }
+    }
+  }
+
+  @Override
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  @Override
+  public double getMean() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) sum.sum() / count;
+  }
+
+  @Override
+  public long getMax() {
+    return max.get();
+  }
+
+  @Override
+  public long getPercentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(highestEquivalentValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  @Override
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    sum.set(0);
+    max.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + ", mean=" + Math.round(getMean()) + "us, p50=" + getPercentile(50) + "us, p90="
+        + getPercentile(90) + "us, p99=" + getPercentile(99) + "us, p99.9=" + getPercentile(99.9) + "us, max="
+        + getMax() + "us";
+  }
+
+  private static int index(long value) {
+    int magnitude = Math.max(0, (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1));
+    return (int) (magnitude * SUB_BUCKET_HALF + (value >>> magnitude));
+  }
+
+  private static long highestEquivalentValue(int index) {
+    if (index < 2 * SUB_BUCKET_HALF) {
+      return index;
+    }
+    int magnitude = index / SUB_BUCKET_HALF - 1;
+    long subBucket = index - magnitude * SUB_BUCKET_HALF;
+    return ((subBucket + 1) << magnitude) - 1;
+  }
+}
@@ -42,7 +42,11 @@
 
 package org.jdiameter.common.impl.statistic;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.jdiameter.api.StatisticRecord;
 import org.jdiameter.common.api.statistic.IStatistic;
@@ -56,8 +60,19 @@ import org.jdiameter.common.api.statistic.IStatisticRecord.Counters;
  */
 class StatisticImpl implements IStatistic {
 
+  private static final Map<String, Counters> COUNTERS = new HashMap<String, Counters>();
+
+  static {
+    for (Counters counter : Counters.values()) {
+      COUNTERS.put(counter.name(), counter);
+    }
+  }
+
   protected boolean enable = true;
   protected ConcurrentLinkedQueue<StatisticRecord> records = new ConcurrentLinkedQueue<StatisticRecord>();
+  // records are resolved when added, first one wins as when records were scanned
+  protected AtomicReferenceArray<IStatisticRecord> recordsByCounter = new AtomicReferenceArray<IStatisticRecord>(Counters.values().length);
+  protected ConcurrentHashMap<String, IStatisticRecord> recordsByName = new ConcurrentHashMap<String, IStatisticRecord>();
   protected String name;
   protected String description;
   protected IStatistic.Groups group;
@@ -92,35 +107,36 @@ class StatisticImpl implements IStatistic {
     this(name, group);
     this.description = desctiprion;
     for (IStatisticRecord r : rec) {
-      records.add(r);
+      addRecord(r);
     }
   }
   @Override
   public void appendCounter(IStatisticRecord... rec) {
     for (IStatisticRecord r : rec) {
       r.enable(this.enable);
-      records.add(r);
+      addRecord(r);
     }
   }
 
-  @Override
-  public IStatisticRecord getRecordByName(String name) {
-    for (StatisticRecord r : records) {
-      if (r.getName().equals(name)) {
-        return (IStatisticRecord) r;
+  private void addRecord(IStatisticRecord r) {
+    records.add(r);
+    if (r.getName() != null) {
+      recordsByName.putIfAbsent(r.getName(), r);
+      Counters counter = COUNTERS.get(r.getName());
+      if (counter != null) {
+        recordsByCounter.compareAndSet(counter.ordinal(), null, r);
       }
     }
-    return null;
+  }
+
+  @Override
+  public IStatisticRecord getRecordByName(String name) {
+    return recordsByName.get(name);
   }
 
   @Override
   public IStatisticRecord getRecordByName(Counters name) {
-    for (StatisticRecord r : records) {
-      if (r.getName().equals(name.toString())) {
-        return (IStatisticRecord) r;
-      }
-    }
-    return null;
+    return recordsByCounter.get(name.ordinal());
   }
 
   @Override
@@ -45,11 +45,16 @@ package org.jdiameter.common.impl.statistic;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jdiameter.api.Configuration;
 import org.jdiameter.client.impl.helpers.Parameters;
+import org.jdiameter.common.api.statistic.ILatencyHistogram;
 import org.jdiameter.common.api.statistic.IStatistic;
 import org.jdiameter.common.api.statistic.IStatisticManager;
 import org.jdiameter.common.api.statistic.IStatisticRecord;
@@ -68,6 +73,10 @@ public class StatisticManagerImpl implements IStatisticManager {
   private List<IStatistic> frozenAllStatistic = Collections.unmodifiableList(allStatistic);
   private List<IStatisticRecord> frozenAllPSStatisticRecord = Collections.unmodifiableList(allPSStatisticRecord);
 
+  // peer -> (Application-Id << 32 | command code) -> histogram
+  private final ConcurrentMap<String, ConcurrentMap<Long, ILatencyHistogram>> latencyHistograms =
+      new ConcurrentHashMap<String, ConcurrentMap<Long, ILatencyHistogram>>();
+
   private boolean enabled;
   private long pause, delay;
   private Set<String> activeRecords; //list of stats enabled on start
@@ -192,6 +201,28 @@ public class StatisticManagerImpl implements IStatisticManager {
     this.allStatistic.remove(stat);
   }
 
+  @Override
+  public ILatencyHistogram getLatencyHistogram(String peer, long applicationId, int commandCode) {
+    ConcurrentMap<Long, ILatencyHistogram> peerHistograms = latencyHistograms.get(peer);
+    if (peerHistograms == null) {
+      peerHistograms = new ConcurrentHashMap<Long, ILatencyHistogram>();
+      ConcurrentMap<Long, ILatencyHistogram> present = latencyHistograms.putIfAbsent(peer, peerHistograms);
+      if (present != null) {
+        peerHistograms = present;
+      }
+    }
+    Long key = (applicationId << 32) | (commandCode & 0xFFFFFFFFL);
+    ILatencyHistogram histogram = peerHistograms.get(key);
+    if (histogram == null) {
+      histogram = new LatencyHistogramImpl();
+      ILatencyHistogram present = peerHistograms.putIfAbsent(key, histogram);
+      if (present != null) {
+        histogram = present;
+      }
+    }
+    return histogram;
+  }
+
   private boolean isEnabled(String name) {
 
     if (this.activeRecords.contains(name)) {
@@ -239,4 +270,16 @@ public class StatisticManagerImpl implements IStatisticManager {
     return this.frozenAllStatistic;
   }
 
+  @Override
+  public Map<String, ILatencyHistogram> getLatencyHistograms() {
+    Map<String, ILatencyHistogram> histograms = new TreeMap<String, ILatencyHistogram>();
+    for (Map.Entry<String, ConcurrentMap<Long, ILatencyHistogram>> peer : latencyHistograms.entrySet()) {
+      for (Map.Entry<Long, ILatencyHistogram> e : peer.getValue().entrySet()) {
+        long key = e.getKey();
+        histograms.put(peer.getKey() + "/" + (key >>> 32) + "/" + (int) key, e.getValue());
+      }
+    }
+    return histograms;
+  }
+
 }
@@ -44,7 +44,6 @@ package org.jdiameter.common.impl.statistic;
 
 import java.util.Arrays;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.jdiameter.api.StatisticRecord;
 import org.jdiameter.common.api.statistic.IStatisticRecord;
@@ -61,13 +60,14 @@ class StatisticRecordImpl implements IStatisticRecord {
   protected String description;
   protected Counters counter;
 
-  protected AtomicLong value;
+  // striped, records are updated by every IO and FSM thread
+  protected StripedCounter value;
   protected ConcurrentLinkedQueue<StatisticRecord> childs = new ConcurrentLinkedQueue<StatisticRecord>();
   protected ValueHolder valueHolder;
 
   StatisticRecordImpl(String name) {
     this.name = name;
-    this.value = new AtomicLong(0);
+    this.value = new StripedCounter(0);
   }
 
   StatisticRecordImpl(String name, String description) {
@@ -98,7 +98,7 @@ class StatisticRecordImpl implements IStatisticRecord {
 
   StatisticRecordImpl(String name, String description,  long value) {
     this(name, description);
-    this.value = new AtomicLong(value);
+    this.value = new StripedCounter(value);
   }
 
   @Override
@@ -113,32 +113,32 @@ class StatisticRecordImpl implements IStatisticRecord {
 
   @Override
   public int getValueAsInt() {
-    return valueHolder != null ? ((IntegerValueHolder) valueHolder).getValueAsInt() : (int) value.get();
+    return valueHolder != null ? ((IntegerValueHolder) valueHolder).getValueAsInt() : (int) value.sum();
   }
 
   @Override
   public double getValueAsDouble() {
     return valueHolder != null ? ((DoubleValueHolder) valueHolder).getValueAsDouble() :
-      Double.longBitsToDouble(value.get());
+      Double.longBitsToDouble(value.sum());
   }
 
   @Override
   public long getValueAsLong() {
-    return valueHolder != null ? ((LongValueHolder) valueHolder).getValueAsLong() : value.get();
+    return valueHolder != null ? ((LongValueHolder) valueHolder).getValueAsLong() : value.sum();
   }
 
 
   @Override
   public void inc() {
     if (enable) {
-      this.value.incrementAndGet();
+      this.value.add(1);
     }
   }
 
   @Override
   public void inc(long delta) {
     if (enable) {
-      this.value.addAndGet(delta);
+      this.value.add(delta);
     }
   }
 
@@ -159,7 +159,7 @@ class StatisticRecordImpl implements IStatisticRecord {
   @Override
   public void dec() {
     if (enable) {
-      value.decrementAndGet();
+      value.add(-1);
     }
   }
 
@@ -188,7 +188,7 @@ class StatisticRecordImpl implements IStatisticRecord {
 
   @Override
   public String toString() {
-    return String.valueOf(valueHolder != null ? valueHolder.getValueAsString() : value.get());
+    return String.valueOf(valueHolder != null ? valueHolder.getValueAsString() : value.sum());
   }
 
   @Override
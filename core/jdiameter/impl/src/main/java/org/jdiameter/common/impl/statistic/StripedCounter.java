@@ -0,0 +1,101 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.statistic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter updated by many threads at once. Updates go to a single value until two threads collide on it, then
+ * each thread updates one of a set of cells, each on its own cache line, which are summed up when the value is
+ * read. Reads are therefore not atomic with respect to concurrent updates.
+ */
+final class StripedCounter {
+
+  // longs per cell, keeps cells on distinct cache lines
+  private static final int PADDING = 8;
+  private static final int CELLS;
+
+  static {
+    int cells = 1;
+    while (cells < Runtime.getRuntime().availableProcessors()) {
+      cells <<= 1;
+    }
+    CELLS = cells;
+  }
+
+  private final AtomicLong base;
+  private volatile AtomicLongArray cells;
+
+  StripedCounter(long value) {
+    this.base = new AtomicLong(value);
+  }
+
+  void add(long delta) {
+    AtomicLongArray cells = this.cells;
+    if (cells == null) {
+      long value = base.get();
+      if (base.compareAndSet(value, value + delta)) {
+        return;
+      }
+      cells = inflate();
+    }
+    cells.getAndAdd(cellIndex(), delta);
+  }
+
+  long sum() {
+    long sum = base.get();
+    AtomicLongArray cells = this.cells;
+    if (cells != null) {
+      for (int i = 0; i < cells.length(); i += PADDING) {
+        sum += cells.get(i);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Sets the value, updates made meanwhile may be lost.
+   */
+  void set(long value) {
+    AtomicLongArray cells = this.cells;
+    if (cells != null) {
+      for (int i = 0; i < cells.length(); i += PADDING) {
+        cells.set(i, 0);
+      }
+    }
+    base.set(value);
+  }
+
+  private AtomicLongArray inflate() {
+    synchronized (this) {
+      if (cells == null) {
+        cells = new AtomicLongArray(CELLS * PADDING);
+      }
+      return cells;
+    }
+  }
+
+  private static int cellIndex() {
+    long id = Thread.currentThread().getId();
+    int hash = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+    return (hash & (CELLS - 1)) * PADDING;
+  }
+}
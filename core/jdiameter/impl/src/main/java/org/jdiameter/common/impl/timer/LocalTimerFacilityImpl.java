@@ -47,12 +47,9 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.Serializable;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.pool.BasePoolableObjectFactory;
-import org.apache.commons.pool.impl.GenericObjectPool;
 import org.jdiameter.api.BaseSession;
 import org.jdiameter.client.api.IContainer;
 import org.jdiameter.client.impl.BaseSessionImpl;
@@ -64,7 +61,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Local implementation of timer facility for {@link ITimerFacility}
+ * Local implementation of timer facility for {@link ITimerFacility}. Timers are kept by the {@link TimingWheel} of
+ * the stack, so that scheduling and cancelling take constant time, expired timers are run by the application
+ * session executor.
  *
  * @author <a href="mailto:baranowb@gmail.com"> Bartosz Baranowski </a>
  * @author <a href="mailto:brainslog@gmail.com"> Alexandre Mendonca </a>
@@ -73,16 +72,14 @@ public class LocalTimerFacilityImpl implements ITimerFacility {
 
   private static final Logger logger = LoggerFactory.getLogger(LocalTimerFacilityImpl.class);
 
-  private ScheduledThreadPoolExecutor executor;
+  private IContainer container;
+  private ScheduledExecutorService executor;
   private ISessionDatasource sessionDataSource;
 
-  // TimerTaskHandle pooling to minimize impact on Eden space and avoid too
-  // much GC, consequently not loosing time during GC
-  private final GenericObjectPool pool = new GenericObjectPool(new TimerTaskHandleFactory(), 100000, GenericObjectPool.WHEN_EXHAUSTED_GROW, 10, 20000);
-
   public LocalTimerFacilityImpl(IContainer container) {
     super();
-    this.executor = (ScheduledThreadPoolExecutor) container.getConcurrentFactory().
+    this.container = container;
+    this.executor = container.getConcurrentFactory().
         getScheduledExecutorService(IConcurrentFactory.ScheduledExecServices.ApplicationSession.name());
     this.sessionDataSource = container.getAssemblerFacility().getComponentInstance(ISessionDatasource.class);
   }
@@ -96,12 +93,9 @@ public class LocalTimerFacilityImpl implements ITimerFacility {
   public void cancel(Serializable f) {
     if (f != null && f instanceof TimerTaskHandle) {
       TimerTaskHandle timerTaskHandle = (TimerTaskHandle) f;
-      if (timerTaskHandle.future != null) {
-        logger.debug("Cancelling timer with id [{}] and delay [{}]", timerTaskHandle.id, timerTaskHandle.future.getDelay(TimeUnit.MILLISECONDS));
-        if (executor.remove((Runnable) timerTaskHandle.future)) {
-          timerTaskHandle.future.cancel(false);
-          returnTimerTaskHandle(timerTaskHandle);
-        }
+      if (timerTaskHandle.timeout != null) {
+        logger.debug("Cancelling timer with id [{}]", timerTaskHandle.id);
+        timerTaskHandle.timeout.cancel();
       }
     }
   }
@@ -112,58 +106,26 @@ public class LocalTimerFacilityImpl implements ITimerFacility {
    */
   @Override
   public Serializable schedule(String sessionId, String timerName, long milliseconds) throws IllegalArgumentException {
+    TimingWheel timingWheel = container.getTimingWheel();
+    if (timingWheel == null) {
+      throw new IllegalStateException("Stack is not started, can not schedule timer " + timerName + " for session " + sessionId);
+    }
     String id = sessionId + "/" + timerName;
     logger.debug("Scheduling timer with id [{}]", id);
-    TimerTaskHandle ir = borrowTimerTaskHandle();
+    TimerTaskHandle ir = new TimerTaskHandle();
     ir.id = id;
     ir.sessionId = sessionId;
     ir.timerName = timerName;
-    ir.future = this.executor.schedule(ir, milliseconds, TimeUnit.MILLISECONDS);
+    ir.timeout = timingWheel.schedule(ir, milliseconds, TimeUnit.MILLISECONDS, executor);
     return ir;
   }
 
-  protected void returnTimerTaskHandle(TimerTaskHandle timerTaskHandle) {
-    try {
-      pool.returnObject(timerTaskHandle);
-    }
-    catch (Exception e) {
-      logger.warn(e.getMessage());
-    }
-  }
-
-  protected TimerTaskHandle borrowTimerTaskHandle() {
-    try {
-      TimerTaskHandle timerTaskHandle = (TimerTaskHandle) pool.borrowObject();
-      return timerTaskHandle;
-    }
-    catch (Exception e) {
-      logger.error("", e);
-    }
-    return null;
-  }
-
-  class TimerTaskHandleFactory extends BasePoolableObjectFactory {
-    @Override
-    public Object makeObject() throws Exception {
-      return new TimerTaskHandle();
-    }
-
-    @Override
-    public void passivateObject(Object obj) throws Exception {
-      TimerTaskHandle timerTaskHandle = (TimerTaskHandle) obj;
-      timerTaskHandle.id = null;
-      timerTaskHandle.sessionId = null;
-      timerTaskHandle.timerName = null;
-      timerTaskHandle.future = null;
-    }
-  }
-
   private final class TimerTaskHandle implements Runnable, Externalizable {
     // its not really serializable;
     private String sessionId;
     private String timerName;
     private String id; //for debug, easier to check what's going on and what that timer does.
-    private transient ScheduledFuture<?> future;
+    private transient TimingWheel.Timeout timeout;
 
     @Override
     public void run() {
@@ -193,9 +155,6 @@ public class LocalTimerFacilityImpl implements ITimerFacility {
       catch (Exception e) {
         logger.error("Failure executing timer task witb id: " + id, e);
       }
-      finally {
-        returnTimerTaskHandle(this);
-      }
     }
 
     /*
@@ -0,0 +1,423 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed hierarchical timing wheel. Time is split in ticks of fixed duration, timeouts are hashed by their expiry
+ * tick into one of four wheels of 256 slots, the lowest wheel holding timeouts due within its current rotation and
+ * each upper wheel covering 256 rotations of the wheel below. When a wheel completes a rotation the next slot of the
+ * upper wheel is cascaded down, so that each timeout is moved at most once per wheel.
+ * <p>
+ * Scheduling and cancelling only queue the timeout for the wheel thread, which is the only one touching the slots,
+ * both take constant time whatever the number of pending timeouts. Expired tasks are handed over to the executor
+ * given when scheduling them, by default the one of the wheel, or run by the wheel thread itself if there is none.
+ * Timeouts expire up to one tick late.
+ */
+public class TimingWheel implements Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+  private static final int WHEEL_BITS = 8;
+  private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+  private static final int WHEEL_COUNT = 4;
+
+  private static final int STATE_PENDING = 0;
+  private static final int STATE_CANCELLED = 1;
+  private static final int STATE_EXPIRED = 2;
+
+  private final Executor executor;
+  private final long tickNanos;
+  private final Thread thread;
+  private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+  private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+  private final AtomicInteger pending = new AtomicInteger();
+
+  // only accessed by the wheel thread
+  private final Bucket[][] wheels = new Bucket[WHEEL_COUNT][WHEEL_SIZE];
+  // timeouts beyond the reach of the upper wheel
+  private final Bucket overflow = new Bucket();
+  private long currentTick;
+
+  private final long startTime;
+  private volatile boolean running = true;
+
+  /**
+   * @param name name of the wheel thread
+   * @param tickDuration duration of a tick in milliseconds
+   * @param executor executor running expired tasks, may be null
+   */
+  public TimingWheel(String name, long tickDuration, Executor executor) {
+    this(name, tickDuration, executor, true);
+  }
+
+  /**
+   * @param start false to leave the wheel thread unstarted, the wheel is then only advanced by {@link #advance(long)}
+   */
+  TimingWheel(String name, long tickDuration, Executor executor, boolean start) {
+    if (tickDuration <= 0) {
+      throw new IllegalArgumentException("Tick duration must be positive: " + tickDuration);
+    }
+    for (Bucket[] wheel : wheels) {
+      for (int i = 0; i < wheel.length; i++) {
+        wheel[i] = new Bucket();
+      }
+    }
+    this.executor = executor;
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+    this.startTime = System.nanoTime();
+    this.thread = new Thread(this, name);
+    this.thread.setDaemon(true);
+    if (start) {
+      this.thread.start();
+    }
+  }
+
+  /**
+   * Schedules the task to run once the delay elapsed.
+   *
+   * @param task task to run
+   * @param delay delay before running the task
+   * @param unit unit of the delay
+   * @return handle of the scheduled task, used to cancel it
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    return schedule(task, delay, unit, executor);
+  }
+
+  /**
+   * Schedules the task to run on the given executor once the delay elapsed.
+   *
+   * @param task task to run
+   * @param delay delay before running the task
+   * @param unit unit of the delay
+   * @param executor executor running the task, null to run it on the wheel thread
+   * @return handle of the scheduled task, used to cancel it
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit, Executor executor) {
+    if (!running) {
+      throw new RejectedExecutionException("Timing wheel is stopped");
+    }
+    long deadline = System.nanoTime() + unit.toNanos(Math.max(0, delay)) - startTime;
+    // rounded up, the task never runs early
+    return scheduleAt(task, (deadline + tickNanos - 1) / tickNanos, executor);
+  }
+
+  Timeout scheduleAt(Runnable task, long deadlineTick, Executor executor) {
+    Timeout timeout = new Timeout(this, task, executor, deadlineTick);
+    pending.incrementAndGet();
+    scheduled.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * @return number of tasks neither run nor cancelled yet
+   */
+  public int getPendingCount() {
+    return pending.get();
+  }
+
+  /**
+   * Stops the wheel thread, pending tasks are dropped.
+   */
+  public void stop() {
+    running = false;
+    thread.interrupt();
+  }
+
+  @Override
+  public void run() {
+    logger.debug("Timing wheel [{}] is started", thread.getName());
+    try {
+      while (running) {
+        long elapsedTicks = (System.nanoTime() - startTime) / tickNanos;
+        if (elapsedTicks <= currentTick) {
+          long sleep = (currentTick + 1) * tickNanos - (System.nanoTime() - startTime);
+          if (sleep > 0) {
+            try {
+              TimeUnit.NANOSECONDS.sleep(sleep);
+            }
+            catch (InterruptedException e) {
+              // stopped
+            }
+          }
+          continue;
+        }
+        // catch up if the thread was late
+        advance(elapsedTicks - currentTick);
+      }
+    }
+    catch (Throwable e) {
+      logger.error("Timing wheel exception", e);
+    }
+    finally {
+      running = false;
+      scheduled.clear();
+      cancelled.clear();
+      logger.debug("Timing wheel [{}] is stopped", thread.getName());
+    }
+  }
+
+  /**
+   * Runs the given number of ticks, only called by the wheel thread.
+   */
+  void advance(long ticks) {
+    for (long i = 0; i < ticks && running; i++) {
+      removeCancelled();
+      addScheduled();
+      tick();
+    }
+  }
+
+  long getCurrentTick() {
+    return currentTick;
+  }
+
+  /**
+   * @return wheel holding the timeout, WHEEL_COUNT for the overflow bucket, -1 if it is in none
+   */
+  int getLevel(Timeout timeout) {
+    Bucket bucket = timeout.bucket;
+    if (bucket == null) {
+      return -1;
+    }
+    if (bucket == overflow) {
+      return WHEEL_COUNT;
+    }
+    for (int level = 0; level < WHEEL_COUNT; level++) {
+      for (Bucket slot : wheels[level]) {
+        if (slot == bucket) {
+          return level;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private void addScheduled() {
+    Timeout timeout;
+    while ((timeout = scheduled.poll()) != null) {
+      if (timeout.state.get() == STATE_PENDING) {
+        place(timeout);
+      }
+    }
+  }
+
+  private void removeCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelled.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  /**
+   * Advances the wheels by one tick, cascading upper wheels first, then expires the timeouts of the reached slot.
+   */
+  private void tick() {
+    long tick = ++currentTick;
+    for (int level = WHEEL_COUNT - 1; level > 0; level--) {
+      if ((tick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+        if (level == WHEEL_COUNT - 1 && (tick & ((1L << (WHEEL_BITS * WHEEL_COUNT)) - 1)) == 0) {
+          cascade(overflow);
+        }
+        cascade(wheels[level][(int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK]);
+      }
+    }
+    Bucket bucket = wheels[0][(int) tick & WHEEL_MASK];
+    Timeout timeout;
+    while ((timeout = bucket.poll()) != null) {
+      expire(timeout);
+    }
+  }
+
+  private void cascade(Bucket bucket) {
+    // detached first, overflowing timeouts go back to the bucket they come from
+    Timeout timeout = bucket.head;
+    bucket.head = null;
+    bucket.tail = null;
+    while (timeout != null) {
+      Timeout next = timeout.next;
+      timeout.bucket = null;
+      timeout.prev = null;
+      timeout.next = null;
+      place(timeout);
+      timeout = next;
+    }
+  }
+
+  /**
+   * Puts the timeout in the lowest wheel whose current rotation covers its deadline.
+   */
+  private void place(Timeout timeout) {
+    if (timeout.state.get() != STATE_PENDING) {
+      return;
+    }
+    long deadline = timeout.deadline;
+    if (deadline <= currentTick) {
+      expire(timeout);
+      return;
+    }
+    for (int level = 0; level < WHEEL_COUNT; level++) {
+      int shift = WHEEL_BITS * (level + 1);
+      if ((deadline >>> shift) == (currentTick >>> shift)) {
+        wheels[level][(int) (deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK].add(timeout);
+        return;
+      }
+    }
+    overflow.add(timeout);
+  }
+
+  private void expire(Timeout timeout) {
+    if (!timeout.state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+      return;
+    }
+    pending.decrementAndGet();
+    if (timeout.executor != null) {
+      try {
+        timeout.executor.execute(timeout.task);
+        return;
+      }
+      catch (RejectedExecutionException e) {
+        logger.debug("Executor rejected expired task, running it on wheel thread", e);
+      }
+    }
+    try {
+      timeout.task.run();
+    }
+    catch (Throwable e) {
+      logger.error("Failure while running expired task", e);
+    }
+  }
+
+  /**
+   * Handle of a scheduled task.
+   */
+  public static final class Timeout {
+
+    private final TimingWheel wheel;
+    private final Runnable task;
+    private final Executor executor;
+    private final long deadline;
+    private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+    // only accessed by the wheel thread
+    private Bucket bucket;
+    private Timeout prev;
+    private Timeout next;
+
+    private Timeout(TimingWheel wheel, Runnable task, Executor executor, long deadline) {
+      this.wheel = wheel;
+      this.task = task;
+      this.executor = executor;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the task if it did not run yet.
+     *
+     * @return true if the task was cancelled, false if it already expired or was cancelled before
+     */
+    public boolean cancel() {
+      if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+        return false;
+      }
+      wheel.pending.decrementAndGet();
+      // slot is released by the wheel thread
+      wheel.cancelled.add(this);
+      return true;
+    }
+
+    public boolean isPending() {
+      return state.get() == STATE_PENDING;
+    }
+
+    public boolean isCancelled() {
+      return state.get() == STATE_CANCELLED;
+    }
+
+    public boolean isExpired() {
+      return state.get() == STATE_EXPIRED;
+    }
+
+    public Runnable getTask() {
+      return task;
+    }
+  }
+
+  /**
+   * Doubly linked list of timeouts sharing a slot.
+   */
+  private static final class Bucket {
+
+    private Timeout head;
+    private Timeout tail;
+
+    void add(Timeout timeout) {
+      timeout.bucket = this;
+      timeout.prev = tail;
+      timeout.next = null;
+      if (tail == null) {
+        head = timeout;
+      }
+      else {
+        tail.next = timeout;
+      }
+      tail = timeout;
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.prev == null) {
+        head = timeout.next;
+      }
+      else {
+        timeout.prev.next = timeout.next;
+      }
+      if (timeout.next == null) {
+        tail = timeout.prev;
+      }
+      else {
+        timeout.next.prev = timeout.prev;
+      }
+      timeout.bucket = null;
+      timeout.prev = null;
+      timeout.next = null;
+    }
+
+    Timeout poll() {
+      Timeout timeout = head;
+      if (timeout != null) {
+        remove(timeout);
+      }
+      return timeout;
+    }
+  }
+}
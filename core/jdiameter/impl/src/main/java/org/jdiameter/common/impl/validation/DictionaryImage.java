@@ -0,0 +1,364 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.validation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jdiameter.api.validation.AvpRepresentation;
+import org.jdiameter.api.validation.MessageRepresentation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Precompiled binary form of a dictionary, loaded by {@link DictionaryImpl#configure(InputStream)} in place of the XML
+ * definitions without parsing them or resolving links between AVPs again. Strings are written once in a table and AVP
+ * representations once per distinct content, so that the loaded dictionary shares them between grouped AVPs and
+ * commands.
+ *
+ * <p>Images are compiled from the XML definitions, optionally extended with vendor specific files, with:
+ * <pre>
+ * java -cp jdiameter-impl.jar:... org.jdiameter.common.impl.validation.DictionaryImage dictionary.xml [extension.xml ...] dictionary.bin
+ * </pre>
+ * An image must be compiled again whenever the definitions it comes from change.
+ */
+public final class DictionaryImage {
+
+  // "JDIC"
+  static final int MAGIC = 0x4A444943;
+  static final int VERSION = 1;
+
+  private static final int ALLOWED = 1;
+  private static final int GROUPED = 2;
+  private static final int WEAK = 4;
+  private static final int MAY_ENCRYPT = 8;
+  private static final int MANDATORY = 16;
+  private static final int PROTECTED = 32;
+
+  private DictionaryImage() {
+    // defeat instantiation
+  }
+
+  /**
+   * Compiles XML dictionary definitions into an image. The last argument is the image file, the others are the XML
+   * files, merged in the given order.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: DictionaryImage <dictionary.xml> [<extension.xml> ...] <image>");
+      System.exit(1);
+    }
+    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setValidating(false);
+    DocumentBuilder db = dbf.newDocumentBuilder();
+    Document doc = db.parse(args[0]);
+    for (int i = 1; i < args.length - 1; i++) {
+      // definitions are looked up by tag name, so extensions only need to be appended to the document
+      NodeList nodes = db.parse(args[i]).getDocumentElement().getChildNodes();
+      for (int n = 0; n < nodes.getLength(); n++) {
+        Node node = nodes.item(n);
+        if (node.getNodeType() == Node.ELEMENT_NODE) {
+          doc.getDocumentElement().appendChild(doc.importNode(node, true));
+        }
+      }
+    }
+    doc.getDocumentElement().normalize();
+
+    DictionaryImpl dictionary = new DictionaryImpl(doc);
+    OutputStream os = new FileOutputStream(args[args.length - 1]);
+    try {
+      write(dictionary, os);
+    }
+    finally {
+      os.close();
+    }
+    System.out.println("Compiled " + dictionary.getCommandMap().size() + " commands and " + dictionary.getAvpMap().size() + " AVPs into "
+        + args[args.length - 1]);
+  }
+
+  /**
+   * @return true if the stream starts with an image, the stream is reset to where it was
+   */
+  static boolean isImage(InputStream is) throws IOException {
+    is.mark(4);
+    try {
+      return new DataInputStream(is).readInt() == MAGIC;
+    }
+    catch (IOException e) {
+      return false;
+    }
+    finally {
+      is.reset();
+    }
+  }
+
+  /**
+   * Writes the vendors, types, AVPs and commands of a dictionary as image.
+   */
+  public static void write(DictionaryImpl dictionary, OutputStream os) throws IOException {
+    Writer writer = new Writer();
+    for (Entry<String, String> vendor : dictionary.getVendorMap().entrySet()) {
+      writer.string(vendor.getKey());
+      writer.string(vendor.getValue());
+    }
+    for (Entry<String, String> typedef : dictionary.getTypedefMap().entrySet()) {
+      writer.string(typedef.getKey());
+      writer.string(typedef.getValue());
+    }
+    int[] avps = new int[dictionary.getAvpMap().size()];
+    int a = 0;
+    for (AvpRepresentation avp : dictionary.getAvpMap().values()) {
+      avps[a++] = writer.node((AvpRepresentationImpl) avp);
+    }
+    int[] names = new int[dictionary.getNameToCodeMap().size()];
+    a = 0;
+    for (Entry<String, AvpRepresentation> avp : dictionary.getNameToCodeMap().entrySet()) {
+      writer.string(avp.getKey());
+      names[a++] = writer.node((AvpRepresentationImpl) avp.getValue());
+    }
+    List<int[]> commands = new ArrayList<int[]>();
+    for (MessageRepresentation command : dictionary.getCommandMap().values()) {
+      writer.string(command.getName());
+      Map<AvpRepresentation, AvpRepresentation> rules = command.getMessageAvps();
+      int[] nodes = new int[rules.size()];
+      int r = 0;
+      for (AvpRepresentation rule : rules.values()) {
+        nodes[r++] = writer.node((AvpRepresentationImpl) rule);
+      }
+      commands.add(nodes);
+    }
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(writer.strings.size());
+    for (String string : writer.strings) {
+      out.writeUTF(string);
+    }
+
+    out.writeInt(dictionary.getVendorMap().size());
+    for (Entry<String, String> vendor : dictionary.getVendorMap().entrySet()) {
+      out.writeInt(writer.string(vendor.getKey()));
+      out.writeInt(writer.string(vendor.getValue()));
+    }
+    out.writeInt(dictionary.getTypedefMap().size());
+    for (Entry<String, String> typedef : dictionary.getTypedefMap().entrySet()) {
+      out.writeInt(writer.string(typedef.getKey()));
+      out.writeInt(writer.string(typedef.getValue()));
+    }
+
+    // children come before their parents
+    out.writeInt(writer.nodes.size());
+    for (AvpRepresentationImpl node : writer.nodes) {
+      out.writeInt(node.code);
+      out.writeLong(node.vendor);
+      out.writeInt(node.getPositionIndex());
+      out.writeByte((node.allowed ? ALLOWED : 0) | (node.grouped ? GROUPED : 0) | (node.weak ? WEAK : 0) | (node.mayEncrypt ? MAY_ENCRYPT : 0)
+          | (node._mandatory ? MANDATORY : 0) | (node._protected ? PROTECTED : 0));
+      out.writeInt(writer.string(node.name));
+      out.writeInt(writer.string(node.multiplicityIndicator));
+      out.writeInt(writer.string(node.description));
+      out.writeInt(writer.string(node.ruleMandatory));
+      out.writeInt(writer.string(node.ruleProtected));
+      out.writeInt(writer.string(node.ruleVendorBit));
+      out.writeInt(writer.string(node.originalType));
+      out.writeInt(writer.string(node.type));
+      out.writeInt(node.children.size());
+      for (AvpRepresentation child : node.children) {
+        out.writeInt(writer.node((AvpRepresentationImpl) child));
+      }
+    }
+
+    out.writeInt(avps.length);
+    for (int avp : avps) {
+      out.writeInt(avp);
+    }
+    out.writeInt(names.length);
+    a = 0;
+    for (String name : dictionary.getNameToCodeMap().keySet()) {
+      out.writeInt(writer.string(name));
+      out.writeInt(names[a++]);
+    }
+
+    out.writeInt(commands.size());
+    int c = 0;
+    for (MessageRepresentation command : dictionary.getCommandMap().values()) {
+      out.writeInt(command.getCommandCode());
+      out.writeLong(command.getApplicationId());
+      out.writeBoolean(command.isRequest());
+      out.writeInt(writer.string(command.getName()));
+      int[] nodes = commands.get(c++);
+      out.writeInt(nodes.length);
+      for (int node : nodes) {
+        out.writeInt(node);
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Fills the maps of a dictionary, cleared beforehand, from an image.
+   */
+  static void read(DictionaryImpl dictionary, InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(is instanceof BufferedInputStream ? is : new BufferedInputStream(is));
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a dictionary image");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported dictionary image version " + version + ", expected " + VERSION);
+    }
+    String[] strings = new String[in.readInt()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = in.readUTF();
+    }
+
+    for (int i = in.readInt(); i > 0; i--) {
+      dictionary.getVendorMap().put(string(strings, in.readInt()), string(strings, in.readInt()));
+    }
+    for (int i = in.readInt(); i > 0; i--) {
+      dictionary.getTypedefMap().put(string(strings, in.readInt()), string(strings, in.readInt()));
+    }
+
+    AvpRepresentationImpl[] nodes = new AvpRepresentationImpl[in.readInt()];
+    for (int i = 0; i < nodes.length; i++) {
+      AvpRepresentationImpl node = new AvpRepresentationImpl();
+      node.code = in.readInt();
+      node.vendor = in.readLong();
+      node.markFixPosition(in.readInt());
+      int flags = in.readByte();
+      node.allowed = (flags & ALLOWED) != 0;
+      node.grouped = (flags & GROUPED) != 0;
+      node.weak = (flags & WEAK) != 0;
+      node.mayEncrypt = (flags & MAY_ENCRYPT) != 0;
+      node._mandatory = (flags & MANDATORY) != 0;
+      node._protected = (flags & PROTECTED) != 0;
+      node.name = string(strings, in.readInt());
+      node.multiplicityIndicator = string(strings, in.readInt());
+      node.description = string(strings, in.readInt());
+      node.ruleMandatory = string(strings, in.readInt());
+      node.ruleProtected = string(strings, in.readInt());
+      node.ruleVendorBit = string(strings, in.readInt());
+      node.originalType = string(strings, in.readInt());
+      node.type = string(strings, in.readInt());
+      int children = in.readInt();
+      node.children = new ArrayList<AvpRepresentation>(children);
+      for (int c = 0; c < children; c++) {
+        node.children.add(nodes[in.readInt()]);
+      }
+      nodes[i] = node;
+    }
+
+    for (int i = in.readInt(); i > 0; i--) {
+      AvpRepresentationImpl avp = nodes[in.readInt()];
+      dictionary.getAvpMap().put(avp, avp);
+    }
+    for (int i = in.readInt(); i > 0; i--) {
+      dictionary.getNameToCodeMap().put(string(strings, in.readInt()), nodes[in.readInt()]);
+    }
+
+    for (int i = in.readInt(); i > 0; i--) {
+      MessageRepresentationImpl command = new MessageRepresentationImpl(in.readInt(), in.readLong(), in.readBoolean(), string(strings, in.readInt()));
+      int rules = in.readInt();
+      Map<AvpRepresentation, AvpRepresentation> avps = new HashMap<AvpRepresentation, AvpRepresentation>();
+      for (int r = 0; r < rules; r++) {
+        AvpRepresentationImpl rule = nodes[in.readInt()];
+        avps.put(rule, rule);
+      }
+      command.setMessageAvps(avps);
+      dictionary.getCommandMap().put(command, command);
+    }
+  }
+
+  private static String string(String[] strings, int index) {
+    return index < 0 ? null : strings[index];
+  }
+
+  /**
+   * Numbers strings and AVP representations in the order they are first met, AVP representations after their
+   * children. Representations are told apart by content, not by code and Vendor-Id as in their equals method.
+   */
+  private static final class Writer {
+
+    final List<String> strings = new ArrayList<String>();
+    final List<AvpRepresentationImpl> nodes = new ArrayList<AvpRepresentationImpl>();
+    private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+    private final Map<String, Integer> nodeIndexes = new HashMap<String, Integer>();
+    private final Map<AvpRepresentationImpl, Integer> written = new IdentityHashMap<AvpRepresentationImpl, Integer>();
+
+    int string(String string) {
+      if (string == null) {
+        return -1;
+      }
+      Integer index = stringIndexes.get(string);
+      if (index == null) {
+        index = strings.size();
+        strings.add(string);
+        stringIndexes.put(string, index);
+      }
+      return index;
+    }
+
+    int node(AvpRepresentationImpl node) {
+      Integer index = written.get(node);
+      if (index != null) {
+        return index;
+      }
+      StringBuilder content = new StringBuilder();
+      content.append(node.code).append('/').append(node.vendor).append('/').append(node.getPositionIndex()).append('/').append(node.allowed)
+          .append(node.grouped).append(node.weak).append(node.mayEncrypt).append(node._mandatory).append(node._protected);
+      String[] values = {node.name, node.multiplicityIndicator, node.description, node.ruleMandatory, node.ruleProtected,
+          node.ruleVendorBit, node.originalType, node.type};
+      for (String value : values) {
+        content.append('/').append(string(value));
+      }
+      content.append('[');
+      for (AvpRepresentation child : node.children) {
+        content.append(node((AvpRepresentationImpl) child)).append(',');
+      }
+      content.append(']');
+
+      index = nodeIndexes.get(content.toString());
+      if (index == null) {
+        index = nodes.size();
+        nodes.add(node);
+        nodeIndexes.put(content.toString(), index);
+      }
+      written.put(node, index);
+      return index;
+    }
+  }
+}
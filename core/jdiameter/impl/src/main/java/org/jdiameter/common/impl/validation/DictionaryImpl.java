@@ -42,6 +42,7 @@
 
 package org.jdiameter.common.impl.validation;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -82,7 +83,11 @@ public class DictionaryImpl implements Dictionary {
 
   private static transient Logger logger = LoggerFactory.getLogger(DictionaryImpl.class);
 
-  public static Dictionary INSTANCE = getInstance("dictionary.xml");
+  public static Dictionary INSTANCE = getInstance((String) null);
+
+  private static final String DEFAULT_CONFIGURATION = "dictionary.xml";
+  // compiled with DictionaryImage, preferred to the XML definitions when present
+  private static final String DEFAULT_IMAGE = "dictionary.bin";
 
   private static final String UNDEFINED_AVP_TYPE = "UNDEFINED";
 
@@ -101,23 +106,40 @@ public class DictionaryImpl implements Dictionary {
   private Map<String, String> vendorMap = new HashMap<String, String>();
 
   private Map<MessageRepresentation, MessageRepresentation> commandMap = new HashMap<MessageRepresentation, MessageRepresentation>();
+  // open addressing table of commandMap, so that validation looks commands up without allocating keys
+  private long[] commandKeys = new long[1];
+  private MessageRepresentationImpl[] commandValues = new MessageRepresentationImpl[1];
 
   private Map<String, String> typedefMap = new HashMap<String, String>();
 
+  // open addressing table of avpMap, so that AVPs are looked up without allocating keys
+  private long[] avpKeys = new long[1];
+  private AvpRepresentation[] avpValues = new AvpRepresentation[1];
+
   private boolean configured = false;
 
   private DictionaryImpl(InputStream is) {
     init(is);
   }
 
+  /**
+   * Creates a dictionary from XML definitions, apart from the singleton instance
+   *
+   * @param doc the DOM object representing the XML Document with the Dictionary definitions
+   */
+  DictionaryImpl(Document doc) {
+    this.clear();
+    this.parse(doc);
+    this.configured = true;
+  }
+
   public static Dictionary getInstance(InputStream is) {
     if (is == null) {
       if (INSTANCE != null) {
         return INSTANCE;
       }
       // Maintaining 1.7.0 behaviour
-      String confFile = "dictionary.xml";
-      is = getInputStream(confFile);
+      is = getDefaultInputStream();
     }
     if (INSTANCE != null) {
       ((DictionaryImpl) INSTANCE).init(is);
@@ -133,12 +155,17 @@ public class DictionaryImpl implements Dictionary {
       if (INSTANCE != null) {
         return INSTANCE;
       }
-      confFile = "dictionary.xml";
+      return getInstance(getDefaultInputStream());
     }
     InputStream is = getInputStream(confFile);
     return getInstance((InputStream) is);
   }
 
+  private static InputStream getDefaultInputStream() {
+    InputStream is = getInputStream(DEFAULT_IMAGE);
+    return is != null ? is : getInputStream(DEFAULT_CONFIGURATION);
+  }
+
   private static InputStream getInputStream(String confFile) {
     InputStream is = null;
 
@@ -213,29 +240,24 @@ public class DictionaryImpl implements Dictionary {
     }
     try {
       long startTime = System.currentTimeMillis();
-      this.avpByNameMap = new TreeMap<String, AvpRepresentation>(new Comparator<String>() {
-        @Override
-        public int compare(String o1, String o2) {
-          return (o1 == null) ? 1 : (o2 == null) ? -1 : o1.compareTo(o2);
-        }
-      });
+      this.clear();
 
-      this.vendorMap = new HashMap<String, String>();
-      this.typedefMap = new HashMap<String, String>();
-      this.avpMap = new HashMap<AvpRepresentation, AvpRepresentation>();
-      this.commandMap = new HashMap<MessageRepresentation, MessageRepresentation>();
-
-      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-      dbf.setValidating(false);
-      DocumentBuilder db = dbf.newDocumentBuilder();
-      Document doc = db.parse(is);
+      InputStream in = is.markSupported() ? is : new BufferedInputStream(is);
+      if (DictionaryImage.isImage(in)) {
+        DictionaryImage.read(this, in);
+        this.compileCommands();
+        this.indexAvps();
+      }
+      else {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setValidating(false);
+        DocumentBuilder db = dbf.newDocumentBuilder();
+        Document doc = db.parse(in);
 
-      doc.getDocumentElement().normalize();
+        doc.getDocumentElement().normalize();
 
-      this.parseVendors(doc);
-      this.parseTypeDefs(doc);
-      this.parseAvps(doc);
-      this.parseCommands(doc);
+        this.parse(doc);
+      }
 
       this.configured = true;
 
@@ -278,6 +300,29 @@ public class DictionaryImpl implements Dictionary {
     }
   }
 
+  private void clear() {
+    this.avpByNameMap = new TreeMap<String, AvpRepresentation>(new Comparator<String>() {
+      @Override
+      public int compare(String o1, String o2) {
+        return (o1 == null) ? 1 : (o2 == null) ? -1 : o1.compareTo(o2);
+      }
+    });
+
+    this.vendorMap = new HashMap<String, String>();
+    this.typedefMap = new HashMap<String, String>();
+    this.avpMap = new HashMap<AvpRepresentation, AvpRepresentation>();
+    this.commandMap = new HashMap<MessageRepresentation, MessageRepresentation>();
+  }
+
+  private void parse(Document doc) {
+    this.parseVendors(doc);
+    this.parseTypeDefs(doc);
+    this.parseAvps(doc);
+    this.parseCommands(doc);
+    this.compileCommands();
+    this.indexAvps();
+  }
+
   /**
    * Parses the <vendor /> attributes from a Dictionary XML Document
    *
@@ -680,6 +725,74 @@ public class DictionaryImpl implements Dictionary {
     }
   }
 
+  /**
+   * Compiles validation rules of the parsed commands and indexes them by command code, Application-Id and request flag
+   */
+  private void compileCommands() {
+    int length = Integer.highestOneBit(Math.max(1, commandMap.size()) * 2) << 1;
+    long[] keys = new long[length];
+    MessageRepresentationImpl[] values = new MessageRepresentationImpl[length];
+    for (MessageRepresentation command : commandMap.values()) {
+      MessageRepresentationImpl rep = (MessageRepresentationImpl) command;
+      rep.compile();
+      long key = commandKey(rep.getCommandCode(), rep.getApplicationId(), rep.isRequest());
+      int index = slot(key, length - 1);
+      while (values[index] != null) {
+        index = (index + 1) & (length - 1);
+      }
+      keys[index] = key;
+      values[index] = rep;
+    }
+    this.commandKeys = keys;
+    this.commandValues = values;
+  }
+
+  private MessageRepresentationImpl findCommand(int commandCode, long applicationId, boolean isRequest) {
+    long key = commandKey(commandCode, applicationId, isRequest);
+    long[] keys = this.commandKeys;
+    MessageRepresentationImpl[] values = this.commandValues;
+    int mask = keys.length - 1;
+    for (int index = slot(key, mask); values[index] != null; index = (index + 1) & mask) {
+      if (keys[index] == key) {
+        return values[index];
+      }
+    }
+    // commands added later through getCommandMap()
+    return (MessageRepresentationImpl) this.commandMap.get(new MessageRepresentationImpl(commandCode, applicationId, isRequest));
+  }
+
+  /**
+   * Indexes the parsed AVP definitions by code and Vendor-Id
+   */
+  private void indexAvps() {
+    int length = Integer.highestOneBit(Math.max(1, avpMap.size()) * 2) << 1;
+    long[] keys = new long[length];
+    AvpRepresentation[] values = new AvpRepresentation[length];
+    for (AvpRepresentation avp : avpMap.values()) {
+      long key = avpKey(avp.getCode(), avp.getVendorId());
+      int index = slot(key, length - 1);
+      while (values[index] != null) {
+        index = (index + 1) & (length - 1);
+      }
+      keys[index] = key;
+      values[index] = avp;
+    }
+    this.avpKeys = keys;
+    this.avpValues = values;
+  }
+
+  private static long avpKey(int code, long vendorId) {
+    return (vendorId << 32) | (code & 0xFFFFFFFFL);
+  }
+
+  private static long commandKey(int commandCode, long applicationId, boolean isRequest) {
+    return (applicationId << 25) | ((commandCode & 0xFFFFFFL) << 1) | (isRequest ? 1 : 0);
+  }
+
+  private static int slot(long key, int mask) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -700,6 +813,16 @@ public class DictionaryImpl implements Dictionary {
     if (!this.configured) {
       return null;
     }
+    long key = avpKey(code, vendorId);
+    long[] keys = this.avpKeys;
+    AvpRepresentation[] values = this.avpValues;
+    int mask = keys.length - 1;
+    for (int index = slot(key, mask); values[index] != null; index = (index + 1) & mask) {
+      if (keys[index] == key) {
+        return values[index];
+      }
+    }
+    // AVPs added later through getAvpMap()
     AvpRepresentation avp = avpMap.get(getMapKey(code, vendorId));
 
     if (avp == null) {
@@ -752,8 +875,7 @@ public class DictionaryImpl implements Dictionary {
     if (!this.configured) {
       return null;
     }
-    MessageRepresentation key = new MessageRepresentationImpl(commandCode, applicationId, isRequest);
-    return this.commandMap.get(key);
+    return findCommand(commandCode, applicationId, isRequest);
   }
 
   // Validation ---------------------------------------------------------------
@@ -817,8 +939,7 @@ public class DictionaryImpl implements Dictionary {
       return;
     }
 
-    MessageRepresentationImpl rep = new MessageRepresentationImpl(msg.getCommandCode(), msg.getApplicationId(), msg.isRequest());
-    rep = (MessageRepresentationImpl) this.commandMap.get(rep);
+    MessageRepresentationImpl rep = findCommand(msg.getCommandCode(), msg.getApplicationId(), msg.isRequest());
     if (rep == null) {
       // no notion, lets leave it.
       logger.warn("Validation could not be performed, command not defined!. Code={}, Application-Id={}, Req={}",
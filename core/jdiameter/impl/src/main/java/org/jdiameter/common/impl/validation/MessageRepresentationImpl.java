@@ -46,7 +46,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import org.jdiameter.api.Avp;
 import org.jdiameter.api.AvpSet;
 import org.jdiameter.api.Message;
 import org.jdiameter.api.validation.AvpNotAllowedException;
@@ -76,6 +75,8 @@ public class MessageRepresentationImpl implements MessageRepresentation {
   private boolean isRequest = false;
   protected Map<AvpRepresentation, AvpRepresentation> unmuttableMessageAvps = new HashMap<AvpRepresentation, AvpRepresentation>();
   private String name = null;
+  // rules compiled on first validation or when the dictionary is loaded
+  private volatile ValidationProgram program;
 
   public MessageRepresentationImpl(int commandCode, long applicationId, boolean isRequest) {
     super();
@@ -148,6 +149,15 @@ public class MessageRepresentationImpl implements MessageRepresentation {
   public void setMessageAvps(Map<AvpRepresentation, AvpRepresentation> messageAvps) {
     //this.unmuttableMessageAvps = Collections.unmodifiableMap(messageAvps);
     this.unmuttableMessageAvps = messageAvps;
+    this.program = null;
+  }
+
+  /**
+   * Compiles the AVP rules of the message for validation. Rules changed afterwards through the map returned by
+   * {@link #getMessageAvps()} are only seen after {@link #setMessageAvps(Map)} or another call of this method.
+   */
+  public void compile() {
+    this.program = ValidationProgram.compile(unmuttableMessageAvps.values());
   }
 
   @Override
@@ -295,57 +305,12 @@ public class MessageRepresentationImpl implements MessageRepresentation {
     }
 
     // if its !OFF, we will go down, at least to this section
-    for (AvpRepresentation ap : this.unmuttableMessageAvps.values()) {
-      AvpSet innerSet = msg.getAvps().getAvps(ap.getCode(), ap.getVendorId());
-
-      int count = 0;
-      if (innerSet != null) {
-        count = innerSet.size();
-      }
-
-      if (!ap.isCountValidForMultiplicity(count)) {
-        throw new AvpNotAllowedException("AVP: \n" + ap + "\n, has wrong count in message - " + (count), ap.getCode(), ap.getVendorId());
-      }
-      // if its ALL, we need to go down deeper in AVPs
-      if (validatorLevel != ValidatorLevel.ALL) {
-        continue;
-      }
-      if (count != 0 && ap.isGrouped()) {
-        // we are grouped
-        validateGrouped(ap, innerSet);
-      }
-    }
-  }
-
-  /**
-   * @param ap
-   * @param innerSet
-   */
-  private void validateGrouped(AvpRepresentation ap, AvpSet innerSet) {
-    // we have set of grouped avps, and ap is grouped, lets validate
-    // NOTE this methods can be called multiple time, until we dont have
-
-    for (int index = 0; index < innerSet.size(); index++) {
-
-      Avp presumablyGrouped = innerSet.getAvpByIndex(index);
-      ap.validate(presumablyGrouped);
-      // AvpSet groupedPart = null;
-      // try {
-      //   groupedPart = presumablyGrouped.getGrouped();
-      // }
-      // catch (AvpDataException e) {
-      //   logger.debug("Failed to get grouped AVP.", e);
-      // }
-      //
-      // if (groupedPart == null) {
-      //   logger.error("Avp should be grouped, but its not: " + ap);
-      //
-      //   continue;
-      // }
-      // else {
-      //   validateGroupedChildren(ap, groupedPart);
-      // }
+    ValidationProgram program = this.program;
+    if (program == null) {
+      this.program = program = ValidationProgram.compile(unmuttableMessageAvps.values());
     }
+    // if its ALL, we need to go down deeper in AVPs
+    program.validate(msg.getAvps(), validatorLevel == ValidatorLevel.ALL);
   }
 
   //  /**
@@ -0,0 +1,202 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.validation;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.validation.AvpNotAllowedException;
+import org.jdiameter.api.validation.AvpRepresentation;
+
+/**
+ * Rules of a command or grouped AVP compiled from the dictionary. Validation walks the AVPs once, counting them per
+ * rule in an array indexed through an open addressing table of AVP code and Vendor-Id, then checks the counts
+ * against the multiplicity bounds of the rules. AVPs without a rule are not checked, as by the representations.
+ */
+final class ValidationProgram {
+
+  private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+  private AvpRepresentation[] rules;
+  private int[] min;
+  private int[] max;
+  // rule whose count applies, the first one of rules repeated for the same AVP
+  private int[] source;
+  // programs of grouped rules, null for other rules
+  private ValidationProgram[] grouped;
+  private long[] keys;
+  private int[] slots;
+  private int mask;
+
+  private ValidationProgram() {
+  }
+
+  /**
+   * Compiles the rules of a command, together with the rules of the grouped AVPs they refer to.
+   */
+  static ValidationProgram compile(Collection<AvpRepresentation> rules) {
+    return compile(rules, new IdentityHashMap<AvpRepresentation, ValidationProgram>());
+  }
+
+  private static ValidationProgram compile(Collection<AvpRepresentation> rules, Map<AvpRepresentation, ValidationProgram> compiled) {
+    ValidationProgram program = new ValidationProgram();
+    int count = rules.size();
+    program.rules = rules.toArray(new AvpRepresentation[count]);
+    program.min = new int[count];
+    program.max = new int[count];
+    program.source = new int[count];
+    program.grouped = new ValidationProgram[count];
+
+    int length = Integer.highestOneBit(Math.max(1, count) * 2) << 1;
+    program.keys = new long[length];
+    program.slots = new int[length];
+    program.mask = length - 1;
+    for (int i = 0; i < count; i++) {
+      AvpRepresentation rule = program.rules[i];
+      setBounds(program, i, rule);
+      int index = program.index(rule.getCode(), rule.getVendorId());
+      if (program.slots[index] == 0) {
+        program.keys[index] = key(rule.getCode(), rule.getVendorId());
+        program.slots[index] = i + 1;
+      }
+      program.source[i] = program.slots[index] - 1;
+    }
+    for (int i = 0; i < count; i++) {
+      AvpRepresentation rule = program.rules[i];
+      if (rule.isGrouped()) {
+        // grouped AVPs may contain themselves, directly or not
+        ValidationProgram child = compiled.get(rule);
+        if (child == null) {
+          child = new ValidationProgram();
+          compiled.put(rule, child);
+          child.copy(compile(rule.getChildren(), compiled));
+        }
+        program.grouped[i] = child;
+      }
+    }
+    return program;
+  }
+
+  private static void setBounds(ValidationProgram program, int i, AvpRepresentation rule) {
+    String indicator = rule.getMultiplicityIndicator();
+    if (!rule.isAllowed()) {
+      program.min[i] = 0;
+      program.max[i] = 0;
+    }
+    else if (AvpRepresentation._MP_ZERO_OR_MORE.equals(indicator)) {
+      program.min[i] = 0;
+      program.max[i] = UNBOUNDED;
+    }
+    else if (AvpRepresentation._MP_ZERO_OR_ONE.equals(indicator)) {
+      program.min[i] = 0;
+      program.max[i] = 1;
+    }
+    else if (AvpRepresentation._MP_ONE.equals(indicator)) {
+      program.min[i] = 1;
+      program.max[i] = 1;
+    }
+    else if (AvpRepresentation._MP_ONE_AND_MORE.equals(indicator)) {
+      program.min[i] = 1;
+      program.max[i] = UNBOUNDED;
+    }
+    else {
+      // unknown indicators match no count, as in AvpRepresentationImpl
+      program.min[i] = 1;
+      program.max[i] = 0;
+    }
+  }
+
+  private void copy(ValidationProgram other) {
+    this.rules = other.rules;
+    this.min = other.min;
+    this.max = other.max;
+    this.source = other.source;
+    this.grouped = other.grouped;
+    this.keys = other.keys;
+    this.slots = other.slots;
+    this.mask = other.mask;
+  }
+
+  /**
+   * Validates AVPs of a message.
+   *
+   * @param deep whether contents of grouped AVPs are validated
+   */
+  void validate(AvpSet avps, boolean deep) throws AvpNotAllowedException {
+    int[] counts = count(avps, deep);
+    for (int i = 0; i < rules.length; i++) {
+      int count = counts[source[i]];
+      if (count < min[i] || count > max[i]) {
+        throw new AvpNotAllowedException("AVP: \n" + rules[i] + "\n, has wrong count in message - " + count,
+            rules[i].getCode(), rules[i].getVendorId());
+      }
+    }
+  }
+
+  private void validateGrouped(AvpRepresentation parent, Avp avp) throws AvpNotAllowedException {
+    AvpSet children;
+    try {
+      children = avp.getGrouped();
+    }
+    catch (AvpDataException e) {
+      throw new AvpNotAllowedException("Failed to parse AVP to grouped!", e, parent.getCode(), parent.getVendorId());
+    }
+    int[] counts = count(children, true);
+    for (int i = 0; i < rules.length; i++) {
+      int count = counts[source[i]];
+      if (count < min[i] || count > max[i]) {
+        throw new AvpNotAllowedException("AVP: " + rules[i] + " has wrong count, in grouped parent avp - " + count + ", allowed: "
+            + rules[i].getMultiplicityIndicator(), parent.getCode(), parent.getVendorId());
+      }
+    }
+  }
+
+  private int[] count(AvpSet avps, boolean deep) throws AvpNotAllowedException {
+    int[] counts = new int[rules.length];
+    for (int i = 0, size = avps.size(); i < size; i++) {
+      Avp avp = avps.getAvpByIndex(i);
+      int slot = slots[index(avp.getCode(), avp.getVendorId())] - 1;
+      if (slot >= 0) {
+        counts[slot]++;
+        if (deep && grouped[slot] != null) {
+          grouped[slot].validateGrouped(rules[slot], avp);
+        }
+      }
+    }
+    return counts;
+  }
+
+  private int index(int code, long vendorId) {
+    long key = key(code, vendorId);
+    int index = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+    while (slots[index] != 0 && keys[index] != key) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  private static long key(int code, long vendorId) {
+    return (vendorId << 32) | (code & 0xFFFFFFFFL);
+  }
+}
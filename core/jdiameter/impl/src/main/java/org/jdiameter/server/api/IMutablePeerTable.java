@@ -64,13 +64,30 @@ public interface IMutablePeerTable extends MutablePeerTable, IPeerTable {
    */
   IMessage isDuplicate(IMessage request);
 
+  /**
+   * Save answer to duplicate storage, replacing the answer stored for the request if any
+   * @param request answered request
+   * @param answer message
+   */
+  void saveToDuplicate(IMessage request, IMessage answer);
+
   /**
    * Save message to duplicate storage
    * @param key key of message
    * @param answer message
+   * @deprecated use {@link #saveToDuplicate(IMessage, IMessage)}
    */
+  @Deprecated
   void saveToDuplicate(String key, IMessage answer);
 
+  /**
+   * Save answer to duplicate storage unless an answer is stored already for the request
+   * @param originHost Origin-Host of the answered request
+   * @param endToEndId End-to-End identifier of the answered request
+   * @param answer message
+   */
+  void saveToDuplicate(String originHost, long endToEndId, IMessage answer);
+
   /**
    * Return instance of session factory
    * @return instance of session factory
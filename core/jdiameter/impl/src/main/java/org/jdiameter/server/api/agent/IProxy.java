@@ -48,4 +48,10 @@ package org.jdiameter.server.api.agent;
  */
 public interface IProxy extends IAgent {
 
+  /**
+   * Property name for the time in milliseconds to wait for the answer of a forwarded request before failing over
+   * to another peer of the realm, defaults to the MessageTimeOut of the stack.
+   */
+  String TIMEOUT_PROPERTY = "proxy.timeout";
+
 }
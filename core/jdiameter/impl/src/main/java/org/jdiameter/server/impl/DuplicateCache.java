@@ -0,0 +1,236 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.server.impl;
+
+import java.util.Arrays;
+
+/**
+ * Encoded answers kept for duplicate detection, looked up by Origin-Host and End-to-End identifier of the request.
+ * Entries are linked in the order they were stored, which is the order they expire in, so expired entries are
+ * removed from the head at constant cost each, and when the cache is full the least recently stored entry makes
+ * room for the new one. The cache is split into segments locked separately.
+ */
+final class DuplicateCache {
+
+  private static final int MAX_SEGMENTS = 16;
+  // entries per segment below which the cache is not split further
+  private static final int MIN_SEGMENT_CAPACITY = 64;
+
+  private final Segment[] segments;
+  private final int segmentMask;
+
+  /**
+   * @param capacity number of answers the cache holds at most, at least 1
+   */
+  DuplicateCache(int capacity) {
+    int count = 1;
+    while (count < MAX_SEGMENTS && capacity / (count * 2) >= MIN_SEGMENT_CAPACITY) {
+      count <<= 1;
+    }
+    this.segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+    }
+    this.segmentMask = count - 1;
+  }
+
+  /**
+   * @return answer stored for the request, null if there is none or it expired
+   */
+  byte[] get(String originHost, long endToEndId, long now) {
+    long key = key(originHost, endToEndId);
+    int hash = hash(key);
+    return segment(hash).get(key, hash, originHost, now);
+  }
+
+  /**
+   * Stores the answer of the request.
+   *
+   * @param deadline time, as given by {@link System#nanoTime()}, at which the answer expires
+   * @param replace whether an answer stored already for the request is replaced, otherwise it is kept
+   */
+  void put(String originHost, long endToEndId, byte[] answer, long deadline, boolean replace) {
+    long key = key(originHost, endToEndId);
+    int hash = hash(key);
+    segment(hash).put(key, hash, originHost, answer, deadline, replace);
+  }
+
+  /**
+   * Removes the answers expired at the given time.
+   */
+  void expire(long now) {
+    for (Segment segment : segments) {
+      segment.expire(now);
+    }
+  }
+
+  int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  void clear() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  private Segment segment(int hash) {
+    return segments[(hash >>> 28) & segmentMask];
+  }
+
+  private static long key(String originHost, long endToEndId) {
+    return ((long) originHost.hashCode() << 32) | (endToEndId & 0xFFFFFFFFL);
+  }
+
+  private static int hash(long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  private static final class Segment {
+
+    private final int capacity;
+    private final Entry[] table;
+    private final int tableMask;
+    // oldest and newest entries
+    private Entry head;
+    private Entry tail;
+    private int size;
+
+    Segment(int capacity) {
+      this.capacity = capacity;
+      // keeps load factor at most 3/4
+      int length = Integer.highestOneBit(Math.max(1, capacity + capacity / 3)) << 1;
+      this.table = new Entry[length];
+      this.tableMask = length - 1;
+    }
+
+    synchronized byte[] get(long key, int hash, String originHost, long now) {
+      for (Entry e = table[hash & tableMask]; e != null; e = e.next) {
+        if (e.key == key && e.originHost.equals(originHost)) {
+          return e.deadline - now > 0 ? e.answer : null;
+        }
+      }
+      return null;
+    }
+
+    synchronized void put(long key, int hash, String originHost, byte[] answer, long deadline, boolean replace) {
+      long now = System.nanoTime();
+      expire(now);
+      for (Entry e = table[hash & tableMask]; e != null; e = e.next) {
+        if (e.key == key && e.originHost.equals(originHost)) {
+          if (!replace && e.deadline - now > 0) {
+            return;
+          }
+          remove(e);
+          break;
+        }
+      }
+      if (size == capacity) {
+        remove(head);
+      }
+
+      Entry entry = new Entry(key, hash, originHost, answer, deadline);
+      int index = hash & tableMask;
+      entry.next = table[index];
+      table[index] = entry;
+      entry.before = tail;
+      if (tail == null) {
+        head = entry;
+      }
+      else {
+        tail.after = entry;
+      }
+      tail = entry;
+      size++;
+    }
+
+    synchronized void expire(long now) {
+      while (head != null && head.deadline - now <= 0) {
+        remove(head);
+      }
+    }
+
+    synchronized int size() {
+      return size;
+    }
+
+    synchronized void clear() {
+      Arrays.fill(table, null);
+      head = null;
+      tail = null;
+      size = 0;
+    }
+
+    private void remove(Entry entry) {
+      int index = entry.hash & tableMask;
+      Entry previous = null;
+      for (Entry e = table[index]; e != null; previous = e, e = e.next) {
+        if (e == entry) {
+          if (previous == null) {
+            table[index] = e.next;
+          }
+          else {
+            previous.next = e.next;
+          }
+          break;
+        }
+      }
+      if (entry.before == null) {
+        head = entry.after;
+      }
+      else {
+        entry.before.after = entry.after;
+      }
+      if (entry.after == null) {
+        tail = entry.before;
+      }
+      else {
+        entry.after.before = entry.before;
+      }
+      size--;
+    }
+  }
+
+  private static final class Entry {
+
+    final long key;
+    final int hash;
+    final String originHost;
+    final byte[] answer;
+    final long deadline;
+    // next entry of the same bucket
+    Entry next;
+    // entries stored before and after this one
+    Entry before;
+    Entry after;
+
+    Entry(long key, int hash, String originHost, byte[] answer, long deadline) {
+      this.key = key;
+      this.hash = hash;
+      this.originHost = originHost;
+      this.answer = answer;
+      this.deadline = deadline;
+    }
+  }
+}
@@ -45,7 +45,13 @@ package org.jdiameter.server.impl;
 import org.jdiameter.api.Avp;
 import org.jdiameter.api.AvpSet;
 import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.validation.AvpNotAllowedException;
+import org.jdiameter.api.validation.AvpRepresentation;
+import org.jdiameter.api.validation.Dictionary;
+import org.jdiameter.api.validation.MessageRepresentation;
+import org.jdiameter.api.validation.ValidatorLevel;
 import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.DictionarySingleton;
 
 /**
  * This class provides check incoming/outgoing diameter messages.
@@ -98,8 +104,105 @@ public class MessageValidator {
     if (!enable) {
       return SUCCESS;
     }
-    // todo
-    return null;
+    Dictionary dictionary = DictionarySingleton.getDictionary();
+    if (!dictionary.isConfigured()) {
+      return SUCCESS;
+    }
+    MessageRepresentation rep = dictionary.getMessage(message.getCommandCode(), message.getApplicationId(), message.isRequest());
+    if (rep == null) {
+      return SUCCESS;
+    }
+    try {
+      rep.validate(message, ValidatorLevel.ALL);
+      return SUCCESS;
+    }
+    catch (AvpNotAllowedException e) {
+      long resultCode = getResultCode(rep, message, e.getAvpCode(), e.getVendorId());
+      IMessage answer = null;
+      if (message.isRequest()) {
+        answer = (IMessage) message.createAnswer();
+        if (e.getAvpCode() >= 0) {
+          addFailedAvp(answer, rep, message, resultCode, e.getAvpCode(), e.getVendorId());
+        }
+      }
+      return new Result(answer, resultCode);
+    }
+  }
+
+  private long getResultCode(MessageRepresentation rep, IMessage message, int code, long vendorId) {
+    if (code < 0) {
+      return ResultCode.UNABLE_TO_COMPLY;
+    }
+    if (!rep.isAllowed(code, vendorId)) {
+      return ResultCode.AVP_NOT_ALLOWED;
+    }
+    AvpSet avps = message.getAvps().getAvps(code, vendorId);
+    int count = avps == null ? 0 : avps.size();
+    if (count == 0) {
+      return ResultCode.MISSING_AVP;
+    }
+    // count fits, contents of the grouped AVP do not
+    return rep.isCountValidForMultiplicity(code, vendorId, count) ? ResultCode.INVALID_AVP_VALUE : ResultCode.AVP_OCCURS_TOO_MANY_TIMES;
+  }
+
+  /**
+   * Adds the Failed-AVP to the answer, holding the offending AVP of the request, or an example of the missing AVP
+   * with a zero filled value of minimum length (RFC 6733, 7.5).
+   */
+  private void addFailedAvp(IMessage answer, MessageRepresentation rep, IMessage message, long resultCode, int code, long vendorId) {
+    AvpRepresentation avpRep = rep.getAvp(code, vendorId);
+    AvpSet avps = message.getAvps().getAvps(code, vendorId);
+    int count = avps == null ? 0 : avps.size();
+    Avp failed = null;
+    if (resultCode == ResultCode.AVP_OCCURS_TOO_MANY_TIMES) {
+      // first occurrence beyond the allowed count
+      int allowed = count - 1;
+      while (allowed > 0 && !rep.isCountValidForMultiplicity(code, vendorId, allowed)) {
+        allowed--;
+      }
+      failed = avps.getAvpByIndex(allowed);
+    }
+    else if (resultCode == ResultCode.INVALID_AVP_VALUE && avpRep != null) {
+      // first grouped AVP whose contents do not fit
+      for (int i = 0; i < count && failed == null; i++) {
+        try {
+          avpRep.validate(avps.getAvpByIndex(i));
+        }
+        catch (AvpNotAllowedException e) {
+          failed = avps.getAvpByIndex(i);
+        }
+      }
+    }
+    if (failed == null && count > 0) {
+      failed = avps.getAvpByIndex(0);
+    }
+
+    AvpSet failedAvp = answer.getAvps().addGroupedAvp(Avp.FAILED_AVP, true, false);
+    if (failed != null) {
+      failedAvp.addAvp(failed);
+    }
+    else {
+      failedAvp.addAvp(code, new byte[getMinimumLength(avpRep)], vendorId, avpRep == null || avpRep.isMandatory(), false);
+    }
+  }
+
+  private static int getMinimumLength(AvpRepresentation avpRep) {
+    if (avpRep == null) {
+      return 0;
+    }
+    // primitive type, Enumerated is an Integer32
+    String type = avpRep.getType();
+    if ("Integer32".equals(type) || "Unsigned32".equals(type) || "Float32".equals(type)) {
+      return 4;
+    }
+    if ("Integer64".equals(type) || "Unsigned64".equals(type) || "Float64".equals(type)) {
+      return 8;
+    }
+    if ("Address".equals(avpRep.getOriginalType())) {
+      // address family and an IPv4 address
+      return 6;
+    }
+    return 0;
   }
 
   public static class Result {
@@ -134,7 +237,7 @@ public class MessageValidator {
      */
     public IMessage toMessage() {
       if ( errorMessage != null && errorMessage.getAvps().getAvp(Avp.RESULT_CODE) == null ) {
-        errorMessage.getAvps().addAvp(Avp.RESULT_CODE, code);
+        errorMessage.getAvps().addAvp(Avp.RESULT_CODE, code, true, false, true);
       }
       return errorMessage;
     }
@@ -148,7 +251,7 @@ public class MessageValidator {
       if ( errorMessage != null && errorMessage.getAvps().getAvp(297) == null ) { // EXPERIMENTAL_RESULT = 297
         AvpSet er = errorMessage.getAvps().addGroupedAvp(297);
         er.addAvp(Avp.VENDOR_ID, vendorId);
-        er.addAvp(Avp.EXPERIMENTAL_RESULT_CODE, code);
+        er.addAvp(Avp.EXPERIMENTAL_RESULT_CODE, code, true, false, true);
       }
       return errorMessage;
     }
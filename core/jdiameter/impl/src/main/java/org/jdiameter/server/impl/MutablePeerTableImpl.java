@@ -98,6 +98,7 @@ import org.jdiameter.client.api.fsm.EventTypes;
 import org.jdiameter.client.api.io.IConnection;
 import org.jdiameter.client.api.io.IConnectionListener;
 import org.jdiameter.client.api.io.TransportException;
+import org.jdiameter.client.api.parser.ParseException;
 import org.jdiameter.client.api.parser.IMessageParser;
 import org.jdiameter.client.impl.controller.PeerTableImpl;
 import org.jdiameter.common.api.concurrent.IConcurrentFactory;
@@ -140,7 +141,15 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
   protected long duplicateTimer;
   protected ScheduledExecutorService duplicationScheduler = null;
   protected ScheduledFuture duplicationHandler = null;
+  /**
+   * @deprecated answers are kept in a {@link DuplicateCache}, this map is no longer read nor filled
+   */
+  @Deprecated
   protected ConcurrentHashMap<String, StorageEntry> storageAnswers = new ConcurrentHashMap<String, StorageEntry>();
+  // null when duplicate protection is disabled
+  private DuplicateCache duplicateCache;
+  // requests handed to asynchronous listeners and not answered yet, with the time their mark expires
+  private final ConcurrentHashMap<String, Long> processedRequests = new ConcurrentHashMap<String, Long>();
 
   protected boolean isAcceptUndefinedPeer  = false;
 
@@ -163,6 +172,10 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
 
   private IContainer stack;
 
+  /**
+   * @deprecated answers are kept encoded in a {@link DuplicateCache}
+   */
+  @Deprecated
   protected class StorageEntry {
 
     private String duplicationKey;
@@ -212,6 +225,9 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
     if (this.duplicateProtection) {
       this.duplicateTimer = config.getLongValue(DuplicateTimer.ordinal(), (Long) DuplicateTimer.defValue());
       this.duplicateSize = config.getIntValue(DuplicateSize.ordinal(), (Integer) DuplicateSize.defValue());
+      if (this.duplicateSize > 0) {
+        this.duplicateCache = new DuplicateCache(this.duplicateSize);
+      }
     }
     logger.debug("Duplicate Protection Configuration: Enabled? {}, Timer: {}, Size: {}",
         new Object[]{this.duplicateProtection, this.duplicateTimer, this.duplicateSize});
@@ -302,32 +318,26 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
     };
     overloadHandler = overloadScheduler.scheduleAtFixedRate(overloadTask, 0, 1, TimeUnit.SECONDS);
     // Start duplication protection procedure
-    if (duplicateProtection) {
+    if (duplicateCache != null) {
       duplicationScheduler = concurrentFactory.getScheduledExecutorService(DuplicationMessageTimer.name());
       Runnable duplicateTask = new Runnable() {
         @Override
         public void run() {
-          long now = System.currentTimeMillis();
+          long start = System.currentTimeMillis();
           if (logger.isDebugEnabled()) {
-            logger.debug("Running Duplicate Cleaning Task. Duplicate Storage size is: {}. Removing entries with time <= '{}'",
-                storageAnswers.size(), now - duplicateTimer);
+            logger.debug("Running Duplicate Cleaning Task. Duplicate Storage size is: {}", duplicateCache.size());
           }
-          for (StorageEntry s : storageAnswers.values()) {
-            if (s != null && s.getTime() + duplicateTimer <= now) {
-              if (logger.isTraceEnabled()) {
-                logger.trace("Duplicate Cleaning Task - Removing Entry with key '{}' and time '{}'", s.getDuplicationKey(), s.getTime());
-              }
-              storageAnswers.remove(s.getDuplicationKey());
-            }
-            else {
-              if (logger.isTraceEnabled()) {
-                logger.trace("Duplicate Cleaning Task - Skipping Entry with key '{}' and time '{}'", s.getDuplicationKey(), s.getTime());
-              }
+          // entries expire in the order they were stored, only expired ones are visited
+          long now = System.nanoTime();
+          duplicateCache.expire(now);
+          for (Map.Entry<String, Long> entry : processedRequests.entrySet()) {
+            if (entry.getValue() - now <= 0) {
+              processedRequests.remove(entry.getKey(), entry.getValue());
             }
           }
           if (logger.isDebugEnabled()) {
             logger.debug("Completed Duplicate Cleaning Task. New Duplicate Storage size is: {}. Total task runtime: {}ms",
-                storageAnswers.size(), System.currentTimeMillis() - now);
+                duplicateCache.size(), System.currentTimeMillis() - start);
           }
         }
       };
@@ -627,7 +637,10 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
       connHandler = null;
     }
     //remove incoming data
-    storageAnswers.clear();
+    if (duplicateCache != null) {
+      duplicateCache.clear();
+    }
+    processedRequests.clear();
 
     // Clear dynamic peers from peertable
     Iterator<String> it = super.peerTable.keySet().iterator();
@@ -736,24 +749,112 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
 
   @Override
   public IMessage isDuplicate(IMessage request) {
-    String key = request.getDuplicationKey();
-    if (key != null && storageAnswers != null) {
-      StorageEntry entry = storageAnswers.get(key);
-      return entry != null ? (IMessage) entry.getMessage().clone() : null;
+    String originHost = getOriginHost(request);
+    if (originHost != null) {
+      byte[] answer = duplicateCache.get(originHost, request.getEndToEndIdentifier(), System.nanoTime());
+      if (answer != null) {
+        try {
+          return parser.createMessage(answer);
+        }
+        catch (AvpDataException e) {
+          logger.debug("Unable to decode stored answer", e);
+        }
+      }
     }
     return null;
   }
 
   @Override
+  public void saveToDuplicate(IMessage request, IMessage answer) {
+    String originHost = getOriginHost(request);
+    if (originHost != null) {
+      storeAnswer(originHost, request.getEndToEndIdentifier(), answer, true);
+    }
+  }
+
+  /**
+   * @deprecated the key is ignored, the Origin-Host of the answered request is looked up in the route info of the
+   * answer instead, use {@link #saveToDuplicate(IMessage, IMessage)}
+   */
+  @Override
+  @Deprecated
   public void saveToDuplicate(String key, IMessage answer) {
-    if (storageAnswers != null && storageAnswers.size() < duplicateSize) {
-      if (key != null) {
-        StorageEntry se = new StorageEntry((IMessage) answer.clone());
-        if (logger.isTraceEnabled()) {
-          logger.trace("Duplicate Protection - Inserting Entry with key '{}' and time '{}'", key, se.getTime());
-        }
-        storageAnswers.put(key, se);
+    if (duplicateCache != null) {
+      String[] originInfo = router.getRequestRouteInfo(answer);
+      if (originInfo != null) {
+        storeAnswer(originInfo[0], answer.getEndToEndIdentifier(), answer, true);
+      }
+    }
+  }
+
+  @Override
+  public void saveToDuplicate(String originHost, long endToEndId, IMessage answer) {
+    if (duplicateCache != null) {
+      storeAnswer(originHost, endToEndId, answer, false);
+    }
+  }
+
+  /**
+   * Marks a request as being processed, so that its retransmissions are recognized until it is answered and its
+   * answer is stored for duplicate protection. The mark is removed with {@link #endProcessing(IMessage)}, or once it
+   * is older than the duplicate timer.
+   *
+   * @return false if the request is being processed already
+   */
+  public boolean startProcessing(IMessage request) {
+    String key = processingKey(request);
+    if (key == null) {
+      return true;
+    }
+    long now = System.nanoTime();
+    Long deadline = now + TimeUnit.MILLISECONDS.toNanos(duplicateTimer);
+    Long previous = processedRequests.putIfAbsent(key, deadline);
+    return previous == null || (previous - now <= 0 && processedRequests.replace(key, previous, deadline));
+  }
+
+  /**
+   * Removes the mark of a request set by {@link #startProcessing(IMessage)}, called once it is answered.
+   */
+  public void endProcessing(IMessage request) {
+    String key = processingKey(request);
+    if (key != null) {
+      processedRequests.remove(key);
+    }
+  }
+
+  private String processingKey(IMessage request) {
+    String originHost = getOriginHost(request);
+    return originHost != null ? originHost + '/' + request.getEndToEndIdentifier() : null;
+  }
+
+  private void storeAnswer(String originHost, long endToEndId, IMessage answer, boolean replace) {
+    if (!replace && duplicateCache.get(originHost, endToEndId, System.nanoTime()) != null) {
+      // kept, no need to encode the answer
+      return;
+    }
+    try {
+      byte[] data = parser.encodeMessage(answer).array();
+      if (logger.isTraceEnabled()) {
+        logger.trace("Duplicate Protection - Inserting Entry with Origin-Host '{}' and End-to-End Id '{}'", originHost, endToEndId);
       }
+      duplicateCache.put(originHost, endToEndId, data, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(duplicateTimer), replace);
+    }
+    catch (ParseException e) {
+      logger.debug("Unable to encode answer for duplicate protection", e);
+    }
+  }
+
+  private String getOriginHost(IMessage request) {
+    if (duplicateCache == null) {
+      return null;
+    }
+    Avp originHost = request.getAvps().getAvp(Avp.ORIGIN_HOST);
+    try {
+      return originHost != null ? originHost.getDiameterIdentity() : null;
+    }
+    catch (AvpDataException e) {
+      logger.debug("Unable to read Origin-Host of request", e);
+      return null;
     }
   }
 
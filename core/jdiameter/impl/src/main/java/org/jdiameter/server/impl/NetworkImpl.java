@@ -42,8 +42,12 @@
 
 package org.jdiameter.server.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.jdiameter.api.ApplicationAlreadyUseException;
@@ -67,6 +71,7 @@ import org.jdiameter.server.api.IMutablePeerTable;
 import org.jdiameter.server.api.INetwork;
 import org.jdiameter.server.api.IRouter;
 import org.jdiameter.server.api.agent.IAgentConfiguration;
+import org.jdiameter.server.impl.helpers.ApplicationIdSelector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -86,7 +91,10 @@ public class NetworkImpl implements INetwork {
   private final ApplicationId commonAuthAppId = ApplicationId.createByAuthAppId(0, 0xffffffff);
   private final ApplicationId commonAccAppId = ApplicationId.createByAccAppId(0, 0xffffffff);
   private final ConcurrentHashMap<ApplicationId, NetworkReqListener> appIdToNetListener = new ConcurrentHashMap<ApplicationId, NetworkReqListener>();
-  private final ConcurrentHashMap<Selector, NetworkReqListener> selectorToNetListener = new ConcurrentHashMap<Selector, NetworkReqListener>();
+  private final ConcurrentHashMap<Selector<Message, ApplicationId>, NetworkReqListener> selectorToNetListener =
+      new ConcurrentHashMap<Selector<Message, ApplicationId>, NetworkReqListener>();
+  // listeners compiled for lookup, replaced whenever a listener is added or removed
+  private volatile DispatchTable dispatchTable = new DispatchTable();
 
   protected IStatistic statistic;
 
@@ -134,6 +142,7 @@ public class NetworkImpl implements INetwork {
       }
 
       appIdToNetListener.put(a, networkReqListener);
+      rebuildDispatchTable();
       metaData.addApplicationId(a); // this has ALL config declared, we need currently deployed
       router.getRealmTable().addLocalApplicationId(a);
     }
@@ -143,6 +152,7 @@ public class NetworkImpl implements INetwork {
   public void addNetworkReqListener(NetworkReqListener listener, Selector<Message, ApplicationId>... selectors) {
     for (Selector<Message, ApplicationId> s : selectors) {
       selectorToNetListener.put(s, listener);
+      rebuildDispatchTable();
       ApplicationId ap = s.getMetaData();
       metaData.addApplicationId(ap);
       router.getRealmTable().addLocalApplicationId(ap);
@@ -153,6 +163,7 @@ public class NetworkImpl implements INetwork {
   public void removeNetworkReqListener(ApplicationId... applicationId) {
     for (ApplicationId a : applicationId) {
       appIdToNetListener.remove(a);
+      rebuildDispatchTable();
       for (Selector<Message, ApplicationId> s : selectorToNetListener.keySet()) {
         if (s.getMetaData().equals(a)) {
           return;
@@ -167,6 +178,7 @@ public class NetworkImpl implements INetwork {
   public void removeNetworkReqListener(Selector<Message, ApplicationId>... selectors) {
     for (Selector<Message, ApplicationId> s : selectors) {
       selectorToNetListener.remove(s);
+      rebuildDispatchTable();
       if (appIdToNetListener.containsKey(s.getMetaData())) {
         return;
       }
@@ -181,6 +193,40 @@ public class NetworkImpl implements INetwork {
     }
   }
 
+  /**
+   * Compiles registered listeners into a new dispatch table. Selectors take precedence over listeners registered by
+   * Application-Id, as when they were checked one by one: Application-Id selectors are looked up by the
+   * Application-Id of the request, other selectors are then checked in turn. Without matching selector, a request
+   * with no Application-Id has no listener, otherwise a listener registered for the common Application-Id takes
+   * precedence over the ones registered by Application-Id.
+   */
+  private synchronized void rebuildDispatchTable() {
+    Map<ApplicationId, NetworkReqListener> byApplicationId = new HashMap<ApplicationId, NetworkReqListener>();
+    Map<ApplicationId, NetworkReqListener> bySelector = new HashMap<ApplicationId, NetworkReqListener>();
+    List<Selector<Message, ApplicationId>> selectors = new ArrayList<Selector<Message, ApplicationId>>();
+    List<NetworkReqListener> selectorListeners = new ArrayList<NetworkReqListener>();
+
+    NetworkReqListener commonListener = appIdToNetListener.get(commonAuthAppId);
+    if (commonListener == null) {
+      commonListener = appIdToNetListener.get(commonAccAppId);
+    }
+    if (commonListener == null) {
+      byApplicationId.putAll(appIdToNetListener);
+    }
+    for (Map.Entry<Selector<Message, ApplicationId>, NetworkReqListener> e : selectorToNetListener.entrySet()) {
+      Selector<Message, ApplicationId> selector = e.getKey();
+      // subclasses may override the rule, they are checked as any other selector
+      if (selector.getClass() == ApplicationIdSelector.class) {
+        bySelector.put(selector.getMetaData(), e.getValue());
+      }
+      else {
+        selectors.add(selector);
+        selectorListeners.add(e.getValue());
+      }
+    }
+    dispatchTable = new DispatchTable(bySelector, selectors, selectorListeners, byApplicationId, commonListener);
+  }
+
   public Peer addPeer(String name, String realm, boolean connecting) {
     if (manager != null) {
       try {
@@ -245,26 +291,23 @@ public class NetworkImpl implements INetwork {
     if (message == null) {
       return null;
     }
-    for (Selector<Message, ApplicationId> s : selectorToNetListener.keySet()) {
-      boolean r = s.checkRule(message);
-      if (r) {
-        return selectorToNetListener.get(s);
+    DispatchTable table = dispatchTable;
+    ApplicationId appId = message.getSingleApplicationId();
+    if (appId != null && !table.bySelector.isEmpty()) {
+      NetworkReqListener listener = table.bySelector.get(appId);
+      if (listener != null) {
+        return listener;
+      }
+    }
+    for (int i = 0; i < table.selectors.length; i++) {
+      if (table.selectors[i].checkRule(message)) {
+        return table.selectorListeners[i];
       }
     }
-
-    ApplicationId appId = message.getSingleApplicationId();
     if (appId == null) {
       return null;
     }
-    if (appIdToNetListener.containsKey(commonAuthAppId)) {
-      return appIdToNetListener.get(commonAuthAppId);
-    }
-    else if (appIdToNetListener.containsKey(commonAccAppId)) {
-      return appIdToNetListener.get(commonAccAppId);
-    }
-    else {
-      return appIdToNetListener.get(appId);
-    }
+    return table.commonListener != null ? table.commonListener : table.byApplicationId.get(appId);
   }
 
   @Override
@@ -280,4 +323,29 @@ public class NetworkImpl implements INetwork {
     return this.router.getRealmTable();
   }
 
+  private static final class DispatchTable {
+
+    final Map<ApplicationId, NetworkReqListener> bySelector;
+    final Selector<Message, ApplicationId>[] selectors;
+    final NetworkReqListener[] selectorListeners;
+    final Map<ApplicationId, NetworkReqListener> byApplicationId;
+    final NetworkReqListener commonListener;
+
+    DispatchTable() {
+      this(Collections.<ApplicationId, NetworkReqListener>emptyMap(), Collections.<Selector<Message, ApplicationId>>emptyList(),
+          Collections.<NetworkReqListener>emptyList(), Collections.<ApplicationId, NetworkReqListener>emptyMap(), null);
+    }
+
+    @SuppressWarnings("unchecked")
+    DispatchTable(Map<ApplicationId, NetworkReqListener> bySelector, List<Selector<Message, ApplicationId>> selectors,
+        List<NetworkReqListener> selectorListeners, Map<ApplicationId, NetworkReqListener> byApplicationId,
+        NetworkReqListener commonListener) {
+      this.bySelector = bySelector;
+      this.selectors = (Selector<Message, ApplicationId>[]) selectors.toArray(new Selector<?, ?>[selectors.size()]);
+      this.selectorListeners = selectorListeners.toArray(new NetworkReqListener[selectorListeners.size()]);
+      this.byApplicationId = byApplicationId;
+      this.commonListener = commonListener;
+    }
+  }
+
 }
\ No newline at end of file
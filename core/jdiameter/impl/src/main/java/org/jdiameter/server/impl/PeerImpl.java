@@ -44,13 +44,17 @@ package org.jdiameter.server.impl;
 
 import static org.jdiameter.api.PeerState.DOWN;
 import static org.jdiameter.api.PeerState.INITIAL;
+import static org.jdiameter.common.api.concurrent.IConcurrentFactory.ScheduledExecServices.ApplicationRequest;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.jdiameter.api.Answer;
 import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.AsyncNetworkReqListener;
 import org.jdiameter.api.Avp;
 import org.jdiameter.api.AvpDataException;
 import org.jdiameter.api.Configuration;
@@ -60,6 +64,8 @@ import org.jdiameter.api.Message;
 import org.jdiameter.api.NetworkReqListener;
 import org.jdiameter.api.OverloadException;
 import org.jdiameter.api.PeerState;
+import org.jdiameter.api.PendingAnswer;
+import org.jdiameter.api.Request;
 import org.jdiameter.api.ResultCode;
 import org.jdiameter.api.StatisticRecord;
 import org.jdiameter.api.URI;
@@ -102,6 +108,7 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
   protected INetwork network;
   protected IOverloadManager ovrManager;
   protected ISessionFactory sessionFactory;
+  protected IConcurrentFactory concurrentFactory;
   // Internal parameters and members
   protected boolean isDuplicateProtection;
   protected boolean isAttemptConnection;
@@ -123,6 +130,7 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
     this.peerTable = peerTable;
     this.isDuplicateProtection = this.peerTable.isDuplicateProtection();
     this.sessionFactory = sessionFactory;
+    this.concurrentFactory = concurrentFactory;
     this.isAttemptConnection = attCnn;
     this.incConnections = this.peerTable.getIncConnections();
     this.predefinedPeerTable = this.peerTable.getPredefinedPeerTable();
@@ -153,6 +161,29 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
     //}
   }
 
+  /**
+   * Answers sent here were given by the application after its listener returned, they are stored for duplicate
+   * protection. Answers given by listeners and agents are stored when the request is handled and sent by the
+   * peer FSM straight away.
+   */
+  @Override
+  public boolean sendMessage(IMessage message) throws TransportException, OverloadException, InternalException {
+    String[] originInfo = null;
+    if (isDuplicateProtection && !message.isRequest()) {
+      int commandCode = message.getCommandCode();
+      // We don't want this for CEx/DWx/DPx
+      if (commandCode != 257 && commandCode != 280 && commandCode != 282) {
+        // looked up before the FSM sends the answer and drops the route info
+        originInfo = router.getRequestRouteInfo(message);
+      }
+    }
+    boolean sent = super.sendMessage(message);
+    if (sent && originInfo != null) {
+      peerTable.saveToDuplicate(originInfo[0], message.getEndToEndIdentifier(), message);
+    }
+    return sent;
+  }
+
   @Override
   public boolean isAttemptConnection() {
     return isAttemptConnection;
@@ -425,9 +456,11 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
                     isProcessed = true;
                   }
                   break;
-                case RELAY: // might be complicated, lets make it listener
-                  // now
-                  isProcessed = consumeMessage(message); //if its not redirected its
+                case RELAY:
+                  // relayed same as proxied, agent only touches routing AVPs
+                  if (handleByAgent(message, isProcessed, req, matched)) {
+                    isProcessed = true;
+                  }
                   break;
                 case REDIRECT:
                   //TODO: change this its almost the same as above, make it sync, so no router code involved
@@ -487,9 +520,11 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
                 isProcessed = true;
               }
               break;
-            case RELAY: // might be complicated, lets make it listener
-              // now
-              isProcessed = consumeMessage(message);
+            case RELAY:
+              // relayed same as proxied, agent only touches routing AVPs
+              if (handleByAgent(message, isProcessed, req, matched)) {
+                isProcessed = true;
+              }
               break;
             case REDIRECT:
               //TODO: change this its almost the same as above, make it sync, so no router code involved
@@ -524,16 +559,17 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
       else {
         try {
           router.registerRequestRouteInfo(message);
+          skipOverloadReport(message);
           IMessage answer = (IMessage) matched.getAgent().processRequest(req, matched);
           if (isDuplicateProtection && answer != null) {
-            peerTable.saveToDuplicate(message.getDuplicationKey(), answer);
+            peerTable.saveToDuplicate(message, answer);
           }
           isProcessed = true;
           if (answer != null) {
             sendMessage(answer);
           }
           if (statistic.isEnabled()) {
-            statistic.getRecordByName(IStatisticRecord.Counters.SysGenResponse.name()).inc();
+            statistic.getRecordByName(IStatisticRecord.Counters.SysGenResponse).inc();
           }
         }
         catch (Exception exc) {
@@ -546,7 +582,7 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
       if (isProcessed) {
         // NOTE: done to inc stat which informs on net work request consumption :)
         if (statistic.isEnabled()) {
-          statistic.getRecordByName(IStatisticRecord.Counters.NetGenRequest.name()).inc();
+          statistic.getRecordByName(IStatisticRecord.Counters.NetGenRequest).inc();
         }
       }
       return isProcessed;
@@ -566,7 +602,7 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
       if (!isProcessed) {
         if (statistic.isEnabled()) {
           // Decrement what we have incremented in super.receiveMessage(message) since it wasn't processed
-          statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedRequest.name()).dec();
+          statistic.getRecordByName(IStatisticRecord.Counters.NetGenRejectedRequest).dec();
         }
 
         NetworkReqListener listener = network.getListener(message);
@@ -574,9 +610,18 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
           if (logger.isDebugEnabled()) {
             logger.debug("We have found an application that is a listener for this message. It is [{}]", listener.getClass().getName());
           }
+          boolean async = listener instanceof AsyncNetworkReqListener;
           if (isDuplicateProtection) {
             logger.debug("Checking if it's a duplicate, since duplicate protection is ENABLED.");
+            // an asynchronous listener answers after the request is consumed, it is marked meanwhile
+            if (async && !peerTable.startProcessing(message)) {
+              logger.debug("Request [{}] is a duplicate of a request being processed, dropping it", message);
+              return true;
+            }
             answer = peerTable.isDuplicate(message);
+            if (async && answer != null) {
+              peerTable.endProcessing(message);
+            }
           }
           if (answer != null) {
             logger.debug("This message was detected as being a duplicate");
@@ -591,7 +636,7 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
             try {
               sendMessage(answer);
               if (statistic.isEnabled()) {
-                statistic.getRecordByName(IStatisticRecord.Counters.SysGenResponse.name()).inc();
+                statistic.getRecordByName(IStatisticRecord.Counters.SysGenResponse).inc();
               }
             }
             catch (Exception e) {
@@ -604,15 +649,31 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
           else {
             if (ovrManager != null && ovrManager.isParenAppOverload(message.getSingleApplicationId())) {
               logger.debug("Request [{}] skipped, because server application is overloaded", message);
+              if (async && isDuplicateProtection) {
+                peerTable.endProcessing(message);
+              }
               sendErrorAnswer(message, "Overloaded", ResultCode.TOO_BUSY);
               return true;
             }
+            else if (async) {
+              // the answer is sent from the application thread completing it
+              PendingAnswerImpl pendingAnswer = new PendingAnswerImpl(message);
+              try {
+                router.registerRequestRouteInfo(message);
+                concurrentFactory.getScheduledExecutorService(ApplicationRequest.name()).execute(
+                    new AsyncRequestTask((AsyncNetworkReqListener) listener, pendingAnswer));
+              }
+              catch (Exception exc) {
+                pendingAnswer.fail(exc);
+              }
+              isProcessed = true;
+            }
             else {
               try {
                 router.registerRequestRouteInfo(message);
                 answer = (IMessage) listener.processRequest(message);
                 if (isDuplicateProtection && answer != null) {
-                  peerTable.saveToDuplicate(message.getDuplicationKey(), answer);
+                  peerTable.saveToDuplicate(message, answer);
                 }
                 isProcessed = true;
                 if (isProcessed && answer != null) {
@@ -621,7 +682,7 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
                   sendMessage(answer);
                 }
                 if (statistic.isEnabled()) {
-                  statistic.getRecordByName(IStatisticRecord.Counters.AppGenResponse.name()).inc();
+                  statistic.getRecordByName(IStatisticRecord.Counters.AppGenResponse).inc();
                 }
               }
               catch (Exception exc) {
@@ -644,7 +705,7 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
       if (isProcessed) {
         // NOTE: done to inc stat which informs on net work request consumption :)...
         if (statistic.isEnabled()) {
-          statistic.getRecordByName(IStatisticRecord.Counters.NetGenRequest.name()).inc();
+          statistic.getRecordByName(IStatisticRecord.Counters.NetGenRequest).inc();
         }
       }
       return isProcessed;
@@ -659,4 +720,86 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
 
   }
 
+  /**
+   * Hands a network request to an asynchronous listener, on a thread of the ApplicationRequest entity.
+   */
+  protected class AsyncRequestTask implements Runnable {
+
+    private final AsyncNetworkReqListener listener;
+    private final PendingAnswerImpl answer;
+
+    public AsyncRequestTask(AsyncNetworkReqListener listener, PendingAnswerImpl answer) {
+      this.listener = listener;
+      this.answer = answer;
+    }
+
+    @Override
+    public void run() {
+      try {
+        listener.processRequest(answer.getRequest(), answer);
+      }
+      catch (Exception e) {
+        answer.fail(e);
+      }
+    }
+  }
+
+  /**
+   * Answer of a network request handed to an asynchronous listener, sent through the peer FSM once completed.
+   */
+  protected class PendingAnswerImpl implements PendingAnswer {
+
+    private final IMessage request;
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    public PendingAnswerImpl(IMessage request) {
+      this.request = request;
+    }
+
+    @Override
+    public Request getRequest() {
+      return (Request) request;
+    }
+
+    @Override
+    public boolean complete(Answer answer) {
+      if (!completed.compareAndSet(false, true)) {
+        return false;
+      }
+      IMessage message = (IMessage) answer;
+      try {
+        if (isDuplicateProtection) {
+          peerTable.saveToDuplicate(request, message);
+          // retransmissions are answered from the duplicate cache from now on
+          peerTable.endProcessing(request);
+        }
+        // we use the peer from the request to reply directly
+        message.setPeer(request.getPeer());
+        // stored already
+        PeerImpl.super.sendMessage(message);
+        if (statistic.isEnabled()) {
+          statistic.getRecordByName(IStatisticRecord.Counters.AppGenResponse).inc();
+        }
+      }
+      catch (Exception exc) {
+        logger.warn("Error during sending answer of listener", exc);
+        sendErrorAnswer(request, "Unable to process", ResultCode.UNABLE_TO_COMPLY);
+      }
+      return true;
+    }
+
+    @Override
+    public boolean fail(Throwable cause) {
+      if (!completed.compareAndSet(false, true)) {
+        return false;
+      }
+      logger.warn("Error during processing message by listener", cause);
+      if (isDuplicateProtection) {
+        peerTable.endProcessing(request);
+      }
+      sendErrorAnswer(request, "Unable to process", ResultCode.UNABLE_TO_COMPLY);
+      return true;
+    }
+  }
+
 }
@@ -42,18 +42,37 @@
 
 package org.jdiameter.server.impl.agent;
 
+import static org.jdiameter.client.impl.helpers.Parameters.MessageTimeOut;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.PeerState;
 import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.RouteException;
 import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.IEventListener;
+import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.IRequest;
+import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerTable;
 import org.jdiameter.client.api.controller.IRealm;
 import org.jdiameter.client.api.controller.IRealmTable;
+import org.jdiameter.server.api.agent.IAgentConfiguration;
 import org.jdiameter.server.api.agent.IProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- *
+ * Agent forwarding requests of proxy and relay realms to the peers of the realm. Only routing AVPs are read and
+ * only a Route-Record AVP is added, all other AVPs of the request and of its answer are passed on as received.
+ * When a peer does not answer in time the request is sent again to another peer of the realm, when no peer is
+ * left it is answered with DIAMETER_UNABLE_TO_DELIVER.
  *
  * @author babass
  */
@@ -79,7 +98,49 @@ public class ProxyAgentImpl extends AgentImpl implements IProxy {
    */
   @Override
   public Answer processRequest(IRequest request, IRealm matchedRealm) {
-    logger.info("proxy agent: processRequest executed");
+    IMessage message = (IMessage) request;
+    String destinationHost;
+    try {
+      // RFC 6733, 6.1.3, a loop is detected when the local identity is found in a Route-Record AVP
+      String localHost = container.getMetaData().getLocalPeer().getUri().getFQDN();
+      for (Avp routeRecord : message.getAvps().getAvps(Avp.ROUTE_RECORD)) {
+        if (localHost.equalsIgnoreCase(routeRecord.getDiameterIdentity())) {
+          logger.debug("Loop detected for request [{}], answering with 3005 (LOOP_DETECTED) Result-Code", message);
+          return createErrorAnswer(request, ResultCode.LOOP_DETECTED);
+        }
+      }
+      Avp destinationHostAvp = message.getAvps().getAvp(Avp.DESTINATION_HOST);
+      destinationHost = destinationHostAvp != null ? destinationHostAvp.getDiameterIdentity() : null;
+
+      // RFC 6733, 6.7.1, the identity of the peer the request was received from is added
+      IPeer origin = message.getPeer();
+      String routeRecord;
+      if (origin != null) {
+        routeRecord = origin.getUri().getFQDN();
+      }
+      else {
+        Avp originHostAvp = message.getAvps().getAvp(Avp.ORIGIN_HOST);
+        if (originHostAvp == null) {
+          logger.debug("Request [{}] has no Origin-Host, answering with 5005 (MISSING_AVP) Result-Code", message);
+          Answer answer = createErrorAnswer(request, ResultCode.MISSING_AVP);
+          answer.getAvps().addGroupedAvp(Avp.FAILED_AVP).addAvp(Avp.ORIGIN_HOST, new byte[0], true, false);
+          return answer;
+        }
+        routeRecord = originHostAvp.getDiameterIdentity();
+      }
+      message.getAvps().addAvp(Avp.ROUTE_RECORD, routeRecord, true, false, true);
+    }
+    catch (AvpDataException e) {
+      logger.debug("Unable to read routing AVPs of request [{}]", message, e);
+      Answer answer = createErrorAnswer(request, ResultCode.INVALID_AVP_VALUE);
+      if (e.getAvp() != null) {
+        answer.getAvps().addGroupedAvp(Avp.FAILED_AVP).addAvp(e.getAvp());
+      }
+      return answer;
+    }
+
+    new Forward(request, matchedRealm, destinationHost, getTimeout(matchedRealm)).start();
+    // answer is sent once received from the next hop
     return null;
   }
 
@@ -92,7 +153,8 @@ public class ProxyAgentImpl extends AgentImpl implements IProxy {
    */
   @Override
   public void receivedSuccessMessage(Request request, Answer answer) {
-    logger.info("proxy agent: receivedSuccessMessage");
+    // answers are received by the forwarding of each request
+    logger.debug("proxy agent: receivedSuccessMessage");
   }
 
   /*
@@ -103,7 +165,181 @@ public class ProxyAgentImpl extends AgentImpl implements IProxy {
    */
   @Override
   public void timeoutExpired(Request request) {
-    logger.info("proxy agent: timeoutExpired");
+    // timeouts are handled by the forwarding of each request
+    logger.debug("proxy agent: timeoutExpired");
+  }
+
+  private long getTimeout(IRealm realm) {
+    long timeout = container.getConfiguration().getLongValue(MessageTimeOut.ordinal(), (Long) MessageTimeOut.defValue());
+    IAgentConfiguration agentConfiguration = realm.getAgentConfiguration();
+    if (agentConfiguration != null) {
+      String value = agentConfiguration.getProperties().getProperty(TIMEOUT_PROPERTY);
+      if (value != null) {
+        try {
+          timeout = Long.parseLong(value);
+        }
+        catch (NumberFormatException e) {
+          logger.warn("Failed to parse configuration value of " + TIMEOUT_PROPERTY, e);
+        }
+      }
+    }
+    return timeout;
+  }
+
+  private Answer createErrorAnswer(IRequest request, int resultCode) {
+    Answer answer = request.createAnswer(resultCode);
+    // E-bit is only set for protocol errors
+    answer.setError(resultCode >= 3000 && resultCode < 4000);
+    answer.getAvps().removeAvp(Avp.ORIGIN_HOST);
+    answer.getAvps().removeAvp(Avp.ORIGIN_REALM);
+    answer.getAvps().addAvp(Avp.ORIGIN_HOST, container.getMetaData().getLocalPeer().getUri().getFQDN(), true, false, true);
+    answer.getAvps().addAvp(Avp.ORIGIN_REALM, container.getMetaData().getLocalPeer().getRealmName(), true, false, true);
+    return answer;
+  }
+
+  /**
+   * Forwarding of one request. The request received is sent on as it is, with its Hop-by-Hop identifier replaced
+   * by one of the peer it goes to, so that the AVPs it carries are not decoded nor encoded again. Its answer gets
+   * the original Hop-by-Hop identifier back and is sent to the peer the request was received from.
+   */
+  private final class Forward implements IEventListener {
+
+    private final IRequest request;
+    private final IMessage message;
+    private final IPeer origin;
+    private final long hopByHopId;
+    private final IRealm realm;
+    private final String destinationHost;
+    private final long timeout;
+
+    // peers the request was sent to, guarded by this
+    private final List<IPeer> triedPeers = new ArrayList<IPeer>(2);
+    private volatile boolean valid = true;
+
+    Forward(IRequest request, IRealm realm, String destinationHost, long timeout) {
+      this.request = request;
+      this.message = (IMessage) request;
+      this.origin = message.getPeer();
+      this.hopByHopId = message.getHopByHopIdentifier();
+      this.realm = realm;
+      this.destinationHost = destinationHost;
+      this.timeout = timeout;
+    }
+
+    synchronized void start() {
+      message.setListener(this);
+      // the request would otherwise be routed back to the peer it came from
+      message.setPeer(null);
+      message.setState(IMessage.STATE_NOT_SENT);
+      message.createTimer(container.getTimingWheel(), timeout, TimeUnit.MILLISECONDS);
+      try {
+        // first peer is selected by the router so that the configured balancing applies
+        container.sendMessage(message);
+        triedPeers.add(message.getPeer());
+        return;
+      }
+      catch (RouteException e) {
+        logger.debug("No route for request [{}] in realm [{}]", message, realm.getName());
+      }
+      catch (Exception e) {
+        logger.debug("Unable to forward request [{}]", message, e);
+        IPeer peer = message.getPeer();
+        if (peer != null) {
+          peer.remMessage(message);
+          triedPeers.add(peer);
+        }
+      }
+      message.clearTimer();
+      failover();
+    }
+
+    @Override
+    public void receivedSuccessMessage(Request r, Answer answer) {
+      synchronized (this) {
+        if (!valid) {
+          return;
+        }
+        valid = false;
+      }
+      relay((IMessage) answer);
+    }
+
+    @Override
+    public synchronized void timeoutExpired(Request r) {
+      if (valid) {
+        logger.debug("Request [{}] was not answered by peer [{}] in time", message, message.getPeer());
+        failover();
+      }
+    }
+
+    @Override
+    public void setValid(boolean value) {
+      valid = value;
+    }
+
+    @Override
+    public boolean isValid() {
+      return valid;
+    }
+
+    /**
+     * Sends the request again to the next available peer of the realm, answers it when none is left.
+     */
+    private void failover() {
+      IPeer peer;
+      while ((peer = nextPeer()) != null) {
+        triedPeers.add(peer);
+        message.setReTransmitted(true);
+        message.setHopByHopIdentifier(peer.getHopByHopIdentifier());
+        message.setPeer(peer);
+        message.setState(IMessage.STATE_NOT_SENT);
+        message.createTimer(container.getTimingWheel(), timeout, TimeUnit.MILLISECONDS);
+        peer.addMessage(message);
+        try {
+          if (peer.sendMessage(message)) {
+            return;
+          }
+        }
+        catch (Exception e) {
+          logger.debug("Unable to forward request [{}] to peer [{}]", new Object[] {message, peer, e});
+        }
+        peer.remMessage(message);
+        message.clearTimer();
+      }
+
+      logger.debug("No peer left to forward request [{}], answering with 3002 (UNABLE_TO_DELIVER) Result-Code", message);
+      valid = false;
+      relay((IMessage) createErrorAnswer(request, ResultCode.UNABLE_TO_DELIVER));
+    }
+
+    private IPeer nextPeer() {
+      IPeerTable peerTable = container.getAssemblerFacility().getComponentInstance(IPeerTable.class);
+      // request for a host which failed to answer is not sent to other hosts
+      if (destinationHost != null && triedPeers.contains(peerTable.getPeer(destinationHost))) {
+        return null;
+      }
+      String[] peerNames = realm.getPeerNames();
+      if (peerNames != null) {
+        for (String peerName : peerNames) {
+          IPeer peer = peerTable.getPeer(peerName);
+          if (peer != null && !triedPeers.contains(peer) && peer.getState(PeerState.class) == PeerState.OKAY && peer.hasValidConnection()) {
+            return peer;
+          }
+        }
+      }
+      return null;
+    }
+
+    private void relay(IMessage answer) {
+      answer.setHopByHopIdentifier(hopByHopId);
+      answer.setPeer(origin);
+      try {
+        container.sendMessage(answer);
+      }
+      catch (Exception e) {
+        logger.warn("Unable to send answer [{}] of forwarded request to peer [{}]", new Object[] {answer, origin, e});
+      }
+    }
   }
 
 }
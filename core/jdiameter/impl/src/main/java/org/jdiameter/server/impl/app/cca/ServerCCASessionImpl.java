@@ -152,6 +152,7 @@ public class ServerCCASessionImpl extends AppCCASessionImpl implements ServerCCA
   public boolean handleEvent(StateEvent event) throws InternalException, OverloadException {
     ServerCCASessionState newState = null;
 
+    beginDataBatch();
     try {
       sendAndStateLock.lock();
       ServerCCASessionState state = this.sessionData.getServerCCASessionState();
@@ -325,6 +326,7 @@ public class ServerCCASessionImpl extends AppCCASessionImpl implements ServerCCA
       throw new InternalException(e);
     }
     finally {
+      endDataBatch();
       sendAndStateLock.unlock();
     }
   }
@@ -148,6 +148,7 @@ public class ServerGxSessionImpl extends AppGxSessionImpl implements ServerGxSes
   public boolean handleEvent(StateEvent event) throws InternalException, OverloadException {
     ServerGxSessionState newState = null;
 
+    beginDataBatch();
     try {
       sendAndStateLock.lock();
 
@@ -308,6 +309,7 @@ public class ServerGxSessionImpl extends AppGxSessionImpl implements ServerGxSes
       throw new InternalException(e);
     }
     finally {
+      endDataBatch();
       sendAndStateLock.unlock();
     }
   }
@@ -152,6 +152,7 @@ public class ServerRoSessionImpl extends AppRoSessionImpl implements ServerRoSes
   public boolean handleEvent(StateEvent event) throws InternalException, OverloadException {
     ServerRoSessionState newState = null;
     ServerRoSessionState state = sessionData.getServerRoSessionState();
+    beginDataBatch();
     try {
       sendAndStateLock.lock();
 
@@ -319,6 +320,7 @@ public class ServerRoSessionImpl extends AppRoSessionImpl implements ServerRoSes
       throw new InternalException(e);
     }
     finally {
+      endDataBatch();
       sendAndStateLock.unlock();
     }
   }
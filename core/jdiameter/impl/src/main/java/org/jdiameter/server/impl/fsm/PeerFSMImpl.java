@@ -322,8 +322,7 @@ public class PeerFSMImpl extends org.jdiameter.client.impl.fsm.PeerFSMImpl imple
               //       it seems, if peer is not removed, it will linger
               //       without any way to process messages
               // if (context.isRestoreConnection()) {
-              //PCB added FSM multithread
-              mustRun = false;
+              stopQueueProcessing();
               // }
               context.removeStatistics();
             }
@@ -138,8 +138,17 @@ public class Parameters extends org.jdiameter.client.impl.helpers.Parameters {
 
   public static final Parameters RequestTableSize = new Parameters("RequestTableSize", Integer.class, new Integer(10240));
 
+  /**
+   *  RequestTableClearSize - no longer used, request routing entries expire instead of the table being cleared.
+   */
+  @Deprecated
   public static final Parameters RequestTableClearSize = new Parameters("RequestTableClearSize", Integer.class, new Integer(2048));
 
+  /**
+   *  RequestTableExpiry - time in milliseconds after which request routing entries are discarded.
+   */
+  public static final Parameters RequestTableExpiry = new Parameters("RequestTableExpiry", Long.class, 60 * 1000L);
+
   protected Parameters(String name, Class type) {
     super(name, type);
   }
@@ -70,20 +70,27 @@ import static org.jdiameter.client.impl.helpers.Parameters.Concurrent;
 import static org.jdiameter.client.impl.helpers.Parameters.ConcurrentEntityDescription;
 import static org.jdiameter.client.impl.helpers.Parameters.ConcurrentEntityName;
 import static org.jdiameter.client.impl.helpers.Parameters.ConcurrentEntityPoolSize;
+import static org.jdiameter.client.impl.helpers.Parameters.DeliveryThreadCount;
 import static org.jdiameter.client.impl.helpers.Parameters.Dictionary;
 import static org.jdiameter.client.impl.helpers.Parameters.DictionaryClass;
 import static org.jdiameter.client.impl.helpers.Parameters.DictionaryEnabled;
 import static org.jdiameter.client.impl.helpers.Parameters.DictionaryReceiveLevel;
 import static org.jdiameter.client.impl.helpers.Parameters.DictionarySendLevel;
+import static org.jdiameter.client.impl.helpers.Parameters.DispatchLaneCount;
 import static org.jdiameter.client.impl.helpers.Parameters.DpaTimeOut;
 import static org.jdiameter.client.impl.helpers.Parameters.DwaTimeOut;
+import static org.jdiameter.client.impl.helpers.Parameters.EventLoopThreadCount;
 import static org.jdiameter.client.impl.helpers.Parameters.IacTimeOut;
 import static org.jdiameter.client.impl.helpers.Parameters.KDFile;
 import static org.jdiameter.client.impl.helpers.Parameters.KDManager;
 import static org.jdiameter.client.impl.helpers.Parameters.KDPwd;
 import static org.jdiameter.client.impl.helpers.Parameters.KDStore;
 import static org.jdiameter.client.impl.helpers.Parameters.KeyData;
+import static org.jdiameter.client.impl.helpers.Parameters.LazyDecoding;
 import static org.jdiameter.client.impl.helpers.Parameters.MessageTimeOut;
+import static org.jdiameter.client.impl.helpers.Parameters.NativeTransport;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControl;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlMaxDelay;
 import static org.jdiameter.client.impl.helpers.Parameters.OwnDiameterURI;
 import static org.jdiameter.client.impl.helpers.Parameters.OwnFirmwareRevision;
 import static org.jdiameter.client.impl.helpers.Parameters.OwnIPAddress;
@@ -100,6 +107,7 @@ import static org.jdiameter.client.impl.helpers.Parameters.Properties;
 import static org.jdiameter.client.impl.helpers.Parameters.PropertyName;
 import static org.jdiameter.client.impl.helpers.Parameters.PropertyValue;
 import static org.jdiameter.client.impl.helpers.Parameters.QueueSize;
+import static org.jdiameter.client.impl.helpers.Parameters.ReactorThreadCount;
 import static org.jdiameter.client.impl.helpers.Parameters.RealmEntry;
 import static org.jdiameter.client.impl.helpers.Parameters.RealmTable;
 import static org.jdiameter.client.impl.helpers.Parameters.RecTimeOut;
@@ -109,6 +117,7 @@ import static org.jdiameter.client.impl.helpers.Parameters.SDProtocol;
 import static org.jdiameter.client.impl.helpers.Parameters.SDUseClientMode;
 import static org.jdiameter.client.impl.helpers.Parameters.Security;
 import static org.jdiameter.client.impl.helpers.Parameters.SecurityRef;
+import static org.jdiameter.client.impl.helpers.Parameters.SessionReplicationMode;
 import static org.jdiameter.client.impl.helpers.Parameters.SessionTimeOut;
 import static org.jdiameter.client.impl.helpers.Parameters.Statistics;
 import static org.jdiameter.client.impl.helpers.Parameters.StatisticsActiveList;
@@ -123,9 +132,13 @@ import static org.jdiameter.client.impl.helpers.Parameters.TDStore;
 import static org.jdiameter.client.impl.helpers.Parameters.ThreadPool;
 import static org.jdiameter.client.impl.helpers.Parameters.ThreadPoolPriority;
 import static org.jdiameter.client.impl.helpers.Parameters.ThreadPoolSize;
+import static org.jdiameter.client.impl.helpers.Parameters.TimerTickDuration;
 import static org.jdiameter.client.impl.helpers.Parameters.TrustData;
 import static org.jdiameter.client.impl.helpers.Parameters.UseUriAsFqdn;
 import static org.jdiameter.client.impl.helpers.Parameters.VendorId;
+import static org.jdiameter.client.impl.helpers.Parameters.WriteBatchSize;
+import static org.jdiameter.client.impl.helpers.Parameters.WriteFlushDelay;
+import static org.jdiameter.client.impl.helpers.Parameters.ZeroCopyDecoding;
 import static org.jdiameter.server.impl.helpers.ExtensionPoint.InternalNetWork;
 import static org.jdiameter.server.impl.helpers.ExtensionPoint.InternalNetworkGuard;
 import static org.jdiameter.server.impl.helpers.ExtensionPoint.InternalOverloadManager;
@@ -389,6 +402,45 @@ public class XMLConfiguration extends EmptyConfiguration {
       else if (nodeName.equals("RequestTable")) {
         addRequestTable(RequestTable, c.item(i));
       }
+      else if (nodeName.equals("ZeroCopyDecoding")) {
+        add(ZeroCopyDecoding, Boolean.valueOf(getValue(c.item(i))));
+      }
+      else if (nodeName.equals("LazyDecoding")) {
+        add(LazyDecoding, Boolean.valueOf(getValue(c.item(i))));
+      }
+      else if (nodeName.equals("EventLoopThreadCount")) {
+        add(EventLoopThreadCount, getIntValue(c.item(i)));
+      }
+      else if (nodeName.equals("NativeTransport")) {
+        add(NativeTransport, Boolean.valueOf(getValue(c.item(i))));
+      }
+      else if (nodeName.equals("ReactorThreadCount")) {
+        add(ReactorThreadCount, getIntValue(c.item(i)));
+      }
+      else if (nodeName.equals("DeliveryThreadCount")) {
+        add(DeliveryThreadCount, getIntValue(c.item(i)));
+      }
+      else if (nodeName.equals("WriteBatchSize")) {
+        add(WriteBatchSize, getIntValue(c.item(i)));
+      }
+      else if (nodeName.equals("WriteFlushDelay")) {
+        add(WriteFlushDelay, getLongValue(c.item(i)));
+      }
+      else if (nodeName.equals("TimerTickDuration")) {
+        add(TimerTickDuration, getLongValue(c.item(i)));
+      }
+      else if (nodeName.equals("DispatchLaneCount")) {
+        add(DispatchLaneCount, getIntValue(c.item(i)));
+      }
+      else if (nodeName.equals("OverloadControl")) {
+        add(OverloadControl, Boolean.valueOf(getValue(c.item(i))));
+      }
+      else if (nodeName.equals("OverloadControlMaxDelay")) {
+        add(OverloadControlMaxDelay, getLongValue(c.item(i)));
+      }
+      else if (nodeName.equals("SessionReplicationMode")) {
+        add(SessionReplicationMode, getValue(c.item(i)));
+      }
       else {
         appendOtherParameter(c.item(i));
       }
@@ -507,10 +559,10 @@ public class XMLConfiguration extends EmptyConfiguration {
       tableConfiguration.add(Parameters.RequestTableSize, Integer.parseInt(size));
     }
 
-    param = node.getAttributes().getNamedItem("clear_size");
+    param = node.getAttributes().getNamedItem("expiry");
     if (param != null) {
-      String size = param.getNodeValue();
-      tableConfiguration.add(Parameters.RequestTableClearSize,  Integer.parseInt(size));
+      String expiry = param.getNodeValue();
+      tableConfiguration.add(Parameters.RequestTableExpiry, Long.parseLong(expiry));
     }
 
     add(name, tableConfiguration);
@@ -62,6 +62,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.jdiameter.api.Configuration;
+import org.jdiameter.client.api.io.IConnection;
 import org.jdiameter.client.api.parser.IMessageParser;
 import org.jdiameter.client.impl.transport.tcp.TCPClientConnection;
 import org.jdiameter.common.api.concurrent.DummyConcurrentFactory;
@@ -84,6 +86,7 @@ public class NetworkGuard implements INetworkGuard {
 
   protected IMessageParser parser;
   protected IConcurrentFactory concurrentFactory;
+  protected Configuration config;
   protected int port;
   protected long bindDelay;
   protected CopyOnWriteArrayList<INetworkConnectionListener> listeners = new CopyOnWriteArrayList<INetworkConnectionListener>();
@@ -114,7 +117,8 @@ public class NetworkGuard implements INetworkGuard {
     this.parser = parser;
     this.concurrentFactory = concurrentFactory == null ? new DummyConcurrentFactory() : concurrentFactory;
     //this.thread = this.concurrentFactory.getThread("NetworkGuard", this);
-    this.bindDelay = data.getConfiguration().getLongValue(BindDelay.ordinal(), (Long) BindDelay.defValue());
+    this.config = data.getConfiguration();
+    this.bindDelay = config.getLongValue(BindDelay.ordinal(), (Long) BindDelay.defValue());
 
     try {
       for (int addrIdx = 0; addrIdx < inetAddress.length; addrIdx++) {
@@ -163,6 +167,17 @@ public class NetworkGuard implements INetworkGuard {
     }
   }
 
+  /**
+   * Creates connection over accepted socket.
+   *
+   * @param socket accepted socket
+   * @return started connection
+   * @throws Exception if connection can not be created
+   */
+  protected IConnection createConnection(Socket socket) throws Exception {
+    return new TCPClientConnection(config, concurrentFactory, socket, parser, null);
+  }
+
   private class GuardTask implements Runnable {
     private Thread thread;
     private Selector selector;
@@ -222,8 +237,7 @@ public class NetworkGuard implements INetworkGuard {
                 try {
                   Socket s = serverSocket.accept();
                   logger.info("Open incomming connection {}", s);
-                  TCPClientConnection client = new TCPClientConnection(null, concurrentFactory, s, parser,
-                      null);
+                  IConnection client = createConnection(s);
                   // PCB added logging
                   logger.debug("Finished initialising TCPClientConnection for {}", s);
                   for (INetworkConnectionListener listener : listeners) {
@@ -29,7 +29,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.jdiameter.api.Configuration;
 import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.impl.transport.SharedEventLoopGroup;
 import org.jdiameter.client.impl.transport.tcp.netty.TCPClientConnection;
 import org.jdiameter.common.api.concurrent.IConcurrentFactory;
 import org.jdiameter.server.api.IMetaData;
@@ -39,15 +41,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
 
 /**
  * TCP implementation of {@link org.jdiameter.server.api.io.INetworkGuard}.
@@ -60,13 +64,17 @@ public class NetworkGuard implements INetworkGuard {
   protected CopyOnWriteArrayList<INetworkConnectionListener> listeners = new CopyOnWriteArrayList<INetworkConnectionListener>();
 
   protected IMessageParser parser;
+  protected Configuration config;
   protected int port;
   protected InetAddress[] localAddresses;
   protected long bindDelay;
 
-  protected final EventLoopGroup bossGroup = new NioEventLoopGroup();
-  protected final EventLoopGroup workerGroup = new NioEventLoopGroup();
+  // accepts connections and serves them, shared with other connections of the stack
+  protected volatile SharedEventLoopGroup eventLoops;
   protected List<Channel> channels = new CopyOnWriteArrayList<Channel>();
+  // accepted connections, closed on destroy as the event loops outlive this guard
+  protected final ChannelGroup acceptedChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+  protected volatile boolean destroyed;
 
   protected final ScheduledExecutorService binderExecutor = Executors.newSingleThreadScheduledExecutor();
 
@@ -83,15 +91,22 @@ public class NetworkGuard implements INetworkGuard {
   }
 
   private void bind(InetSocketAddress localAddress) {
+    SharedEventLoopGroup eventLoops = this.eventLoops;
+    if (eventLoops == null) {
+      logger.debug("Network guard is destroyed, not binding to socket [{}]", localAddress);
+      return;
+    }
     logger.debug("Binding to socket [{}]", localAddress);
+    final EventExecutorGroup executors = eventLoops.getEventExecutorGroup();
     ServerBootstrap bootstrap = new ServerBootstrap();
-    bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+    bootstrap.group(eventLoops.getEventLoopGroup()).channel(eventLoops.getServerSocketChannelClass())
         .childHandler(new ChannelInitializer<SocketChannel>() {
           @Override
           public void initChannel(SocketChannel ch) throws Exception {
-            ch.pipeline().addLast(new ClientHandler());
+            ch.pipeline().addLast(new ClientHandler(executors));
           }
-        }).option(ChannelOption.SO_BACKLOG, 128).childOption(ChannelOption.SO_KEEPALIVE, true);
+        }).option(ChannelOption.SO_BACKLOG, 128).childOption(ChannelOption.SO_KEEPALIVE, true)
+        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
 
     try {
       channels.add(bootstrap.bind(localAddress).sync().channel());
@@ -109,11 +124,23 @@ public class NetworkGuard implements INetworkGuard {
   }
 
   public class ClientHandler extends ChannelInboundHandlerAdapter {
+    private final EventExecutorGroup executors;
+
+    public ClientHandler(EventExecutorGroup executors) {
+      this.executors = executors;
+    }
+
     @Override
     public void channelActive(final ChannelHandlerContext ctx) {
       logger.debug("Received connection on socket [{}] from [{}]", ctx.channel().localAddress(), ctx.channel().remoteAddress());
 
-      TCPClientConnection client = new TCPClientConnection(ctx.channel(), parser);
+      acceptedChannels.add(ctx.channel());
+      if (destroyed) {
+        logger.debug("Network guard is destroyed, closing connection from [{}]", ctx.channel().remoteAddress());
+        ctx.channel().close();
+        return;
+      }
+      TCPClientConnection client = new TCPClientConnection(config, ctx.channel(), parser, executors);
       for (INetworkConnectionListener listener : listeners) {
         listener.newNetworkConnection(client);
       }
@@ -138,9 +165,11 @@ public class NetworkGuard implements INetworkGuard {
   public NetworkGuard(InetAddress[] inetAddress, int port, IConcurrentFactory concurrentFactory, IMessageParser parser,
       IMetaData data) throws Exception {
     this.parser = parser;
+    this.config = data.getConfiguration();
     this.localAddresses = inetAddress;
     this.port = port;
-    this.bindDelay = data.getConfiguration().getLongValue(BindDelay.ordinal(), (Long) BindDelay.defValue());
+    this.bindDelay = config.getLongValue(BindDelay.ordinal(), (Long) BindDelay.defValue());
+    this.eventLoops = SharedEventLoopGroup.acquire(config);
     this.binderExecutor.schedule(binderTask, bindDelay, TimeUnit.MILLISECONDS);
   }
 
@@ -161,23 +190,23 @@ public class NetworkGuard implements INetworkGuard {
 
   public void destroy() {
     logger.debug("Destroying network guard");
-    closeChannels();
-    closeWorkerGroup();
-    closeBossGroup();
+    destroyed = true;
     binderExecutor.shutdown();
+    closeChannels();
+    closeAcceptedChannels();
+    releaseEventLoops();
   }
 
-  private void closeWorkerGroup() {
-    try {
-      workerGroup.shutdownGracefully().sync();
-    } catch (InterruptedException e) {
-      logger.error(e.getMessage(), e);
+  private synchronized void releaseEventLoops() {
+    if (eventLoops != null) {
+      eventLoops.release();
+      eventLoops = null;
     }
   }
 
-  private void closeBossGroup() {
+  private void closeAcceptedChannels() {
     try {
-      bossGroup.shutdownGracefully().sync();
+      acceptedChannels.close().sync();
     } catch (InterruptedException e) {
       logger.error(e.getMessage(), e);
     }
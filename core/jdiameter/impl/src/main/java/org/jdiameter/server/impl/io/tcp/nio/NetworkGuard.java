@@ -0,0 +1,51 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.server.impl.io.tcp.nio;
+
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.jdiameter.client.api.io.IConnection;
+import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.impl.transport.tcp.nio.TCPClientConnection;
+import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.jdiameter.server.api.IMetaData;
+
+/**
+ * TCP implementation of {@link org.jdiameter.server.api.io.INetworkGuard} handing accepted sockets over to the
+ * shared reactor threads, see {@link TCPClientConnection}.
+ */
+public class NetworkGuard extends org.jdiameter.server.impl.io.tcp.NetworkGuard {
+
+  public NetworkGuard(InetAddress inetAddress, int port, IConcurrentFactory concurrentFactory, IMessageParser parser,
+      IMetaData data) throws Exception {
+    super(inetAddress, port, concurrentFactory, parser, data);
+  }
+
+  public NetworkGuard(InetAddress[] inetAddress, int port, IConcurrentFactory concurrentFactory, IMessageParser parser,
+      IMetaData data) throws Exception {
+    super(inetAddress, port, concurrentFactory, parser, data);
+  }
+
+  @Override
+  protected IConnection createConnection(Socket socket) throws Exception {
+    return new TCPClientConnection(config, concurrentFactory, socket, parser, null);
+  }
+}
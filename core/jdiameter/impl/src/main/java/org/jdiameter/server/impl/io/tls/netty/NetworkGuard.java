@@ -31,6 +31,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.jdiameter.api.Configuration;
 import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.impl.transport.SharedEventLoopGroup;
 import org.jdiameter.client.impl.transport.tls.TLSUtils;
 import org.jdiameter.client.impl.transport.tls.netty.TLSClientConnection;
 import org.jdiameter.common.api.concurrent.DummyConcurrentFactory;
@@ -43,15 +44,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 
 /**
  *
@@ -65,12 +64,13 @@ public class NetworkGuard implements INetworkGuard {
   protected IMessageParser parser;
   protected int port;
   protected InetAddress[] localAddresses;
+  private Configuration config;
   private Configuration localPeerSSLConfig;
   private IConcurrentFactory concurrentFactory;
   protected long bindDelay;
 
-  protected final EventLoopGroup bossGroup = new NioEventLoopGroup();
-  protected final EventLoopGroup workerGroup = new NioEventLoopGroup();
+  // accepts connections and serves them, shared with other connections of the stack
+  protected volatile SharedEventLoopGroup eventLoops;
   protected List<Channel> channels = new CopyOnWriteArrayList<Channel>();
 
   protected final ScheduledExecutorService binderExecutor = Executors.newSingleThreadScheduledExecutor();
@@ -88,15 +88,21 @@ public class NetworkGuard implements INetworkGuard {
   }
 
   private void bind(InetSocketAddress localAddress) {
+    SharedEventLoopGroup eventLoops = this.eventLoops;
+    if (eventLoops == null) {
+      logger.debug("Network guard is destroyed, not binding to socket [{}]", localAddress);
+      return;
+    }
     logger.debug("Binding to socket [{}]", localAddress);
     ServerBootstrap bootstrap = new ServerBootstrap();
-    bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+    bootstrap.group(eventLoops.getEventLoopGroup()).channel(eventLoops.getServerSocketChannelClass())
         .childHandler(new ChannelInitializer<SocketChannel>() {
           @Override
           public void initChannel(SocketChannel ch) throws Exception {
             ch.pipeline().addLast(new ClientHandler());
           }
-        }).option(ChannelOption.SO_BACKLOG, 128).childOption(ChannelOption.SO_KEEPALIVE, true);
+        }).option(ChannelOption.SO_BACKLOG, 128).childOption(ChannelOption.SO_KEEPALIVE, true)
+        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
 
     try {
       channels.add(bootstrap.bind(localAddress).sync().channel());
@@ -111,7 +117,7 @@ public class NetworkGuard implements INetworkGuard {
     public void channelActive(final ChannelHandlerContext ctx) throws Exception {
       logger.debug("Received connection on socket [{}] from [{}]", ctx.channel().localAddress(), ctx.channel().remoteAddress());
 
-      TLSClientConnection client = new TLSClientConnection(null, NetworkGuard.this.localPeerSSLConfig,
+      TLSClientConnection client = new TLSClientConnection(NetworkGuard.this.config, NetworkGuard.this.localPeerSSLConfig,
           NetworkGuard.this.concurrentFactory, parser, ctx.channel());
 
       for (INetworkConnectionListener listener : listeners) {
@@ -143,6 +149,7 @@ public class NetworkGuard implements INetworkGuard {
     this.concurrentFactory = concurrentFactory == null ? new DummyConcurrentFactory() : concurrentFactory;
     // extract sec_ref from local peer;
     Configuration conf = data.getConfiguration();
+    this.config = conf;
 
     if (!conf.isAttributeExist(Parameters.SecurityRef.ordinal())) {
       throw new IllegalArgumentException("No security_ref attribute present in local peer!");
@@ -158,6 +165,7 @@ public class NetworkGuard implements INetworkGuard {
     }
 
     this.bindDelay = data.getConfiguration().getLongValue(BindDelay.ordinal(), (Long) BindDelay.defValue());
+    this.eventLoops = SharedEventLoopGroup.acquire(data.getConfiguration());
     this.binderExecutor.schedule(binderTask, bindDelay, TimeUnit.MILLISECONDS);
   }
 
@@ -178,25 +186,15 @@ public class NetworkGuard implements INetworkGuard {
 
   public void destroy() {
     logger.debug("Destroying network guard");
-    closeChannels();
-    closeWorkerGroup();
-    closeBossGroup();
     binderExecutor.shutdown();
+    closeChannels();
+    releaseEventLoops();
   }
 
-  private void closeWorkerGroup() {
-    try {
-      workerGroup.shutdownGracefully().sync();
-    } catch (InterruptedException e) {
-      logger.error(e.getMessage(), e);
-    }
-  }
-
-  private void closeBossGroup() {
-    try {
-      bossGroup.shutdownGracefully().sync();
-    } catch (InterruptedException e) {
-      logger.error(e.getMessage(), e);
+  private synchronized void releaseEventLoops() {
+    if (eventLoops != null) {
+      eventLoops.release();
+      eventLoops = null;
     }
   }
 
@@ -25,6 +25,7 @@ import org.jdiameter.client.api.IAnswer;
 import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.IRequest;
 import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerLoad;
 import org.jdiameter.client.api.controller.IRealmTable;
 import org.jdiameter.client.api.fsm.EventTypes;
 import org.jdiameter.client.api.io.IConnectionListener;
@@ -241,6 +242,68 @@ public class TestRouter {
         assertEquals(p1.toString(), router.selectPeer(peers).toString());
         assertEquals(p1.toString(), router.selectPeer(peers).toString());
 
+        // peers without weight are skipped
+        p3.setRating(0);
+        peers.add(0, p3);
+        assertEquals(p1.toString(), router.selectPeer(peers).toString());
+        assertEquals(p1.toString(), router.selectPeer(peers).toString());
+
+    }
+
+    @Test
+    public void testLoadAware() throws Exception {
+
+        Configuration config = new XMLConfiguration("src/test/resources/jdiameter-weightedroundrobin-config.xml");
+        LoadAwareRouter router = new LoadAwareRouter(new RealmTableTest(), config);
+
+        IStatisticManager manager = new StatisticManagerImpl(config);
+        LoadPeerTest p1 = new LoadPeerTest(1, 1, true, manager);
+        LoadPeerTest p2 = new LoadPeerTest(2, 1, true, manager);
+        LoadPeerTest p3 = new LoadPeerTest(3, 1, true, manager);
+
+        List<IPeer> peers = new ArrayList<IPeer>(2);
+        peers.add(p1);
+        peers.add(p2);
+
+        // faster peer is preferred
+        p1.answerLatency = 1000000;
+        p2.answerLatency = 10000000;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(p1.toString(), router.selectPeer(peers).toString());
+        }
+
+        // backlog of the faster peer outweighs its latency
+        p1.pendingRequests = 20;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(p2.toString(), router.selectPeer(peers).toString());
+        }
+
+        // weight compensates the backlog
+        p1.setRating(3);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(p1.toString(), router.selectPeer(peers).toString());
+        }
+
+        // peer without answer yet is judged on the latency of the peer it is compared with
+        p3.pendingRequests = 1;
+        peers.clear();
+        peers.add(p1);
+        peers.add(p3);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(p3.toString(), router.selectPeer(peers).toString());
+        }
+        p3.pendingRequests = 10;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(p1.toString(), router.selectPeer(peers).toString());
+        }
+
+        // peer whose requests time out is avoided although it has no pending requests
+        p3.pendingRequests = 0;
+        p3.requestTimedOut(null);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(p1.toString(), router.selectPeer(peers).toString());
+        }
+
     }
 
     private static class RealmTableTest implements IRealmTable {
@@ -451,4 +514,25 @@ public class TestRouter {
         }
     }
 
+    private static class LoadPeerTest extends PeerTest implements IPeerLoad {
+
+        private int pendingRequests;
+        private long answerLatency;
+
+        public LoadPeerTest(int id, int rating, boolean connected, IStatisticManager manager) throws URISyntaxException, UnknownServiceException {
+            super(id, rating, connected, manager);
+        }
+
+        public int getPendingRequestCount() {
+            return pendingRequests;
+        }
+
+        public long getAnswerLatency() {
+            return answerLatency;
+        }
+
+        public void requestTimedOut(IMessage request) {
+            answerLatency = Math.max(answerLatency, 30000000000L);
+        }
+    }
 }
\ No newline at end of file
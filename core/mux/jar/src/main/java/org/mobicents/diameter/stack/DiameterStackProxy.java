@@ -64,6 +64,7 @@ import org.jdiameter.client.api.IContainer;
 import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.StackState;
 import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.jdiameter.common.impl.timer.TimingWheel;
 
 public class DiameterStackProxy implements Stack, IContainer {
 
@@ -154,6 +155,11 @@ public class DiameterStackProxy implements Stack, IContainer {
     return ((IContainer) realStack).getScheduledFacility();
   }
 
+  @Override
+  public TimingWheel getTimingWheel() {
+    return ((IContainer) realStack).getTimingWheel();
+  }
+
   @Override
   public StackState getState() {
     return ((IContainer) realStack).getState();
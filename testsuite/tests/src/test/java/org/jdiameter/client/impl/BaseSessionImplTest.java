@@ -0,0 +1,199 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.EventListener;
+import org.jdiameter.api.Request;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.junit.Test;
+
+/**
+ * Tests the futures returned by session sends.
+ */
+public class BaseSessionImplTest {
+
+  private final IMessage request = new MessageParser().createEmptyMessage(272, 4);
+  private final IMessage answer = new MessageParser().createEmptyMessage(272, 4);
+
+  @Test
+  public void testAnswerCompletesFuture() throws Exception {
+    BaseSessionImpl.MyFuture future = new BaseSessionImpl.MyFuture(true);
+    assertFalse(future.isDone());
+    future.receivedSuccessMessage(request, answer);
+    assertTrue(future.isDone());
+    assertFalse(future.isCancelled());
+    assertSame(answer, future.get());
+    assertSame(answer, future.get(1, TimeUnit.MILLISECONDS));
+    assertFalse(future.cancel(false));
+  }
+
+  @Test
+  public void testElapsedWaitThrowsForAsyncSend() throws Exception {
+    BaseSessionImpl.MyFuture future = new BaseSessionImpl.MyFuture(true);
+    try {
+      future.get(10, TimeUnit.MILLISECONDS);
+      fail("Wait elapsed before the answer");
+    }
+    catch (TimeoutException e) {
+      // expected
+    }
+    assertFalse(future.isDone());
+  }
+
+  @Test
+  public void testElapsedWaitReturnsNullForSend() throws Exception {
+    BaseSessionImpl.MyFuture future = new BaseSessionImpl.MyFuture(false);
+    assertNull(future.get(10, TimeUnit.MILLISECONDS));
+    assertFalse(future.isDone());
+  }
+
+  @Test
+  public void testRequestTimeout() throws Exception {
+    for (boolean async : new boolean[] {true, false}) {
+      BaseSessionImpl.MyFuture future = new BaseSessionImpl.MyFuture(async);
+      future.timeoutExpired(request);
+      assertTrue(future.isDone());
+      assertNull(future.get());
+      try {
+        future.get(1, TimeUnit.MILLISECONDS);
+        fail("Request timed out");
+      }
+      catch (TimeoutException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    BaseSessionImpl.MyFuture future = new BaseSessionImpl.MyFuture(true);
+    RecordingListener listener = new RecordingListener();
+    future.addListener(listener);
+    assertTrue(future.cancel(false));
+    assertTrue(future.isCancelled());
+    assertTrue(future.isDone());
+    assertNull(future.get());
+    // the late answer is ignored
+    future.receivedSuccessMessage(request, answer);
+    assertNull(future.get(1, TimeUnit.MILLISECONDS));
+    assertTrue(listener.events.isEmpty());
+  }
+
+  @Test
+  public void testListenersNotifiedOnAnswer() throws Exception {
+    BaseSessionImpl.MyFuture future = new BaseSessionImpl.MyFuture(true);
+    RecordingListener first = new RecordingListener();
+    RecordingListener second = new RecordingListener();
+    future.addListener(first);
+    future.addListener(second);
+    assertTrue(first.events.isEmpty());
+    future.receivedSuccessMessage(request, answer);
+    assertEquals(1, first.events.size());
+    assertSame(answer, first.events.get(0));
+    assertEquals(1, second.events.size());
+    assertSame(request, second.request);
+  }
+
+  @Test
+  public void testListenerAddedAfterCompletion() throws Exception {
+    BaseSessionImpl.MyFuture future = new BaseSessionImpl.MyFuture(true);
+    future.timeoutExpired(request);
+    RecordingListener listener = new RecordingListener();
+    future.addListener(listener);
+    assertEquals(1, listener.events.size());
+    assertEquals("timeout", listener.events.get(0));
+  }
+
+  @Test
+  public void testFailingListenerDoesNotStopOthers() throws Exception {
+    BaseSessionImpl.MyFuture future = new BaseSessionImpl.MyFuture(true);
+    future.addListener(new EventListener<Request, Answer>() {
+      @Override
+      public void receivedSuccessMessage(Request r, Answer a) {
+        throw new IllegalStateException("listener failure");
+      }
+
+      @Override
+      public void timeoutExpired(Request r) {
+      }
+    });
+    RecordingListener listener = new RecordingListener();
+    future.addListener(listener);
+    future.receivedSuccessMessage(request, answer);
+    assertEquals(1, listener.events.size());
+    assertSame(answer, future.get());
+  }
+
+  @Test
+  public void testGetWakesUpOnAnswer() throws Exception {
+    final BaseSessionImpl.MyFuture future = new BaseSessionImpl.MyFuture(true);
+    final CountDownLatch waiting = new CountDownLatch(1);
+    Thread answering = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          waiting.await();
+          Thread.sleep(20);
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        future.receivedSuccessMessage(request, answer);
+      }
+    });
+    answering.start();
+    waiting.countDown();
+    assertSame(answer, future.get(5, TimeUnit.SECONDS));
+    answering.join();
+  }
+
+  private static class RecordingListener implements EventListener<Request, Answer> {
+
+    private final List<Object> events = new ArrayList<Object>();
+    private Request request;
+
+    @Override
+    public void receivedSuccessMessage(Request r, Answer a) {
+      request = r;
+      events.add(a);
+    }
+
+    @Override
+    public void timeoutExpired(Request r) {
+      request = r;
+      events.add("timeout");
+    }
+  }
+}
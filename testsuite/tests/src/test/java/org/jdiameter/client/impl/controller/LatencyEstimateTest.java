@@ -0,0 +1,91 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests the answer latency average of peers.
+ */
+public class LatencyEstimateTest {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final LatencyEstimate estimate = new LatencyEstimate();
+  private final long start = System.nanoTime();
+
+  @Test
+  public void testNoSample() {
+    assertEquals(0, estimate.get(start));
+  }
+
+  @Test
+  public void testHigherSampleReplacesAverage() {
+    estimate.update(2 * MS, start);
+    assertEquals(2 * MS, estimate.get(start));
+    estimate.update(50 * MS, start + 1);
+    assertEquals(50 * MS, estimate.get(start + 1));
+  }
+
+  @Test
+  public void testLowerSamplesPullAverageDown() {
+    estimate.update(100 * MS, start);
+    // right after the slow answer a fast one barely counts
+    estimate.update(MS, start + MS);
+    assertTrue(estimate.get(start + MS) > 95 * MS);
+    long now = start + MS;
+    for (int i = 0; i < 100; i++) {
+      now += 50 * MS;
+      estimate.update(MS, now);
+    }
+    long value = estimate.get(now);
+    assertTrue("Average is " + value, value >= MS && value < 2 * MS);
+  }
+
+  @Test
+  public void testSlowPeerRecoversWithoutTraffic() {
+    estimate.update(5000 * MS, start);
+    long decay = (long) LatencyEstimate.DECAY;
+    assertEquals(5000 * MS, estimate.get(start));
+    // halved after decay * ln(2)
+    long halved = estimate.get(start + (long) (decay * Math.log(2)));
+    assertTrue("Average is " + halved, Math.abs(halved - 2500 * MS) < MS);
+    // back under a millisecond after a few seconds
+    assertTrue(estimate.get(start + TimeUnit.SECONDS.toNanos(5)) < MS);
+    // a new sample is compared with the decayed average
+    long later = start + TimeUnit.SECONDS.toNanos(5);
+    estimate.update(3 * MS, later);
+    assertEquals(3 * MS, estimate.get(later));
+  }
+
+  @Test
+  public void testTimeoutCountsAsSlowAnswer() {
+    estimate.update(MS, start);
+    // request timed out after 30 seconds
+    long timeout = TimeUnit.SECONDS.toNanos(30);
+    estimate.update(timeout, start + 10 * MS);
+    assertEquals(timeout, estimate.get(start + 10 * MS));
+  }
+}
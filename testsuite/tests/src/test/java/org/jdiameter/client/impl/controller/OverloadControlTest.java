@@ -0,0 +1,225 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.junit.Test;
+
+/**
+ * Tests reporting and reacting to overload reports of DOIC.
+ */
+public class OverloadControlTest {
+
+  private static final String SERVER = "server.example.org";
+  private static final String REALM = "example.org";
+  private static final int HOST = OverloadControl.HOST_REPORT;
+  private static final int REALM_TYPE = OverloadControl.REALM_REPORT;
+
+  private final MessageParser parser = new MessageParser();
+  private final OverloadControl control = new OverloadControl(1000);
+  private final OverloadControl.Reporter reporter = new OverloadControl.Reporter();
+  private long hopByHop;
+
+  private IMessage request(boolean supportsDoic) {
+    IMessage request = parser.createEmptyMessage(272, 4);
+    request.setRequest(true);
+    request.setHopByHopIdentifier(++hopByHop);
+    if (supportsDoic) {
+      control.addSupportedFeatures(request);
+    }
+    return request;
+  }
+
+  private IMessage answer(IMessage request) {
+    IMessage answer = parser.createEmptyMessage(request);
+    answer.setRequest(false);
+    answer.setHopByHopIdentifier(request.getHopByHopIdentifier());
+    answer.getAvps().addAvp(Avp.ORIGIN_HOST, SERVER, true, false, true);
+    answer.getAvps().addAvp(Avp.ORIGIN_REALM, REALM, true, false, true);
+    return answer;
+  }
+
+  /**
+   * Builds the answer to a request as the peer connection does.
+   */
+  private IMessage send(IMessage request, double queueFill) {
+    IMessage answer = answer(request);
+    if (reporter.answerSent(answer)) {
+      control.addReport(answer, reporter, queueFill, 0);
+    }
+    return answer;
+  }
+
+  private static Long reduction(IMessage answer) throws AvpDataException {
+    Avp olr = answer.getAvps().getAvp(Avp.OC_OLR);
+    if (olr == null) {
+      return null;
+    }
+    return olr.getGrouped().getAvp(Avp.OC_REDUCTION_PERCENTAGE).getUnsigned32();
+  }
+
+  @Test
+  public void testSupportedFeaturesAddedOnce() {
+    IMessage request = request(true);
+    control.addSupportedFeatures(request);
+    assertEquals(1, request.getAvps().getAvps(Avp.OC_SUPPORTED_FEATURES).size());
+  }
+
+  @Test
+  public void testOnlyAnswersToDoicRequestsAreReported() throws AvpDataException {
+    IMessage doic = request(true);
+    IMessage plain = request(false);
+    reporter.requestReceived(doic);
+    reporter.requestReceived(plain);
+
+    IMessage answer = send(plain, 1);
+    assertNull(answer.getAvps().getAvp(Avp.OC_SUPPORTED_FEATURES));
+    assertNull(reduction(answer));
+
+    answer = send(doic, 1);
+    assertNotNull(answer.getAvps().getAvp(Avp.OC_SUPPORTED_FEATURES));
+    assertEquals(Long.valueOf(90), reduction(answer));
+
+    // request is forgotten once answered
+    answer = send(doic, 1);
+    assertNull(answer.getAvps().getAvp(Avp.OC_SUPPORTED_FEATURES));
+  }
+
+  @Test
+  public void testRelayedAnswersAreNotReported() {
+    IMessage request = request(true);
+    reporter.requestReceived(request);
+    reporter.requestRelayed(request);
+    assertNull(send(request, 1).getAvps().getAvp(Avp.OC_SUPPORTED_FEATURES));
+  }
+
+  @Test
+  public void testRequestsForgottenWhenConnectionIsClosed() {
+    IMessage request = request(true);
+    reporter.requestReceived(request);
+    reporter.clear();
+    assertNull(send(request, 1).getAvps().getAvp(Avp.OC_SUPPORTED_FEATURES));
+  }
+
+  @Test
+  public void testAnswerOfUpstreamNodeIsLeftAsIs() throws AvpDataException {
+    IMessage request = request(true);
+    reporter.requestReceived(request);
+    IMessage answer = answer(request);
+    control.addSupportedFeatures(answer);
+    assertTrue(reporter.answerSent(answer));
+    control.addReport(answer, reporter, 1, 0);
+    assertNull(reduction(answer));
+  }
+
+  @Test
+  public void testReductionFollowsLoad() throws AvpDataException {
+    // below half of the capacity nothing is asked for
+    assertNull(reduction(reported(0.3, 0)));
+    assertEquals(Long.valueOf(10), reduction(reported(0.54, 0)));
+    assertEquals(Long.valueOf(50), reduction(reported(0.75, 0)));
+    // waiting time counts as much as queue fill
+    assertEquals(Long.valueOf(90), reduction(reported(0, 1000)));
+    // end of the overload is reported while the previous report may apply
+    assertEquals(Long.valueOf(0), reduction(reported(0.1, 0)));
+    assertEquals(Long.valueOf(0), reduction(reported(0.1, 0)));
+  }
+
+  @Test
+  public void testSequenceChangesWithReduction() throws AvpDataException {
+    long first = sequence(reported(0.8, 0));
+    assertEquals(first, sequence(reported(0.8, 0)));
+    long second = sequence(reported(1, 0));
+    assertTrue(second > first);
+  }
+
+  private IMessage reported(double queueFill, long queueDelay) {
+    IMessage request = request(true);
+    reporter.requestReceived(request);
+    IMessage answer = answer(request);
+    assertTrue(reporter.answerSent(answer));
+    control.addReport(answer, reporter, queueFill, queueDelay);
+    return answer;
+  }
+
+  private static long sequence(IMessage answer) throws AvpDataException {
+    return answer.getAvps().getAvp(Avp.OC_OLR).getGrouped().getAvp(Avp.OC_SEQUENCE_NUMBER).getUnsigned64();
+  }
+
+  @Test
+  public void testHostReportThrottlesRequests() {
+    IMessage request = request(false);
+    assertFalse(control.isThrottled(request, SERVER));
+    // full reduction drops every request to the host
+    control.receiveReports(olr(HOST, 1, 100, 30), SERVER);
+    for (int i = 0; i < 20; i++) {
+      assertTrue(control.isThrottled(request(false), SERVER));
+    }
+    assertFalse(control.isThrottled(request(false), "other.example.org"));
+    IMessage routed = request(false);
+    routed.getAvps().addAvp(Avp.DESTINATION_HOST, "other.example.org", true, false, true);
+    assertFalse(control.isThrottled(routed, SERVER));
+
+    // older report is ignored
+    control.receiveReports(olr(HOST, 0, 0, 30), SERVER);
+    assertTrue(control.isThrottled(request(false), SERVER));
+    // newer report ends the overload
+    control.receiveReports(olr(HOST, 2, 0, 30), SERVER);
+    assertFalse(control.isThrottled(request(false), SERVER));
+  }
+
+  @Test
+  public void testRealmReportThrottlesRequestsWithoutHost() {
+    control.receiveReports(olr(REALM_TYPE, 1, 100, 30), SERVER);
+    IMessage request = request(false);
+    request.getAvps().addAvp(Avp.DESTINATION_REALM, REALM, true, false, true);
+    assertTrue(control.isThrottled(request, "peer.example.org"));
+    request.getAvps().addAvp(Avp.DESTINATION_HOST, "host.example.org", true, false, true);
+    assertFalse(control.isThrottled(request, "peer.example.org"));
+  }
+
+  @Test
+  public void testExpiredReportIsDropped() throws InterruptedException {
+    control.receiveReports(olr(HOST, 1, 100, 1), SERVER);
+    assertTrue(control.isThrottled(request(false), SERVER));
+    Thread.sleep(1100);
+    assertFalse(control.isThrottled(request(false), SERVER));
+  }
+
+  private IMessage olr(int type, long sequence, int reduction, long validity) {
+    IMessage answer = answer(request(true));
+    AvpSet olr = answer.getAvps().addGroupedAvp(Avp.OC_OLR, false, false);
+    olr.addAvp(Avp.OC_SEQUENCE_NUMBER, sequence, false, false, false);
+    olr.addAvp(Avp.OC_REPORT_TYPE, type, false, false);
+    olr.addAvp(Avp.OC_REDUCTION_PERCENTAGE, reduction, false, false, true);
+    olr.addAvp(Avp.OC_VALIDITY_DURATION, validity, false, false, true);
+    return answer;
+  }
+}
@@ -0,0 +1,370 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.fsm;
+
+import static org.jdiameter.client.impl.helpers.Parameters.DispatchLaneCount;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdiameter.api.app.StateEvent;
+import org.jdiameter.client.api.fsm.EventTypes;
+import org.jdiameter.client.api.fsm.FsmEvent;
+import org.jdiameter.client.impl.helpers.EmptyConfiguration;
+import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.jdiameter.common.api.statistic.IStatistic;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the lanes processing the events of the peer FSMs.
+ */
+public class FsmDispatcherTest {
+
+  private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+  private final ThreadFactory threadFactory = new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "FsmDispatcherTest-" + threads.size());
+      threads.add(thread);
+      return thread;
+    }
+  };
+  private final List<FsmDispatcher> dispatchers = new ArrayList<FsmDispatcher>();
+
+  private FsmDispatcher newDispatcher(int laneCount) {
+    FsmDispatcher dispatcher = new FsmDispatcher(null, laneCount, threadFactory);
+    dispatchers.add(dispatcher);
+    return dispatcher;
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    for (FsmDispatcher dispatcher : dispatchers) {
+      dispatcher.release();
+    }
+    for (Thread thread : new ArrayList<Thread>(threads)) {
+      thread.join(2000);
+      assertFalse("Lane thread did not stop", thread.isAlive());
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void waitFor(Collection<?> processed, int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + 2000;
+    while (processed.size() < count && System.currentTimeMillis() < end) {
+      Thread.sleep(5);
+    }
+    assertEquals(count, processed.size());
+  }
+
+  /**
+   * Records the events and the lane threads they were processed by.
+   */
+  private static class RecordingHandler implements FsmDispatcher.Handler {
+
+    final List<StateEvent> processed = Collections.synchronizedList(new ArrayList<StateEvent>());
+    final Map<StateEvent, Thread> threads = Collections.synchronizedMap(new HashMap<StateEvent, Thread>());
+    final AtomicInteger timerChecks = new AtomicInteger();
+
+    @Override
+    public void processEvent(StateEvent event, AtomicInteger queued) {
+      queued.decrementAndGet();
+      if (event.getType() == EventTypes.INTERNAL_ERROR) {
+        throw new IllegalStateException("failed");
+      }
+      threads.put(event, Thread.currentThread());
+      processed.add(event);
+    }
+
+    @Override
+    public void checkTimer() {
+      timerChecks.incrementAndGet();
+    }
+  }
+
+  @Test
+  public void testSessionLaneIsStableAndWithinPeerLanes() {
+    FsmDispatcher dispatcher = newDispatcher(8);
+    Set<Integer> used = new HashSet<Integer>();
+    for (int i = 0; i < 1000; i++) {
+      String sessionId = "client.example.com;1234;" + i;
+      int lane = dispatcher.sessionLane(sessionId, 6, 3);
+      assertEquals(lane, dispatcher.sessionLane(sessionId, 6, 3));
+      assertTrue("Lane " + lane, lane == 6 || lane == 7 || lane == 0);
+      used.add(lane);
+    }
+    // consecutive ids are spread over every lane of the peer
+    assertEquals(3, used.size());
+    used.clear();
+    for (int i = 0; i < 1000; i++) {
+      int lane = dispatcher.sessionLane("client.example.com;1234;" + i, 2, 100);
+      assertTrue("Lane " + lane, lane >= 0 && lane < 8);
+      used.add(lane);
+    }
+    assertEquals(8, used.size());
+    assertEquals(5, dispatcher.sessionLane("client.example.com;1234;1", 5, 1));
+    assertEquals(5, dispatcher.sessionLane("client.example.com;1234;1", 5, 0));
+  }
+
+  @Test
+  public void testNextLaneRotatesOverLanes() {
+    FsmDispatcher dispatcher = newDispatcher(3);
+    assertEquals(3, dispatcher.getLaneCount());
+    assertEquals(0, dispatcher.nextLane());
+    assertEquals(1, dispatcher.nextLane());
+    assertEquals(2, dispatcher.nextLane());
+    assertEquals(0, dispatcher.nextLane());
+  }
+
+  @Test
+  public void testSessionEventsAreProcessedInOrder() throws InterruptedException {
+    FsmDispatcher dispatcher = newDispatcher(4);
+    RecordingHandler handler = new RecordingHandler();
+    AtomicInteger queued = new AtomicInteger();
+    Map<Integer, List<StateEvent>> sessions = new HashMap<Integer, List<StateEvent>>();
+    for (int i = 0; i < 5000; i++) {
+      int session = i % 10;
+      if (!sessions.containsKey(session)) {
+        sessions.put(session, new ArrayList<StateEvent>());
+      }
+      StateEvent event = new FsmEvent(EventTypes.RECEIVE_MSG_EVENT);
+      sessions.get(session).add(event);
+      queued.incrementAndGet();
+      dispatcher.dispatch(dispatcher.sessionLane("session;" + session, 0, 4), handler, event, queued);
+    }
+    waitFor(handler.processed, 5000);
+    assertEquals(0, queued.get());
+    for (List<StateEvent> events : sessions.values()) {
+      List<StateEvent> order = new ArrayList<StateEvent>(handler.processed);
+      order.retainAll(events);
+      assertEquals(events, order);
+      // a session is served by a single thread
+      Set<Thread> served = new HashSet<Thread>();
+      for (StateEvent event : events) {
+        served.add(handler.threads.get(event));
+      }
+      assertEquals(1, served.size());
+    }
+  }
+
+  @Test
+  public void testSlowLaneDoesNotStallOtherLanes() throws InterruptedException {
+    FsmDispatcher dispatcher = newDispatcher(2);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final CountDownLatch entered = new CountDownLatch(1);
+    FsmDispatcher.Handler slow = new FsmDispatcher.Handler() {
+      @Override
+      public void processEvent(StateEvent event, AtomicInteger queued) {
+        entered.countDown();
+        await(gate);
+      }
+
+      @Override
+      public void checkTimer() {
+      }
+    };
+    RecordingHandler other = new RecordingHandler();
+    AtomicInteger queued = new AtomicInteger();
+    dispatcher.dispatch(0, slow, new FsmEvent(EventTypes.RECEIVE_MSG_EVENT), queued);
+    assertTrue(entered.await(2, TimeUnit.SECONDS));
+    // a session blocked in its listener does not hold the sessions served by other lanes
+    dispatcher.dispatch(1, other, new FsmEvent(EventTypes.RECEIVE_MSG_EVENT), queued);
+    waitFor(other.processed, 1);
+    gate.countDown();
+  }
+
+  @Test
+  public void testFailingEventDoesNotStopLane() throws InterruptedException {
+    FsmDispatcher dispatcher = newDispatcher(1);
+    RecordingHandler handler = new RecordingHandler();
+    AtomicInteger queued = new AtomicInteger();
+    dispatcher.dispatch(0, handler, new FsmEvent(EventTypes.INTERNAL_ERROR), queued);
+    StateEvent next = new FsmEvent(EventTypes.DWR_EVENT);
+    dispatcher.dispatch(0, handler, next, queued);
+    waitFor(handler.processed, 1);
+    assertEquals(next, handler.processed.get(0));
+  }
+
+  @Test
+  public void testTimerIsCheckedWhileRegistered() throws InterruptedException {
+    FsmDispatcher dispatcher = newDispatcher(2);
+    RecordingHandler handler = new RecordingHandler();
+    RecordingHandler unregistered = new RecordingHandler();
+    dispatcher.register(1, handler);
+    long period = TimeUnit.NANOSECONDS.toMillis(FsmDispatcher.TIMER_CHECK_PERIOD);
+    Thread.sleep(period * 5);
+    assertTrue("Timer checked " + handler.timerChecks.get() + " times", handler.timerChecks.get() >= 3);
+    assertEquals(0, unregistered.timerChecks.get());
+    dispatcher.unregister(1, handler);
+    Thread.sleep(period * 2);
+    int checks = handler.timerChecks.get();
+    Thread.sleep(period * 3);
+    assertEquals(checks, handler.timerChecks.get());
+  }
+
+  @Test
+  public void testReleaseProcessesQueuedEventsThenStops() throws InterruptedException {
+    FsmDispatcher dispatcher = new FsmDispatcher(null, 1, threadFactory);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final CountDownLatch entered = new CountDownLatch(1);
+    final List<StateEvent> processed = Collections.synchronizedList(new ArrayList<StateEvent>());
+    FsmDispatcher.Handler handler = new FsmDispatcher.Handler() {
+      @Override
+      public void processEvent(StateEvent event, AtomicInteger queued) {
+        entered.countDown();
+        await(gate);
+        processed.add(event);
+      }
+
+      @Override
+      public void checkTimer() {
+      }
+    };
+    AtomicInteger queued = new AtomicInteger();
+    for (int i = 0; i < 5; i++) {
+      dispatcher.dispatch(0, handler, new FsmEvent(EventTypes.RECEIVE_MSG_EVENT), queued);
+    }
+    assertTrue(entered.await(2, TimeUnit.SECONDS));
+    dispatcher.release();
+    gate.countDown();
+    threads.get(0).join(2000);
+    assertFalse(threads.get(0).isAlive());
+    assertEquals(5, processed.size());
+  }
+
+  @Test
+  public void testStackSharesOneDispatcher() throws InterruptedException {
+    StubConcurrentFactory factory = new StubConcurrentFactory();
+    StubConcurrentFactory otherFactory = new StubConcurrentFactory();
+    FsmDispatcher first = FsmDispatcher.acquire(factory, EmptyConfiguration.getInstance().add(DispatchLaneCount, 2));
+    FsmDispatcher second = FsmDispatcher.acquire(factory, EmptyConfiguration.getInstance().add(DispatchLaneCount, 5));
+    FsmDispatcher other = FsmDispatcher.acquire(otherFactory, EmptyConfiguration.getInstance().add(DispatchLaneCount, 1));
+    assertSame(first, second);
+    assertNotSame(first, other);
+    // sized by the configuration of the first user, threads come from the concurrent factory of the stack
+    assertEquals(2, first.getLaneCount());
+    assertEquals(1, other.getLaneCount());
+    assertEquals(2, factory.threads.size());
+    assertEquals(1, otherFactory.threads.size());
+
+    first.release();
+    Thread.sleep(50);
+    assertTrue(factory.threads.get(0).isAlive());
+    second.release();
+    other.release();
+    for (Thread thread : factory.threads) {
+      thread.join(2000);
+      assertFalse(thread.isAlive());
+    }
+    otherFactory.threads.get(0).join(2000);
+    // released dispatcher is not handed out again
+    FsmDispatcher restarted = FsmDispatcher.acquire(factory, null);
+    assertNotSame(first, restarted);
+    assertEquals(Runtime.getRuntime().availableProcessors(), restarted.getLaneCount());
+    restarted.release();
+    for (Thread thread : factory.threads) {
+      thread.join(2000);
+      assertFalse(thread.isAlive());
+    }
+  }
+
+  /**
+   * Concurrent factory handing out named threads, other services are not used by the dispatcher.
+   */
+  private static class StubConcurrentFactory implements IConcurrentFactory {
+
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+    @Override
+    public Thread getThread(Runnable runnable) {
+      return getThread("thread", runnable);
+    }
+
+    @Override
+    public Thread getThread(String namePrefix, Runnable runnable) {
+      Thread thread = new Thread(runnable, namePrefix + "-" + threads.size());
+      threads.add(thread);
+      return thread;
+    }
+
+    @Override
+    public List<Thread> getThreads() {
+      return threads;
+    }
+
+    @Override
+    public ThreadGroup getThreadGroup() {
+      return Thread.currentThread().getThreadGroup();
+    }
+
+    @Override
+    public ScheduledExecutorService getScheduledExecutorService(String name) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<ScheduledExecutorService> getScheduledExecutorServices() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void shutdownNow(ScheduledExecutorService service) {
+    }
+
+    @Override
+    public IStatistic getStatistic() {
+      return null;
+    }
+
+    @Override
+    public List<IStatistic> getStatistics() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void shutdownAllNow() {
+    }
+  }
+}
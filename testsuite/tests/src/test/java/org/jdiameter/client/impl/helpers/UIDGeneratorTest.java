@@ -0,0 +1,135 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests uniqueness and ordering of values taken from {@link UIDGenerator}.
+ */
+public class UIDGeneratorTest {
+
+  private static final int THREADS = 8;
+  private static final int VALUES = 50000;
+
+  @Test
+  public void testValuesAreUniqueAndIncreasingAcrossThreads() throws Exception {
+    final long start = 1000;
+    final UIDGenerator generator = new UIDGenerator(start);
+    final long[][] values = new long[THREADS][VALUES];
+    final CountDownLatch go = new CountDownLatch(1);
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      final long[] taken = values[i];
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            go.await();
+          }
+          catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < VALUES; j++) {
+            taken[j] = generator.nextLong();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    go.countDown();
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+
+    BitSet seen = new BitSet(THREADS * VALUES);
+    for (long[] taken : values) {
+      for (int j = 0; j < VALUES; j++) {
+        if (j > 0) {
+          assertTrue("Values taken by a thread increase", taken[j] > taken[j - 1]);
+        }
+        int offset = (int) (taken[j] - start);
+        assertTrue("Value is within the taken range: " + taken[j], offset >= 0 && offset < THREADS * VALUES);
+        assertTrue("Value is taken once: " + taken[j], !seen.get(offset));
+        seen.set(offset);
+      }
+    }
+    assertEquals("No value is skipped", THREADS * VALUES, seen.cardinality());
+    assertEquals("Next value follows the taken ones", start + THREADS * VALUES, generator.nextLong());
+  }
+
+  @Test
+  public void testIntValuesWrapAroundToZero() {
+    UIDGenerator generator = new UIDGenerator(Integer.MAX_VALUE - 1L);
+    assertEquals(Integer.MAX_VALUE - 1, generator.nextInt());
+    assertEquals(Integer.MAX_VALUE, generator.nextInt());
+    assertEquals("Low bits wrap around without going negative", 0, generator.nextInt());
+    assertEquals(1, generator.nextInt());
+    assertEquals("Long values keep increasing", Integer.MAX_VALUE + 3L, generator.nextLong());
+  }
+
+  @Test
+  public void testIntValuesStayPositiveAboveIntRange() {
+    UIDGenerator generator = new UIDGenerator(0xFFFFFFFFL);
+    assertEquals("Only the low 31 bits are used", Integer.MAX_VALUE, generator.nextInt());
+    assertEquals(0, generator.nextInt());
+  }
+
+  @Test
+  public void testIntValuesAreUniqueAcrossThreadsAtWrapAround() throws Exception {
+    final UIDGenerator generator = new UIDGenerator(Integer.MAX_VALUE - THREADS * VALUES / 2L);
+    final int[][] values = new int[THREADS][VALUES];
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      final int[] taken = values[i];
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < VALUES; j++) {
+            taken[j] = generator.nextInt();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+
+    int low = Integer.MAX_VALUE - THREADS * VALUES / 2;
+    BitSet seen = new BitSet(THREADS * VALUES);
+    for (int[] taken : values) {
+      for (int value : taken) {
+        assertTrue("Value is not negative: " + value, value >= 0);
+        // values below the start are the ones taken after the wrap around
+        int offset = value >= low ? value - low : value + THREADS * VALUES / 2 + 1;
+        assertTrue("Value is taken once: " + value, !seen.get(offset));
+        seen.set(offset);
+      }
+    }
+    assertEquals(THREADS * VALUES, seen.cardinality());
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link AnswerRouteTable}.
+ */
+public class AnswerRouteTableTest {
+
+  // smallest table, every shard is a single probe window of 8 slots
+  private static final int CAPACITY = 128;
+  private static final int WINDOW = 8;
+
+  /**
+   * @return keys stored in the same shard, so in the same probe window of the smallest table
+   */
+  private static List<Long> sameWindow(int count) {
+    List<Long> keys = new ArrayList<Long>();
+    int shard = AnswerRouteTable.hash(0) >>> 28;
+    for (long key = 0; keys.size() < count; key++) {
+      if (AnswerRouteTable.hash(key) >>> 28 == shard) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+
+  @Test
+  public void testPutGetRemove() {
+    AnswerRouteTable<String> table = new AnswerRouteTable<String>(1024, 60000);
+    table.put(1, "a");
+    table.put(2, "b");
+    assertEquals("a", table.get(1));
+    assertEquals("b", table.get(2));
+    assertNull(table.get(3));
+    table.put(1, "c");
+    assertEquals("c", table.get(1));
+    assertEquals(2, table.size());
+    table.remove(1);
+    assertNull(table.get(1));
+    assertEquals(1, table.size());
+    table.clear();
+    assertNull(table.get(2));
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    AnswerRouteTable<String> table = new AnswerRouteTable<String>(CAPACITY, 1);
+    List<Long> keys = sameWindow(WINDOW * 2);
+    for (int i = 0; i < WINDOW; i++) {
+      table.put(keys.get(i), "old");
+    }
+    Thread.sleep(5);
+    assertNull(table.get(keys.get(0)));
+    // expired entries make room for new ones
+    for (int i = WINDOW; i < WINDOW * 2; i++) {
+      table.put(keys.get(i), "new");
+      assertEquals("new", table.get(keys.get(i)));
+    }
+    assertEquals(WINDOW, table.size());
+  }
+
+  @Test
+  public void testOldestIsEvicted() throws Exception {
+    AnswerRouteTable<String> table = new AnswerRouteTable<String>(CAPACITY, 60000);
+    List<Long> keys = sameWindow(WINDOW + 1);
+    for (int i = 0; i < WINDOW; i++) {
+      table.put(keys.get(i), "value" + i);
+      Thread.sleep(1);
+    }
+    table.put(keys.get(WINDOW), "last");
+    assertNull(table.get(keys.get(0)));
+    for (int i = 1; i < WINDOW; i++) {
+      assertEquals("value" + i, table.get(keys.get(i)));
+    }
+    assertEquals("last", table.get(keys.get(WINDOW)));
+    assertEquals(WINDOW, table.size());
+  }
+
+  @Test
+  public void testKeyIsReplacedWhereItIsStored() {
+    AnswerRouteTable<String> table = new AnswerRouteTable<String>(CAPACITY, 60000);
+    List<Long> keys = sameWindow(WINDOW);
+    for (int i = 0; i < WINDOW; i++) {
+      table.put(keys.get(i), "value" + i);
+    }
+    // frees a slot ahead of the last key, which must still be replaced in place
+    long key = keys.get(WINDOW - 1);
+    table.remove(keys.get(0));
+    table.put(key, "replaced");
+    assertEquals(WINDOW - 1, table.size());
+    assertEquals("replaced", table.get(key));
+    table.remove(key);
+    assertNull(table.get(key));
+  }
+
+  @Test
+  public void testConcurrentPutsOfOneKey() throws Exception {
+    final AnswerRouteTable<String> table = new AnswerRouteTable<String>(CAPACITY, 60000);
+    final List<Long> keys = sameWindow(WINDOW);
+    for (int round = 0; round < 200; round++) {
+      table.clear();
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < 4; t++) {
+        final String value = "thread" + t;
+        Thread thread = new Thread() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+            }
+            catch (InterruptedException e) {
+              return;
+            }
+            for (int i = 0; i < 50; i++) {
+              table.put(keys.get(0), value);
+              table.put(keys.get(1 + i % (WINDOW - 1)), value);
+              table.remove(keys.get(1 + (i + 3) % (WINDOW - 1)));
+            }
+          }
+        };
+        thread.start();
+        threads.add(thread);
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      // a single entry is left for the key
+      assertNotNull(table.get(keys.get(0)));
+      int size = table.size();
+      table.remove(keys.get(0));
+      assertEquals(size - 1, table.size());
+    }
+  }
+}
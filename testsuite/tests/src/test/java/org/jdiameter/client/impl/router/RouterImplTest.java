@@ -0,0 +1,243 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.router;
+
+import static org.jdiameter.client.impl.helpers.Parameters.OwnDiameterURI;
+import static org.jdiameter.client.impl.helpers.Parameters.OwnRealm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.LocalAction;
+import org.jdiameter.api.PeerState;
+import org.jdiameter.api.RouteException;
+import org.jdiameter.api.URI;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerTable;
+import org.jdiameter.client.api.controller.IRealmTable;
+import org.jdiameter.client.impl.controller.RealmImpl;
+import org.jdiameter.client.impl.helpers.EmptyConfiguration;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that realm routing over the peers resolved for a realm follows changes of the realm and the peer table.
+ */
+public class RouterImplTest {
+
+  private static final String REALM = "server.mobicents.org";
+  private static final ApplicationId APPLICATION = ApplicationId.createByAuthAppId(0, 4);
+
+  private final MessageParser parser = new MessageParser();
+  private final Map<String, IPeer> peerTable = new ConcurrentHashMap<String, IPeer>();
+  private IPeerTable manager;
+  private RealmImpl realm;
+  private RouterImpl router;
+
+  @Before
+  public void setUp() {
+    realm = new RealmImpl(REALM, APPLICATION, LocalAction.LOCAL, null, null, false, 0, "first", "second");
+    IRealmTable realmTable = (IRealmTable) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {IRealmTable.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return method.getName().equals("matchRealm") ? realm : null;
+          }
+        });
+    manager = (IPeerTable) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {IPeerTable.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return method.getName().equals("getPeer") ? peerTable.get(args[0]) : null;
+          }
+        });
+    router = new RouterImpl(null, null, realmTable, EmptyConfiguration.getInstance().add(OwnRealm, "client.mobicents.org")
+        .add(OwnDiameterURI, "aaa://client.mobicents.org:3868"), null);
+  }
+
+  private IMessage request() {
+    IMessage request = parser.createEmptyMessage(272, 4);
+    request.setRequest(true);
+    request.getAvps().addAvp(Avp.DESTINATION_REALM, REALM, true, false, true);
+    return request;
+  }
+
+  private IPeer route() throws Exception {
+    return router.getPeer(request(), manager);
+  }
+
+  @Test
+  public void testResolvedPeersAreKeptAndFollowPeerState() throws Exception {
+    StubPeer first = addPeer("first", 2);
+    StubPeer second = addPeer("second", 1);
+
+    assertSame("Highest rated peer is selected", first.peer, route());
+    List<IPeer> resolved = realm.getResolvedPeers();
+    assertEquals(Arrays.asList(first.peer, second.peer), resolved);
+    assertSame(first.peer, route());
+    assertSame("Resolved peers are reused", resolved, realm.getResolvedPeers());
+
+    first.state = PeerState.DOWN;
+    assertSame("Peer going down is not selected", second.peer, route());
+    first.state = PeerState.OKAY;
+    first.validConnection = false;
+    assertSame("Peer without a valid connection is not selected", second.peer, route());
+    first.validConnection = true;
+    assertSame("Peer coming up is selected again", first.peer, route());
+    assertSame("State changes do not rebuild the resolved peers", resolved, realm.getResolvedPeers());
+
+    second.state = PeerState.DOWN;
+    first.state = PeerState.SUSPECT;
+    try {
+      route();
+      fail("No peer is available");
+    }
+    catch (RouteException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testResolvedPeersAreRebuiltWhenPeersAreAddedOrRemoved() throws Exception {
+    StubPeer first = addPeer("first", 1);
+    StubPeer second = addPeer("second", 1);
+    route();
+    assertNotNull(realm.getResolvedPeers());
+
+    StubPeer third = addPeer("third", 5);
+    realm.addPeerName("third");
+    assertNull("Adding a peer name drops the resolved peers", realm.getResolvedPeers());
+    assertSame("Added peer is routed to", third.peer, route());
+    assertEquals(Arrays.asList(first.peer, second.peer, third.peer), realm.getResolvedPeers());
+
+    realm.removePeerName("third");
+    assertNull("Removing a peer name drops the resolved peers", realm.getResolvedPeers());
+    assertNotSame("Removed peer is not routed to", third.peer, route());
+    assertEquals(Arrays.asList(first.peer, second.peer), realm.getResolvedPeers());
+  }
+
+  @Test
+  public void testPeerRemovedFromTableIsNeverSelected() throws Exception {
+    StubPeer first = addPeer("first", 2);
+    StubPeer second = addPeer("second", 1);
+    assertSame(first.peer, route());
+
+    // removed from the peer table while its connection is still being closed
+    peerTable.remove("first");
+    for (int i = 0; i < 3; i++) {
+      assertSame("Peer no longer in the table is not selected", second.peer, route());
+    }
+    List<IPeer> resolved = realm.getResolvedPeers();
+    assertTrue("Peers are not kept while one of them is missing", resolved == null || !resolved.contains(first.peer));
+
+    StubPeer replacement = addPeer("first", 2);
+    assertSame("Peer added again is selected", replacement.peer, route());
+    assertEquals(Arrays.asList(replacement.peer, second.peer), realm.getResolvedPeers());
+  }
+
+  @Test
+  public void testPeerReplacedInTableIsNeverSelected() throws Exception {
+    StubPeer first = addPeer("first", 2);
+    addPeer("second", 1);
+    assertSame(first.peer, route());
+
+    // a new instance took the place of a peer still up
+    StubPeer replacement = addPeer("first", 2);
+    assertSame("Only the peer in the table is selected", replacement.peer, route());
+    assertSame(replacement.peer, realm.getResolvedPeers().get(0));
+  }
+
+  private StubPeer addPeer(String fqdn, int rating) throws Exception {
+    StubPeer stub = new StubPeer(fqdn, rating);
+    peerTable.put(fqdn, stub.peer);
+    return stub;
+  }
+
+  /**
+   * Peer whose state and connection are set by the test.
+   */
+  private static final class StubPeer implements InvocationHandler {
+
+    final IPeer peer;
+    final URI uri;
+    final int rating;
+    volatile PeerState state = PeerState.OKAY;
+    volatile boolean validConnection = true;
+
+    StubPeer(String fqdn, int rating) throws Exception {
+      this.uri = new URI("aaa://" + fqdn + ":3868");
+      this.rating = rating;
+      this.peer = (IPeer) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {IPeer.class}, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      String name = method.getName();
+      if (name.equals("getState")) {
+        return state;
+      }
+      if (name.equals("hasValidConnection")) {
+        return validConnection;
+      }
+      if (name.equals("getUri")) {
+        return uri;
+      }
+      if (name.equals("getRating")) {
+        return rating;
+      }
+      if (name.equals("equals")) {
+        return proxy == args[0];
+      }
+      if (name.equals("hashCode")) {
+        return System.identityHashCode(proxy);
+      }
+      if (name.equals("toString")) {
+        return uri.toString();
+      }
+      Class<?> returnType = method.getReturnType();
+      if (returnType == boolean.class) {
+        return false;
+      }
+      if (returnType == int.class) {
+        return 0;
+      }
+      if (returnType == long.class) {
+        return 0L;
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport;
+
+import static org.jdiameter.client.impl.helpers.Parameters.EventLoopThreadCount;
+import static org.jdiameter.client.impl.helpers.Parameters.NativeTransport;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.jdiameter.api.Configuration;
+import org.jdiameter.client.impl.helpers.EmptyConfiguration;
+import org.junit.Test;
+
+/**
+ * Tests sharing and releasing the event loops of Netty based connections.
+ */
+public class SharedEventLoopGroupTest {
+
+  private static Configuration config(int threads) {
+    return EmptyConfiguration.getInstance().add(EventLoopThreadCount, threads).add(NativeTransport, false);
+  }
+
+  @Test
+  public void testGroupIsSharedUntilLastRelease() {
+    SharedEventLoopGroup first = SharedEventLoopGroup.acquire(config(2));
+    SharedEventLoopGroup second = SharedEventLoopGroup.acquire(config(2));
+    assertSame(first, second);
+    assertEquals(2, first.getThreads());
+    assertFalse(first.isEpoll());
+
+    second.release();
+    assertFalse("Group is running while in use", first.getEventLoopGroup().isShuttingDown());
+    first.release();
+    assertTrue("Group is shut down by the last user", first.getEventLoopGroup().isShuttingDown());
+
+    SharedEventLoopGroup third = SharedEventLoopGroup.acquire(config(2));
+    assertNotSame("A new group is started after shut down", first, third);
+    third.release();
+  }
+
+  @Test
+  public void testRunningGroupKeepsItsSettings() {
+    SharedEventLoopGroup first = SharedEventLoopGroup.acquire(config(2));
+    SharedEventLoopGroup second = SharedEventLoopGroup.acquire(config(3));
+    assertSame(first, second);
+    assertEquals(2, second.getThreads());
+    second.release();
+    first.release();
+  }
+}
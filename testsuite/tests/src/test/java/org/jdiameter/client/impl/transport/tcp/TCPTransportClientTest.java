@@ -0,0 +1,193 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdiameter.client.impl.transport.tcp.TCPTransportClient.PendingWrite;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests writing messages of concurrent senders to the blocking TCP transport.
+ */
+public class TCPTransportClientTest {
+
+  private static final int SENDERS = 8;
+
+  private ServerSocket server;
+  private Socket accepted;
+  private TCPTransportClient transport;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    SocketChannel channel = SocketChannel.open(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()));
+    accepted = server.accept();
+    transport = new TCPTransportClient(null, null);
+    transport.initialize(channel.socket());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    transport.stop();
+    accepted.close();
+    server.close();
+  }
+
+  private static ByteBuffer record(int sender, int sequence, int size) {
+    ByteBuffer bytes = ByteBuffer.allocate(size);
+    bytes.putInt(size).putInt(sender).putInt(sequence);
+    while (bytes.hasRemaining()) {
+      bytes.put((byte) sender);
+    }
+    bytes.flip();
+    return bytes;
+  }
+
+  @Test
+  public void testConcurrentMessagesAreNotInterleaved() throws Exception {
+    final int messages = 2000;
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] senders = new Thread[SENDERS];
+    for (int i = 0; i < SENDERS; i++) {
+      final int sender = i;
+      senders[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < messages; j++) {
+            try {
+              transport.sendMessage(record(sender, j, 12 + (j % 50) * 20));
+            }
+            catch (IOException e) {
+              failures.incrementAndGet();
+            }
+          }
+        }
+      };
+      senders[i].start();
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(accepted.getInputStream()));
+    int[] next = new int[SENDERS];
+    for (int i = 0; i < SENDERS * messages; i++) {
+      int size = in.readInt();
+      int sender = in.readInt();
+      int sequence = in.readInt();
+      assertEquals("Messages of a sender are written in order", next[sender]++, sequence);
+      for (int j = 12; j < size; j++) {
+        assertEquals("Message is written whole", sender, in.readByte());
+      }
+    }
+    for (Thread sender : senders) {
+      sender.join(5000);
+    }
+    assertEquals(0, failures.get());
+  }
+
+  @Test
+  public void testSendersDoNotWaitForTheSocket() throws Exception {
+    // nothing is read, the writer ends up waiting for the socket to accept more data
+    final int size = 64 * 1024;
+    final int messages = 32;
+    final PendingWrite[][] writes = new PendingWrite[SENDERS][messages];
+    final AtomicInteger failed = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(SENDERS);
+    for (int i = 0; i < SENDERS; i++) {
+      final int sender = i;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < messages; j++) {
+              writes[sender][j] = transport.sendMessage(record(sender, j, size));
+            }
+          }
+          catch (IOException e) {
+            failed.incrementAndGet();
+          }
+          finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    assertTrue("Senders return while the socket is full", done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, failed.get());
+    Thread.sleep(200);
+    int waiting = 0;
+    for (PendingWrite[] senderWrites : writes) {
+      for (PendingWrite write : senderWrites) {
+        waiting += write.isDone() ? 0 : 1;
+      }
+    }
+    assertTrue("Messages wait for the socket", waiting > 0);
+
+    transport.stop();
+    long deadline = System.currentTimeMillis() + 5000;
+    int written = 0;
+    int failures = 0;
+    for (PendingWrite[] senderWrites : writes) {
+      for (PendingWrite write : senderWrites) {
+        while (!write.isDone() && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        assertTrue("Every queued message gets a result", write.isDone());
+        if (write.isWritten()) {
+          written++;
+        }
+        else {
+          assertNotNull(write.getFailure());
+          failures++;
+        }
+      }
+    }
+    assertEquals(SENDERS * messages, written + failures);
+    assertTrue("Messages queued behind the full socket fail", failures > 0);
+  }
+
+  @Test
+  public void testFailedTransportRejectsMessages() throws Exception {
+    transport.stop();
+    try {
+      transport.sendMessage(record(0, 0, 12));
+      fail("Message is not queued once the socket is closed");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+}
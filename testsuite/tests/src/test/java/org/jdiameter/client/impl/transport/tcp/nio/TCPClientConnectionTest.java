@@ -0,0 +1,319 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport.tcp.nio;
+
+import static org.jdiameter.client.impl.helpers.Parameters.DeliveryThreadCount;
+import static org.jdiameter.client.impl.helpers.Parameters.ReactorThreadCount;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.api.Configuration;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.io.IConnectionListener;
+import org.jdiameter.client.api.io.TransportException;
+import org.jdiameter.client.impl.helpers.EmptyConfiguration;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests receiving and sending messages over connections served by the shared reactors.
+ */
+public class TCPClientConnectionTest {
+
+  private static final String CLOSED = "closed";
+
+  private final MessageParser parser = new MessageParser();
+  // a single reactor serves every connection
+  private final Configuration config = EmptyConfiguration.getInstance().add(ReactorThreadCount, 1);
+  private InetAddress address;
+  private ServerSocket server;
+
+  @Before
+  public void setUp() throws Exception {
+    address = InetAddress.getLoopbackAddress();
+    server = new ServerSocket(0, 10, address);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  private TCPClientConnection connect(IConnectionListener listener) throws Exception {
+    return connect(config, listener);
+  }
+
+  private TCPClientConnection connect(Configuration config, IConnectionListener listener) throws Exception {
+    TCPClientConnection connection = new TCPClientConnection(config, null, address, server.getLocalPort(), address, 0,
+        listener, parser, null);
+    connection.connect();
+    return connection;
+  }
+
+  private byte[] encode(int hopByHopId) throws Exception {
+    IMessage message = parser.createEmptyMessage(257, 0);
+    message.setRequest(true);
+    message.setHopByHopIdentifier(hopByHopId);
+    message.setEndToEndIdentifier(hopByHopId);
+    ByteBuffer bytes = parser.encodeMessage(message);
+    byte[] data = new byte[bytes.remaining()];
+    bytes.get(data);
+    return data;
+  }
+
+  private void write(final Socket socket, final int count) {
+    new Thread() {
+      @Override
+      public void run() {
+        try {
+          OutputStream out = socket.getOutputStream();
+          for (int i = 0; i < count; i++) {
+            out.write(encode(i));
+          }
+          out.flush();
+        }
+        catch (Exception e) {
+          // connection closed by the test
+        }
+      }
+    }.start();
+  }
+
+  @Test
+  public void testMessagesAreDeliveredInOrderOffTheReactor() throws Exception {
+    final int count = 2000;
+    final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+    final BlockingQueue<String> threads = new LinkedBlockingQueue<String>();
+    TCPClientConnection connection = connect(new Listener(events) {
+      @Override
+      public void messageReceived(String connKey, IMessage message) {
+        threads.add(Thread.currentThread().getName());
+        super.messageReceived(connKey, message);
+      }
+    });
+    Socket socket = server.accept();
+    try {
+      write(socket, count);
+      for (int i = 0; i < count; i++) {
+        IMessage message = (IMessage) events.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Message is delivered", message);
+        assertEquals("Messages are delivered in order", i, message.getHopByHopIdentifier());
+      }
+      String thread = threads.poll();
+      assertTrue("Message is delivered by a delivery thread, not " + thread, thread.startsWith("DiameterDelivery"));
+
+      socket.close();
+      assertEquals("Disconnection is delivered after the messages", CLOSED, events.poll(5, TimeUnit.SECONDS));
+    }
+    finally {
+      connection.release();
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testSlowListenerDoesNotHoldUpOtherConnections() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    BlockingQueue<Object> slowEvents = new LinkedBlockingQueue<Object>();
+    TCPClientConnection slow = connect(new Listener(slowEvents) {
+      @Override
+      public void messageReceived(String connKey, IMessage message) {
+        blocked.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.messageReceived(connKey, message);
+      }
+    });
+    Socket slowSocket = server.accept();
+    BlockingQueue<Object> fastEvents = new LinkedBlockingQueue<Object>();
+    TCPClientConnection fast = connect(new Listener(fastEvents));
+    Socket fastSocket = server.accept();
+    try {
+      write(slowSocket, 1);
+      assertTrue("Slow listener got the message", blocked.await(5, TimeUnit.SECONDS));
+      write(fastSocket, 1);
+      assertNotNull("Other connection of the reactor still gets messages", fastEvents.poll(5, TimeUnit.SECONDS));
+      assertNull(slowEvents.poll());
+    }
+    finally {
+      release.countDown();
+      slow.release();
+      fast.release();
+      slowSocket.close();
+      fastSocket.close();
+    }
+  }
+
+  @Test
+  public void testReadingIsSuspendedWhileDeliveryLagsBehind() throws Exception {
+    final int count = 5000;
+    final CountDownLatch release = new CountDownLatch(1);
+    BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+    TCPClientConnection connection = connect(new Listener(events) {
+      @Override
+      public void messageReceived(String connKey, IMessage message) {
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.messageReceived(connKey, message);
+      }
+    });
+    Socket socket = server.accept();
+    try {
+      write(socket, count);
+      Thread.sleep(500);
+      int pending = connection.getPendingEvents();
+      assertTrue("Reading stops once enough messages wait for delivery, " + pending + " are queued", pending < count - 1);
+      release.countDown();
+      for (int i = 0; i < count; i++) {
+        IMessage message = (IMessage) events.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Message is delivered once reading is resumed", message);
+        assertEquals(i, message.getHopByHopIdentifier());
+      }
+    }
+    finally {
+      release.countDown();
+      connection.release();
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testDeliveryThreadsAreBounded() throws Exception {
+    Configuration twoThreads = EmptyConfiguration.getInstance().add(ReactorThreadCount, 1).add(DeliveryThreadCount, 2);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch blocked = new CountDownLatch(3);
+    BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+    TCPClientConnection[] connections = new TCPClientConnection[3];
+    Socket[] sockets = new Socket[connections.length];
+    try {
+      for (int i = 0; i < connections.length; i++) {
+        connections[i] = connect(twoThreads, new Listener(events) {
+          @Override
+          public void messageReceived(String connKey, IMessage message) {
+            blocked.countDown();
+            try {
+              release.await();
+            }
+            catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            super.messageReceived(connKey, message);
+          }
+        });
+        sockets[i] = server.accept();
+        write(sockets[i], 1);
+      }
+      assertFalse("Third connection waits for a delivery thread", blocked.await(500, TimeUnit.MILLISECONDS));
+      assertEquals("Both delivery threads are held by slow listeners", 1, blocked.getCount());
+      release.countDown();
+      assertTrue("Third connection is served once a thread is free", blocked.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < connections.length; i++) {
+        assertNotNull("Message is delivered", events.poll(5, TimeUnit.SECONDS));
+      }
+    }
+    finally {
+      release.countDown();
+      for (int i = 0; i < connections.length; i++) {
+        if (connections[i] != null) {
+          connections[i].release();
+        }
+        if (sockets[i] != null) {
+          sockets[i].close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSentMessagesAreWritten() throws Exception {
+    TCPClientConnection connection = connect(new Listener(new LinkedBlockingQueue<Object>()));
+    Socket socket = server.accept();
+    try {
+      byte[] expected = encode(7);
+      for (int i = 0; i < 3; i++) {
+        connection.sendMessage(parser.createMessage(expected));
+      }
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      socket.setSoTimeout(5000);
+      for (int i = 0; i < 3; i++) {
+        byte[] received = new byte[expected.length];
+        in.readFully(received);
+        assertEquals(7, parser.createMessage(received).getHopByHopIdentifier());
+      }
+    }
+    finally {
+      connection.release();
+      socket.close();
+    }
+  }
+
+  private static class Listener implements IConnectionListener {
+    private final BlockingQueue<Object> events;
+
+    Listener(BlockingQueue<Object> events) {
+      this.events = events;
+    }
+
+    @Override
+    public void connectionOpened(String connKey) {
+    }
+
+    @Override
+    public void connectionClosed(String connKey, List notSended) {
+      events.add(CLOSED);
+    }
+
+    @Override
+    public void messageReceived(String connKey, IMessage message) {
+      events.add(message);
+    }
+
+    @Override
+    public void internalError(String connKey, IMessage message, TransportException cause) {
+      events.add(cause);
+    }
+  }
+}
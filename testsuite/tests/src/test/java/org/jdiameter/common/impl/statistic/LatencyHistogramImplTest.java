@@ -0,0 +1,169 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.statistic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests the bucket math and percentiles of the latency histogram.
+ */
+public class LatencyHistogramImplTest {
+
+  private static final long US = TimeUnit.MICROSECONDS.toNanos(1);
+
+  private final LatencyHistogramImpl histogram = new LatencyHistogramImpl();
+
+  @Test
+  public void testEmpty() {
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMean(), 0);
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getPercentile(50));
+    assertEquals(0, histogram.getPercentile(100));
+  }
+
+  @Test
+  public void testExactBelowFirstMagnitude() {
+    for (int i = 0; i < 128; i++) {
+      histogram.record(i * US);
+    }
+    assertEquals(128, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(0));
+    assertEquals(63, histogram.getPercentile(50));
+    assertEquals(115, histogram.getPercentile(90));
+    assertEquals(127, histogram.getPercentile(100));
+    assertEquals(63.5, histogram.getMean(), 0.001);
+    assertEquals(127, histogram.getMax());
+  }
+
+  @Test
+  public void testBucketBoundaries() {
+    // 128 and 129 share a bucket, 130 starts the next one
+    assertPercentile(128, 129);
+    assertPercentile(129, 129);
+    assertPercentile(130, 131);
+    assertPercentile(255, 255);
+    assertPercentile(256, 259);
+    assertPercentile(1000, 1007);
+    assertPercentile(1024, 1039);
+  }
+
+  @Test
+  public void testRelativeError() {
+    Random random = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      long value = (long) Math.pow(2, random.nextDouble() * 35);
+      LatencyHistogramImpl single = new LatencyHistogramImpl();
+      single.record(value * US);
+      single.record((1L << 35) * US);
+      long reported = single.getPercentile(50);
+      assertTrue(value + " reported as " + reported, reported >= value && reported <= value + value / 64);
+    }
+  }
+
+  @Test
+  public void testPercentileCappedByMax() {
+    histogram.record(1000 * US);
+    // the bucket reaches 1007
+    assertEquals(1000, histogram.getPercentile(100));
+    assertEquals(1000, histogram.getPercentile(50));
+  }
+
+  @Test
+  public void testPercentiles() {
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000 * US);
+    }
+    assertWithin(500000, histogram.getPercentile(50));
+    assertWithin(900000, histogram.getPercentile(90));
+    assertWithin(990000, histogram.getPercentile(99));
+    assertEquals(1000000, histogram.getPercentile(100));
+    // out of range percentiles are clamped
+    assertEquals(histogram.getPercentile(100), histogram.getPercentile(150));
+    assertWithin(1000, histogram.getPercentile(-1));
+    assertEquals(500500, histogram.getMean(), 0.001);
+  }
+
+  @Test
+  public void testValuesClamped() {
+    histogram.record(-5);
+    // below a microsecond
+    histogram.record(999);
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getPercentile(100));
+    histogram.record(TimeUnit.DAYS.toNanos(10));
+    assertEquals((1L << 36) - 1, histogram.getMax());
+    assertEquals((1L << 36) - 1, histogram.getPercentile(100));
+    assertEquals(3, histogram.getCount());
+  }
+
+  @Test
+  public void testReset() {
+    histogram.record(10 * US);
+    histogram.record(20 * US);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getMean(), 0);
+    histogram.record(5 * US);
+    assertEquals(5, histogram.getPercentile(50));
+    assertEquals(5, histogram.getMean(), 0);
+  }
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * US);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(40000, histogram.getCount());
+    assertEquals(10000, histogram.getMax());
+    assertEquals(5000.5, histogram.getMean(), 0.001);
+  }
+
+  private static void assertPercentile(long value, long expected) {
+    LatencyHistogramImpl single = new LatencyHistogramImpl();
+    single.record(value * US);
+    // keeps the max above the bucket of the value
+    single.record(1000000 * US);
+    assertEquals(expected, single.getPercentile(50));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(expected + " reported as " + actual, actual >= expected && actual <= expected + expected / 64);
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.statistic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.jdiameter.common.api.statistic.IStatistic;
+import org.jdiameter.common.api.statistic.IStatisticRecord;
+import org.jdiameter.common.api.statistic.IStatisticRecord.Counters;
+import org.junit.Test;
+
+/**
+ * Tests values, reset and lookup of the records of a statistic.
+ */
+public class StatisticImplTest {
+
+  @Test
+  public void testRecordValues() {
+    StatisticRecordImpl record = new StatisticRecordImpl("Requests", "requests", 10);
+    assertEquals(10, record.getValueAsLong());
+    record.inc();
+    record.inc(5);
+    record.dec();
+    assertEquals(15, record.getValueAsLong());
+    assertEquals(15, record.getValueAsInt());
+    assertEquals("15", record.toString());
+
+    record.setLongValue(3);
+    assertEquals(3, record.getValueAsLong());
+    record.setDoubleValue(2.5);
+    assertEquals(2.5, record.getValueAsDouble(), 0);
+  }
+
+  @Test
+  public void testResetSetsZero() throws Exception {
+    final StatisticRecordImpl record = new StatisticRecordImpl("Requests", "requests");
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            record.inc();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+    assertEquals(80000, record.getValueAsLong());
+    record.reset();
+    assertEquals(0, record.getValueAsLong());
+    record.inc();
+    assertEquals(1, record.getValueAsLong());
+  }
+
+  @Test
+  public void testDisabledRecordIgnoresUpdates() {
+    StatisticRecordImpl record = new StatisticRecordImpl("Requests", "requests", 4);
+    record.enable(false);
+    record.inc();
+    record.inc(3);
+    record.dec();
+    record.setLongValue(9);
+    assertEquals(4, record.getValueAsLong());
+    // reset is not subject to enabling
+    record.reset();
+    assertEquals(0, record.getValueAsLong());
+    record.enable(true);
+    record.inc();
+    assertEquals(1, record.getValueAsLong());
+  }
+
+  @Test
+  public void testValueHolderIsRead() {
+    StatisticRecordImpl record = new StatisticRecordImpl("Queue", "queue", new IStatisticRecord.IntegerValueHolder() {
+      @Override
+      public int getValueAsInt() {
+        return 12;
+      }
+
+      @Override
+      public String getValueAsString() {
+        return "twelve";
+      }
+    });
+    record.inc();
+    assertEquals(12, record.getValueAsInt());
+    assertEquals("twelve", record.toString());
+  }
+
+  @Test
+  public void testRecordsAreFoundByCounterAndName() {
+    IStatisticRecord first = new StatisticRecordImpl(Counters.NetGenRequest.name(), "first");
+    IStatisticRecord second = new StatisticRecordImpl(Counters.NetGenRequest.name(), "second");
+    IStatisticRecord other = new StatisticRecordImpl("Other", "other");
+    StatisticImpl statistic = new StatisticImpl("peer", IStatistic.Groups.Peer, "peer", first, other);
+    statistic.appendCounter(second);
+
+    assertSame("First record of a name wins", first, statistic.getRecordByName(Counters.NetGenRequest));
+    assertSame(first, statistic.getRecordByName(Counters.NetGenRequest.name()));
+    assertSame(other, statistic.getRecordByName("Other"));
+    assertNull(statistic.getRecordByName(Counters.NetGenResponse));
+    assertNull(statistic.getRecordByName("Missing"));
+    assertEquals(3, statistic.getRecords().length);
+  }
+
+  @Test
+  public void testStatisticResetAndEnable() {
+    StatisticRecordImpl first = new StatisticRecordImpl("First", "first", 3);
+    StatisticRecordImpl second = new StatisticRecordImpl("Second", "second", 5);
+    StatisticImpl statistic = new StatisticImpl("peer", IStatistic.Groups.Peer, "peer", first);
+    statistic.appendCounter(second);
+    statistic.reset();
+    assertEquals(0, first.getValueAsLong());
+    assertEquals(0, second.getValueAsLong());
+
+    statistic.enable(false);
+    first.inc();
+    assertEquals(0, first.getValueAsLong());
+    statistic.appendCounter(new StatisticRecordImpl("Third", "third"));
+    assertFalse("Appended record follows the statistic", statistic.getRecordByName("Third").isEnabled());
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.statistic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests that striped counters sum up concurrent updates and can be set.
+ */
+public class StripedCounterTest {
+
+  private static final int THREADS = 16;
+  private static final int UPDATES = 100000;
+
+  private static void update(final StripedCounter counter, final long delta) throws InterruptedException {
+    final CountDownLatch go = new CountDownLatch(1);
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            go.await();
+          }
+          catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < UPDATES; j++) {
+            counter.add(delta);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    go.countDown();
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+  }
+
+  @Test
+  public void testSingleThread() {
+    StripedCounter counter = new StripedCounter(5);
+    assertEquals(5, counter.sum());
+    counter.add(3);
+    counter.add(-10);
+    assertEquals(-2, counter.sum());
+  }
+
+  @Test
+  public void testConcurrentIncrementsAreSummed() throws Exception {
+    StripedCounter counter = new StripedCounter(7);
+    update(counter, 1);
+    assertEquals(7L + THREADS * UPDATES, counter.sum());
+    update(counter, -1);
+    assertEquals(7, counter.sum());
+  }
+
+  @Test
+  public void testSetClearsEveryCell() throws Exception {
+    StripedCounter counter = new StripedCounter(0);
+    update(counter, 3);
+    counter.set(42);
+    assertEquals(42, counter.sum());
+    counter.add(1);
+    assertEquals(43, counter.sum());
+    update(counter, 1);
+    assertEquals(43L + THREADS * UPDATES, counter.sum());
+    counter.set(0);
+    assertEquals(0, counter.sum());
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.common.impl.timer.TimingWheel.Timeout;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the placement, cascading and expiry of timeouts in the timing wheel.
+ */
+public class TimingWheelTest {
+
+  // wheel thread not started, ticks are driven by the test
+  private final TimingWheel wheel = new TimingWheel("TimingWheelTest", 1, null, false);
+  private final List<Integer> expired = new ArrayList<Integer>();
+
+  @After
+  public void tearDown() {
+    wheel.stop();
+  }
+
+  @Test
+  public void testPlacementAcrossLevels() {
+    Timeout first = schedule(1, 255);
+    Timeout second = schedule(2, 256);
+    Timeout third = schedule(3, 1 << 16);
+    Timeout fourth = schedule(4, 1 << 24);
+    Timeout beyond = schedule(5, 1L << 32);
+    // placed by the next tick
+    wheel.advance(1);
+    assertEquals(0, wheel.getLevel(first));
+    assertEquals(1, wheel.getLevel(second));
+    assertEquals(2, wheel.getLevel(third));
+    assertEquals(3, wheel.getLevel(fourth));
+    assertEquals(4, wheel.getLevel(beyond));
+    assertEquals(5, wheel.getPendingCount());
+  }
+
+  @Test
+  public void testExpiresOnDeadlineTick() {
+    Timeout timeout = schedule(1, 10);
+    wheel.advance(9);
+    assertTrue(expired.isEmpty());
+    assertTrue(timeout.isPending());
+    wheel.advance(1);
+    assertEquals(10, wheel.getCurrentTick());
+    assertEquals(1, expired.size());
+    assertTrue(timeout.isExpired());
+    assertEquals(-1, wheel.getLevel(timeout));
+    assertEquals(0, wheel.getPendingCount());
+  }
+
+  @Test
+  public void testCascadeFromSecondWheel() {
+    Timeout timeout = schedule(1, 300);
+    wheel.advance(255);
+    assertEquals(1, wheel.getLevel(timeout));
+    // the second wheel slot is cascaded when the lowest wheel completes its rotation
+    wheel.advance(1);
+    assertEquals(0, wheel.getLevel(timeout));
+    wheel.advance(43);
+    assertTrue(expired.isEmpty());
+    wheel.advance(1);
+    assertEquals(1, expired.size());
+  }
+
+  @Test
+  public void testCascadeFromThirdWheel() {
+    Timeout timeout = schedule(1, (1 << 16) + 300);
+    wheel.advance(1);
+    assertEquals(2, wheel.getLevel(timeout));
+    wheel.advance((1 << 16) - 1);
+    assertEquals(1, wheel.getLevel(timeout));
+    wheel.advance(256);
+    assertEquals(0, wheel.getLevel(timeout));
+    wheel.advance(43);
+    assertTrue(expired.isEmpty());
+    wheel.advance(1);
+    assertEquals((1 << 16) + 300, wheel.getCurrentTick());
+    assertEquals(1, expired.size());
+  }
+
+  @Test
+  public void testTimeoutsSharingSlotExpireInOrder() {
+    schedule(1, 700);
+    schedule(2, 700);
+    schedule(3, 600);
+    wheel.advance(700);
+    assertEquals(3, expired.size());
+    assertEquals(Integer.valueOf(3), expired.get(0));
+    assertEquals(Integer.valueOf(1), expired.get(1));
+    assertEquals(Integer.valueOf(2), expired.get(2));
+  }
+
+  @Test
+  public void testCancel() {
+    Timeout cancelled = schedule(1, 10);
+    Timeout other = schedule(2, 10);
+    wheel.advance(1);
+    assertTrue(cancelled.cancel());
+    assertFalse(cancelled.cancel());
+    assertTrue(cancelled.isCancelled());
+    assertEquals(1, wheel.getPendingCount());
+    // slot released by the next tick
+    wheel.advance(1);
+    assertEquals(-1, wheel.getLevel(cancelled));
+    assertEquals(0, wheel.getLevel(other));
+    wheel.advance(8);
+    assertEquals(1, expired.size());
+    assertEquals(Integer.valueOf(2), expired.get(0));
+    assertFalse(other.cancel());
+    assertEquals(0, wheel.getPendingCount());
+  }
+
+  @Test
+  public void testCancelBeforePlacement() {
+    Timeout timeout = schedule(1, 1000);
+    assertTrue(timeout.cancel());
+    wheel.advance(1000);
+    assertTrue(expired.isEmpty());
+    assertEquals(-1, wheel.getLevel(timeout));
+  }
+
+  @Test
+  public void testCancelAfterCascade() {
+    Timeout timeout = schedule(1, 300);
+    wheel.advance(256);
+    assertEquals(0, wheel.getLevel(timeout));
+    assertTrue(timeout.cancel());
+    wheel.advance(44);
+    assertTrue(expired.isEmpty());
+    assertEquals(-1, wheel.getLevel(timeout));
+  }
+
+  @Test
+  public void testPastDeadlineExpiresAtOnce() {
+    wheel.advance(5);
+    Timeout timeout = schedule(1, 3);
+    wheel.advance(1);
+    assertTrue(timeout.isExpired());
+    assertEquals(1, expired.size());
+  }
+
+  @Test
+  public void testRejectedTaskRunsOnWheelThread() {
+    Executor rejecting = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    };
+    wheel.scheduleAt(new Expiry(1), 2, rejecting);
+    wheel.advance(2);
+    assertEquals(1, expired.size());
+  }
+
+  @Test
+  public void testRunningWheel() throws Exception {
+    TimingWheel running = new TimingWheel("TimingWheelTest-running", 1, null);
+    try {
+      final CountDownLatch latch = new CountDownLatch(1);
+      long start = System.nanoTime();
+      running.schedule(new Runnable() {
+        @Override
+        public void run() {
+          latch.countDown();
+        }
+      }, 20, TimeUnit.MILLISECONDS);
+      assertTrue(latch.await(5, TimeUnit.SECONDS));
+      // never early
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+    finally {
+      running.stop();
+    }
+    try {
+      running.schedule(new Expiry(1), 1, TimeUnit.MILLISECONDS);
+      fail("Wheel is stopped");
+    }
+    catch (RejectedExecutionException e) {
+      // expected
+    }
+  }
+
+  private Timeout schedule(int id, long tick) {
+    return wheel.scheduleAt(new Expiry(id), tick, null);
+  }
+
+  private class Expiry implements Runnable {
+
+    private final int id;
+
+    Expiry(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public void run() {
+      expired.add(id);
+    }
+  }
+}
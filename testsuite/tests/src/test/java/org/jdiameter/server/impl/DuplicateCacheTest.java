@@ -0,0 +1,137 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.server.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests the expiry and eviction of answers kept for duplicate detection.
+ */
+public class DuplicateCacheTest {
+
+  private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+  private final long now = System.nanoTime();
+
+  @Test
+  public void testGet() {
+    DuplicateCache cache = new DuplicateCache(10);
+    byte[] answer = {1};
+    cache.put("client.mobicents.org", 1, answer, now + HOUR, true);
+    assertArrayEquals(answer, cache.get("client.mobicents.org", 1, now));
+    assertNull(cache.get("client.mobicents.org", 2, now));
+    assertNull(cache.get("other.mobicents.org", 1, now));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testHostsWithSameHash() {
+    // "Aa" and "BB" have the same hash code, so the same key
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    DuplicateCache cache = new DuplicateCache(10);
+    cache.put("Aa", 1, new byte[] {1}, now + HOUR, true);
+    cache.put("BB", 1, new byte[] {2}, now + HOUR, true);
+    assertArrayEquals(new byte[] {1}, cache.get("Aa", 1, now));
+    assertArrayEquals(new byte[] {2}, cache.get("BB", 1, now));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testReplace() {
+    DuplicateCache cache = new DuplicateCache(10);
+    cache.put("client.mobicents.org", 1, new byte[] {1}, now + HOUR, true);
+    // kept unless replaced
+    cache.put("client.mobicents.org", 1, new byte[] {2}, now + HOUR, false);
+    assertArrayEquals(new byte[] {1}, cache.get("client.mobicents.org", 1, now));
+    cache.put("client.mobicents.org", 1, new byte[] {3}, now + HOUR, true);
+    assertArrayEquals(new byte[] {3}, cache.get("client.mobicents.org", 1, now));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testExpiredAnswerNotReturned() {
+    DuplicateCache cache = new DuplicateCache(10);
+    cache.put("client.mobicents.org", 1, new byte[] {1}, now + HOUR, true);
+    assertNull(cache.get("client.mobicents.org", 1, now + HOUR));
+    assertNull(cache.get("client.mobicents.org", 1, now + 2 * HOUR));
+  }
+
+  @Test
+  public void testExpiredAnswerReplacedWhenKept() {
+    DuplicateCache cache = new DuplicateCache(10);
+    // expired already
+    cache.put("client.mobicents.org", 1, new byte[] {1}, now - 1, true);
+    cache.put("client.mobicents.org", 1, new byte[] {2}, now + HOUR, false);
+    assertArrayEquals(new byte[] {2}, cache.get("client.mobicents.org", 1, now));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testExpireRemovesOnlyExpired() {
+    DuplicateCache cache = new DuplicateCache(10);
+    for (int i = 1; i <= 5; i++) {
+      cache.put("client.mobicents.org", i, new byte[] {(byte) i}, now + i * HOUR, true);
+    }
+    cache.expire(now + 2 * HOUR);
+    assertEquals(3, cache.size());
+    assertNull(cache.get("client.mobicents.org", 2, now));
+    assertArrayEquals(new byte[] {3}, cache.get("client.mobicents.org", 3, now));
+    cache.expire(now + 10 * HOUR);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testOldestEvictedWhenFull() {
+    DuplicateCache cache = new DuplicateCache(3);
+    cache.put("client.mobicents.org", 1, new byte[] {1}, now + HOUR, true);
+    cache.put("client.mobicents.org", 2, new byte[] {2}, now + HOUR, true);
+    cache.put("client.mobicents.org", 3, new byte[] {3}, now + HOUR, true);
+    // stored again, so now the newest
+    cache.put("client.mobicents.org", 1, new byte[] {1}, now + HOUR, true);
+    cache.put("client.mobicents.org", 4, new byte[] {4}, now + HOUR, true);
+    assertEquals(3, cache.size());
+    assertNull(cache.get("client.mobicents.org", 2, now));
+    assertArrayEquals(new byte[] {1}, cache.get("client.mobicents.org", 1, now));
+    assertArrayEquals(new byte[] {3}, cache.get("client.mobicents.org", 3, now));
+    assertArrayEquals(new byte[] {4}, cache.get("client.mobicents.org", 4, now));
+    cache.put("client.mobicents.org", 5, new byte[] {5}, now + HOUR, true);
+    assertNull(cache.get("client.mobicents.org", 3, now));
+  }
+
+  @Test
+  public void testSegmentedCapacity() {
+    DuplicateCache cache = new DuplicateCache(1000);
+    for (int i = 0; i < 10000; i++) {
+      cache.put("client" + (i % 7) + ".mobicents.org", i, new byte[] {1}, now + HOUR, true);
+      assertTrue(cache.size() <= 1000);
+    }
+    // the newest answer is always kept
+    assertArrayEquals(new byte[] {1}, cache.get("client" + (9999 % 7) + ".mobicents.org", 9999, now));
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+}
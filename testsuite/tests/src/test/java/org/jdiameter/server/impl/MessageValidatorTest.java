@@ -0,0 +1,168 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.server.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.common.impl.validation.DictionaryImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the result codes and Failed-AVP of requests failing validation.
+ */
+public class MessageValidatorTest {
+
+  private final MessageValidator validator = new MessageValidator();
+  private final DictionaryImpl dictionary = (DictionaryImpl) DictionaryImpl.INSTANCE;
+  private boolean configured;
+
+  @Before
+  public void setUp() {
+    configured = dictionary.isConfigured();
+    dictionary.setConfigured(true);
+  }
+
+  @After
+  public void tearDown() {
+    dictionary.setConfigured(configured);
+  }
+
+  @Test
+  public void testValidRequest() {
+    MessageValidator.Result result = validator.check(createRequest());
+    assertTrue(result.isOK());
+    assertNull(result.toMessage());
+  }
+
+  @Test
+  public void testDisabled() {
+    IMessage request = createRequest();
+    request.getAvps().removeAvp(Avp.CC_REQUEST_NUMBER);
+    validator.disable();
+    assertTrue(validator.check(request).isOK());
+    validator.enable();
+    assertFalse(validator.check(request).isOK());
+  }
+
+  @Test
+  public void testMissingAvp() throws Exception {
+    IMessage request = createRequest();
+    request.getAvps().removeAvp(Avp.CC_REQUEST_NUMBER);
+    MessageValidator.Result result = validator.check(request);
+    assertEquals(ResultCode.MISSING_AVP, result.toLong());
+
+    IMessage answer = result.toMessage();
+    assertFalse(answer.isRequest());
+    assertEquals(request.getHopByHopIdentifier(), answer.getHopByHopIdentifier());
+    assertEquals(request.getEndToEndIdentifier(), answer.getEndToEndIdentifier());
+    assertEquals("session-1", answer.getAvps().getAvp(Avp.SESSION_ID).getUTF8String());
+    assertEquals(ResultCode.MISSING_AVP, answer.getAvps().getAvp(Avp.RESULT_CODE).getUnsigned32());
+    // example of the missing Unsigned32 AVP, zero filled
+    Avp missing = getFailedAvp(answer, Avp.CC_REQUEST_NUMBER);
+    assertArrayEquals(new byte[4], missing.getRaw());
+  }
+
+  @Test
+  public void testMissingStringAvp() throws Exception {
+    IMessage request = createRequest();
+    request.getAvps().removeAvp(Avp.SERVICE_CONTEXT_ID);
+    MessageValidator.Result result = validator.check(request);
+    assertEquals(ResultCode.MISSING_AVP, result.toLong());
+    assertEquals(0, getFailedAvp(result.toMessage(), Avp.SERVICE_CONTEXT_ID).getRaw().length);
+  }
+
+  @Test
+  public void testAvpOccursTooManyTimes() throws Exception {
+    IMessage request = createRequest();
+    request.getAvps().addAvp(Avp.CC_REQUEST_TYPE, 3, true);
+    MessageValidator.Result result = validator.check(request);
+    assertEquals(ResultCode.AVP_OCCURS_TOO_MANY_TIMES, result.toLong());
+    // first instance beyond the allowed one
+    assertEquals(3, getFailedAvp(result.toMessage(), Avp.CC_REQUEST_TYPE).getInteger32());
+  }
+
+  @Test
+  public void testAvpNotAllowed() throws Exception {
+    IMessage request = createRequest();
+    request.getAvps().addAvp(Avp.RESULT_CODE, 2001, true);
+    MessageValidator.Result result = validator.check(request);
+    assertEquals(ResultCode.AVP_NOT_ALLOWED, result.toLong());
+    assertEquals(2001, getFailedAvp(result.toMessage(), Avp.RESULT_CODE).getUnsigned32());
+  }
+
+  @Test
+  public void testExperimentalResult() throws Exception {
+    IMessage request = createRequest();
+    request.getAvps().removeAvp(Avp.CC_REQUEST_NUMBER);
+    IMessage answer = validator.check(request).toMessage(10415);
+    AvpSet experimental = answer.getAvps().getAvp(Avp.EXPERIMENTAL_RESULT).getGrouped();
+    assertEquals(ResultCode.MISSING_AVP, experimental.getAvp(Avp.EXPERIMENTAL_RESULT_CODE).getUnsigned32());
+    assertNotNull(answer.getAvps().getAvp(Avp.FAILED_AVP));
+  }
+
+  @Test
+  public void testInvalidAnswerHasNoErrorAnswer() {
+    IMessage answer = new MessageParser().createEmptyMessage(272, 4);
+    answer.setRequest(false);
+    answer.getAvps().addAvp(Avp.SESSION_ID, "session-1", false);
+    MessageValidator.Result result = validator.check(answer);
+    assertFalse(result.isOK());
+    assertNull(result.toMessage());
+  }
+
+  private static Avp getFailedAvp(IMessage answer, int code) throws Exception {
+    Avp failedAvp = answer.getAvps().getAvp(Avp.FAILED_AVP);
+    assertNotNull("Failed-AVP is added", failedAvp);
+    AvpSet failed = failedAvp.getGrouped();
+    assertEquals(1, failed.size());
+    Avp avp = failed.getAvpByIndex(0);
+    assertEquals(code, avp.getCode());
+    return avp;
+  }
+
+  private static IMessage createRequest() {
+    IMessage request = new MessageParser().createEmptyMessage(272, 4);
+    request.setRequest(true);
+    request.setHopByHopIdentifier(17);
+    request.setEndToEndIdentifier(42);
+    AvpSet set = request.getAvps();
+    set.addAvp(Avp.SESSION_ID, "session-1", false);
+    set.addAvp(Avp.ORIGIN_HOST, "client.mobicents.org", true);
+    set.addAvp(Avp.ORIGIN_REALM, "mobicents.org", true);
+    set.addAvp(Avp.DESTINATION_REALM, "server.mobicents.org", true);
+    set.addAvp(Avp.AUTH_APPLICATION_ID, 4);
+    set.addAvp(Avp.SERVICE_CONTEXT_ID, "32251@3gpp.org", false);
+    set.addAvp(Avp.CC_REQUEST_TYPE, 1, true);
+    set.addAvp(Avp.CC_REQUEST_NUMBER, 0, true);
+    return request;
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.server.impl;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.Message;
+import org.jdiameter.api.NetworkReqListener;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.Selector;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.controller.IRealmTable;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.common.api.statistic.IStatisticManager;
+import org.jdiameter.server.api.IMetaData;
+import org.jdiameter.server.api.IRouter;
+import org.jdiameter.server.impl.helpers.ApplicationIdSelector;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the choice of the listener of network requests.
+ */
+public class NetworkImplTest {
+
+  private static final ApplicationId GX = ApplicationId.createByAuthAppId(10415, 16777238);
+  private static final ApplicationId RO = ApplicationId.createByAuthAppId(4);
+  // as defined by NetworkImpl
+  private static final ApplicationId COMMON = ApplicationId.createByAuthAppId(0, 0xffffffff);
+
+  private final MessageParser parser = new MessageParser();
+  private NetworkImpl network;
+
+  @Before
+  public void setUp() {
+    final IRealmTable realmTable = stub(IRealmTable.class, null);
+    network = new NetworkImpl(stub(IStatisticManager.class, null), stub(IMetaData.class, null), stub(IRouter.class, realmTable));
+  }
+
+  @Test
+  public void testListenerByApplicationId() throws Exception {
+    NetworkReqListener gx = new TestListener();
+    NetworkReqListener ro = new TestListener();
+    network.addNetworkReqListener(gx, GX);
+    network.addNetworkReqListener(ro, RO);
+    assertSame(gx, network.getListener(request(GX)));
+    assertSame(ro, network.getListener(request(RO)));
+    assertNull(network.getListener(request(ApplicationId.createByAuthAppId(1))));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testSelectorsTakePrecedence() throws Exception {
+    NetworkReqListener byApplicationId = new TestListener();
+    NetworkReqListener bySelector = new TestListener();
+    NetworkReqListener byCustomSelector = new TestListener();
+    network.addNetworkReqListener(byApplicationId, GX, RO);
+    network.addNetworkReqListener(bySelector, new ApplicationIdSelector(GX));
+    network.addNetworkReqListener(byCustomSelector, new CommandCodeSelector(RO, 272));
+    assertSame(bySelector, network.getListener(request(GX)));
+    assertSame(byCustomSelector, network.getListener(request(RO)));
+    assertSame(byApplicationId, network.getListener(request(RO, 271)));
+
+    network.removeNetworkReqListener(new ApplicationIdSelector(GX));
+    network.addNetworkReqListener(bySelector, new ApplicationIdSelector(GX));
+    assertSame(bySelector, network.getListener(request(GX)));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testCommonListener() throws Exception {
+    NetworkReqListener common = new TestListener();
+    NetworkReqListener byCustomSelector = new TestListener();
+    network.addNetworkReqListener(common, COMMON);
+    network.addNetworkReqListener(byCustomSelector, new CommandCodeSelector(RO, 272));
+    assertSame(common, network.getListener(request(GX, 271)));
+    assertSame(byCustomSelector, network.getListener(request(RO)));
+    assertSame(common, network.getListener(request(RO, 271)));
+  }
+
+  @Test
+  public void testRequestWithoutApplicationId() throws Exception {
+    network.addNetworkReqListener(new TestListener(), COMMON);
+    assertNull(network.getListener(stub(IMessage.class, null)));
+  }
+
+  private IMessage request(ApplicationId applicationId) {
+    return request(applicationId, 272);
+  }
+
+  private IMessage request(ApplicationId applicationId, int commandCode) {
+    IMessage request = parser.createEmptyMessage(commandCode, applicationId.getAuthAppId());
+    request.setRequest(true);
+    AvpSet avps = request.getAvps();
+    if (applicationId.getVendorId() != 0) {
+      avps = avps.addGroupedAvp(Avp.VENDOR_SPECIFIC_APPLICATION_ID, true, false);
+      avps.addAvp(Avp.VENDOR_ID, applicationId.getVendorId(), true, false, true);
+    }
+    avps.addAvp(Avp.AUTH_APPLICATION_ID, applicationId.getAuthAppId(), true, false, true);
+    return request;
+  }
+
+  /**
+   * Returns an implementation of the interface answering every call with the given value, or the default value of
+   * the return type.
+   */
+  private static <T> T stub(Class<T> type, final Object value) {
+    return type.cast(Proxy.newProxyInstance(NetworkImplTest.class.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        Class<?> returnType = method.getReturnType();
+        if (value != null && returnType.isInstance(value)) {
+          return value;
+        }
+        if (returnType == boolean.class) {
+          return false;
+        }
+        if (returnType == int.class) {
+          return 0;
+        }
+        if (returnType == long.class) {
+          return 0L;
+        }
+        return null;
+      }
+    }));
+  }
+
+  private static final class CommandCodeSelector implements Selector<Message, ApplicationId> {
+
+    private final ApplicationId applicationId;
+    private final int commandCode;
+
+    CommandCodeSelector(ApplicationId applicationId, int commandCode) {
+      this.applicationId = applicationId;
+      this.commandCode = commandCode;
+    }
+
+    @Override
+    public boolean checkRule(Message message) {
+      return message.getCommandCode() == commandCode;
+    }
+
+    @Override
+    public ApplicationId getMetaData() {
+      return applicationId;
+    }
+  }
+
+  private static final class TestListener implements NetworkReqListener {
+
+    @Override
+    public Answer processRequest(Request request) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.server.impl.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.DisconnectCause;
+import org.jdiameter.api.EventListener;
+import org.jdiameter.api.Mode;
+import org.jdiameter.api.Network;
+import org.jdiameter.api.NetworkReqListener;
+import org.jdiameter.api.Peer;
+import org.jdiameter.api.PeerState;
+import org.jdiameter.api.PeerTable;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.Stack;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.IRequest;
+import org.jdiameter.client.api.controller.IRealm;
+import org.jdiameter.client.api.controller.IRealmTable;
+import org.jdiameter.server.impl.StackImpl;
+import org.jdiameter.server.impl.helpers.XMLConfiguration;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests forwarding requests of a proxy realm to its servers.
+ */
+public class ProxyAgentImplTest {
+
+  private static final ApplicationId APPLICATION = ApplicationId.createByAccAppId(0, 300);
+  private static final String SERVER_REALM = "server.mobicents.org";
+  private static final String CLIENT_HOST = "client.mobicents.org";
+  private static final String PROXY_HOST = "proxy.mobicents.org";
+
+  private static Stack client;
+  private static Stack proxy;
+  private static Stack[] servers = new Stack[2];
+
+  // requests received by the servers, with the identity of the receiving server
+  private static final BlockingQueue<Received> received = new LinkedBlockingQueue<Received>();
+  private static volatile boolean answering;
+  // when set, the first request received by any server is not answered
+  private static final AtomicBoolean dropNext = new AtomicBoolean();
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    for (int i = 0; i < servers.length; i++) {
+      final String host = "server" + (i + 1) + ".mobicents.org";
+      servers[i] = start("/configurations/proxy/config-server" + (i + 1) + ".xml", new NetworkReqListener() {
+        @Override
+        public Answer processRequest(Request request) {
+          received.add(new Received(host, request));
+          if (!answering || dropNext.compareAndSet(true, false)) {
+            return null;
+          }
+          return request.createAnswer(ResultCode.SUCCESS);
+        }
+      });
+      servers[i].start();
+    }
+
+    // listener only makes the application known to the peers, requests are handled by the agent
+    proxy = start("/configurations/proxy/config-proxy.xml", new NoAnswer());
+    proxy.start();
+    for (int i = 1; i <= servers.length; i++) {
+      waitForPeer(proxy, "server" + i + ".mobicents.org");
+    }
+
+    client = start("/configurations/proxy/config-client.xml", new NoAnswer());
+    client.start(Mode.ALL_PEERS, 10, TimeUnit.SECONDS);
+  }
+
+  private static Stack start(String config, NetworkReqListener listener) throws Exception {
+    Stack stack = new StackImpl();
+    stack.init(new XMLConfiguration(ProxyAgentImplTest.class.getResourceAsStream(config)));
+    stack.unwrap(Network.class).addNetworkReqListener(listener, APPLICATION);
+    return stack;
+  }
+
+  private static void waitForPeer(Stack stack, String host) throws Exception {
+    for (int i = 0; i < 100; i++) {
+      for (Peer peer : stack.unwrap(PeerTable.class).getPeerTable()) {
+        if (peer.getUri().getFQDN().equals(host) && peer.getState(PeerState.class) == PeerState.OKAY) {
+          return;
+        }
+      }
+      Thread.sleep(100);
+    }
+    throw new IllegalStateException("Peer " + host + " is not connected");
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    for (Stack stack : new Stack[] {client, proxy, servers[0], servers[1]}) {
+      if (stack != null) {
+        stack.stop(10, TimeUnit.SECONDS, DisconnectCause.REBOOTING);
+        stack.destroy();
+      }
+    }
+  }
+
+  @Before
+  public void reset() {
+    answering = true;
+    dropNext.set(false);
+    received.clear();
+  }
+
+  private static Request createRequest() throws Exception {
+    Request request = client.getSessionFactory().getNewSession().createRequest(271, APPLICATION, SERVER_REALM);
+    request.getAvps().addAvp(Avp.ACC_RECORD_TYPE, 3, true);
+    request.getAvps().addAvp(Avp.ACC_RECORD_NUMBER, 1, true, false, true);
+    return request;
+  }
+
+  private static Answer send(Request request) throws Exception {
+    Outcome outcome = new Outcome();
+    client.getSessionFactory().getNewSession().send(request, outcome, 10000, TimeUnit.MILLISECONDS);
+    assertTrue("No answer", outcome.done.await(15, TimeUnit.SECONDS));
+    assertNotNull("Request timed out", outcome.answer);
+    return outcome.answer;
+  }
+
+  private static Received nextReceived() throws Exception {
+    Received next = received.poll(5, TimeUnit.SECONDS);
+    assertNotNull("Request was not forwarded", next);
+    return next;
+  }
+
+  @Test
+  public void testRequestIsForwardedAndAnswerRelayed() throws Exception {
+    Request request = createRequest();
+    Answer answer = send(request);
+    assertEquals(ResultCode.SUCCESS, answer.getResultCode().getUnsigned32());
+    assertEquals("Hop-by-Hop identifier of the request is restored", request.getHopByHopIdentifier(), answer.getHopByHopIdentifier());
+    assertEquals(request.getEndToEndIdentifier(), answer.getEndToEndIdentifier());
+
+    Received forwarded = nextReceived();
+    assertEquals(CLIENT_HOST, forwarded.request.getAvps().getAvp(Avp.ORIGIN_HOST).getDiameterIdentity());
+    Avp routeRecord = forwarded.request.getAvps().getAvp(Avp.ROUTE_RECORD);
+    assertNotNull("Route-Record is added", routeRecord);
+    assertEquals(CLIENT_HOST, routeRecord.getDiameterIdentity());
+    assertFalse(forwarded.request.isReTransmitted());
+    assertNull("Request is forwarded once", received.poll());
+  }
+
+  @Test
+  public void testRequestIsFailedOverToAnotherServer() throws Exception {
+    dropNext.set(true);
+    Request request = createRequest();
+    Answer answer = send(request);
+    assertEquals(ResultCode.SUCCESS, answer.getResultCode().getUnsigned32());
+    assertEquals(request.getHopByHopIdentifier(), answer.getHopByHopIdentifier());
+
+    Received first = nextReceived();
+    Received second = nextReceived();
+    assertFalse("Request is sent to another server", first.host.equals(second.host));
+    assertTrue("Resent request is marked as retransmitted", second.request.isReTransmitted());
+    assertEquals(first.request.getEndToEndIdentifier(), second.request.getEndToEndIdentifier());
+  }
+
+  @Test
+  public void testUnableToDeliverOnceEveryServerFailed() throws Exception {
+    answering = false;
+    Answer answer = send(createRequest());
+    assertEquals(ResultCode.UNABLE_TO_DELIVER, answer.getResultCode().getUnsigned32());
+    assertTrue(answer.isError());
+    assertOriginatedByProxy(answer);
+    nextReceived();
+    nextReceived();
+    assertNull("Request is sent once to each server", received.poll());
+  }
+
+  @Test
+  public void testLoopIsDetected() throws Exception {
+    Request request = createRequest();
+    // identities compare case insensitively
+    request.getAvps().addAvp(Avp.ROUTE_RECORD, "PROXY.mobicents.org", true, false, true);
+    Answer answer = send(request);
+    assertEquals(ResultCode.LOOP_DETECTED, answer.getResultCode().getUnsigned32());
+    assertEquals(request.getHopByHopIdentifier(), answer.getHopByHopIdentifier());
+    assertTrue(answer.isError());
+    assertOriginatedByProxy(answer);
+    assertNull("Request is not forwarded", received.poll(500, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testLocalRequestWithoutOriginHostIsAnswered() throws Exception {
+    IContainer container = (IContainer) proxy;
+    IRealm realm = (IRealm) container.getAssemblerFacility().getComponentInstance(IRealmTable.class).getRealm(SERVER_REALM, APPLICATION);
+    Request request = proxy.getSessionFactory().getNewSession().createRequest(271, APPLICATION, SERVER_REALM);
+    request.getAvps().removeAvp(Avp.ORIGIN_HOST);
+    // request created locally has no peer, Route-Record would be taken from Origin-Host
+    Answer answer = realm.getAgent().processRequest((IRequest) request, realm);
+    assertNotNull(answer);
+    assertEquals(ResultCode.MISSING_AVP, answer.getResultCode().getUnsigned32());
+    assertFalse(answer.isError());
+    assertOriginatedByProxy(answer);
+    Avp failedAvp = answer.getAvps().getAvp(Avp.FAILED_AVP);
+    assertNotNull("Failed-AVP is added", failedAvp);
+    assertNotNull(failedAvp.getGrouped().getAvp(Avp.ORIGIN_HOST));
+    assertNull("Request is not forwarded", received.poll(500, TimeUnit.MILLISECONDS));
+  }
+
+  private static void assertOriginatedByProxy(Answer answer) throws Exception {
+    assertEquals(PROXY_HOST, answer.getAvps().getAvp(Avp.ORIGIN_HOST).getDiameterIdentity());
+    assertEquals(PROXY_HOST, answer.getAvps().getAvp(Avp.ORIGIN_REALM).getDiameterIdentity());
+    assertEquals(1, answer.getAvps().getAvps(Avp.ORIGIN_HOST).size());
+  }
+
+  private static final class NoAnswer implements NetworkReqListener {
+    @Override
+    public Answer processRequest(Request request) {
+      return null;
+    }
+  }
+
+  private static final class Received {
+    final String host;
+    final Request request;
+
+    Received(String host, Request request) {
+      this.host = host;
+      this.request = request;
+    }
+  }
+
+  private static final class Outcome implements EventListener<Request, Answer> {
+
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile Answer answer;
+
+    @Override
+    public void receivedSuccessMessage(Request request, Answer answer) {
+      this.answer = answer;
+      done.countDown();
+    }
+
+    @Override
+    public void timeoutExpired(Request request) {
+      done.countDown();
+    }
+  }
+}
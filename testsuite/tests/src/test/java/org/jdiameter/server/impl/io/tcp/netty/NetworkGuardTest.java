@@ -0,0 +1,121 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.server.impl.io.tcp.netty;
+
+import static org.jdiameter.client.impl.helpers.Parameters.NativeTransport;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.api.Configuration;
+import org.jdiameter.client.api.io.IConnection;
+import org.jdiameter.client.impl.helpers.EmptyConfiguration;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.client.impl.transport.SharedEventLoopGroup;
+import org.jdiameter.server.api.IMetaData;
+import org.jdiameter.server.api.io.INetworkConnectionListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests accepting connections with the Netty network guard.
+ */
+public class NetworkGuardTest {
+
+  private InetAddress address;
+  private int port;
+  private NetworkGuard guard;
+  private SharedEventLoopGroup otherUser;
+
+  @Before
+  public void setUp() throws Exception {
+    address = InetAddress.getLoopbackAddress();
+    ServerSocket free = new ServerSocket(0, 1, address);
+    port = free.getLocalPort();
+    free.close();
+    final Configuration config = EmptyConfiguration.getInstance().add(NativeTransport, false);
+    // another stack keeps the shared event loops running once the guard is destroyed
+    otherUser = SharedEventLoopGroup.acquire(config);
+    IMetaData metaData = (IMetaData) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {IMetaData.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return "getConfiguration".equals(method.getName()) ? config : null;
+          }
+        });
+    guard = new NetworkGuard(new InetAddress[] {address}, port, null, new MessageParser(), metaData);
+  }
+
+  @After
+  public void tearDown() {
+    guard.destroy();
+    otherUser.release();
+  }
+
+  private Socket connect() throws Exception {
+    for (int i = 0; ; i++) {
+      try {
+        return new Socket(address, port);
+      }
+      catch (Exception e) {
+        if (i == 50) {
+          throw e;
+        }
+        Thread.sleep(100);
+      }
+    }
+  }
+
+  @Test
+  public void testAcceptedConnectionsAreClosedOnDestroy() throws Exception {
+    final CountDownLatch accepted = new CountDownLatch(1);
+    guard.addListener(new INetworkConnectionListener() {
+      @Override
+      public void newNetworkConnection(IConnection connection) {
+        accepted.countDown();
+      }
+    });
+    Socket socket = connect();
+    try {
+      assertTrue("Connection is accepted", accepted.await(5, TimeUnit.SECONDS));
+      guard.destroy();
+      socket.setSoTimeout(5000);
+      assertEquals("Connection is closed by the guard", -1, socket.getInputStream().read());
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testDestroyIsRepeatable() throws Exception {
+    guard.destroy();
+    guard.destroy();
+  }
+}
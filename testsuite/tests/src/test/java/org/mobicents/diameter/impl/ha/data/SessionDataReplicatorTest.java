@@ -0,0 +1,251 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.diameter.impl.ha.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the writing of session data changes in the session replication modes.
+ */
+public class SessionDataReplicatorTest {
+
+  private final TestTransactionManager tx = new TestTransactionManager();
+  private SessionDataReplicator replicator;
+
+  @After
+  public void tearDown() {
+    if (replicator != null) {
+      replicator.stop();
+    }
+  }
+
+  private SessionDataReplicator start(String mode) {
+    replicator = SessionDataReplicator.create(mode, tx.manager);
+    replicator.start();
+    return replicator;
+  }
+
+  @Test
+  public void testModes() {
+    assertNull(SessionDataReplicator.create("WRITE_THROUGH", tx.manager));
+    assertNull(SessionDataReplicator.create("UNKNOWN", tx.manager));
+    SessionDataReplicator batched = SessionDataReplicator.create("batched", tx.manager);
+    assertNotNull(batched);
+    assertFalse(batched.isWriteBehind());
+    SessionDataReplicator writeBehind = SessionDataReplicator.create("WRITE_BEHIND", tx.manager);
+    assertNotNull(writeBehind);
+    assertTrue(writeBehind.isWriteBehind());
+  }
+
+  @Test
+  public void testBatchedWritesInOneTransaction() {
+    start("BATCHED");
+    TestChanges changes = new TestChanges(0);
+    replicator.replicate(changes);
+    assertSame(Thread.currentThread(), changes.writer);
+    assertEquals(1, changes.writes.get());
+    assertEquals(0, changes.written.getCount());
+    assertEquals(1, tx.commits.get());
+    assertNull("Transaction left open", tx.current.get());
+  }
+
+  @Test
+  public void testWriteBehindWritesInOrder() throws Exception {
+    start("WRITE_BEHIND");
+    List<Integer> order = new CopyOnWriteArrayList<Integer>();
+    List<TestChanges> all = new ArrayList<TestChanges>();
+    for (int i = 0; i < 100; i++) {
+      TestChanges changes = new TestChanges(0);
+      changes.order = order;
+      changes.id = i;
+      all.add(changes);
+      replicator.replicate(changes);
+    }
+    for (TestChanges changes : all) {
+      assertTrue(changes.written.await(5, TimeUnit.SECONDS));
+      assertFalse(Thread.currentThread() == changes.writer);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, order.get(i).intValue());
+    }
+    assertEquals(100, tx.commits.get());
+  }
+
+  @Test
+  public void testFailedWriteIsRetried() throws Exception {
+    start("BATCHED");
+    TestChanges changes = new TestChanges(2);
+    replicator.replicate(changes);
+    assertEquals(1, changes.written.getCount());
+    assertTrue(changes.written.await(SessionDataReplicator.RETRY_DELAY * 4, TimeUnit.MILLISECONDS));
+    assertEquals(3, changes.writes.get());
+    assertEquals(2, tx.rollbacks.get());
+  }
+
+  @Test
+  public void testRetriesAreBounded() throws Exception {
+    start("WRITE_BEHIND");
+    TestChanges changes = new TestChanges(Integer.MAX_VALUE);
+    changes.retried = new CountDownLatch(SessionDataReplicator.MAX_RETRIES + 1);
+    replicator.replicate(changes);
+    assertTrue(changes.retried.await(SessionDataReplicator.RETRY_DELAY * (SessionDataReplicator.MAX_RETRIES + 2),
+        TimeUnit.MILLISECONDS));
+    Thread.sleep(SessionDataReplicator.RETRY_DELAY * 2);
+    assertEquals(SessionDataReplicator.MAX_RETRIES + 1, changes.writes.get());
+    assertEquals(1, changes.written.getCount());
+  }
+
+  @Test
+  public void testChangesInOuterTransactionAreWrittenOnCommit() throws Exception {
+    start("BATCHED");
+    tx.manager.begin();
+    TestChanges changes = new TestChanges(0);
+    replicator.replicate(changes);
+    assertEquals(1, changes.writes.get());
+    assertEquals("Written before the transaction committed", 1, changes.written.getCount());
+    tx.manager.commit();
+    assertEquals(0, changes.written.getCount());
+    assertEquals(1, tx.begins.get());
+  }
+
+  @Test
+  public void testChangesInOuterTransactionRolledBackAreRetried() throws Exception {
+    start("BATCHED");
+    tx.manager.begin();
+    TestChanges changes = new TestChanges(0);
+    replicator.replicate(changes);
+    tx.manager.rollback();
+    assertEquals(1, changes.written.getCount());
+    assertTrue(changes.written.await(SessionDataReplicator.RETRY_DELAY * 4, TimeUnit.MILLISECONDS));
+    assertEquals(2, changes.writes.get());
+  }
+
+  private static final class TestChanges implements SessionDataReplicator.Changes {
+
+    private final AtomicInteger failures;
+    private final AtomicInteger writes = new AtomicInteger();
+    private final CountDownLatch written = new CountDownLatch(1);
+    private volatile CountDownLatch retried = new CountDownLatch(0);
+    private volatile Thread writer;
+    private List<Integer> order;
+    private int id;
+
+    TestChanges(int failures) {
+      this.failures = new AtomicInteger(failures);
+    }
+
+    @Override
+    public void write() {
+      writer = Thread.currentThread();
+      writes.incrementAndGet();
+      retried.countDown();
+      if (failures.getAndDecrement() > 0) {
+        throw new IllegalStateException("Cache unavailable");
+      }
+      if (order != null) {
+        order.add(id);
+      }
+    }
+
+    @Override
+    public void written() {
+      written.countDown();
+    }
+  }
+
+  /**
+   * Transaction manager running the synchronizations registered with a transaction once it completes.
+   */
+  private static final class TestTransactionManager {
+
+    private final ThreadLocal<List<Synchronization>> current = new ThreadLocal<List<Synchronization>>();
+    private final AtomicInteger begins = new AtomicInteger();
+    private final AtomicInteger commits = new AtomicInteger();
+    private final AtomicInteger rollbacks = new AtomicInteger();
+
+    private final TransactionManager manager = (TransactionManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] {TransactionManager.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("begin")) {
+              begins.incrementAndGet();
+              current.set(new ArrayList<Synchronization>());
+            }
+            else if (name.equals("commit")) {
+              commits.incrementAndGet();
+              complete(Status.STATUS_COMMITTED);
+            }
+            else if (name.equals("rollback")) {
+              rollbacks.incrementAndGet();
+              complete(Status.STATUS_ROLLEDBACK);
+            }
+            else if (name.equals("getTransaction")) {
+              return current.get() == null ? null : transaction(current.get());
+            }
+            return null;
+          }
+        });
+
+    private void complete(int status) {
+      List<Synchronization> synchronizations = current.get();
+      current.remove();
+      for (Synchronization synchronization : synchronizations) {
+        synchronization.afterCompletion(status);
+      }
+    }
+
+    private Transaction transaction(final List<Synchronization> synchronizations) {
+      return (Transaction) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Transaction.class},
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              if (method.getName().equals("registerSynchronization")) {
+                synchronizations.add((Synchronization) args[0]);
+              }
+              return null;
+            }
+          });
+    }
+  }
+}
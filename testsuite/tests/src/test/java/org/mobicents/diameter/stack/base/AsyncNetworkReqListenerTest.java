@@ -0,0 +1,240 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.diameter.stack.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.AsyncNetworkReqListener;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.DisconnectCause;
+import org.jdiameter.api.EventListener;
+import org.jdiameter.api.Mode;
+import org.jdiameter.api.Network;
+import org.jdiameter.api.NetworkReqListener;
+import org.jdiameter.api.PendingAnswer;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.Session;
+import org.jdiameter.api.Stack;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.server.impl.StackImpl;
+import org.jdiameter.server.impl.helpers.XMLConfiguration;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests network requests handed to asynchronous listeners.
+ */
+public class AsyncNetworkReqListenerTest {
+
+  private static final ApplicationId APPLICATION = ApplicationId.createByAccAppId(0, 300);
+  private static final String SERVER_REALM = "server.mobicents.org";
+
+  // what the listener does, carried in Accounting-Record-Number
+  private static final int COMPLETE = 1;
+  private static final int FAIL = 2;
+  private static final int THROW = 3;
+  private static final int BLOCK = 4;
+
+  private static Stack server;
+  private static Stack client;
+  private static final AtomicInteger processed = new AtomicInteger();
+  private static volatile CountDownLatch blocked;
+  private static volatile CountDownLatch release;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    server = new StackImpl();
+    server.init(new XMLConfiguration(AsyncNetworkReqListenerTest.class.getResourceAsStream("/configurations/async/config-server.xml")));
+    server.unwrap(Network.class).addNetworkReqListener(new AsyncNetworkReqListener() {
+      @Override
+      public Answer processRequest(Request request) {
+        return null;
+      }
+
+      @Override
+      public void processRequest(Request request, PendingAnswer answer) {
+        processed.incrementAndGet();
+        int action;
+        try {
+          action = (int) request.getAvps().getAvp(Avp.ACC_RECORD_NUMBER).getUnsigned32();
+        }
+        catch (Exception e) {
+          answer.fail(e);
+          return;
+        }
+        switch (action) {
+          case FAIL:
+            answer.fail(new IllegalStateException("failed"));
+            break;
+          case THROW:
+            throw new IllegalStateException("thrown");
+          case BLOCK:
+            blocked.countDown();
+            try {
+              release.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            answer.complete(request.createAnswer(ResultCode.SUCCESS));
+            break;
+          default:
+            answer.complete(request.createAnswer(ResultCode.SUCCESS));
+            // only the first completion is sent
+            answer.complete(request.createAnswer(ResultCode.UNABLE_TO_COMPLY));
+            break;
+        }
+      }
+    }, APPLICATION);
+    server.start();
+
+    client = new StackImpl();
+    client.init(new XMLConfiguration(AsyncNetworkReqListenerTest.class.getResourceAsStream("/configurations/async/config-client.xml")));
+    client.unwrap(Network.class).addNetworkReqListener(new NetworkReqListener() {
+      @Override
+      public Answer processRequest(Request request) {
+        return null;
+      }
+    }, APPLICATION);
+    client.start(Mode.ALL_PEERS, 10, TimeUnit.SECONDS);
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    if (client != null) {
+      client.stop(10, TimeUnit.SECONDS, DisconnectCause.REBOOTING);
+      client.destroy();
+    }
+    if (server != null) {
+      server.stop(10, TimeUnit.SECONDS, DisconnectCause.REBOOTING);
+      server.destroy();
+    }
+  }
+
+  private static Request createRequest(int action) throws Exception {
+    Session session = client.getSessionFactory().getNewSession();
+    Request request = session.createRequest(271, APPLICATION, SERVER_REALM);
+    request.getAvps().addAvp(Avp.ACC_RECORD_TYPE, 3, true);
+    request.getAvps().addAvp(Avp.ACC_RECORD_NUMBER, action, true, false, true);
+    return request;
+  }
+
+  /**
+   * Sends the request, the returned outcome is done once the request is answered or timed out.
+   */
+  private static Outcome send(Request request, long timeout) throws Exception {
+    Outcome outcome = new Outcome();
+    client.getSessionFactory().getNewSession().send(request, outcome, timeout, TimeUnit.MILLISECONDS);
+    return outcome;
+  }
+
+  private static long resultCode(Outcome outcome) throws Exception {
+    assertTrue("No answer", outcome.done.await(10, TimeUnit.SECONDS));
+    assertNotNull("Request timed out", outcome.answer);
+    return outcome.answer.getResultCode().getUnsigned32();
+  }
+
+  @Test
+  public void testCompletedAnswerIsSent() throws Exception {
+    assertEquals(ResultCode.SUCCESS, resultCode(send(createRequest(COMPLETE), 5000)));
+  }
+
+  @Test
+  public void testFailureIsAnswered() throws Exception {
+    assertEquals(ResultCode.UNABLE_TO_COMPLY, resultCode(send(createRequest(FAIL), 5000)));
+  }
+
+  @Test
+  public void testErrorAnswerIsStored() throws Exception {
+    Request request = createRequest(FAIL);
+    assertEquals(ResultCode.UNABLE_TO_COMPLY, resultCode(send(request, 5000)));
+    int count = processed.get();
+    // the error answer sent by the peer is kept for duplicate protection as well
+    Request retransmission = createRequest(FAIL);
+    ((IMessage) retransmission).setEndToEndIdentifier(request.getEndToEndIdentifier());
+    retransmission.setReTransmitted(true);
+    assertEquals(ResultCode.UNABLE_TO_COMPLY, resultCode(send(retransmission, 5000)));
+    assertEquals(count, processed.get());
+  }
+
+  @Test
+  public void testListenerExceptionIsAnswered() throws Exception {
+    assertEquals(ResultCode.UNABLE_TO_COMPLY, resultCode(send(createRequest(THROW), 5000)));
+  }
+
+  @Test
+  public void testRetransmissionsOfRequestBeingProcessed() throws Exception {
+    blocked = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    Request request = createRequest(BLOCK);
+    long endToEnd = request.getEndToEndIdentifier();
+    Outcome first = send(request, 5000);
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    int count = processed.get();
+
+    // retransmission while the listener works on the request is dropped
+    Outcome retransmitted = send(retransmission(endToEnd), 1000);
+    assertTrue(retransmitted.done.await(5, TimeUnit.SECONDS));
+    assertNull("Retransmission was answered", retransmitted.answer);
+    assertEquals(count, processed.get());
+
+    release.countDown();
+    assertEquals(ResultCode.SUCCESS, resultCode(first));
+
+    // once answered, retransmissions get the stored answer
+    assertEquals(ResultCode.SUCCESS, resultCode(send(retransmission(endToEnd), 5000)));
+    assertEquals(count, processed.get());
+  }
+
+  private static Request retransmission(long endToEnd) throws Exception {
+    Request request = createRequest(BLOCK);
+    ((IMessage) request).setEndToEndIdentifier(endToEnd);
+    request.setReTransmitted(true);
+    return request;
+  }
+
+  private static final class Outcome implements EventListener<Request, Answer> {
+
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile Answer answer;
+
+    @Override
+    public void receivedSuccessMessage(Request request, Answer answer) {
+      this.answer = answer;
+      done.countDown();
+    }
+
+    @Override
+    public void timeoutExpired(Request request) {
+      done.countDown();
+    }
+  }
+}
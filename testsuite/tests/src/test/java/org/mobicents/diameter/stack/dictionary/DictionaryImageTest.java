@@ -0,0 +1,126 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.diameter.stack.dictionary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.Message;
+import org.jdiameter.api.validation.AvpNotAllowedException;
+import org.jdiameter.api.validation.AvpRepresentation;
+import org.jdiameter.api.validation.MessageRepresentation;
+import org.jdiameter.api.validation.ValidatorLevel;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.common.impl.validation.DictionaryImage;
+import org.jdiameter.common.impl.validation.DictionaryImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests loading the dictionary from its precompiled image.
+ */
+public class DictionaryImageTest {
+
+  private DictionaryImpl instance = null;
+
+  @Before
+  public void setUp() {
+    this.instance = (DictionaryImpl) DictionaryImpl.INSTANCE;
+  }
+
+  @After
+  public void tearDown() {
+    // back to the XML definitions
+    this.instance.configure(DictionaryImageTest.class.getClassLoader().getResourceAsStream("dictionary.xml"));
+    this.instance = null;
+  }
+
+  @Test
+  public void testImageMatchesDefinitions() throws IOException {
+    Map<AvpRepresentation, String> avps = new HashMap<AvpRepresentation, String>();
+    for (AvpRepresentation avp : instance.getAvpMap().values()) {
+      avps.put(avp, avp.toString());
+    }
+    Map<MessageRepresentation, String> commands = new HashMap<MessageRepresentation, String>();
+    for (MessageRepresentation command : instance.getCommandMap().values()) {
+      commands.put(command, command.getMessageAvps().values().toString());
+    }
+    Map<String, String> names = new HashMap<String, String>();
+    for (Map.Entry<String, AvpRepresentation> avp : instance.getNameToCodeMap().entrySet()) {
+      names.put(avp.getKey(), avp.getValue().toString());
+    }
+    Map<String, String> vendors = new HashMap<String, String>(instance.getVendorMap());
+
+    ByteArrayOutputStream image = new ByteArrayOutputStream();
+    DictionaryImage.write(instance, image);
+    instance.configure(new ByteArrayInputStream(image.toByteArray()));
+
+    assertTrue("Dictionary should be configured from its image.", instance.isConfigured());
+    assertEquals(vendors, instance.getVendorMap());
+    assertEquals(avps.size(), instance.getAvpMap().size());
+    for (AvpRepresentation avp : instance.getAvpMap().values()) {
+      assertEquals(avps.get(avp), avp.toString());
+      assertEquals(avp, instance.getAvp(avp.getCode(), avp.getVendorId()));
+    }
+    assertEquals(names.size(), instance.getNameToCodeMap().size());
+    for (Map.Entry<String, AvpRepresentation> avp : instance.getNameToCodeMap().entrySet()) {
+      assertEquals(names.get(avp.getKey()), avp.getValue().toString());
+    }
+    assertEquals(commands.size(), instance.getCommandMap().size());
+    for (MessageRepresentation command : instance.getCommandMap().values()) {
+      assertEquals(commands.get(command), command.getMessageAvps().values().toString());
+    }
+  }
+
+  @Test
+  public void testValidationFromImage() throws IOException {
+    ByteArrayOutputStream image = new ByteArrayOutputStream();
+    DictionaryImage.write(instance, image);
+    instance.configure(new ByteArrayInputStream(image.toByteArray()));
+
+    instance.setEnabled(true);
+    instance.setSendLevel(ValidatorLevel.ALL);
+
+    MessageRepresentation rep = instance.getMessage(272, 4, false);
+    assertNotNull("Credit-Control-Answer should be defined.", rep);
+
+    // <avp name="Session-Id" code="263" vendor="0" multiplicity="1" index="0" />
+    Message msg = new MessageParser().createEmptyMessage(272, 4);
+    msg.getAvps().addAvp(Avp.SESSION_ID, "asdqw64ds", false);
+    try {
+      instance.validate(msg, false);
+      fail("Validation of message should fail: " + msg);
+    }
+    catch (AvpNotAllowedException ex) {
+      // we are ok, mandatory AVPs are missing
+    }
+  }
+
+}
@@ -198,6 +198,62 @@ public class MessageValidatorTest {
 
   }
 
+  @Test
+  public void testRepeatedAvpValidationFail() {
+
+    // Set defaults
+    instance.setEnabled(true);
+    instance.setReceiveLevel(ValidatorLevel.MESSAGE);
+    instance.setSendLevel(ValidatorLevel.ALL);
+
+    Message msg = createMessage();
+    fillTopLevelAvps(msg);
+    addTopLevelGroupedAvp(msg);
+    fillTopLevelGroupedAvp(msg);
+
+    try {
+      instance.validate(msg, false);
+    }
+    catch (AvpNotAllowedException ex) {
+      logger.info("[x] Validation failed with: ", ex);
+      fail("Validation of message should not fail: " + msg);
+    }
+
+    // <avp name="Origin-Host" code="264" vendor="0" multiplicity="1" index="-1" />
+    msg.getAvps().addAvp(Avp.ORIGIN_HOST, "124121236", false);
+    try {
+      instance.validate(msg, false);
+      fail("Validation of message should fail: " + msg);
+    }
+    catch (AvpNotAllowedException ex) {
+      logger.info("[*] Validation failed properly with: " + ex.getMessage());
+    }
+    msg.getAvps().removeAvpByIndex(msg.getAvps().size() - 1);
+
+    // <gavp name="CC-Input-Octets" multiplicity="0-1"/>, inside Granted-Service-Unit
+    try {
+      msg.getAvps().getAvp(Avp.GRANTED_SERVICE_UNIT).getGrouped().addAvp(Avp.CC_INPUT_OCTETS, 16);
+    }
+    catch (AvpDataException e) {
+      throw new RuntimeException(e);
+    }
+    try {
+      // contents of grouped AVPs are not checked at MESSAGE level
+      instance.validate(msg, true);
+    }
+    catch (AvpNotAllowedException ex) {
+      logger.info("[x] Validation failed with: ", ex);
+      fail("Validation of message should not fail: " + msg);
+    }
+    try {
+      instance.validate(msg, false);
+      fail("Validation of message should fail: " + msg);
+    }
+    catch (AvpNotAllowedException ex) {
+      logger.info("[*] Validation failed properly with: " + ex.getMessage());
+    }
+  }
+
   @Test
   public void testIncomingValidationLevels() {
 
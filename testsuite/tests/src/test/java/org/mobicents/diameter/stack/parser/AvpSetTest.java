@@ -1,7 +1,10 @@
 package org.mobicents.diameter.stack.parser;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 
 import org.jdiameter.api.Avp;
 import org.jdiameter.api.AvpDataException;
@@ -81,5 +84,67 @@ public class AvpSetTest {
     Assert.assertNotNull(avpVendor0.getAvp(123, 0));
   }
 
+  @Test
+  public void lookupInLargeSetTest() throws IOException, AvpDataException {
+    AvpSet set = elementParser.decodeAvpSet(new byte[0], 1);
+    for (int i = 0; i < 40; i++) {
+      set.addAvp(_CODE + i % 7, i, i % 2 == 0 ? 0 : _VENDOR, true, false);
+    }
+    assertLookups(set);
+    // set grows past the room left for appends
+    for (int i = 40; i < 100; i++) {
+      set.addAvp(_CODE + i % 7, i, i % 3 == 0 ? 0 : _VENDOR, true, false);
+      assertLookups(set);
+    }
+    set.insertAvp(3, _CODE + 100, 100, true, false, false);
+    set.removeAvp(_CODE + 1, _VENDOR);
+    assertLookups(set);
+    Iterator<Avp> it = set.iterator();
+    while (it.hasNext()) {
+      if (it.next().getCode() == _CODE + 2) {
+        it.remove();
+      }
+    }
+    assertLookups(set);
+    Assert.assertNull(set.getAvp(_CODE + 2));
+    Assert.assertEquals(_CODE + 100, set.getAvpByIndex(set.getAvpIndex(_CODE + 100)).getCode());
+  }
+
+  private void assertLookups(AvpSet set) throws AvpDataException {
+    for (int code = _CODE; code < _CODE + 8; code++) {
+      for (long vendor : new long[] {0, _VENDOR}) {
+        List<Integer> values = new ArrayList<Integer>();
+        List<Integer> vendorValues = new ArrayList<Integer>();
+        int index = -1;
+        int vendorIndex = -1;
+        for (int i = 0; i < set.size(); i++) {
+          Avp avp = set.getAvpByIndex(i);
+          if (avp.getCode() == code) {
+            index = index < 0 ? i : index;
+            values.add(avp.getInteger32());
+            if (avp.getVendorId() == vendor) {
+              vendorIndex = vendorIndex < 0 ? i : vendorIndex;
+              vendorValues.add(avp.getInteger32());
+            }
+          }
+        }
+        Assert.assertEquals("Wrong avp index", index, set.getAvpIndex(code));
+        Assert.assertEquals("Wrong avp index", vendorIndex, set.getAvpIndex(code, vendor));
+        Assert.assertEquals("Wrong avp", index < 0 ? null : set.getAvpByIndex(index), set.getAvp(code));
+        Assert.assertEquals("Wrong avp", vendorIndex < 0 ? null : set.getAvpByIndex(vendorIndex), set.getAvp(code, vendor));
+        Assert.assertEquals("Wrong avps", values, values(set.getAvps(code)));
+        Assert.assertEquals("Wrong avps", vendorValues, values(set.getAvps(code, vendor)));
+      }
+    }
+  }
+
+  private List<Integer> values(AvpSet set) throws AvpDataException {
+    List<Integer> values = new ArrayList<Integer>();
+    for (Avp avp : set) {
+      values.add(avp.getInteger32());
+    }
+    return values;
+  }
+
 
 }
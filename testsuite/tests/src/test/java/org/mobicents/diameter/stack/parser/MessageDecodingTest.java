@@ -0,0 +1,204 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, Telestax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.diameter.stack.parser;
+
+import static org.jdiameter.client.impl.helpers.Parameters.LazyDecoding;
+import static org.jdiameter.client.impl.helpers.Parameters.ZeroCopyDecoding;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.helpers.EmptyConfiguration;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that messages decoded with the different parser modes are equivalent.
+ */
+public class MessageDecodingTest {
+
+  private static final int _CODE = 600;
+  private static final long _VENDOR = 10415;
+
+  private MessageParser parser = new MessageParser();
+  private byte[] encoded;
+
+  @Before
+  public void encodeMessage() throws Exception {
+    IMessage message = parser.createEmptyMessage(272, 4);
+    message.setRequest(true);
+    AvpSet avps = message.getAvps();
+    avps.addAvp(Avp.SESSION_ID, "zero.copy.test;1;2", false);
+    avps.addAvp(Avp.ORIGIN_HOST, "client.mobicents.org", true);
+    avps.addAvp(Avp.ORIGIN_REALM, "mobicents.org", true);
+    avps.addAvp(Avp.DESTINATION_REALM, "server.mobicents.org", true);
+    avps.addAvp(Avp.AUTH_APPLICATION_ID, 4L, true, false, true);
+    avps.addAvp(_CODE, 7, _VENDOR, true, false);
+    avps.addAvp(_CODE + 1, InetAddress.getByName("127.0.0.1"));
+    AvpSet grouped = avps.addGroupedAvp(Avp.SUBSCRIPTION_ID, true, false);
+    grouped.addAvp(Avp.SUBSCRIPTION_ID_TYPE, 1, true, false);
+    grouped.addAvp(Avp.SUBSCRIPTION_ID_DATA, "4800123", false);
+
+    ByteBuffer buffer = parser.encodeMessage(message);
+    encoded = Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit());
+  }
+
+  @Test
+  public void testZeroCopyDecoding() throws Exception {
+    MessageParser zeroCopyParser = new MessageParser(EmptyConfiguration.getInstance().add(ZeroCopyDecoding, true));
+    IMessage message = zeroCopyParser.createMessage(encoded.clone());
+    assertContent(message);
+    // re-encoding must produce exactly the same bytes
+    ByteBuffer buffer = zeroCopyParser.encodeMessage(message);
+    Assert.assertArrayEquals(encoded, Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit()));
+  }
+
+  @Test
+  public void testRawAccessDetachesFromBuffer() throws Exception {
+    MessageParser zeroCopyParser = new MessageParser(EmptyConfiguration.getInstance().add(ZeroCopyDecoding, true));
+    byte[] data = encoded.clone();
+    IMessage message = zeroCopyParser.createMessage(data);
+    byte[] raw = message.getAvps().getAvp(Avp.ORIGIN_HOST).getRaw();
+    Assert.assertEquals("client.mobicents.org", new String(raw, "iso-8859-1"));
+    // changing the returned payload must not affect the message buffer
+    Arrays.fill(raw, (byte) 'x');
+    Assert.assertEquals("mobicents.org", message.getAvps().getAvp(Avp.ORIGIN_REALM).getDiameterIdentity());
+    Assert.assertArrayEquals(encoded, data);
+  }
+
+  @Test
+  public void testLazyDecoding() throws Exception {
+    MessageParser lazyParser = new MessageParser(EmptyConfiguration.getInstance().add(LazyDecoding, true));
+    IMessage message = lazyParser.createMessage(encoded.clone());
+    // routing AVPs are available right away, in the order they were received
+    Assert.assertEquals("mobicents.org", message.getAvps().getAvp(Avp.ORIGIN_REALM).getDiameterIdentity());
+    Avp destinationRealm = message.getAvps().getAvp(Avp.DESTINATION_REALM);
+    // AVPs added before the rest is decoded must stay last
+    message.getAvps().addAvp(Avp.ROUTE_RECORD, "relay.mobicents.org", true);
+    assertContent(message, 9);
+    Assert.assertSame(destinationRealm, message.getAvps().getAvp(Avp.DESTINATION_REALM));
+    Assert.assertEquals(Avp.ROUTE_RECORD, message.getAvps().getAvpByIndex(8).getCode());
+
+    message = lazyParser.createMessage(encoded.clone());
+    ByteBuffer buffer = lazyParser.encodeMessage(message);
+    Assert.assertArrayEquals(encoded, Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit()));
+  }
+
+  @Test
+  public void testConcurrentLazyDecoding() throws Exception {
+    MessageParser lazyParser = new MessageParser(EmptyConfiguration.getInstance().add(LazyDecoding, true));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for (int i = 0; i < 2000; i++) {
+        final IMessage message = lazyParser.createMessage(encoded.clone());
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        // both readers look up AVPs which are not indexed, each may be the one decoding them
+        Future<Avp> vendorAvp = executor.submit(new Callable<Avp>() {
+          @Override
+          public Avp call() throws Exception {
+            barrier.await();
+            return message.getAvps().getAvp(_CODE, _VENDOR);
+          }
+        });
+        Future<Integer> size = executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            barrier.await();
+            return message.getAvps().getAvp(Avp.SUBSCRIPTION_ID) != null ? message.getAvps().size() : -1;
+          }
+        });
+        Assert.assertNotNull(vendorAvp.get());
+        Assert.assertEquals(8, size.get().intValue());
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testDecodingFromDirectBuffer() throws Exception {
+    MessageParser zeroCopyParser = new MessageParser(EmptyConfiguration.getInstance().add(ZeroCopyDecoding, true));
+    for (MessageParser messageParser : new MessageParser[] {parser, zeroCopyParser}) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.length + 8);
+      buffer.position(3);
+      buffer.put(encoded);
+      IMessage message = messageParser.createMessage(buffer, 3, encoded.length);
+      Assert.assertEquals(3 + encoded.length, buffer.position());
+      // buffer may be reused right away
+      buffer.clear();
+      buffer.put(new byte[buffer.capacity()]);
+      assertContent(message);
+    }
+  }
+
+  @Test
+  public void testEncodingIntoBuffer() throws Exception {
+    IMessage message = parser.createMessage(encoded.clone());
+    Assert.assertEquals(encoded.length, parser.getMessageLength(message));
+    ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 8);
+    buffer.position(4);
+    parser.encodeMessage(message, buffer);
+    Assert.assertEquals(encoded.length + 4, buffer.position());
+    Assert.assertArrayEquals(encoded, Arrays.copyOfRange(buffer.array(), 4, buffer.position()));
+
+    // changes to grouped AVPs of lazily decoded messages must be encoded
+    MessageParser lazyParser = new MessageParser(EmptyConfiguration.getInstance().add(LazyDecoding, true));
+    message = lazyParser.createMessage(encoded.clone());
+    message.getAvps().getAvp(Avp.SUBSCRIPTION_ID).getGrouped().addAvp(Avp.SUBSCRIPTION_ID_DATA, "4800124", false);
+    buffer = lazyParser.encodeMessage(message);
+    Assert.assertEquals(lazyParser.getMessageLength(message), buffer.remaining());
+    message = parser.createMessage(buffer);
+    Assert.assertEquals(2, message.getAvps().getAvp(Avp.SUBSCRIPTION_ID).getGrouped().getAvps(Avp.SUBSCRIPTION_ID_DATA).size());
+  }
+
+  private void assertContent(IMessage message) throws Exception {
+    assertContent(message, 8);
+  }
+
+  private void assertContent(IMessage message, int size) throws Exception {
+    AvpSet avps = message.getAvps();
+    Assert.assertEquals(272, message.getCommandCode());
+    Assert.assertEquals(4, message.getApplicationId());
+    Assert.assertTrue(message.isRequest());
+    Assert.assertEquals(size, avps.size());
+    Assert.assertEquals("zero.copy.test;1;2", message.getSessionId());
+    Assert.assertEquals("client.mobicents.org", avps.getAvp(Avp.ORIGIN_HOST).getDiameterIdentity());
+    Assert.assertEquals(4L, avps.getAvp(Avp.AUTH_APPLICATION_ID).getUnsigned32());
+    Assert.assertEquals(Avp.SESSION_ID, avps.getAvpByIndex(0).getCode());
+    Assert.assertEquals(_CODE, avps.getAvpByIndex(5).getCode());
+    Assert.assertEquals(7, avps.getAvp(_CODE, _VENDOR).getInteger32());
+    Assert.assertEquals(InetAddress.getByName("127.0.0.1"), avps.getAvp(_CODE + 1).getAddress());
+    AvpSet grouped = avps.getAvp(Avp.SUBSCRIPTION_ID).getGrouped();
+    Assert.assertEquals(1, grouped.getAvp(Avp.SUBSCRIPTION_ID_TYPE).getInteger32());
+    Assert.assertEquals("4800123", grouped.getAvp(Avp.SUBSCRIPTION_ID_DATA).getUTF8String());
+  }
+}